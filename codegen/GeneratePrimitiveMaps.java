@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Expands PrimitiveFlatMap.java.template into one class per key/value type pair, so every
+ * primitive specialization stays in sync.  Run from the project root with
+ *
+ *     java codegen/GeneratePrimitiveMaps.java
+ *
+ * and commit the regenerated files under src/elliott/back/maps/primitive.
+ */
+public class GeneratePrimitiveMaps {
+
+    private static final Path TEMPLATE = Paths.get("codegen", "PrimitiveFlatMap.java.template");
+    private static final Path OUTPUT = Paths.get("src", "elliott", "back", "maps", "primitive");
+
+    /**
+     * The three kinds of slot we know how to store
+     */
+    private enum Kind {
+        INT("Int", "int", "int", "0", "int"),
+        LONG("Long", "long", "long", "0", "long"),
+        OBJECT("Object", null, "Object", "null", "object");
+
+        final String prefix;
+        final String primitive;
+        final String arrayType;
+        final String empty;
+        final String description;
+
+        Kind(String prefix, String primitive, String arrayType, String empty, String description) {
+            this.prefix = prefix;
+            this.primitive = primitive;
+            this.arrayType = arrayType;
+            this.empty = empty;
+            this.description = description;
+        }
+
+        boolean isObject() {
+            return this == OBJECT;
+        }
+
+        /**
+         * The declared type, using the given type variable for objects
+         */
+        String type(String typeVariable) {
+            return isObject() ? typeVariable : primitive;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String template = new String(Files.readAllBytes(TEMPLATE), StandardCharsets.UTF_8);
+        Files.createDirectories(OUTPUT);
+
+        for (Kind key : Kind.values())
+            for (Kind value : Kind.values()) {
+                // object to object is what the generic maps are for
+                if (key.isObject() && value.isObject())
+                    continue;
+
+                String className = key.prefix + value.prefix + "FlatMap";
+                String source = expand(template, tokens(className, key, value));
+
+                Files.write(OUTPUT.resolve(className + ".java"), source.getBytes(StandardCharsets.UTF_8));
+                System.out.println("wrote " + className);
+            }
+    }
+
+    private static Map<String, String> tokens(String className, Kind key, Kind value) {
+        Map<String, String> tokens = new LinkedHashMap<>();
+
+        String typeParams = key.isObject() ? "<K>" : value.isObject() ? "<V>" : "";
+
+        tokens.put("IMPORTS", "import java.util.Arrays;\n" + (value.isObject() ? "import java.util.Objects;\n" : ""));
+        tokens.put("CLASS", className);
+        tokens.put("TYPE_PARAMS", typeParams);
+
+        tokens.put("KEY_DESC", key.description);
+        tokens.put("KEY", key.type("K"));
+        tokens.put("KEY_ARRAY", key.arrayType);
+        tokens.put("KEY_EMPTY", key.empty);
+        tokens.put("KEY_EQUALS", key.isObject() ? "this.hashing.equals(candidate, key)" : "candidate == key");
+        tokens.put("KEY_HASH", key == Kind.INT ? "key"
+                : key == Kind.LONG ? "Long.hashCode(key)"
+                : "this.hashing.computeHashCode(key)");
+        tokens.put("KEY_HASH_DESC", key.isObject() ? "the HashingStrategy's hash codes are" : "keys are");
+
+        // object keys go through a HashingStrategy, like the generic maps
+        tokens.put("HASHING_FIELD", key.isObject() ? "    private final HashingStrategy<? super K> hashing;\n" : "");
+        tokens.put("SIZE_CONSTRUCTOR", key.isObject()
+                ? "    public " + className + "(int initialSize) {\n"
+                + "        this(initialSize, HashingStrategy.objects());\n"
+                + "    }\n\n"
+                : "");
+        tokens.put("HASHING_PARAM", key.isObject() ? ", HashingStrategy<? super K> hashing" : "");
+        tokens.put("HASHING_ASSIGN", key.isObject() ? "        this.hashing = hashing;\n" : "");
+        tokens.put("SLOT_READERS", slotReader("keyAt", key) + "\n" + slotReader("valueAt", value));
+
+        tokens.put("VALUE_DESC", value.description);
+        tokens.put("VALUE", value.type("V"));
+        tokens.put("VALUE_ARRAY", value.arrayType);
+        tokens.put("VALUE_NO_ENTRY", value.empty);
+        tokens.put("VALUE_EQUALS_SENTINEL", value.isObject() ? "Objects.equals(this.sentinelKeyValue, value)" : "this.sentinelKeyValue == value");
+        tokens.put("VALUE_EQUALS_SLOT", value.isObject() ? "Objects.equals(this.vals[idx], value)" : "this.vals[idx] == value");
+
+        return tokens;
+    }
+
+    /**
+     * A static read of one slot.  Only the Object[] side needs it, to cast to the type variable in one place,
+     * the primitive ones just keep the template the same for every kind.
+     */
+    private static String slotReader(String name, Kind kind) {
+        if (kind.isObject())
+            return "    @SuppressWarnings(\"unchecked\")\n"
+                    + "    private static <T> T " + name + "(Object [] table, int pos) {\n"
+                    + "        return (T) table[pos];\n"
+                    + "    }\n";
+
+        return "    private static " + kind.primitive + " " + name + "(" + kind.arrayType + " [] table, int pos) {\n"
+                + "        return table[pos];\n"
+                + "    }\n";
+    }
+
+    private static String expand(String template, Map<String, String> tokens) {
+        String result = template;
+
+        for (Map.Entry<String, String> token : tokens.entrySet())
+            result = result.replace("${" + token.getKey() + "}", token.getValue());
+
+        if (result.contains("${"))
+            throw new IllegalStateException("Unexpanded token left in template: "
+                    + result.substring(result.indexOf("${"), result.indexOf('}', result.indexOf("${")) + 1));
+
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package elliott.back.cache;
+
+/**
+ * A doubly linked list of nodes from least to most recently used, keeping the total weight of what's in it
+ */
+final class AccessOrderQueue<K,V> {
+
+    private Node<K,V> head;
+    private Node<K,V> tail;
+    private long weight;
+
+    Node<K,V> first() {
+        return head;
+    }
+
+    long weight() {
+        return weight;
+    }
+
+    boolean isEmpty() {
+        return head == null;
+    }
+
+    void add(Node<K,V> node) {
+        node.prev = tail;
+        node.next = null;
+
+        if( tail == null )
+            head = node;
+        else
+            tail.next = node;
+
+        tail = node;
+        weight += node.weight;
+    }
+
+    void remove(Node<K,V> node) {
+        if( node.prev == null )
+            head = node.next;
+        else
+            node.prev.next = node.next;
+
+        if( node.next == null )
+            tail = node.prev;
+        else
+            node.next.prev = node.prev;
+
+        node.prev = null;
+        node.next = null;
+        weight -= node.weight;
+    }
+
+    void moveToTail(Node<K,V> node) {
+        if( node != tail ) {
+            remove(node);
+            add(node);
+        }
+    }
+
+    /**
+     * The node's weight changed from oldWeight while it sat in this queue
+     */
+    void reweigh(Node<K,V> node, int oldWeight) {
+        weight += node.weight - oldWeight;
+    }
+
+    void clear() {
+        head = null;
+        tail = null;
+        weight = 0;
+    }
+}
@@ -0,0 +1,78 @@
+package elliott.back.cache;
+
+/**
+ * A point in time snapshot of a FlatCache's size and the counters it has kept since it was made
+ */
+public final class CacheStatistics {
+
+    private final int size;
+    private final long weightedSize;
+    private final long maximum;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long evictedWeight;
+
+    CacheStatistics(int size, long weightedSize, long maximum, long hits, long misses, long evictions, long evictedWeight) {
+        this.size = size;
+        this.weightedSize = weightedSize;
+        this.maximum = maximum;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.evictedWeight = evictedWeight;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Same as the size unless the cache has a weigher
+     */
+    public long getWeightedSize() {
+        return weightedSize;
+    }
+
+    public long getMaximum() {
+        return maximum;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Hits over all lookups, 0 before there have been any
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getEvictedWeight() {
+        return evictedWeight;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{" +
+                "size=" + size +
+                ", weightedSize=" + weightedSize +
+                ", maximum=" + maximum +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", hitRate=" + getHitRate() +
+                ", evictions=" + evictions +
+                ", evictedWeight=" + evictedWeight +
+                '}';
+    }
+}
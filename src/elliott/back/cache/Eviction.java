@@ -0,0 +1,19 @@
+package elliott.back.cache;
+
+/**
+ * Which entry a FlatCache throws out when it's over its maximum
+ */
+public enum Eviction {
+
+    /**
+     * The least recently used.  Cheap, but a single scan over more keys than fit flushes everything.
+     */
+    LRU,
+
+    /**
+     * Window TinyLFU: new entries land in a small LRU window, and on the way out of it only get into the main
+     * segmented LRU if they've been asked for more often than the entry they'd push out.  How often is tracked
+     * by a count-min sketch that halves itself now and then, so old popularity fades.
+     */
+    W_TINY_LFU
+}
@@ -0,0 +1,477 @@
+package elliott.back.cache;
+
+import elliott.back.common.HashingStrategy;
+import elliott.back.stats.MapCounters;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+/***
+ * A bounded cache on a flat, linear probed table laid out like SimpleCircularFlatMap's, which throws entries out
+ * once they weigh more in total than a maximum, see Eviction for which ones.
+ *
+ * Every entry is a node that sits in the table and in the eviction policy's access order queues at once, so
+ * evicting is unlinking from the front of a queue and emptying a slot: O(1), or amortized O(1) for W-TinyLFU
+ * which sometimes turns away a newcomer first.  Removes shift the rest of the probe run back rather than leave
+ * tombstones, so a cache with a lot of turnover doesn't silt up.
+ *
+ * In concurrent mode writes take a StampedLock, and reads try an optimistic read of the table first, only
+ * falling back to the read lock if a write got in the way.  A read still has to tell the policy about the hit,
+ * which needs the write lock, so instead it drops the node in a ReadBuffer, one of a few picked by thread, and
+ * carries on.  When a buffer fills, whoever filled it replays every buffer into the policy in one go, if the
+ * lock is free; writes replay them too before they evict.  So readers never queue up behind the policy, at the
+ * cost of the policy seeing reads a little late, and under heavy load missing some.
+ *
+ * Without concurrent mode there's no locking at all, and reads go straight to the policy.
+ *
+ * Null keys and values aren't allowed: get() returning null means not cached.
+ */
+public class FlatCache<K,V> {
+
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    private Node<K,V> [] table;
+    private int currentSize = 0;
+    private long weightedSize = 0;
+
+    private final long maximum;
+    private final Weigher<? super K, ? super V> weigher;
+    private final Policy<K,V> policy;
+
+    private final HashingStrategy<? super K> hashing;
+    private final int seed = HashingStrategy.newSeed();
+
+    private final MapCounters counters;
+    private long evictions;
+    private long evictedWeight;
+
+    /**
+     * Null unless concurrent
+     */
+    private final StampedLock lock;
+    private final ReadBuffer<K,V> [] readBuffers;
+
+    /**
+     * At most maximumSize entries, evicted by W-TinyLFU
+     */
+    public FlatCache(long maximumSize ) {
+        this(maximumSize, Eviction.W_TINY_LFU);
+    }
+
+    public FlatCache(long maximumSize, Eviction eviction ) {
+        this(maximumSize, eviction, false);
+    }
+
+    public FlatCache(long maximumSize, Eviction eviction, boolean concurrent ) {
+        this(maximumSize, Weigher.singleton(), eviction, concurrent);
+    }
+
+    public FlatCache(long maximumWeight, Weigher<? super K, ? super V> weigher, Eviction eviction, boolean concurrent ) {
+        this(maximumWeight, weigher, eviction, concurrent, HashingStrategy.objects());
+    }
+
+    public FlatCache(long maximumWeight, Weigher<? super K, ? super V> weigher, Eviction eviction, boolean concurrent,
+                     HashingStrategy<? super K> hashing ) {
+        if( maximumWeight < 1 )
+            throw new IllegalArgumentException("Maximum must be positive: " + maximumWeight);
+
+        this.maximum = maximumWeight;
+        this.weigher = weigher;
+        this.policy = Policy.of(eviction, maximumWeight);
+        this.hashing = hashing;
+        this.table = newTable(32);
+
+        if( concurrent ) {
+            this.lock = new StampedLock();
+            this.counters = MapCounters.concurrent();
+            this.readBuffers = newReadBuffers(HashingStrategy.tableSizeFor(Runtime.getRuntime().availableProcessors()));
+
+            for( int idx = 0; idx < this.readBuffers.length; idx++ )
+                this.readBuffers[idx] = new ReadBuffer<>();
+        }
+        else {
+            this.lock = null;
+            this.counters = new MapCounters();
+            this.readBuffers = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K,V> Node<K,V> [] newTable(int capacity) {
+        return (Node<K,V> []) new Node<?,?> [capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K,V> ReadBuffer<K,V> [] newReadBuffers(int count) {
+        return (ReadBuffer<K,V> []) new ReadBuffer<?,?> [count];
+    }
+
+    @SuppressWarnings("unchecked")
+    private int hashOf(Object key) {
+        return HashingStrategy.spread(this.hashing.computeHashCode((K) key), this.seed);
+    }
+
+    /**
+     * The slot holding this key, or -(the empty slot ending its probe run) - 1
+     */
+    @SuppressWarnings("unchecked")
+    private static <K,V> int slotOf(Node<K,V> [] table, Object key, int hash, HashingStrategy<? super K> hashing) {
+        int mask = table.length - 1;
+
+        // bounded, an optimistic reader can see a table mid-shift
+        for( int idx = 0; idx < table.length; idx++ ) {
+            int pos = ( hash + idx ) & mask;
+            Node<K,V> node = table[pos];
+
+            if( node == null )
+                return -pos - 1;
+
+            if( node.hash == hash && hashing.equals(node.key, (K) key) )
+                return pos;
+        }
+
+        return -1;
+    }
+
+    private Node<K,V> find(Object key, int hash) {
+        Node<K,V> [] current = this.table;
+        int pos = slotOf(current, key, hash, this.hashing);
+        return pos < 0 ? null : current[pos];
+    }
+
+    /**
+     * The key's node, read optimistically if concurrent
+     */
+    private Node<K,V> lookup(Object key, int hash) {
+        if( this.lock == null )
+            return find(key, hash);
+
+        long stamp = this.lock.tryOptimisticRead();
+        Node<K,V> node = find(key, hash);
+
+        if( this.lock.validate(stamp) )
+            return node;
+
+        stamp = this.lock.readLock();
+        try {
+            return find(key, hash);
+        }
+        finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    private long lockWrite() {
+        if( this.lock == null )
+            return 0;
+
+        long stamp = this.lock.writeLock();
+        drainReads();
+        return stamp;
+    }
+
+    private void unlockWrite(long stamp) {
+        if( this.lock != null )
+            this.lock.unlockWrite(stamp);
+    }
+
+    /**
+     * Replay buffered reads into the policy, under the write lock.  Nodes removed since they were read are skipped.
+     */
+    private void drainReads() {
+        for( ReadBuffer<K,V> buffer : this.readBuffers )
+            buffer.drainTo(node -> {
+                if( node.queue != Node.UNLINKED )
+                    this.policy.onAccess(node);
+            });
+    }
+
+    private void recordRead(Node<K,V> node) {
+        if( this.lock == null ) {
+            this.policy.onAccess(node);
+            return;
+        }
+
+        ReadBuffer<K,V> buffer = this.readBuffers[(int) Thread.currentThread().getId() & ( this.readBuffers.length - 1 )];
+
+        if( buffer.offer(node) ) {
+            // someone else busy with the policy will get to it, or the buffer wraps and we lose a few reads
+            long stamp = this.lock.tryWriteLock();
+
+            if( stamp != 0 ) {
+                try {
+                    drainReads();
+                }
+                finally {
+                    this.lock.unlockWrite(stamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * The cached value, or null if there isn't one
+     */
+    public V get(K key) {
+        Node<K,V> node = lookup(Objects.requireNonNull(key), hashOf(key));
+        this.counters.recordLookup(node != null);
+
+        if( node == null )
+            return null;
+
+        V value = node.value;
+        recordRead(node);
+        return value;
+    }
+
+    /**
+     * Doesn't count as a read, to the statistics or the eviction policy
+     */
+    public boolean containsKey(K key) {
+        return lookup(Objects.requireNonNull(key), hashOf(key)) != null;
+    }
+
+    /**
+     * Cache a value, returning the one it replaced if any
+     */
+    public V put(K key, V value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Cache a value unless there already is one, returning that one if so
+     */
+    public V putIfAbsent(K key, V value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * The cached value, or if there isn't one, load it and cache it.  The loader runs outside the lock, so two
+     * threads missing together may both load, but the first one cached wins and is what both get back.  A null
+     * from the loader caches nothing.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+        if( value != null )
+            return value;
+
+        V loaded = loader.apply(key);
+        if( loaded == null )
+            return null;
+
+        V existing = putIfAbsent(key, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    private V put(K key, V value, boolean onlyIfAbsent) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+
+        int weight = this.weigher.weigh(key, value);
+        if( weight < 0 )
+            throw new IllegalArgumentException("Negative weight " + weight + " for " + key);
+
+        int hash = hashOf(key);
+        long stamp = lockWrite();
+
+        try {
+            int pos = slotOf(this.table, key, hash, this.hashing);
+
+            if( pos >= 0 ) {
+                Node<K,V> node = this.table[pos];
+                V oldValue = node.value;
+
+                if( onlyIfAbsent ) {
+                    this.policy.onAccess(node);
+                    return oldValue;
+                }
+
+                if( weight > this.maximum ) {
+                    removeNode(pos, node);
+                    recordEviction(weight);
+                    return oldValue;
+                }
+
+                int oldWeight = node.weight;
+                node.value = value;
+                node.weight = weight;
+                this.weightedSize += weight - oldWeight;
+                this.policy.onUpdate(node, oldWeight);
+                this.policy.evict(this::evicted);
+                return oldValue;
+            }
+
+            // could never fit, so it's evicted as soon as it arrives
+            if( weight > this.maximum ) {
+                recordEviction(weight);
+                return null;
+            }
+
+            if( this.currentSize + 1 > this.table.length * MAX_LOAD_FACTOR ) {
+                reHash(this.table.length * 2);
+                pos = slotOf(this.table, key, hash, this.hashing);
+            }
+
+            Node<K,V> node = new Node<>(key, hash, value, weight);
+            this.table[-pos - 1] = node;
+            this.currentSize++;
+            this.weightedSize += weight;
+            this.policy.onInsert(node);
+            this.policy.evict(this::evicted);
+            return null;
+        }
+        finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    public V remove(K key) {
+        int hash = hashOf(Objects.requireNonNull(key));
+        long stamp = lockWrite();
+
+        try {
+            int pos = slotOf(this.table, key, hash, this.hashing);
+            if( pos < 0 )
+                return null;
+
+            Node<K,V> node = this.table[pos];
+            removeNode(pos, node);
+            return node.value;
+        }
+        finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    private void removeNode(int pos, Node<K,V> node) {
+        this.policy.onRemove(node);
+        deleteSlot(pos);
+        this.currentSize--;
+        this.weightedSize -= node.weight;
+    }
+
+    /**
+     * The policy has already unlinked the node, take it out of the table
+     */
+    private void evicted(Node<K,V> node) {
+        deleteSlot(slotOf(this.table, node.key, node.hash, this.hashing));
+        this.currentSize--;
+        this.weightedSize -= node.weight;
+        recordEviction(node.weight);
+    }
+
+    private void recordEviction(int weight) {
+        this.evictions++;
+        this.evictedWeight += weight;
+    }
+
+    /**
+     * Empty a slot and shift back any later entries in the probe run that would otherwise be cut off from home
+     */
+    private void deleteSlot(int pos) {
+        int mask = this.table.length - 1;
+        int hole = pos;
+        this.table[hole] = null;
+
+        for( int idx = ( pos + 1 ) & mask; this.table[idx] != null; idx = ( idx + 1 ) & mask ) {
+            int home = this.table[idx].hash & mask;
+
+            // home at or before the hole, going round from idx, so it can move back
+            if( ( ( idx - home ) & mask ) >= ( ( idx - hole ) & mask ) ) {
+                this.table[hole] = this.table[idx];
+                this.table[idx] = null;
+                hole = idx;
+            }
+        }
+    }
+
+    private void reHash(int capacity) {
+        if( capacity > 1 << 30 )
+            throw new IllegalStateException("Table can't grow past " + ( 1 << 30 ) + " slots");
+
+        Node<K,V> [] oldTable = this.table;
+        Node<K,V> [] newTable = newTable(capacity);
+
+        for( Node<K,V> node : oldTable ) {
+            if( node != null ) {
+                int pos = node.hash & ( capacity - 1 );
+
+                while( newTable[pos] != null )
+                    pos = ( pos + 1 ) & ( capacity - 1 );
+
+                newTable[pos] = node;
+            }
+        }
+
+        // readers holding the old table fail validation and retry
+        this.table = newTable;
+    }
+
+    public void clear() {
+        long stamp = lockWrite();
+
+        try {
+            // buffered reads of these nodes must find them unlinked
+            for( Node<K,V> node : this.table )
+                if( node != null )
+                    node.queue = Node.UNLINKED;
+
+            Arrays.fill(this.table, null);
+            this.policy.clear();
+            this.currentSize = 0;
+            this.weightedSize = 0;
+        }
+        finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Apply any reads still sitting in the read buffers.  Only does anything in concurrent mode.
+     */
+    public void cleanUp() {
+        unlockWrite(lockWrite());
+    }
+
+    public int size() {
+        if( this.lock == null )
+            return this.currentSize;
+
+        long stamp = this.lock.readLock();
+        try {
+            return this.currentSize;
+        }
+        finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    public long getMaximum() {
+        return maximum;
+    }
+
+    public CacheStatistics statistics() {
+        long stamp = this.lock == null ? 0 : this.lock.readLock();
+
+        try {
+            return new CacheStatistics(this.currentSize, this.weightedSize, this.maximum,
+                    this.counters.getHits(), this.counters.getMisses(), this.evictions, this.evictedWeight);
+        }
+        finally {
+            if( this.lock != null )
+                this.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FlatCache{" +
+                "currentSize=" + currentSize +
+                ", weightedSize=" + weightedSize +
+                ", maximum=" + maximum +
+                ", capacity=" + table.length +
+                '}';
+    }
+}
@@ -0,0 +1,85 @@
+package elliott.back.cache;
+
+import elliott.back.common.HashingStrategy;
+
+import java.util.Arrays;
+
+/**
+ * A count-min sketch of how often each hash has been seen, with 4 bit counters that max out at 15.
+ *
+ * The counters are packed 16 to a long.  A hash picks one of the four groups of four counters in a long, then
+ * each of four seeded rehashes picks a long and one counter of that group in it, so the four counters for a
+ * hash never share a slot.  The estimate is the smallest of the four, which only ever overcounts.
+ *
+ * After about 10 increments per slot every counter is halved, so the sketch follows what's popular now rather
+ * than what was popular an hour ago.
+ */
+final class FrequencySketch {
+
+    private static final long [] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long [] table;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Sized for about one long per entry the cache can hold
+     */
+    FrequencySketch(long maximumSize) {
+        this.table = new long [HashingStrategy.tableSizeFor((int) Math.max(16, Math.min(maximumSize, 1 << 26)))];
+        this.sampleSize = 10 * this.table.length;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = ( hash + SEEDS[i] ) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & ( this.table.length - 1 );
+    }
+
+    int frequency(int hash) {
+        int start = ( hash & 3 ) << 2;
+        int frequency = Integer.MAX_VALUE;
+
+        for( int i = 0; i < 4; i++ ) {
+            int offset = ( start + i ) << 2;
+            frequency = Math.min(frequency, (int) ( ( this.table[indexOf(hash, i)] >>> offset ) & 0xF ));
+        }
+
+        return frequency;
+    }
+
+    void increment(int hash) {
+        int start = ( hash & 3 ) << 2;
+        boolean added = false;
+
+        for( int i = 0; i < 4; i++ ) {
+            int index = indexOf(hash, i);
+            int offset = ( start + i ) << 2;
+
+            if( ( ( this.table[index] >>> offset ) & 0xF ) != 0xF ) {
+                this.table[index] += 1L << offset;
+                added = true;
+            }
+        }
+
+        if( added && ++this.additions == this.sampleSize )
+            reset();
+    }
+
+    /**
+     * Halve every counter, the shift drags each counter's low bit into the one below so mask those off
+     */
+    private void reset() {
+        for( int idx = 0; idx < this.table.length; idx++ )
+            this.table[idx] = ( this.table[idx] >>> 1 ) & RESET_MASK;
+
+        this.additions /= 2;
+    }
+
+    void clear() {
+        Arrays.fill(this.table, 0L);
+        this.additions = 0;
+    }
+}
@@ -0,0 +1,53 @@
+package elliott.back.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * Plain least recently used: one queue, reads move to the back, evictions come off the front
+ */
+final class LruPolicy<K,V> implements Policy<K,V> {
+
+    private final AccessOrderQueue<K,V> queue = new AccessOrderQueue<>();
+    private final long maximum;
+
+    LruPolicy(long maximum) {
+        this.maximum = maximum;
+    }
+
+    @Override
+    public void onInsert(Node<K,V> node) {
+        node.queue = Node.PROBATION;
+        this.queue.add(node);
+    }
+
+    @Override
+    public void onAccess(Node<K,V> node) {
+        this.queue.moveToTail(node);
+    }
+
+    @Override
+    public void onUpdate(Node<K,V> node, int oldWeight) {
+        this.queue.reweigh(node, oldWeight);
+        this.queue.moveToTail(node);
+    }
+
+    @Override
+    public void onRemove(Node<K,V> node) {
+        this.queue.remove(node);
+        node.queue = Node.UNLINKED;
+    }
+
+    @Override
+    public void evict(Consumer<Node<K,V>> evicted) {
+        while( this.queue.weight() > this.maximum ) {
+            Node<K,V> victim = this.queue.first();
+            onRemove(victim);
+            evicted.accept(victim);
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.queue.clear();
+    }
+}
@@ -0,0 +1,38 @@
+package elliott.back.cache;
+
+/**
+ * A cache entry, which sits in the hash table and in one of its eviction policy's access order queues at once.
+ * The queue links are intrusive so that moving an entry to the back of its queue, or unlinking it, is O(1).
+ */
+final class Node<K,V> {
+
+    static final byte UNLINKED = 0;
+    static final byte WINDOW = 1;
+    static final byte PROBATION = 2;
+    static final byte PROTECTED = 3;
+
+    final K key;
+    final int hash;
+
+    /**
+     * Read by concurrent readers outside any lock
+     */
+    volatile V value;
+
+    int weight;
+
+    /**
+     * Which queue the node is in, UNLINKED once it's been removed so that buffered reads of it get ignored
+     */
+    byte queue = UNLINKED;
+
+    Node<K,V> prev;
+    Node<K,V> next;
+
+    Node(K key, int hash, V value, int weight) {
+        this.key = key;
+        this.hash = hash;
+        this.value = value;
+        this.weight = weight;
+    }
+}
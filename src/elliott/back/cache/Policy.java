@@ -0,0 +1,48 @@
+package elliott.back.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * Decides eviction order for a FlatCache.  Only ever called under the cache's write lock, if it has one.
+ */
+interface Policy<K,V> {
+
+    static <K,V> Policy<K,V> of(Eviction eviction, long maximum) {
+        switch( eviction ) {
+            case LRU:
+                return new LruPolicy<>(maximum);
+            case W_TINY_LFU:
+                return new TinyLfuPolicy<>(maximum);
+            default:
+                throw new IllegalArgumentException("Unknown eviction: " + eviction);
+        }
+    }
+
+    /**
+     * A node just put in the table
+     */
+    void onInsert(Node<K,V> node);
+
+    /**
+     * A node that was read, maybe a while ago.  It's still linked, buffered reads of removed nodes are dropped.
+     */
+    void onAccess(Node<K,V> node);
+
+    /**
+     * A node whose value was replaced, its weight was oldWeight
+     */
+    void onUpdate(Node<K,V> node, int oldWeight);
+
+    /**
+     * A node taken out of the table other than by eviction
+     */
+    void onRemove(Node<K,V> node);
+
+    /**
+     * Unlink nodes until what's left weighs no more than the maximum, handing each to evicted to take out of
+     * the table
+     */
+    void evict(Consumer<Node<K,V>> evicted);
+
+    void clear();
+}
@@ -0,0 +1,51 @@
+package elliott.back.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A lossy ring of recent reads for a concurrent FlatCache to replay into its policy later, so readers never
+ * wait on the policy's lock.
+ *
+ * A reader claims a slot with one getAndIncrement and writes its node there.  If nobody drains in time the
+ * ring wraps and older reads get written over, which only makes the policy's idea of recency a little fuzzier.
+ */
+final class ReadBuffer<K,V> {
+
+    static final int SIZE = 64;
+
+    private final AtomicReferenceArray<Node<K,V>> slots = new AtomicReferenceArray<>(SIZE);
+    private final AtomicLong writes = new AtomicLong();
+
+    /**
+     * How many writes have been drained, only touched by the drainer under the cache's write lock
+     */
+    private long drained;
+
+    /**
+     * Returns true when this read filled the ring, and it's time to drain
+     */
+    boolean offer(Node<K,V> node) {
+        long write = this.writes.getAndIncrement();
+        this.slots.lazySet((int) ( write & ( SIZE - 1 ) ), node);
+        return ( write & ( SIZE - 1 ) ) == SIZE - 1;
+    }
+
+    /**
+     * Only the slots written since the last drain.  A reader that has claimed a slot but not written it yet is
+     * missed this time, and picked up next time round if nobody writes over it first.
+     */
+    void drainTo(Consumer<Node<K,V>> action) {
+        long written = this.writes.get();
+
+        for( long write = Math.max(this.drained, written - SIZE); write < written; write++ ) {
+            Node<K,V> node = this.slots.getAndSet((int) ( write & ( SIZE - 1 ) ), null);
+
+            if( node != null )
+                action.accept(node);
+        }
+
+        this.drained = written;
+    }
+}
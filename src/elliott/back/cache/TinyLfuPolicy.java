@@ -0,0 +1,157 @@
+package elliott.back.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * Window TinyLFU, see Eviction.W_TINY_LFU.
+ *
+ * The window takes 1% of the maximum weight and the main space the rest, split into a probation and a
+ * protected queue.  New entries go in the window.  Whatever the window pushes out joins the back of probation
+ * as a candidate, and while the cache is over its maximum each candidate is weighed against the entry at the
+ * front of probation, the longest unused one in main: the one the sketch has seen less often goes, ties going
+ * against the candidate.  A read in probation promotes the entry to protected, and protected's overflow drops
+ * back to probation, so the main space is a segmented LRU.
+ *
+ * The window lets a burst of new keys build up some frequency before they have to compete, and the sketch
+ * stops a scan of one-off keys flushing out entries that are asked for all the time.
+ */
+final class TinyLfuPolicy<K,V> implements Policy<K,V> {
+
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final AccessOrderQueue<K,V> window = new AccessOrderQueue<>();
+    private final AccessOrderQueue<K,V> probation = new AccessOrderQueue<>();
+    private final AccessOrderQueue<K,V> protectedQueue = new AccessOrderQueue<>();
+
+    private final long maximum;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+
+    private final FrequencySketch sketch;
+
+    TinyLfuPolicy(long maximum) {
+        this.maximum = maximum;
+        this.windowMaximum = Math.max(1, (long) ( maximum * WINDOW_SHARE ));
+        this.protectedMaximum = (long) ( ( maximum - this.windowMaximum ) * PROTECTED_SHARE );
+        this.sketch = new FrequencySketch(maximum);
+    }
+
+    private AccessOrderQueue<K,V> queueOf(Node<K,V> node) {
+        switch( node.queue ) {
+            case Node.WINDOW:
+                return this.window;
+            case Node.PROBATION:
+                return this.probation;
+            case Node.PROTECTED:
+                return this.protectedQueue;
+            default:
+                throw new IllegalStateException("Node isn't in a queue");
+        }
+    }
+
+    private long weight() {
+        return this.window.weight() + this.probation.weight() + this.protectedQueue.weight();
+    }
+
+    @Override
+    public void onInsert(Node<K,V> node) {
+        this.sketch.increment(node.hash);
+        node.queue = Node.WINDOW;
+        this.window.add(node);
+    }
+
+    @Override
+    public void onAccess(Node<K,V> node) {
+        this.sketch.increment(node.hash);
+
+        if( node.queue == Node.PROBATION ) {
+            this.probation.remove(node);
+            node.queue = Node.PROTECTED;
+            this.protectedQueue.add(node);
+            demoteProtected();
+        }
+        else {
+            queueOf(node).moveToTail(node);
+        }
+    }
+
+    @Override
+    public void onUpdate(Node<K,V> node, int oldWeight) {
+        queueOf(node).reweigh(node, oldWeight);
+        onAccess(node);
+
+        // a heavier value can push protected over on its own
+        demoteProtected();
+    }
+
+    @Override
+    public void onRemove(Node<K,V> node) {
+        queueOf(node).remove(node);
+        node.queue = Node.UNLINKED;
+    }
+
+    private void demoteProtected() {
+        while( this.protectedQueue.weight() > this.protectedMaximum ) {
+            Node<K,V> demoted = this.protectedQueue.first();
+            this.protectedQueue.remove(demoted);
+            demoted.queue = Node.PROBATION;
+            this.probation.add(demoted);
+        }
+    }
+
+    @Override
+    public void evict(Consumer<Node<K,V>> evicted) {
+        // the oldest of the entries the window pushes out this time, the rest are behind it in probation
+        Node<K,V> candidate = null;
+
+        while( this.window.weight() > this.windowMaximum ) {
+            Node<K,V> node = this.window.first();
+            this.window.remove(node);
+            node.queue = Node.PROBATION;
+            this.probation.add(node);
+
+            if( candidate == null )
+                candidate = node;
+        }
+
+        while( weight() > this.maximum ) {
+            Node<K,V> victim = firstToEvict();
+            Node<K,V> loser = victim;
+
+            if( candidate != null && candidate != victim ) {
+                if( this.sketch.frequency(candidate.hash) <= this.sketch.frequency(victim.hash) ) {
+                    loser = candidate;
+                    candidate = candidate.next;
+                }
+            }
+            else if( candidate == victim ) {
+                candidate = candidate.next;
+            }
+
+            onRemove(loser);
+            evicted.accept(loser);
+        }
+    }
+
+    /**
+     * The front of probation, or failing that of protected, or failing that of the window
+     */
+    private Node<K,V> firstToEvict() {
+        if( !this.probation.isEmpty() )
+            return this.probation.first();
+
+        if( !this.protectedQueue.isEmpty() )
+            return this.protectedQueue.first();
+
+        return this.window.first();
+    }
+
+    @Override
+    public void clear() {
+        this.window.clear();
+        this.probation.clear();
+        this.protectedQueue.clear();
+        this.sketch.clear();
+    }
+}
@@ -0,0 +1,20 @@
+package elliott.back.cache;
+
+/**
+ * How much of a FlatCache's maximum weight an entry uses.  Worked out once when the entry is put.
+ */
+@FunctionalInterface
+public interface Weigher<K,V> {
+
+    /**
+     * Every entry weighs one, so the maximum weight is a maximum size
+     */
+    static <K,V> Weigher<K,V> singleton() {
+        return (key, value) -> 1;
+    }
+
+    /**
+     * Must not be negative
+     */
+    int weigh(K key, V value);
+}
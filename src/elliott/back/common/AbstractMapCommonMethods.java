@@ -1,11 +1,28 @@
 package elliott.back.common;
 
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
-public abstract class AbstractMapCommonMethods <K,V> implements Map<K, V> {
+public abstract class AbstractMapCommonMethods <K,V> implements Map<K, V>, BulkLoadable<K, V>, ParallelBulkMap<K, V> {
+
+    /**
+     * Bumped by subclasses on every structural change (new key, removed key, clear, resize) so
+     * iterators over the views can fail fast
+     */
+    protected int modCount;
 
     public abstract Tuple <K,V> [] getBackingArray();
 
+    /**
+     * The slot iteration starts at, going round the array once from there.  Maps whose remove
+     * shifts later entries back a slot override this to start at the head of a probe run, so
+     * Iterator.remove can never pull an entry round from the end of the array to the start.
+     */
+    protected int iterationStart() {
+        return 0;
+    }
+
     /**
      * This will be a horrible linear scan, we have to check every single item
      */
@@ -17,52 +34,363 @@ public abstract class AbstractMapCommonMethods <K,V> implements Map<K, V> {
         {
             // if we hit a null we did not find the item
             if( backing[idx] != null &&
-                backing[idx].getValue().equals(value ) )
+                Objects.equals(backing[idx].getValue(), value ) )
                 return true;
         }
 
         return false;
     }
 
+    /**
+     * Walks the backing array without copying it.  After Iterator.remove the slot just returned
+     * is looked at again if the remove shifted a later entry into it.
+     */
+    private abstract class BackingIterator<T> implements Iterator<T> {
+        private final Tuple<K,V> [] backing = getBackingArray();
+        private final int start = iterationStart();
+        private int expectedModCount = modCount;
+
+        /**
+         * Slots visited so far, counting round from start
+         */
+        private int visited = 0;
+        private int lastVisited = -1;
+
+        private int position(int offset) {
+            return ( start + offset ) % backing.length;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while( visited < backing.length && backing[position(visited)] == null )
+                visited++;
+
+            return visited < backing.length;
+        }
+
+        @Override
+        public T next() {
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            if( !hasNext() )
+                throw new NoSuchElementException();
+
+            lastVisited = visited++;
+            return at(backing[position(lastVisited)]);
+        }
+
+        @Override
+        public void remove() {
+            if( lastVisited == -1 )
+                throw new IllegalStateException();
+
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            Tuple<K,V> removed = backing[position(lastVisited)];
+            AbstractMapCommonMethods.this.remove(removed.getKey());
+            expectedModCount = modCount;
+
+            // only look again if something else now sits in the slot
+            if( backing[position(lastVisited)] != removed )
+                visited = lastVisited;
+
+            lastVisited = -1;
+        }
+
+        abstract T at(Tuple<K,V> entry);
+    }
+
+    /**
+     * Splits the backing array into halves by slot range.  Only the unsplit spliterator knows its exact size,
+     * the pieces estimate theirs as a share of it, since counting would mean scanning the range.
+     */
+    private abstract class BackingSpliterator<T> implements Spliterator<T> {
+        private final Tuple<K,V> [] backing;
+        private int index;
+        private final int fence;
+        private long estimate;
+        private boolean split;
+        private final int expectedModCount;
+
+        BackingSpliterator() {
+            this(getBackingArray(), 0, -1, size(), false, modCount);
+        }
+
+        BackingSpliterator(Tuple<K,V> [] backing, int index, int fence, long estimate, boolean split, int expectedModCount) {
+            this.backing = backing;
+            this.index = index;
+            this.fence = fence < 0 ? backing.length : fence;
+            this.estimate = estimate;
+            this.split = split;
+            this.expectedModCount = expectedModCount;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int mid = ( index + fence ) >>> 1;
+
+            if( mid <= index )
+                return null;
+
+            estimate >>>= 1;
+            split = true;
+
+            BackingSpliterator<T> prefix = piece(backing, index, mid, estimate, expectedModCount);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while( index < fence ) {
+                Tuple<K,V> entry = backing[index++];
+
+                if( entry != null ) {
+                    action.accept(at(entry));
+
+                    if( modCount != expectedModCount )
+                        throw new ConcurrentModificationException();
+
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            for( ; index < fence; index++ )
+                if( backing[index] != null )
+                    action.accept(at(backing[index]));
+
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return ( split ? 0 : Spliterator.SIZED ) | Spliterator.DISTINCT;
+        }
+
+        abstract T at(Tuple<K,V> entry);
+
+        abstract BackingSpliterator<T> piece(Tuple<K,V> [] backing, int index, int fence, long estimate, int expectedModCount);
+    }
+
     @Override
     public Set<K> keySet() {
-        Set<K> keySet = new HashSet<>();
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new BackingIterator<K>() {
+                    @Override
+                    K at(Tuple<K, V> entry) {
+                        return entry.getKey();
+                    }
+                };
+            }
 
-        for (Tuple<K, V> aBacking : getBackingArray()) {
-            if (aBacking != null)
-                keySet.add(aBacking.getKey());
-        }
+            @Override
+            public Spliterator<K> spliterator() {
+                return new KeySpliterator();
+            }
+
+            @Override
+            public int size() {
+                return AbstractMapCommonMethods.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if( !containsKey(o) )
+                    return false;
+
+                AbstractMapCommonMethods.this.remove(o);
+                return true;
+            }
 
-        return keySet;
+            @Override
+            public void clear() {
+                AbstractMapCommonMethods.this.clear();
+            }
+        };
     }
 
     @Override
     public Collection<V> values() {
-        Collection<V> values = new ArrayList<>();
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new BackingIterator<V>() {
+                    @Override
+                    V at(Tuple<K, V> entry) {
+                        return entry.getValue();
+                    }
+                };
+            }
 
-        for (Tuple<K, V> aBacking : getBackingArray()) {
-            if (aBacking != null)
-                values.add(aBacking.getValue());
-        }
+            @Override
+            public Spliterator<V> spliterator() {
+                return new ValueSpliterator();
+            }
+
+            @Override
+            public int size() {
+                return AbstractMapCommonMethods.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsValue(o);
+            }
 
-        return values;
+            @Override
+            public void clear() {
+                AbstractMapCommonMethods.this.clear();
+            }
+        };
     }
 
     @Override
     public Set<Map.Entry<K, V>> entrySet() {
-        Set<Map.Entry<K, V>> entrySet = new HashSet<>();
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new BackingIterator<Map.Entry<K, V>>() {
+                    @Override
+                    Map.Entry<K, V> at(Tuple<K, V> entry) {
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public Spliterator<Map.Entry<K, V>> spliterator() {
+                return new EntrySpliterator();
+            }
+
+            @Override
+            public int size() {
+                return AbstractMapCommonMethods.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if( !( o instanceof Map.Entry ) )
+                    return false;
+
+                Map.Entry<?,?> entry = (Map.Entry<?,?>) o;
+                return containsKey(entry.getKey()) && Objects.equals(get(entry.getKey()), entry.getValue());
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if( !contains(o) )
+                    return false;
+
+                AbstractMapCommonMethods.this.remove(((Map.Entry<?,?>) o).getKey());
+                return true;
+            }
+
+            @Override
+            public void clear() {
+                AbstractMapCommonMethods.this.clear();
+            }
+        };
+    }
+
+    private final class KeySpliterator extends BackingSpliterator<K> {
+        KeySpliterator() {
+        }
+
+        KeySpliterator(Tuple<K,V> [] backing, int index, int fence, long estimate, int expectedModCount) {
+            super(backing, index, fence, estimate, true, expectedModCount);
+        }
+
+        @Override
+        K at(Tuple<K,V> entry) {
+            return entry.getKey();
+        }
+
+        @Override
+        BackingSpliterator<K> piece(Tuple<K,V> [] backing, int index, int fence, long estimate, int expectedModCount) {
+            return new KeySpliterator(backing, index, fence, estimate, expectedModCount);
+        }
+    }
+
+    private final class ValueSpliterator extends BackingSpliterator<V> {
+        ValueSpliterator() {
+        }
 
-        for (Tuple<K, V> aBacking : getBackingArray()) {
-            if (aBacking != null)
-                entrySet.add(aBacking);
+        ValueSpliterator(Tuple<K,V> [] backing, int index, int fence, long estimate, int expectedModCount) {
+            super(backing, index, fence, estimate, true, expectedModCount);
         }
 
-        return entrySet;
+        @Override
+        V at(Tuple<K,V> entry) {
+            return entry.getValue();
+        }
+
+        @Override
+        BackingSpliterator<V> piece(Tuple<K,V> [] backing, int index, int fence, long estimate, int expectedModCount) {
+            return new ValueSpliterator(backing, index, fence, estimate, expectedModCount);
+        }
     }
 
+    private final class EntrySpliterator extends BackingSpliterator<Map.Entry<K,V>> {
+        EntrySpliterator() {
+        }
+
+        EntrySpliterator(Tuple<K,V> [] backing, int index, int fence, long estimate, int expectedModCount) {
+            super(backing, index, fence, estimate, true, expectedModCount);
+        }
+
+        @Override
+        Map.Entry<K,V> at(Tuple<K,V> entry) {
+            return entry;
+        }
+
+        @Override
+        BackingSpliterator<Map.Entry<K,V>> piece(Tuple<K,V> [] backing, int index, int fence, long estimate, int expectedModCount) {
+            return new EntrySpliterator(backing, index, fence, estimate, expectedModCount);
+        }
+    }
+
+    /**
+     * Straight walk over the backing array, no iterator or entry objects
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Tuple<K,V> [] backing = getBackingArray();
+        int expectedModCount = modCount;
+
+        for( int idx = 0; idx < backing.length; idx++ )
+            if( backing[idx] != null )
+                action.accept(backing[idx].getKey(), backing[idx].getValue());
+
+        if( modCount != expectedModCount )
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * Sizes for the incoming entries up front, then walks them once.  Keys already here get counted
+     * twice when sizing, so overlapping maps can end up with a bigger table than they need.
+     */
     @Override
     public void putAll(Map<? extends K, ? extends V> map) {
-        for(K key : map.keySet() )
-            this.put(key, map.get(key));
+        bulkLoad(map.entrySet().iterator(), map.size());
     }
-}
\ No newline at end of file
+}
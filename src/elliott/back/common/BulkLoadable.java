@@ -0,0 +1,44 @@
+package elliott.back.common;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A map that can be sized up front and then filled in one go.  Loading N entries one put at a time into a
+ * small map resizes it log2(N) times, each copying everything so far; sizing it first means a single table
+ * is built and filled once.
+ *
+ * Later keys win over earlier ones, same as a run of puts.
+ */
+public interface BulkLoadable<K,V> extends Map<K,V> {
+
+    /**
+     * Grow the table now, if need be, so this many entries in total fit without another resize.  Never shrinks.
+     */
+    void ensureCapacity(int expectedSize);
+
+    /**
+     * Put keys[i] -> values[i] for every i
+     */
+    default void bulkLoad(K [] keys, V [] values) {
+        if( keys.length != values.length )
+            throw new IllegalArgumentException("Got " + keys.length + " keys but " + values.length + " values");
+
+        ensureCapacity(size() + keys.length);
+
+        for( int idx = 0; idx < keys.length; idx++ )
+            put(keys[idx], values[idx]);
+    }
+
+    /**
+     * Put every entry, sizing for expectedSize more entries first since an iterator can't say how many it has
+     */
+    default void bulkLoad(Iterator<? extends Map.Entry<? extends K, ? extends V>> entries, int expectedSize) {
+        ensureCapacity(size() + expectedSize);
+
+        while( entries.hasNext() ) {
+            Map.Entry<? extends K, ? extends V> entry = entries.next();
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+}
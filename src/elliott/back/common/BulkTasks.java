@@ -0,0 +1,169 @@
+package elliott.back.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * The fork/join tasks behind ParallelBulkMap.  Each task splits its spliterator and forks the pieces off while it
+ * is bigger than the threshold, works through what it has left itself, then joins the forked pieces.
+ */
+final class BulkTasks {
+
+    private BulkTasks() {
+    }
+
+    private static abstract class BulkTask<K,V,R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        final Spliterator<Map.Entry<K,V>> spliterator;
+        final long threshold;
+
+        BulkTask(Spliterator<Map.Entry<K,V>> spliterator, long threshold) {
+            this.spliterator = spliterator;
+            this.threshold = Math.max(threshold, 1);
+        }
+
+        /**
+         * Split off and fork every piece this task won't do itself
+         */
+        List<BulkTask<K,V,R>> forkPieces() {
+            List<BulkTask<K,V,R>> forked = new ArrayList<>();
+            Spliterator<Map.Entry<K,V>> piece;
+
+            while( this.spliterator.estimateSize() > this.threshold && ( piece = this.spliterator.trySplit() ) != null ) {
+                BulkTask<K,V,R> task = newTask(piece);
+                task.fork();
+                forked.add(task);
+            }
+
+            return forked;
+        }
+
+        abstract BulkTask<K,V,R> newTask(Spliterator<Map.Entry<K,V>> piece);
+    }
+
+    static final class ForEachTask<K,V> extends BulkTask<K,V,Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final BiConsumer<? super K, ? super V> action;
+
+        ForEachTask(Spliterator<Map.Entry<K,V>> spliterator, long threshold, BiConsumer<? super K, ? super V> action) {
+            super(spliterator, threshold);
+            this.action = action;
+        }
+
+        @Override
+        BulkTask<K,V,Void> newTask(Spliterator<Map.Entry<K,V>> piece) {
+            return new ForEachTask<>(piece, this.threshold, this.action);
+        }
+
+        @Override
+        protected Void compute() {
+            List<BulkTask<K,V,Void>> forked = forkPieces();
+
+            this.spliterator.forEachRemaining(entry -> this.action.accept(entry.getKey(), entry.getValue()));
+
+            for( BulkTask<K,V,Void> task : forked )
+                task.join();
+
+            return null;
+        }
+    }
+
+    static final class ReduceTask<K,V,U> extends BulkTask<K,V,U> {
+        private static final long serialVersionUID = 1L;
+
+        private final BiFunction<? super K, ? super V, ? extends U> transformer;
+        private final BiFunction<? super U, ? super U, ? extends U> reducer;
+        private U result;
+
+        ReduceTask(Spliterator<Map.Entry<K,V>> spliterator, long threshold,
+                   BiFunction<? super K, ? super V, ? extends U> transformer,
+                   BiFunction<? super U, ? super U, ? extends U> reducer) {
+            super(spliterator, threshold);
+            this.transformer = transformer;
+            this.reducer = reducer;
+        }
+
+        @Override
+        BulkTask<K,V,U> newTask(Spliterator<Map.Entry<K,V>> piece) {
+            return new ReduceTask<>(piece, this.threshold, this.transformer, this.reducer);
+        }
+
+        private U combine(U a, U b) {
+            if( a == null )
+                return b;
+
+            if( b == null )
+                return a;
+
+            return this.reducer.apply(a, b);
+        }
+
+        @Override
+        protected U compute() {
+            List<BulkTask<K,V,U>> forked = forkPieces();
+
+            this.spliterator.forEachRemaining(entry ->
+                    this.result = combine(this.result, this.transformer.apply(entry.getKey(), entry.getValue())));
+
+            U combined = this.result;
+            for( BulkTask<K,V,U> task : forked )
+                combined = combine(combined, task.join());
+
+            return combined;
+        }
+    }
+
+    static final class SearchTask<K,V,U> extends BulkTask<K,V,U> {
+        private static final long serialVersionUID = 1L;
+
+        private final BiFunction<? super K, ? super V, ? extends U> searchFunction;
+
+        /**
+         * Shared by every piece of one search, so they can all stop once something is found
+         */
+        private final AtomicReference<U> found;
+
+        SearchTask(Spliterator<Map.Entry<K,V>> spliterator, long threshold,
+                   BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+            this(spliterator, threshold, searchFunction, new AtomicReference<>());
+        }
+
+        private SearchTask(Spliterator<Map.Entry<K,V>> spliterator, long threshold,
+                           BiFunction<? super K, ? super V, ? extends U> searchFunction, AtomicReference<U> found) {
+            super(spliterator, threshold);
+            this.searchFunction = searchFunction;
+            this.found = found;
+        }
+
+        @Override
+        BulkTask<K,V,U> newTask(Spliterator<Map.Entry<K,V>> piece) {
+            return new SearchTask<>(piece, this.threshold, this.searchFunction, this.found);
+        }
+
+        @Override
+        protected U compute() {
+            List<BulkTask<K,V,U>> forked = forkPieces();
+
+            while( this.found.get() == null && this.spliterator.tryAdvance(entry -> {
+                U result = this.searchFunction.apply(entry.getKey(), entry.getValue());
+                if( result != null )
+                    this.found.compareAndSet(null, result);
+            }) ) {
+                // keep going until something turns up
+            }
+
+            for( BulkTask<K,V,U> task : forked )
+                task.join();
+
+            return this.found.get();
+        }
+    }
+}
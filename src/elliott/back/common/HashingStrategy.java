@@ -0,0 +1,92 @@
+package elliott.back.common;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How a map hashes and compares its keys.  Lets a map key on things whose own equals/hashCode are no use, like
+ * byte[], without wrapping every key.  Both methods have to cope with null.
+ *
+ * The hash code from here is never used as an index directly.  Maps run it through spread() with a seed picked
+ * per map instance, then mask it down to a power-of-two capacity, so there's no division in the probe loop and
+ * sequential or low-entropy hash codes still land all over the table.  A random seed also means an attacker
+ * can't work out ahead of time which keys will share a slot.  Keys with the very same hash code still collide
+ * whatever the seed, that's what treeified buckets are for.  Setting the elliott.back.hashSeed system property
+ * gives every map made afterwards that seed instead, so a run can be repeated exactly.
+ */
+public interface HashingStrategy<K> {
+
+    int computeHashCode(K key);
+
+    boolean equals(K a, K b);
+
+    /**
+     * The keys' own equals and hashCode
+     */
+    HashingStrategy<Object> OBJECTS = new HashingStrategy<Object>() {
+        @Override
+        public int computeHashCode(Object key) {
+            return Objects.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object a, Object b) {
+            return Objects.equals(a, b);
+        }
+    };
+
+    /**
+     * Compares byte[] keys by content
+     */
+    HashingStrategy<byte[]> BYTE_ARRAYS = new HashingStrategy<byte[]>() {
+        @Override
+        public int computeHashCode(byte[] key) {
+            return Arrays.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(byte[] a, byte[] b) {
+            return Arrays.equals(a, b);
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    static <K> HashingStrategy<K> objects() {
+        return (HashingStrategy<K>) OBJECTS;
+    }
+
+    /**
+     * A fresh seed for a new map, unless elliott.back.hashSeed pins one
+     */
+    static int newSeed() {
+        Integer pinned = Integer.getInteger("elliott.back.hashSeed");
+        return pinned != null ? pinned : ThreadLocalRandom.current().nextInt();
+    }
+
+    /**
+     * murmur3 fmix32 over the seeded hash code, so every input bit affects the low bits we mask with
+     */
+    static int spread(int hashCode, int seed) {
+        int h = hashCode ^ seed;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Smallest power of two that's at least the requested capacity
+     */
+    static int tableSizeFor(int capacity) {
+        if( capacity <= 1 )
+            return 1;
+
+        if( capacity > 1 << 30 )
+            return 1 << 30;
+
+        return Integer.highestOneBit(capacity - 1) << 1;
+    }
+}
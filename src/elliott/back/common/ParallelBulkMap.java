@@ -0,0 +1,46 @@
+package elliott.back.common;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * ConcurrentHashMap style bulk operations, run on the common ForkJoinPool by splitting the map's entry spliterator.
+ *
+ * The parallelism threshold is roughly how many entries a piece has to have before it's worth splitting again:
+ * Long.MAX_VALUE runs everything in the calling thread, 1 splits as far as the spliterator will go.  Split
+ * sizes are estimates, a piece is a slice of the table rather than a fixed number of entries.
+ *
+ * The maps implementing this aren't thread safe, so nothing may write to the map while one of these runs.
+ * The functions themselves run on several threads at once, so they must not share unsynchronised state either.
+ */
+public interface ParallelBulkMap<K,V> extends Map<K,V> {
+
+    /**
+     * Entries are the map's own Tuples where it has them, so the bulk operations don't allocate per entry
+     */
+    default Spliterator<Map.Entry<K,V>> entrySpliterator() {
+        return entrySet().spliterator();
+    }
+
+    default void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        new BulkTasks.ForEachTask<>(entrySpliterator(), parallelismThreshold, action).invoke();
+    }
+
+    /**
+     * Transforms every entry and combines the non-null results, returning null if there were none
+     */
+    default <U> U reduce(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> transformer,
+                         BiFunction<? super U, ? super U, ? extends U> reducer) {
+        return new BulkTasks.ReduceTask<K,V,U>(entrySpliterator(), parallelismThreshold, transformer, reducer).invoke();
+    }
+
+    /**
+     * Some non-null result of the search function, or null if it was null for every entry.  Which one comes back
+     * when several match depends on how the work got split, and everything stops soon after the first is found.
+     */
+    default <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        return new BulkTasks.SearchTask<>(entrySpliterator(), parallelismThreshold, searchFunction).invoke();
+    }
+}
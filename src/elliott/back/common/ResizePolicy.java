@@ -0,0 +1,133 @@
+package elliott.back.common;
+
+/**
+ * When an open addressing map grows, and by how much.  Immutable, so one policy can be shared between maps:
+ *
+ *   new SimpleCircularFlatMap<>(ResizePolicy.defaults().withMaxLoadFactor(0.5).withExpectedSize(1_000_000))
+ *
+ * A map grows when an insert would take it past the max load factor, or when an insert has to probe further
+ * than maxProbeLength.  The probe trigger only fires once the table is at least half way to its load limit,
+ * otherwise a handful of keys picked to collide could double the table over and over while it sits nearly empty.
+ *
+ * Tables stay a power of two in size, so the growth factor is rounded up to one: 1.5 grows like 2, 3 like 4.
+ */
+public final class ResizePolicy {
+
+    public static final double DEFAULT_MAX_LOAD_FACTOR = 0.75;
+    public static final double DEFAULT_GROWTH_FACTOR = 2;
+    public static final int DEFAULT_MAX_PROBE_LENGTH = 64;
+
+    private static final ResizePolicy DEFAULTS =
+            new ResizePolicy(DEFAULT_MAX_LOAD_FACTOR, DEFAULT_GROWTH_FACTOR, DEFAULT_MAX_PROBE_LENGTH, 0);
+
+    private final double maxLoadFactor;
+    private final double growthFactor;
+    private final int maxProbeLength;
+    private final int expectedSize;
+
+    private ResizePolicy(double maxLoadFactor, double growthFactor, int maxProbeLength, int expectedSize) {
+        if( !( maxLoadFactor > 0 && maxLoadFactor <= 1 ) )
+            throw new IllegalArgumentException("Max load factor must be in (0, 1]: " + maxLoadFactor);
+
+        if( !( growthFactor > 1 ) )
+            throw new IllegalArgumentException("Growth factor must be more than 1: " + growthFactor);
+
+        if( maxProbeLength < 1 )
+            throw new IllegalArgumentException("Max probe length must be positive: " + maxProbeLength);
+
+        if( expectedSize < 0 )
+            throw new IllegalArgumentException("Expected size can't be negative: " + expectedSize);
+
+        this.maxLoadFactor = maxLoadFactor;
+        this.growthFactor = growthFactor;
+        this.maxProbeLength = maxProbeLength;
+        this.expectedSize = expectedSize;
+    }
+
+    /**
+     * 0.75 load factor, doubling, 64 slot probe limit, no presizing
+     */
+    public static ResizePolicy defaults() {
+        return DEFAULTS;
+    }
+
+    public ResizePolicy withMaxLoadFactor(double maxLoadFactor) {
+        return new ResizePolicy(maxLoadFactor, this.growthFactor, this.maxProbeLength, this.expectedSize);
+    }
+
+    public ResizePolicy withGrowthFactor(double growthFactor) {
+        return new ResizePolicy(this.maxLoadFactor, growthFactor, this.maxProbeLength, this.expectedSize);
+    }
+
+    /**
+     * Integer.MAX_VALUE turns the probe trigger off
+     */
+    public ResizePolicy withMaxProbeLength(int maxProbeLength) {
+        return new ResizePolicy(this.maxLoadFactor, this.growthFactor, maxProbeLength, this.expectedSize);
+    }
+
+    /**
+     * Size the first table so this many entries fit without a resize
+     */
+    public ResizePolicy withExpectedSize(int expectedSize) {
+        return new ResizePolicy(this.maxLoadFactor, this.growthFactor, this.maxProbeLength, expectedSize);
+    }
+
+    public double getMaxLoadFactor() {
+        return maxLoadFactor;
+    }
+
+    public double getGrowthFactor() {
+        return growthFactor;
+    }
+
+    public int getMaxProbeLength() {
+        return maxProbeLength;
+    }
+
+    public int getExpectedSize() {
+        return expectedSize;
+    }
+
+    /**
+     * The first table's capacity: the requested size, or enough for the expected size, whichever is larger
+     */
+    public int initialCapacity(int requested) {
+        int forExpected = (int) Math.min(Math.ceil(this.expectedSize / this.maxLoadFactor), 1 << 30);
+        return HashingStrategy.tableSizeFor(Math.max(requested, forExpected));
+    }
+
+    /**
+     * Would holding this many entries take a table of this capacity past the max load factor
+     */
+    public boolean overLoaded(int size, int capacity) {
+        return size > capacity * this.maxLoadFactor;
+    }
+
+    /**
+     * Is an insert that had to probe this far reason enough to grow, see the class comment
+     */
+    public boolean overProbed(int probeLength, int size, int capacity) {
+        return probeLength > this.maxProbeLength && size >= capacity * this.maxLoadFactor / 2;
+    }
+
+    /**
+     * The capacity to grow a table to, always at least double
+     */
+    public int grow(int capacity) {
+        if( capacity >= 1 << 30 )
+            throw new IllegalStateException("Table can't grow past " + ( 1 << 30 ) + " slots");
+
+        return HashingStrategy.tableSizeFor((int) Math.min(Math.ceil(capacity * this.growthFactor), 1 << 30));
+    }
+
+    @Override
+    public String toString() {
+        return "ResizePolicy{" +
+                "maxLoadFactor=" + maxLoadFactor +
+                ", growthFactor=" + growthFactor +
+                ", maxProbeLength=" + maxProbeLength +
+                ", expectedSize=" + expectedSize +
+                '}';
+    }
+}
@@ -28,8 +28,9 @@ public class Tuple <K,V> implements Map.Entry<K, V> {
     }
 
     public V setValue(V value) {
+        V oldValue = this.value;
         this.value = value;
-        return this.value;
+        return oldValue;
     }
 
     /**
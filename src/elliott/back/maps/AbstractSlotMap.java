@@ -0,0 +1,457 @@
+package elliott.back.maps;
+
+import elliott.back.common.BulkLoadable;
+import elliott.back.common.HashingStrategy;
+import elliott.back.common.Tuple;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+
+import java.util.*;
+
+/***
+ * The parts the open addressed maps over parallel keys[] and vals[] arrays have in common: SwissTableFlatMap,
+ * CuckooFlatMap and HopscotchFlatMap.  Subclasses decide where a key lives and how it gets there, this class
+ * does everything that only needs to find a slot or empty one.
+ *
+ * A null key is stored as a private marker object so that a null in keys[] always means an empty slot.
+ *
+ * Keys that collide outright (the very same 32 bit hash) can overflow whatever bounded area a subclass
+ * probes, and growing the table never separates them.  Those few go in a small stash, scanned after the
+ * table, which stays empty unless keys collide like that.  Removing a slot never moves any other entry, so
+ * the views' Iterator.remove just empties it.
+ */
+abstract class AbstractSlotMap<K,V> implements Map<K,V>, BulkLoadable<K,V>, InstrumentedMap {
+
+    /**
+     * A failed insert only grows the table once it's at least this full, below that the keys must be colliding
+     * outright and go in the stash
+     */
+    protected static final double MIN_LOAD_TO_GROW = 0.5;
+
+    /**
+     * Stands in for the null key in keys[]
+     */
+    private static final Object NULL_KEY = new Object();
+
+    protected Object [] keys;
+    protected Object [] vals;
+    protected int currentSize = 0;
+
+    /**
+     * Entries that collided outright, see the class comment
+     */
+    protected final ArrayList<Tuple<K,V>> stash = new ArrayList<>(0);
+
+    /**
+     * Bumped on every structural change (new key, removed key, clear, resize) so iterators can fail fast
+     */
+    protected int modCount;
+
+    protected final HashingStrategy<? super K> hashing;
+    protected final int seed = HashingStrategy.newSeed();
+
+    protected final MapCounters counters = new MapCounters();
+
+    protected AbstractSlotMap(HashingStrategy<? super K> hashing) {
+        this.hashing = hashing;
+    }
+
+    /**
+     * The slot holding this key, or -1 if it isn't in the table (it may still be in the stash)
+     */
+    protected abstract int indexOf(Object key, int hash);
+
+    /**
+     * Put a key known to be in neither the table nor the stash somewhere, growing or stashing as needed.
+     * The caller counts it and bumps modCount.
+     */
+    protected abstract void insertNew(K key, V value, int hash);
+
+    /**
+     * Empty a full slot, also taking one off currentSize and bumping modCount
+     */
+    protected abstract void deleteSlot(int idx);
+
+    @Override
+    public int size() {
+        return currentSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return currentSize == 0;
+    }
+
+    protected static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static <K> K unmaskNull(Object key) {
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected int hashOf(Object key) {
+        return HashingStrategy.spread(this.hashing.computeHashCode((K) key), this.seed);
+    }
+
+    /**
+     * Whether the key in a full slot is this one, with the masked form to hand for the identity check
+     */
+    @SuppressWarnings("unchecked")
+    protected boolean keyMatches(Object candidate, Object masked, Object key) {
+        return candidate == masked || this.hashing.equals(unmaskNull(candidate), (K) key);
+    }
+
+    /**
+     * A failed insert this far off full won't be helped by more room, the keys just collide
+     */
+    protected boolean collidingOutright() {
+        return this.currentSize + 1 < this.keys.length * MIN_LOAD_TO_GROW;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int stashIndexOf(Object key) {
+        for( int idx = 0; idx < this.stash.size(); idx++ )
+            if( this.hashing.equals(this.stash.get(idx).getKey(), (K) key) )
+                return idx;
+
+        return -1;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        boolean found = indexOf(key, hashOf(key)) != -1 || ( !this.stash.isEmpty() && stashIndexOf(key) != -1 );
+        this.counters.recordLookup(found);
+        return found;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for( int idx = 0; idx < this.keys.length; idx++ )
+            if( this.keys[idx] != null && Objects.equals(this.vals[idx], value) )
+                return true;
+
+        for( Tuple<K,V> entry : this.stash )
+            if( Objects.equals(entry.getValue(), value) )
+                return true;
+
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int idx = indexOf(key, hashOf(key));
+
+        if( idx != -1 ) {
+            this.counters.recordLookup(true);
+            return (V) this.vals[idx];
+        }
+
+        if( !this.stash.isEmpty() ) {
+            idx = stashIndexOf(key);
+            if( idx != -1 ) {
+                this.counters.recordLookup(true);
+                return this.stash.get(idx).getValue();
+            }
+        }
+
+        this.counters.recordLookup(false);
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        int hash = hashOf(key);
+        int existing = indexOf(key, hash);
+
+        // the key itself is equal, replace the value in place
+        if( existing != -1 ) {
+            V oldValue = (V) this.vals[existing];
+            this.vals[existing] = value;
+            return oldValue;
+        }
+
+        if( !this.stash.isEmpty() ) {
+            int stashed = stashIndexOf(key);
+            if( stashed != -1 ) {
+                V oldValue = this.stash.get(stashed).getValue();
+                this.stash.get(stashed).setValue(value);
+                return oldValue;
+            }
+        }
+
+        insertNew(key, value, hash);
+        this.currentSize++;
+        this.modCount++;
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int idx = indexOf(key, hashOf(key));
+
+        if( idx != -1 ) {
+            V value = (V) this.vals[idx];
+            deleteSlot(idx);
+            return value;
+        }
+
+        if( !this.stash.isEmpty() ) {
+            idx = stashIndexOf(key);
+            if( idx != -1 ) {
+                V value = this.stash.remove(idx).getValue();
+                this.currentSize--;
+                this.modCount++;
+                return value;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        bulkLoad(map.entrySet().iterator(), map.size());
+    }
+
+    /**
+     * Subclasses with more per-slot state clear that too, then call this
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(this.keys, null);
+        Arrays.fill(this.vals, null);
+        this.stash.clear();
+        this.currentSize = 0;
+        this.modCount++;
+    }
+
+    /**
+     * Walks the full slots in array order, then the stash
+     */
+    private abstract class SlotIterator<T> implements Iterator<T> {
+        private int next = advance(0);
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        /**
+         * Positions past the end of keys[] are stash indexes
+         */
+        private int advance(int from) {
+            while( from < keys.length && keys[from] == null )
+                from++;
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < keys.length + stash.size();
+        }
+
+        @Override
+        public T next() {
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            if( !hasNext() )
+                throw new NoSuchElementException();
+
+            last = next;
+            next = advance(next + 1);
+            return last < keys.length ? atSlot(last) : atStash(stash.get(last - keys.length));
+        }
+
+        @Override
+        public void remove() {
+            if( last == -1 )
+                throw new IllegalStateException();
+
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            if( last < keys.length ) {
+                deleteSlot(last);
+            } else {
+                // the rest of the stash shuffles down one
+                stash.remove(last - keys.length);
+                next = last;
+                currentSize--;
+                modCount++;
+            }
+
+            expectedModCount = modCount;
+            last = -1;
+        }
+
+        abstract T atSlot(int pos);
+
+        abstract T atStash(Tuple<K,V> entry);
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new SlotIterator<K>() {
+                    @Override
+                    K atSlot(int pos) {
+                        return unmaskNull(keys[pos]);
+                    }
+
+                    @Override
+                    K atStash(Tuple<K, V> entry) {
+                        return entry.getKey();
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return currentSize;
+            }
+
+            @Override
+            public void clear() {
+                AbstractSlotMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    V atSlot(int pos) {
+                        return (V) vals[pos];
+                    }
+
+                    @Override
+                    V atStash(Tuple<K, V> entry) {
+                        return entry.getValue();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return currentSize;
+            }
+
+            @Override
+            public void clear() {
+                AbstractSlotMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Entries write setValue through to the slot they came from, stashed ones are the stash's own Tuples
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new SlotIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> atSlot(int pos) {
+                        return new SlotEntry(pos);
+                    }
+
+                    @Override
+                    Entry<K, V> atStash(Tuple<K, V> entry) {
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return currentSize;
+            }
+
+            @Override
+            public void clear() {
+                AbstractSlotMap.this.clear();
+            }
+        };
+    }
+
+    private final class SlotEntry extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = 1L;
+
+        private final Object [] table = vals;
+        private final int pos;
+
+        @SuppressWarnings("unchecked")
+        SlotEntry(int pos) {
+            super(unmaskNull(keys[pos]), (V) vals[pos]);
+            this.pos = pos;
+        }
+
+        @Override
+        public V setValue(V value) {
+            // only write through if the map hasn't resized away from us
+            if( this.table == vals )
+                this.table[this.pos] = value;
+
+            return super.setValue(value);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if( o == this )
+            return true;
+
+        if( !( o instanceof Map ) )
+            return false;
+
+        Map<?,?> other = (Map<?,?>) o;
+        if( other.size() != this.currentSize )
+            return false;
+
+        for( int idx = 0; idx < this.keys.length; idx++ )
+            if( this.keys[idx] != null && !hasEntry(other, unmaskNull(this.keys[idx]), this.vals[idx]) )
+                return false;
+
+        for( Tuple<K,V> entry : this.stash )
+            if( !hasEntry(other, entry.getKey(), entry.getValue()) )
+                return false;
+
+        return true;
+    }
+
+    private static boolean hasEntry(Map<?,?> map, Object key, Object value) {
+        return Objects.equals(value, map.get(key)) && ( value != null || map.containsKey(key) );
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = 0;
+
+        for( int idx = 0; idx < this.keys.length; idx++ )
+            if( this.keys[idx] != null )
+                hashCode += Objects.hashCode(unmaskNull(this.keys[idx])) ^ Objects.hashCode(this.vals[idx]);
+
+        for( Tuple<K,V> entry : this.stash )
+            hashCode += Objects.hashCode(entry.getKey()) ^ Objects.hashCode(entry.getValue());
+
+        return hashCode;
+    }
+}
@@ -0,0 +1,673 @@
+package elliott.back.maps;
+
+import elliott.back.common.HashingStrategy;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/***
+ * This class is the list bucket map made safe for concurrent use with lock striping.
+ *
+ * Buckets are singly linked chains whose heads live in an AtomicReferenceArray, so a reader
+ * just does a volatile read of the head and walks the chain without taking any lock.  Chain
+ * links are final; a put of a new key pushes a new head, a replace writes the node's volatile
+ * value, and a remove copies the nodes in front of the removed one.  Readers therefore always
+ * see a consistent chain.
+ *
+ * Writers lock one of N stripes, where the stripe is the low bits of the bucket index.  Because
+ * the table is a power of two at least as big as the stripe count, doubling it keeps every key
+ * in its stripe.  Each stripe counts its own entries, size() adds them up, and a stripe
+ * whose buckets average more than reSizeWhenAverageIs entries triggers a resize.
+ *
+ * Writers only run in parallel while they land on different stripes, so with N stripes and T writing
+ * threads roughly T/N of them collide on any one lock.  N defaults to four per available processor,
+ * and never fewer than 32, to keep that well under one; ThreadScalingHarness's WRITE_ONLY mix is the
+ * one to run when trying a different count.
+ *
+ * Resizing locks every stripe, so writers wait, builds the doubled table off to the side and then
+ * publishes it through a volatile write.  Readers carry on with the old table until then,
+ * which stays valid because nobody can write to it.
+ *
+ * Every read-then-write operation (putIfAbsent, replace, the conditional remove, compute* and merge)
+ * runs under the key's stripe lock, so it is atomic against other writers.  The functions passed to
+ * compute* and merge run under that lock too, and must not update this map.  Unlike
+ * ConcurrentHashMap, null keys and values are allowed; as in HashMap, a key mapped to null counts as
+ * absent for putIfAbsent, computeIfAbsent and merge.
+ */
+public class ConcurrentListBucketMap<K,V> implements ConcurrentMap<K,V>, InstrumentedMap {
+
+    private static final class Node<K,V> {
+        final int hash;
+        final K key;
+        volatile V value;
+        final Node<K,V> next;
+
+        Node(int hash, K key, V value, Node<K,V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A lock with its own entry count, padded out so neighbouring stripes don't share a cache line
+     */
+    @SuppressWarnings("unused")
+    private static final class Stripe extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        volatile int count;
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    /**
+     * Four stripes per core, at least 32, rounded up to a power of two
+     */
+    public static final int DEFAULT_STRIPES =
+            HashingStrategy.tableSizeFor(Math.max(32, 4 * Runtime.getRuntime().availableProcessors()));
+
+    private final Stripe [] stripes;
+    private final int stripeMask;
+    private final double reSizeWhenAverageIs;
+
+    private final HashingStrategy<? super K> hashing;
+    private final int seed = HashingStrategy.newSeed();
+
+    private final MapCounters counters = MapCounters.concurrent();
+
+    private volatile AtomicReferenceArray<Node<K,V>> table;
+
+    /**
+     * Default construct = one bucket per stripe, DEFAULT_STRIPES stripes
+     */
+    public ConcurrentListBucketMap() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * DEFAULT_STRIPES stripes, growing once the buckets average 4 entries
+     */
+    public ConcurrentListBucketMap(int initialSize) {
+        this(initialSize, DEFAULT_STRIPES, 4.0);
+    }
+
+    public ConcurrentListBucketMap(int initialSize, int stripeCount, double reSizeWhenAverageIs) {
+        this(initialSize, stripeCount, reSizeWhenAverageIs, HashingStrategy.objects());
+    }
+
+    public ConcurrentListBucketMap(int initialSize, int stripeCount, double reSizeWhenAverageIs, HashingStrategy<? super K> hashing) {
+        int stripeTotal = HashingStrategy.tableSizeFor(stripeCount);
+        int capacity = Math.max(stripeTotal, HashingStrategy.tableSizeFor(initialSize));
+
+        this.stripes = new Stripe[stripeTotal];
+        for( int idx = 0; idx < stripeTotal; idx++ )
+            this.stripes[idx] = new Stripe();
+
+        this.stripeMask = stripeTotal - 1;
+        this.reSizeWhenAverageIs = reSizeWhenAverageIs;
+        this.table = new AtomicReferenceArray<>(capacity);
+        this.hashing = hashing;
+    }
+
+    /**
+     * Spread the hash over all the bits, the table and the stripes are both masked with the low ones
+     */
+    @SuppressWarnings("unchecked")
+    private int hash(Object key) {
+        return HashingStrategy.spread(this.hashing.computeHashCode((K) key), this.seed);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean keysEqual(K nodeKey, Object key) {
+        return nodeKey == key || this.hashing.equals(nodeKey, (K) key);
+    }
+
+    private Stripe stripeFor(int hash) {
+        return this.stripes[hash & this.stripeMask];
+    }
+
+    @Override
+    public int size() {
+        long total = 0;
+        for( Stripe stripe : this.stripes )
+            total += stripe.count;
+
+        return (int) Math.min(total, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for( Stripe stripe : this.stripes )
+            if( stripe.count != 0 )
+                return false;
+
+        return true;
+    }
+
+    private Node<K,V> findNode(Object key) {
+        return findNode(this.table, hash(key), key);
+    }
+
+    private Node<K,V> findNode(AtomicReferenceArray<Node<K,V>> current, int hash, Object key) {
+        for( Node<K,V> node = current.get(hash & ( current.length() - 1 )); node != null; node = node.next )
+            if( node.hash == hash && keysEqual(node.key, key) )
+                return node;
+
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        boolean found = findNode(key) != null;
+        this.counters.recordLookup(found);
+        return found;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        AtomicReferenceArray<Node<K,V>> current = this.table;
+
+        for( int idx = 0; idx < current.length(); idx++ )
+            for( Node<K,V> node = current.get(idx); node != null; node = node.next )
+                if( Objects.equals(node.value, value) )
+                    return true;
+
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<K,V> node = findNode(key);
+        this.counters.recordLookup(node != null);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        Node<K,V> node = findNode(key);
+        this.counters.recordLookup(node != null);
+        return node == null ? defaultValue : node.value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putVal(key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(key, value, true);
+    }
+
+    private V putVal(K key, V value, boolean onlyIfAbsent) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        boolean needsResize;
+
+        stripe.lock();
+        try {
+            // resizes hold every stripe lock, so the table can't change under us from here on
+            Node<K,V> node = findNode(this.table, hash, key);
+            if( node != null ) {
+                V oldValue = node.value;
+                if( !onlyIfAbsent || oldValue == null )
+                    node.value = value;
+                return oldValue;
+            }
+
+            needsResize = insert(stripe, hash, key, value);
+        } finally {
+            stripe.unlock();
+        }
+
+        if( needsResize )
+            reHash();
+
+        return null;
+    }
+
+    /**
+     * Push a new node for a key known to be absent.  The caller holds the stripe lock, and has to call
+     * reHash once it lets go of it if this returns true.
+     */
+    private boolean insert(Stripe stripe, int hash, K key, V value) {
+        AtomicReferenceArray<Node<K,V>> current = this.table;
+        int bucketIdx = hash & ( current.length() - 1 );
+
+        current.set(bucketIdx, new Node<>(hash, key, value, current.get(bucketIdx)));
+        stripe.count++;
+
+        // keep an accounting, this stripe owns length / stripes buckets
+        return stripe.count > ( current.length() / this.stripes.length ) * this.reSizeWhenAverageIs;
+    }
+
+    /**
+     * Take a node out of its chain by copying everything in front of it onto the chain behind it.
+     * The caller holds the stripe lock.
+     */
+    private void unlink(Stripe stripe, Node<K,V> found) {
+        AtomicReferenceArray<Node<K,V>> current = this.table;
+        int bucketIdx = found.hash & ( current.length() - 1 );
+
+        Node<K,V> newHead = found.next;
+        for( Node<K,V> node = current.get(bucketIdx); node != found; node = node.next )
+            newHead = new Node<>(node.hash, node.key, node.value, newHead);
+
+        current.set(bucketIdx, newHead);
+        stripe.count--;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+
+        stripe.lock();
+        try {
+            Node<K,V> found = findNode(this.table, hash, key);
+            if( found == null )
+                return null;
+
+            unlink(stripe, found);
+            return found.value;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+
+        stripe.lock();
+        try {
+            Node<K,V> found = findNode(this.table, hash, key);
+            if( found == null || !Objects.equals(found.value, value) )
+                return false;
+
+            unlink(stripe, found);
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+
+        stripe.lock();
+        try {
+            Node<K,V> node = findNode(this.table, hash, key);
+            if( node == null )
+                return null;
+
+            V oldValue = node.value;
+            node.value = value;
+            return oldValue;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+
+        stripe.lock();
+        try {
+            Node<K,V> node = findNode(this.table, hash, key);
+            if( node == null || !Objects.equals(node.value, oldValue) )
+                return false;
+
+            node.value = newValue;
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Each key is replaced under its stripe lock, walking the table weakly consistently like the iterators
+     */
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+
+        for( K key : keySet() ) {
+            int hash = hash(key);
+            Stripe stripe = stripeFor(hash);
+
+            stripe.lock();
+            try {
+                Node<K,V> node = findNode(this.table, hash, key);
+                if( node != null )
+                    node.value = function.apply(node.key, node.value);
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        boolean needsResize = false;
+        V newValue;
+
+        stripe.lock();
+        try {
+            Node<K,V> node = findNode(this.table, hash, key);
+            if( node != null && node.value != null )
+                return node.value;
+
+            // a null from the function leaves the map as it was
+            newValue = mappingFunction.apply(key);
+            if( newValue == null )
+                return null;
+
+            if( node != null )
+                node.value = newValue;
+            else
+                needsResize = insert(stripe, hash, key, newValue);
+        } finally {
+            stripe.unlock();
+        }
+
+        if( needsResize )
+            reHash();
+
+        return newValue;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return compute(key, (k, oldValue) -> oldValue == null ? null : remappingFunction.apply(k, oldValue), true);
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return compute(key, remappingFunction, false);
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        return compute(key, (k, oldValue) -> oldValue == null ? value : remappingFunction.apply(oldValue, value), false);
+    }
+
+    /**
+     * The shared body of compute, computeIfPresent and merge: apply the function to the current value
+     * (null when absent) under the stripe lock, then store what it returns, or remove the key when that
+     * is null.  With onlyIfPresent, an absent key or one mapped to null is left alone.
+     */
+    private V compute(K key, BiFunction<? super K, ? super V, ? extends V> function, boolean onlyIfPresent) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        boolean needsResize = false;
+        V newValue;
+
+        stripe.lock();
+        try {
+            Node<K,V> node = findNode(this.table, hash, key);
+            V oldValue = node == null ? null : node.value;
+
+            if( onlyIfPresent && oldValue == null )
+                return null;
+
+            newValue = function.apply(key, oldValue);
+
+            if( newValue == null ) {
+                if( node != null )
+                    unlink(stripe, node);
+            } else if( node != null ) {
+                node.value = newValue;
+            } else {
+                needsResize = insert(stripe, hash, key, newValue);
+            }
+        } finally {
+            stripe.unlock();
+        }
+
+        if( needsResize )
+            reHash();
+
+        return newValue;
+    }
+
+    private void lockAll() {
+        for( Stripe stripe : this.stripes )
+            stripe.lock();
+    }
+
+    private void unlockAll() {
+        for( int idx = this.stripes.length - 1; idx >= 0; idx-- )
+            this.stripes[idx].unlock();
+    }
+
+    /**
+     * Rehashing will double the number of buckets, readers keep using the old table meanwhile
+     */
+    private void reHash() {
+        AtomicReferenceArray<Node<K,V>> oldTable = this.table;
+
+        lockAll();
+        try {
+            // someone else already resized while we waited for the locks
+            if( this.table != oldTable )
+                return;
+
+            long started = this.counters.resizeStarted();
+            AtomicReferenceArray<Node<K,V>> newTable = new AtomicReferenceArray<>(oldTable.length() * 2);
+            int newMask = newTable.length() - 1;
+
+            for( int idx = 0; idx < oldTable.length(); idx++ )
+                for( Node<K,V> node = oldTable.get(idx); node != null; node = node.next ) {
+                    int newIdx = node.hash & newMask;
+                    newTable.set(newIdx, new Node<>(node.hash, node.key, node.value, newTable.get(newIdx)));
+                }
+
+            this.table = newTable;
+            this.counters.resizeFinished(started);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for( Entry<? extends K, ? extends V> entry : map.entrySet() )
+            this.put(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public void clear() {
+        lockAll();
+        try {
+            AtomicReferenceArray<Node<K,V>> current = this.table;
+            for( int idx = 0; idx < current.length(); idx++ )
+                current.set(idx, null);
+
+            for( Stripe stripe : this.stripes )
+                stripe.count = 0;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Weakly consistent walk of whatever table was current when it started
+     */
+    private abstract class NodeIterator<T> implements Iterator<T> {
+        private final AtomicReferenceArray<Node<K,V>> current = table;
+        private int bucketIdx = 0;
+        private Node<K,V> next;
+        private Node<K,V> lastReturned;
+
+        NodeIterator() {
+            advance();
+        }
+
+        private void advance() {
+            if( next != null )
+                next = next.next;
+
+            while( next == null && bucketIdx < current.length() )
+                next = current.get(bucketIdx++);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if( next == null )
+                throw new NoSuchElementException();
+
+            lastReturned = next;
+            advance();
+            return at(lastReturned);
+        }
+
+        @Override
+        public void remove() {
+            if( lastReturned == null )
+                throw new IllegalStateException();
+
+            ConcurrentListBucketMap.this.remove(lastReturned.key);
+            lastReturned = null;
+        }
+
+        abstract T at(Node<K,V> node);
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new NodeIterator<K>() {
+                    @Override
+                    K at(Node<K,V> node) {
+                        return node.key;
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return ConcurrentListBucketMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new NodeIterator<V>() {
+                    @Override
+                    V at(Node<K,V> node) {
+                        return node.value;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ConcurrentListBucketMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new NodeIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> at(Node<K,V> node) {
+                        return new MapEntry(node.key, node.value);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ConcurrentListBucketMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * A snapshot of one node whose setValue also puts the new value into the map, as ConcurrentHashMap's
+     * entries do.  The node itself may have been replaced by a remove or a resize since.
+     */
+    private final class MapEntry extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = 1L;
+
+        MapEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    /**
+     * An entry's probe length is its position in its chain.  Reads the table the same way get does, no locks.
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        AtomicReferenceArray<Node<K,V>> current = this.table;
+
+        for( int idx = 0; idx < current.length(); idx++ ) {
+            int position = 0;
+            for( Node<K,V> node = current.get(idx); node != null; node = node.next )
+                histogram.record(position++);
+        }
+
+        return new MapStatistics(size(), current.length(), histogram, this.counters);
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentListBucketMap{" +
+                "currentSize=" + size() +
+                ", buckets=" + table.length() +
+                ", stripes=" + stripes.length +
+                ", reSizeWhenAverageIs=" + reSizeWhenAverageIs +
+                '}';
+    }
+}
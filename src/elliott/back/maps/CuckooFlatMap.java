@@ -0,0 +1,294 @@
+package elliott.back.maps;
+
+import elliott.back.common.HashingStrategy;
+import elliott.back.common.Tuple;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ * This class is a bucketized cuckoo hash map, with no concurrency protections.
+ *
+ * Slots are grouped into buckets of BUCKET_SIZE, and every key has exactly two buckets it may live in, so a
+ * lookup looks at no more than 2 * BUCKET_SIZE slots however full the table is.  Like ParallelArrayFlatMap,
+ * keys, values and cached spread hashes are kept in parallel arrays, and the cached hash is compared
+ * before equals.
+ *
+ * The second bucket is the first one xor'd with an offset worked out from the hash, so from either bucket
+ * and the cached hash you get the other without rehashing the key.  An insert that finds both buckets full
+ * kicks a random entry out of one, moves it to its other bucket, and so on up to MAX_KICKS times; running
+ * out of kicks grows the table.
+ *
+ * Keys with the very same 32 bit hash share both buckets whatever the table size, so more than
+ * 2 * BUCKET_SIZE of them can never all fit.  Those few go in AbstractSlotMap's stash, which lookups scan
+ * after the two buckets.
+ *
+ * Limited to around MAX_INT entries because arrays are int-indexed in Java.
+ */
+public class CuckooFlatMap<K,V> extends AbstractSlotMap<K,V> {
+
+    static final int BUCKET_SIZE = 4;
+
+    /**
+     * Random walk insertion gets slow past here, with 4 slot buckets
+     */
+    private static final double MAX_LOAD_FACTOR = 0.9;
+
+    /**
+     * How many entries an insert may displace before giving up and growing the table
+     */
+    private static final int MAX_KICKS = 256;
+
+    private int [] hashes;
+
+    /**
+     * xorshift state for picking which entry to kick out
+     */
+    private int kickRandom = 0x9E3779B9;
+
+    /**
+     * Default construct = initial 32 entries
+     */
+    public CuckooFlatMap() {
+        this(32);
+    }
+
+    public CuckooFlatMap(int initialSize ) {
+        this(initialSize, HashingStrategy.objects());
+    }
+
+    public CuckooFlatMap(int initialSize, HashingStrategy<? super K> hashing ) {
+        super(hashing);
+        allocate(bucketsFor(initialSize));
+    }
+
+    /**
+     * At least two buckets, so a key's two buckets can differ
+     */
+    private static int bucketsFor(int slots) {
+        return Math.max(2, HashingStrategy.tableSizeFor(( slots + BUCKET_SIZE - 1 ) / BUCKET_SIZE));
+    }
+
+    private void allocate(int buckets) {
+        this.keys = new Object [buckets * BUCKET_SIZE];
+        this.vals = new Object [buckets * BUCKET_SIZE];
+        this.hashes = new int [buckets * BUCKET_SIZE];
+    }
+
+    private int bucketMask() {
+        return this.keys.length / BUCKET_SIZE - 1;
+    }
+
+    private int primaryBucket(int hash) {
+        return hash & bucketMask();
+    }
+
+    /**
+     * The key's other bucket, from either one.  The offset is odd so the two never coincide.
+     */
+    private int otherBucket(int bucket, int hash) {
+        return bucket ^ ( ( HashingStrategy.spread(hash, 0x5BD1E995) | 1 ) & bucketMask() );
+    }
+
+    private int indexInBucket(int bucket, Object masked, Object key, int hash) {
+        int start = bucket * BUCKET_SIZE;
+
+        for( int idx = start; idx < start + BUCKET_SIZE; idx++ ) {
+            Object candidate = this.keys[idx];
+
+            if( candidate != null && this.hashes[idx] == hash && keyMatches(candidate, masked, key) )
+                return idx;
+        }
+
+        return -1;
+    }
+
+    /**
+     * The slot holding this key, or -1 if it isn't in either of its buckets
+     */
+    @Override
+    protected int indexOf(Object key, int hash) {
+        Object masked = maskNull(key);
+        int bucket = primaryBucket(hash);
+
+        int idx = indexInBucket(bucket, masked, key, hash);
+        if( idx != -1 )
+            return idx;
+
+        return indexInBucket(otherBucket(bucket, hash), masked, key, hash);
+    }
+
+    private int freeSlot(int bucket) {
+        int start = bucket * BUCKET_SIZE;
+
+        for( int idx = start; idx < start + BUCKET_SIZE; idx++ )
+            if( this.keys[idx] == null )
+                return idx;
+
+        return -1;
+    }
+
+    private int nextKickRandom() {
+        int x = this.kickRandom;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        return this.kickRandom = x;
+    }
+
+    /**
+     * Place an entry whose key is known not to be in the map.  Returns null if it (and everything it displaced)
+     * found a slot, otherwise the entry left without one, which may not be the one passed in.
+     */
+    private Tuple<Object,Object> insertAbsent(Object maskedKey, Object value, int hash) {
+        int bucket = primaryBucket(hash);
+        int idx = freeSlot(bucket);
+
+        if( idx == -1 ) {
+            bucket = otherBucket(bucket, hash);
+            idx = freeSlot(bucket);
+        }
+
+        for( int kicks = 0; idx == -1; kicks++ ) {
+            if( kicks == MAX_KICKS )
+                return new Tuple<>(maskedKey, value);
+
+            // swap with a random resident, then try to find the resident a slot in its other bucket
+            int victim = bucket * BUCKET_SIZE + ( ( nextKickRandom() >>> 1 ) % BUCKET_SIZE );
+
+            Object victimKey = this.keys[victim];
+            Object victimValue = this.vals[victim];
+            int victimHash = this.hashes[victim];
+
+            this.keys[victim] = maskedKey;
+            this.vals[victim] = value;
+            this.hashes[victim] = hash;
+
+            maskedKey = victimKey;
+            value = victimValue;
+            hash = victimHash;
+
+            bucket = otherBucket(bucket, hash);
+            idx = freeSlot(bucket);
+        }
+
+        this.keys[idx] = maskedKey;
+        this.vals[idx] = value;
+        this.hashes[idx] = hash;
+        return null;
+    }
+
+    /**
+     * Rebuild into the given number of buckets, giving the stash and any homeless entry another go.  Anything
+     * that still can't be placed stays in the stash.
+     */
+    @SuppressWarnings("unchecked")
+    private void reHash(int buckets, Tuple<Object,Object> homeless) {
+        this.modCount++;
+        long started = this.counters.resizeStarted();
+
+        Object [] oldKeys = this.keys;
+        Object [] oldVals = this.vals;
+        int [] oldHashes = this.hashes;
+
+        List<Tuple<K,V>> oldStash = new ArrayList<>(this.stash);
+        this.stash.clear();
+
+        allocate(buckets);
+
+        for( int idx = 0; idx < oldKeys.length; idx++ )
+            if( oldKeys[idx] != null )
+                place(oldKeys[idx], oldVals[idx], oldHashes[idx]);
+
+        for( Tuple<K,V> entry : oldStash )
+            place(maskNull(entry.getKey()), entry.getValue(), hashOf(entry.getKey()));
+
+        if( homeless != null )
+            place(homeless.getKey(), homeless.getValue(), hashOf(unmaskNull(homeless.getKey())));
+
+        this.counters.resizeFinished(started);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void place(Object maskedKey, Object value, int hash) {
+        Tuple<Object,Object> left = insertAbsent(maskedKey, value, hash);
+
+        if( left != null )
+            this.stash.add(new Tuple<>(unmaskNull(left.getKey()), (V) left.getValue()));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void insertNew(K key, V value, int hash) {
+        // running out of space, we need to resize!
+        if( this.currentSize + 1 > this.keys.length * MAX_LOAD_FACTOR )
+            reHash(this.keys.length / BUCKET_SIZE * 2, null);
+
+        Tuple<Object,Object> homeless = insertAbsent(maskNull(key), value, hash);
+
+        if( homeless != null ) {
+            if( collidingOutright() )
+                this.stash.add(new Tuple<>(unmaskNull(homeless.getKey()), (V) homeless.getValue()));
+            else
+                reHash(this.keys.length / BUCKET_SIZE * 2, homeless);
+        }
+    }
+
+    /**
+     * Nothing ever probes past a slot, so emptying it is all a remove takes
+     */
+    @Override
+    protected void deleteSlot(int idx) {
+        this.keys[idx] = null;
+        this.vals[idx] = null;
+        this.hashes[idx] = 0;
+        this.currentSize--;
+        this.modCount++;
+    }
+
+    @Override
+    public void ensureCapacity(int expectedSize) {
+        int buckets = bucketsFor((int) Math.ceil(expectedSize / MAX_LOAD_FACTOR));
+
+        if( buckets * BUCKET_SIZE > this.keys.length )
+            reHash(buckets, null);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.hashes, 0);
+        super.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "CuckooFlatMap{" +
+                "currentSize=" + currentSize +
+                ", capacity=" + keys.length +
+                ", stashed=" + stash.size() +
+                '}';
+    }
+
+    /**
+     * Probe length here is 0 for an entry in its first bucket, 1 in its second and 2 in the stash
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        Object [] currentKeys = this.keys;
+        int [] currentHashes = this.hashes;
+        int mask = Math.min(currentKeys.length, currentHashes.length) / BUCKET_SIZE - 1;
+
+        for( int idx = 0; idx < Math.min(currentKeys.length, currentHashes.length); idx++ )
+            if( currentKeys[idx] != null )
+                histogram.record(idx / BUCKET_SIZE == ( currentHashes[idx] & mask ) ? 0 : 1);
+
+        if( !this.stash.isEmpty() )
+            histogram.record(2, this.stash.size());
+
+        return new MapStatistics(this.currentSize, currentKeys.length, histogram, this.counters);
+    }
+}
@@ -0,0 +1,704 @@
+package elliott.back.maps;
+
+import elliott.back.common.HashingStrategy;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/***
+ * This class is an immutable map for build-once, read-forever data, built by copyOf() over a minimal perfect
+ * hash of the keys.  Safe to read from any number of threads once built.
+ *
+ * Keys and values sit in dense arrays exactly as long as the map, no empty slots and no Tuples, and a lookup
+ * is one hash, one slot and one equals: the slot holds either the key or some other key, never a run to probe.
+ *
+ * The perfect hash is PTHash style.  Keys are split into buckets of about BUCKET_SIZE, skewed so a few big
+ * buckets hold most of the keys, and each bucket gets a pilot: the first number that, mixed into the hash of
+ * every key in the bucket, sends them all to slots nobody else has taken yet.  Biggest buckets go first while
+ * the table is empty; the pilots are all that's stored, an int per bucket.  Filling every last slot that way
+ * would take the final keys about n tries each, so pilots are searched over a table a little bigger than the
+ * map and the few keys landing past its end are remapped into the holes left below it.
+ *
+ * A perfect hash can't separate keys with the very same hash code, so all but the first key of each such
+ * group go in a stash at the end of the arrays, sorted by hash code and binary searched on a miss.  Honest
+ * keys almost never share a hash code, so the stash is normally empty, and flooding it with collisions
+ * still only costs a log.
+ *
+ * Limited to around MAX_INT entries because arrays are int-indexed in Java.
+ */
+public final class FrozenMap<K,V> implements Map<K,V>, InstrumentedMap {
+
+    /**
+     * Average keys per pilot.  Bigger buckets take less memory but longer to find pilots for.
+     */
+    private static final int BUCKET_SIZE = 3;
+
+    /**
+     * The 60% of keys whose hash falls below this go to the first 30% of buckets
+     */
+    private static final long DENSE_KEYS = (long) ( 0.6 * ( 1L << 32 ) );
+    private static final double DENSE_BUCKETS = 0.3;
+
+    /**
+     * How full the table pilots are searched over gets, the rest is remapped
+     */
+    private static final double SEARCH_LOAD_FACTOR = 0.99;
+
+    /**
+     * How many seeds to try before giving up on a build.  A seed only fails if some bucket runs through
+     * every pilot up to the limit, which doesn't happen in practice.
+     */
+    private static final int MAX_ATTEMPTS = 8;
+
+    /**
+     * Stands in for the null key in keys[]
+     */
+    private static final Object NULL_KEY = new Object();
+
+    private final Object [] keys;
+    private final Object [] vals;
+
+    /**
+     * Keys 0 .. perfect - 1 are placed by the perfect hash, the rest are the stash
+     */
+    private final int perfect;
+    private final int [] pilots;
+    private final int denseBuckets;
+
+    /**
+     * Slots the pilots were searched over, and where the ones from perfect up really went
+     */
+    private final int tableSize;
+    private final int [] remap;
+
+    /**
+     * Raw hash codes of the stashed keys, ascending
+     */
+    private final int [] stashHashes;
+
+    private final HashingStrategy<? super K> hashing;
+    private final int seed;
+
+    /**
+     * Striped, since a frozen map is mostly read by many threads at once
+     */
+    private final MapCounters counters = MapCounters.concurrent();
+
+    private FrozenMap(Object [] keys, Object [] vals, int perfect, int [] pilots, int denseBuckets, int tableSize,
+                      int [] remap, int [] stashHashes, HashingStrategy<? super K> hashing, int seed) {
+        this.keys = keys;
+        this.vals = vals;
+        this.perfect = perfect;
+        this.pilots = pilots;
+        this.denseBuckets = denseBuckets;
+        this.tableSize = tableSize;
+        this.remap = remap;
+        this.stashHashes = stashHashes;
+        this.hashing = hashing;
+        this.seed = seed;
+    }
+
+    public static <K,V> FrozenMap<K,V> copyOf(Map<? extends K, ? extends V> map) {
+        return copyOf(map, HashingStrategy.objects());
+    }
+
+    /**
+     * Copy the map, hashing and comparing keys with the given strategy.  Keys which are distinct in the source
+     * but equal under the strategy are an IllegalArgumentException.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K,V> FrozenMap<K,V> copyOf(Map<? extends K, ? extends V> map, HashingStrategy<? super K> hashing) {
+        if( map instanceof FrozenMap && ( (FrozenMap<?,?>) map ).hashing == hashing )
+            return (FrozenMap<K,V>) map;
+
+        int size = map.size();
+        Object [] srcKeys = new Object[size];
+        Object [] srcVals = new Object[size];
+        int count = 0;
+
+        for( Map.Entry<? extends K, ? extends V> entry : map.entrySet() ) {
+            if( count == size )
+                throw new ConcurrentModificationException();
+
+            srcKeys[count] = maskNull(entry.getKey());
+            srcVals[count] = entry.getValue();
+            count++;
+        }
+
+        if( count != size )
+            throw new ConcurrentModificationException();
+
+        // sort by hash code, to find the keys a perfect hash can't tell apart
+        long [] byHash = new long[size];
+        for( int idx = 0; idx < size; idx++ )
+            byHash[idx] = ( (long) hashCodeOf(hashing, srcKeys[idx]) << 32 ) | idx;
+
+        Arrays.sort(byHash);
+
+        int [] perfectKeys = new int[size];
+        int [] stashKeys = new int[size];
+        int [] stashHashes = new int[size];
+        int perfect = 0;
+        int stashed = 0;
+
+        for( int start = 0, end; start < size; start = end ) {
+            int hashCode = (int) ( byHash[start] >> 32 );
+            end = start + 1;
+
+            while( end < size && (int) ( byHash[end] >> 32 ) == hashCode )
+                end++;
+
+            perfectKeys[perfect++] = (int) byHash[start];
+
+            if( end - start == 1 )
+                continue;
+
+            // the first key of the group goes through the perfect hash, the rest to the stash
+            Set<StrategyKey> group = new HashSet<>();
+            group.add(new StrategyKey(hashing, srcKeys[(int) byHash[start]], hashCode));
+
+            for( int idx = start + 1; idx < end; idx++ ) {
+                int key = (int) byHash[idx];
+
+                if( !group.add(new StrategyKey(hashing, srcKeys[key], hashCode)) )
+                    throw new IllegalArgumentException("Duplicate key under the hashing strategy: " + unmaskNull(srcKeys[key]));
+
+                stashKeys[stashed] = key;
+                stashHashes[stashed] = hashCode;
+                stashed++;
+            }
+        }
+
+        int buckets = Math.max(1, ( perfect + BUCKET_SIZE - 1 ) / BUCKET_SIZE);
+        int denseBuckets = Math.max(1, (int) ( buckets * DENSE_BUCKETS ));
+        int tableSize = (int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(perfect / SEARCH_LOAD_FACTOR));
+
+        for( int attempt = 0; attempt < MAX_ATTEMPTS; attempt++ ) {
+            int seed = HashingStrategy.newSeed();
+            int [] slots = new int[perfect];
+            long [] taken = new long[( tableSize + 63 ) >>> 6];
+            int [] pilots = findPilots(hashing, srcKeys, perfectKeys, perfect, buckets, denseBuckets, tableSize, seed, slots, taken);
+
+            if( pilots == null )
+                continue;
+
+            // as many keys landed past the end as there are holes below it, pair them up in order
+            int [] remap = new int[tableSize - perfect];
+            for( int slot = perfect, hole = 0; slot < tableSize; slot++ ) {
+                if( !isTaken(taken, slot) )
+                    continue;
+
+                while( isTaken(taken, hole) )
+                    hole++;
+
+                remap[slot - perfect] = hole++;
+            }
+
+            Object [] keys = new Object[size];
+            Object [] vals = new Object[size];
+
+            for( int idx = 0; idx < perfect; idx++ ) {
+                int slot = slots[idx] < perfect ? slots[idx] : remap[slots[idx] - perfect];
+                keys[slot] = srcKeys[perfectKeys[idx]];
+                vals[slot] = srcVals[perfectKeys[idx]];
+            }
+
+            for( int idx = 0; idx < stashed; idx++ ) {
+                keys[perfect + idx] = srcKeys[stashKeys[idx]];
+                vals[perfect + idx] = srcVals[stashKeys[idx]];
+            }
+
+            return new FrozenMap<>(keys, vals, perfect, pilots, denseBuckets, tableSize, remap,
+                    Arrays.copyOf(stashHashes, stashed), hashing, seed);
+        }
+
+        throw new IllegalStateException("No perfect hash found for " + perfect + " keys in " + MAX_ATTEMPTS + " attempts");
+    }
+
+    /**
+     * Find a pilot for every bucket, biggest bucket first, recording where each of the perfect keys lands in
+     * slots[] and setting its bit in taken[].  Returns null if some bucket can't be placed, so the caller can try
+     * another seed.
+     */
+    private static int [] findPilots(HashingStrategy<?> hashing, Object [] srcKeys, int [] perfectKeys, int perfect,
+                                     int buckets, int denseBuckets, int tableSize, int seed, int [] slots, long [] taken) {
+        long [] mixed = new long[perfect];
+        int [] bucketStart = new int[buckets + 1];
+
+        for( int idx = 0; idx < perfect; idx++ ) {
+            mixed[idx] = mix(HashingStrategy.spread(hashCodeOf(hashing, srcKeys[perfectKeys[idx]]), seed));
+            bucketStart[bucketOf(mixed[idx], denseBuckets, buckets) + 1]++;
+        }
+
+        // counting sort the keys into their buckets
+        int maxBucket = 0;
+        for( int bucket = 0; bucket < buckets; bucket++ ) {
+            maxBucket = Math.max(maxBucket, bucketStart[bucket + 1]);
+            bucketStart[bucket + 1] += bucketStart[bucket];
+        }
+
+        int [] members = new int[perfect];
+        int [] fill = Arrays.copyOf(bucketStart, buckets);
+        for( int idx = 0; idx < perfect; idx++ )
+            members[fill[bucketOf(mixed[idx], denseBuckets, buckets)]++] = idx;
+
+        // and the buckets by size, biggest first
+        int [] sizeStart = new int[maxBucket + 2];
+        for( int bucket = 0; bucket < buckets; bucket++ )
+            sizeStart[maxBucket - ( bucketStart[bucket + 1] - bucketStart[bucket] ) + 1]++;
+
+        for( int size = 0; size <= maxBucket; size++ )
+            sizeStart[size + 1] += sizeStart[size];
+
+        int [] order = new int[buckets];
+        for( int bucket = 0; bucket < buckets; bucket++ )
+            order[sizeStart[maxBucket - ( bucketStart[bucket + 1] - bucketStart[bucket] )]++] = bucket;
+
+        // the last keys each have only the spare 1% of slots to hit, give them plenty of tries
+        long maxPilot = 1L << 20;
+        int [] pilots = new int[buckets];
+
+        for( int bucket : order ) {
+            int from = bucketStart[bucket];
+            int to = bucketStart[bucket + 1];
+
+            if( from == to )
+                continue;
+
+            int pilot = 0;
+            while( !tryPilot(pilot, mixed, members, from, to, tableSize, taken, slots) )
+                if( ++pilot == maxPilot )
+                    return null;
+
+            pilots[bucket] = pilot;
+        }
+
+        return pilots;
+    }
+
+    /**
+     * Claim a slot for every member of the bucket with this pilot, or claim nothing and return false if one
+     * of them hits a taken slot
+     */
+    private static boolean tryPilot(int pilot, long [] mixed, int [] members, int from, int to, int tableSize,
+                                    long [] taken, int [] slots) {
+        for( int idx = from; idx < to; idx++ ) {
+            int slot = slotOf(mixed[members[idx]], pilot, tableSize);
+
+            if( isTaken(taken, slot) ) {
+                for( int undo = from; undo < idx; undo++ )
+                    taken[slots[members[undo]] >>> 6] &= ~( 1L << slots[members[undo]] );
+
+                return false;
+            }
+
+            taken[slot >>> 6] |= 1L << slot;
+            slots[members[idx]] = slot;
+        }
+
+        return true;
+    }
+
+    /**
+     * taken[] is a bitset rather than a boolean per slot, so it stays in cache while pilots hammer it at random
+     */
+    private static boolean isTaken(long [] taken, int slot) {
+        return ( taken[slot >>> 6] & ( 1L << slot ) ) != 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int hashCodeOf(HashingStrategy<?> hashing, Object maskedKey) {
+        return ( (HashingStrategy<Object>) hashing ).computeHashCode(unmaskNull(maskedKey));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean keysEqual(HashingStrategy<?> hashing, Object maskedA, Object maskedB) {
+        return ( (HashingStrategy<Object>) hashing ).equals(unmaskNull(maskedA), unmaskNull(maskedB));
+    }
+
+    /**
+     * A masked key that's equal to another only under the hashing strategy, for finding duplicates in copyOf()
+     */
+    private static final class StrategyKey {
+        private final HashingStrategy<?> hashing;
+        private final Object maskedKey;
+        private final int hashCode;
+
+        StrategyKey(HashingStrategy<?> hashing, Object maskedKey, int hashCode) {
+            this.hashing = hashing;
+            this.maskedKey = maskedKey;
+            this.hashCode = hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StrategyKey && keysEqual(this.hashing, this.maskedKey, ( (StrategyKey) o ).maskedKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+
+    private static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K unmaskNull(Object key) {
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    /**
+     * murmur3 fmix64, widens the 32 bit spread hash so the bucket and the slot come from different bits
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Scale 32 random bits down to [0, range) with a multiply instead of a division
+     */
+    private static int scale(long bits, int range) {
+        return (int) ( ( ( bits & 0xFFFFFFFFL ) * range ) >>> 32 );
+    }
+
+    private static int bucketOf(long mixed, int denseBuckets, int buckets) {
+        if( denseBuckets == buckets || ( mixed & 0xFFFFFFFFL ) < DENSE_KEYS )
+            return scale(mixed >>> 32, denseBuckets);
+
+        return denseBuckets + scale(mixed >>> 32, buckets - denseBuckets);
+    }
+
+    private static int slotOf(long mixed, int pilot, int tableSize) {
+        return scale(mix(mixed ^ ( pilot * 0x9e3779b97f4a7c15L )) >>> 32, tableSize);
+    }
+
+    /**
+     * Find the slot holding this key, or -1
+     */
+    @SuppressWarnings("unchecked")
+    private int indexOf(Object key) {
+        int hashCode = this.hashing.computeHashCode((K) key);
+        Object masked = maskNull(key);
+
+        if( this.perfect > 0 ) {
+            long mixed = mix(HashingStrategy.spread(hashCode, this.seed));
+            int slot = slotOf(mixed, this.pilots[bucketOf(mixed, this.denseBuckets, this.pilots.length)], this.tableSize);
+
+            if( slot >= this.perfect )
+                slot = this.remap[slot - this.perfect];
+
+            Object candidate = this.keys[slot];
+
+            if( candidate == masked || this.hashing.equals(unmaskNull(candidate), (K) key) )
+                return slot;
+        }
+
+        if( this.stashHashes.length == 0 )
+            return -1;
+
+        return stashIndexOf(hashCode, masked, key);
+    }
+
+    /**
+     * Binary search the stash for the hash code, then check every key that has it
+     */
+    @SuppressWarnings("unchecked")
+    private int stashIndexOf(int hashCode, Object masked, Object key) {
+        int found = Arrays.binarySearch(this.stashHashes, hashCode);
+
+        if( found < 0 )
+            return -1;
+
+        // binarySearch lands anywhere in a run of equal hash codes, back up to its start
+        while( found > 0 && this.stashHashes[found - 1] == hashCode )
+            found--;
+
+        for( ; found < this.stashHashes.length && this.stashHashes[found] == hashCode; found++ ) {
+            Object candidate = this.keys[this.perfect + found];
+
+            if( candidate == masked || this.hashing.equals(unmaskNull(candidate), (K) key) )
+                return this.perfect + found;
+        }
+
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return this.keys.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.keys.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int pos = indexOf(key);
+        this.counters.recordLookup(pos != -1);
+        return pos != -1;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for( Object val : this.vals )
+            if( Objects.equals(val, value) )
+                return true;
+
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int pos = indexOf(key);
+        this.counters.recordLookup(pos != -1);
+        return pos == -1 ? null : (V) this.vals[pos];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        int pos = indexOf(key);
+        this.counters.recordLookup(pos != -1);
+        return pos == -1 ? defaultValue : (V) this.vals[pos];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for( int idx = 0; idx < this.keys.length; idx++ )
+            action.accept(unmaskNull(this.keys[idx]), (V) this.vals[idx]);
+    }
+
+    private static UnsupportedOperationException immutable() {
+        return new UnsupportedOperationException("FrozenMap is immutable");
+    }
+
+    @Override
+    public V put(K key, V value) {
+        throw immutable();
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw immutable();
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        throw immutable();
+    }
+
+    @Override
+    public void clear() {
+        throw immutable();
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        throw immutable();
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        throw immutable();
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        throw immutable();
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        throw immutable();
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        throw immutable();
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        throw immutable();
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        throw immutable();
+    }
+
+    /**
+     * Walks the arrays in order, every slot is full
+     */
+    private abstract class SlotIterator<T> implements Iterator<T> {
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+            return next < keys.length;
+        }
+
+        @Override
+        public T next() {
+            if( !hasNext() )
+                throw new NoSuchElementException();
+
+            return at(next++);
+        }
+
+        abstract T at(int pos);
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new SlotIterator<K>() {
+                    @Override
+                    K at(int pos) {
+                        return unmaskNull(keys[pos]);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    V at(int pos) {
+                        return (V) vals[pos];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    /**
+     * Entries are built as the iterator reaches them, and like the map itself their setValue() throws
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new SlotIterator<Entry<K, V>>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    Entry<K, V> at(int pos) {
+                        return new AbstractMap.SimpleImmutableEntry<>(unmaskNull(keys[pos]), (V) vals[pos]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if( o == this )
+            return true;
+
+        if( !( o instanceof Map ) )
+            return false;
+
+        Map<?,?> other = (Map<?,?>) o;
+        if( other.size() != this.keys.length )
+            return false;
+
+        for( int idx = 0; idx < this.keys.length; idx++ ) {
+            Object key = unmaskNull(this.keys[idx]);
+            Object value = this.vals[idx];
+
+            if( !Objects.equals(value, other.get(key)) || ( value == null && !other.containsKey(key) ) )
+                return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = 0;
+
+        for( int idx = 0; idx < this.keys.length; idx++ )
+            hashCode += Objects.hashCode(unmaskNull(this.keys[idx])) ^ Objects.hashCode(this.vals[idx]);
+
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "FrozenMap{" +
+                "currentSize=" + keys.length +
+                ", stashed=" + stashHashes.length +
+                '}';
+    }
+
+    /**
+     * Every key the perfect hash placed is found first time, a stashed one takes one more look
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        histogram.record(0, this.perfect);
+
+        if( this.stashHashes.length > 0 )
+            histogram.record(1, this.stashHashes.length);
+
+        return new MapStatistics(this.keys.length, this.keys.length, histogram, this.counters);
+    }
+}
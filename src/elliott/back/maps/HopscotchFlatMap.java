@@ -0,0 +1,278 @@
+package elliott.back.maps;
+
+import elliott.back.common.HashingStrategy;
+import elliott.back.common.Tuple;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ * This class is a hopscotch hash map, with no concurrency protections, meant to run at high load factors.
+ *
+ * Every entry lives within NEIGHBORHOOD slots of its home slot, and each home slot keeps a bitmap of which of
+ * those slots hold its entries.  A lookup only checks the slots whose bits are set, so however full the table
+ * gets it never looks further than NEIGHBORHOOD slots, and mostly at just one or two.  Like
+ * ParallelArrayFlatMap, keys, values and cached spread hashes are kept in parallel arrays.
+ *
+ * An insert takes the nearest free slot at or after home.  If that's outside the neighborhood, it looks back
+ * for an entry that can move into the free slot without leaving its own neighborhood, moves it, and repeats
+ * from the slot that freed up, hopping the free slot towards home.  When no such entry turns up the table
+ * grows early.  Each hop only touches slots within one neighborhood of each other, which is what would let a
+ * concurrent version lock a segment at a time.
+ *
+ * Keys with the very same 32 bit hash share a home slot whatever the table size, so more than NEIGHBORHOOD of
+ * them can never all fit.  Those few go in AbstractSlotMap's stash, which lookups scan after the neighborhood.
+ *
+ * Limited to around MAX_INT entries because arrays are int-indexed in Java.
+ */
+public class HopscotchFlatMap<K,V> extends AbstractSlotMap<K,V> {
+
+    /**
+     * Slots an entry may be from its home, one per bit of the long bitmap.  With 32 inserts start failing
+     * around 0.85 load, with 64 around 0.92.
+     */
+    static final int NEIGHBORHOOD = 64;
+
+    public static final double DEFAULT_MAX_LOAD_FACTOR = 0.9;
+
+    /**
+     * How far past home to look for a free slot before giving up and growing.  Much past 0.9 load the
+     * nearest one can be well over a thousand slots away.
+     */
+    private static final int MAX_FREE_SLOT_DISTANCE = 4096;
+
+    private int [] hashes;
+
+    /**
+     * Bit i of hops[home] is set when slot home + i holds one of home's entries
+     */
+    private long [] hops;
+
+    private final double maxLoadFactor;
+
+    /**
+     * Default construct = initial 32 entries
+     */
+    public HopscotchFlatMap() {
+        this(32);
+    }
+
+    public HopscotchFlatMap(int initialSize ) {
+        this(initialSize, DEFAULT_MAX_LOAD_FACTOR);
+    }
+
+    public HopscotchFlatMap(int initialSize, HashingStrategy<? super K> hashing ) {
+        this(initialSize, DEFAULT_MAX_LOAD_FACTOR, hashing);
+    }
+
+    public HopscotchFlatMap(int initialSize, double maxLoadFactor ) {
+        this(initialSize, maxLoadFactor, HashingStrategy.objects());
+    }
+
+    public HopscotchFlatMap(int initialSize, double maxLoadFactor, HashingStrategy<? super K> hashing ) {
+        super(hashing);
+
+        if( !( maxLoadFactor > 0 && maxLoadFactor < 1 ) )
+            throw new IllegalArgumentException("Max load factor must be in (0, 1): " + maxLoadFactor);
+
+        this.maxLoadFactor = maxLoadFactor;
+        allocate(HashingStrategy.tableSizeFor(initialSize));
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new Object [capacity];
+        this.vals = new Object [capacity];
+        this.hashes = new int [capacity];
+        this.hops = new long [capacity];
+    }
+
+    /**
+     * The slot holding this key, or -1 if it isn't in its home's neighborhood
+     */
+    @Override
+    protected int indexOf(Object key, int hash) {
+        Object masked = maskNull(key);
+        int mask = this.keys.length - 1;
+        int home = hash & mask;
+
+        for( long bits = this.hops[home]; bits != 0; bits &= bits - 1 ) {
+            int idx = ( home + Long.numberOfTrailingZeros(bits) ) & mask;
+            Object candidate = this.keys[idx];
+
+            if( this.hashes[idx] == hash && keyMatches(candidate, masked, key) )
+                return idx;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Find an entry in the NEIGHBORHOOD - 1 slots before the free one that can move into it and still be in its
+     * own neighborhood, and move it.  Returns the slot it left, or -1 if nothing could move.
+     */
+    private int hopCloser(int free) {
+        int mask = this.keys.length - 1;
+
+        // furthest back first, so the free slot jumps as far as it can
+        for( int distance = NEIGHBORHOOD - 1; distance > 0; distance-- ) {
+            int home = ( free - distance ) & mask;
+
+            // entries of this home sitting before the free slot
+            long movable = this.hops[home] & ( ( 1L << distance ) - 1 );
+
+            if( movable != 0 ) {
+                int offset = Long.numberOfTrailingZeros(movable);
+                int from = ( home + offset ) & mask;
+
+                this.keys[free] = this.keys[from];
+                this.vals[free] = this.vals[from];
+                this.hashes[free] = this.hashes[from];
+                this.hops[home] = ( this.hops[home] & ~( 1L << offset ) ) | ( 1L << distance );
+
+                this.keys[from] = null;
+                this.vals[from] = null;
+                this.hashes[from] = 0;
+                return from;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Place an entry whose key is known not to be in the map, returning false if it can't be done without
+     * growing.  Entries may have hopped about even so, but every one is still in its neighborhood.
+     */
+    private boolean insertAbsent(Object maskedKey, Object value, int hash) {
+        int mask = this.keys.length - 1;
+        int home = hash & mask;
+        int free = -1;
+
+        for( int distance = 0; distance < Math.min(MAX_FREE_SLOT_DISTANCE, this.keys.length); distance++ ) {
+            if( this.keys[( home + distance ) & mask] == null ) {
+                free = ( home + distance ) & mask;
+                break;
+            }
+        }
+
+        while( free != -1 && ( ( free - home ) & mask ) >= NEIGHBORHOOD )
+            free = hopCloser(free);
+
+        if( free == -1 )
+            return false;
+
+        this.keys[free] = maskedKey;
+        this.vals[free] = value;
+        this.hashes[free] = hash;
+        this.hops[home] |= 1L << ( ( free - home ) & mask );
+        return true;
+    }
+
+    /**
+     * Rebuild into the given capacity, giving the stash another go.  Anything that still can't be placed goes
+     * in the stash.
+     */
+    @SuppressWarnings("unchecked")
+    private void reHash(int capacity) {
+        this.modCount++;
+        long started = this.counters.resizeStarted();
+
+        Object [] oldKeys = this.keys;
+        Object [] oldVals = this.vals;
+        int [] oldHashes = this.hashes;
+
+        List<Tuple<K,V>> oldStash = new ArrayList<>(this.stash);
+        this.stash.clear();
+
+        allocate(capacity);
+
+        for( int idx = 0; idx < oldKeys.length; idx++ )
+            if( oldKeys[idx] != null && !insertAbsent(oldKeys[idx], oldVals[idx], oldHashes[idx]) )
+                this.stash.add(new Tuple<>(unmaskNull(oldKeys[idx]), (V) oldVals[idx]));
+
+        for( Tuple<K,V> entry : oldStash )
+            if( !insertAbsent(maskNull(entry.getKey()), entry.getValue(), hashOf(entry.getKey())) )
+                this.stash.add(entry);
+
+        this.counters.resizeFinished(started);
+    }
+
+    @Override
+    protected void insertNew(K key, V value, int hash) {
+        // running out of space, we need to resize!
+        if( this.currentSize + 1 > this.keys.length * this.maxLoadFactor )
+            reHash(this.keys.length * 2);
+
+        while( !insertAbsent(maskNull(key), value, hash) ) {
+            if( collidingOutright() ) {
+                this.stash.add(new Tuple<>(key, value));
+                break;
+            }
+
+            reHash(this.keys.length * 2);
+        }
+    }
+
+    /**
+     * Nothing ever probes past a slot, so emptying it and clearing its bit is all a remove takes
+     */
+    @Override
+    protected void deleteSlot(int idx) {
+        int mask = this.keys.length - 1;
+        int home = this.hashes[idx] & mask;
+
+        this.hops[home] &= ~( 1L << ( ( idx - home ) & mask ) );
+        this.keys[idx] = null;
+        this.vals[idx] = null;
+        this.hashes[idx] = 0;
+        this.currentSize--;
+        this.modCount++;
+    }
+
+    @Override
+    public void ensureCapacity(int expectedSize) {
+        int capacity = HashingStrategy.tableSizeFor((int) Math.ceil(expectedSize / this.maxLoadFactor));
+
+        if( capacity > this.keys.length )
+            reHash(capacity);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.hashes, 0);
+        Arrays.fill(this.hops, 0L);
+        super.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "HopscotchFlatMap{" +
+                "currentSize=" + currentSize +
+                ", capacity=" + keys.length +
+                ", stashed=" + stash.size() +
+                '}';
+    }
+
+    /**
+     * Probe length here is an entry's distance from home, stashed entries count as NEIGHBORHOOD
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        Object [] currentKeys = this.keys;
+        int [] currentHashes = this.hashes;
+        int mask = Math.min(currentKeys.length, currentHashes.length) - 1;
+
+        for( int idx = 0; idx <= mask; idx++ )
+            if( currentKeys[idx] != null )
+                histogram.record(( idx - ( currentHashes[idx] & mask ) ) & mask);
+
+        if( !this.stash.isEmpty() )
+            histogram.record(NEIGHBORHOOD, this.stash.size());
+
+        return new MapStatistics(this.currentSize, currentKeys.length, histogram, this.counters);
+    }
+}
@@ -0,0 +1,537 @@
+package elliott.back.maps;
+
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/***
+ * This class is the circular flat map kept in a file instead of on the heap, with no concurrency
+ * protections.  Keys and values are byte arrays.
+ *
+ * The file is a small header followed by a table of fixed-width slots, each one laid out as
+ *
+ *     [byte used][int hash][short key length][short value length][key bytes][value bytes]
+ *
+ * where the key and value areas are as wide as the maximum lengths chosen at creation time,
+ * and shorter keys/values just use the front of them.  Slots are probed linearly, wrapping
+ * around, from hash & (capacity - 1).
+ *
+ * Opening a file maps it with FileChannel.map, so there is nothing to deserialize and the table
+ * pages in on demand.  Large files are mapped in several segments because a single mapping
+ * can't exceed 2GB.  When the table gets 3/4 full it is rebuilt into a file of twice the
+ * capacity, which then replaces the old one; processes that had the old file open keep
+ * seeing the old table until they reopen.  Read-only opens can be shared between processes.
+ *
+ * Mappings are released by the garbage collector, not by close(), since Java has no public unmap.
+ */
+public class MappedFlatMap implements Closeable, InstrumentedMap {
+
+    private static final int MAGIC = 0x41484f59; // "AHOY"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_MAX_KEY_LENGTH = 8;
+    private static final int HEADER_MAX_VALUE_LENGTH = 12;
+    private static final int HEADER_CAPACITY = 16;
+    private static final int HEADER_SIZE_FIELD = 20;
+
+    private static final int SLOT_USED = 0;
+    private static final int SLOT_HASH = 1;
+    private static final int SLOT_KEY_LENGTH = 5;
+    private static final int SLOT_VALUE_LENGTH = 7;
+    private static final int SLOT_DATA = 9;
+
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    /**
+     * The largest power of two an int capacity can double to
+     */
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /**
+     * Largest single mapping we make, segments hold a whole number of slots up to this size
+     */
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final Path file;
+    private final boolean readOnly;
+    private final int maxKeyLength;
+    private final int maxValueLength;
+    private final int slotSize;
+
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer [] segments;
+    private int slotsPerSegment;
+    private int capacity;
+    private int mask;
+    private int currentSize;
+
+    /**
+     * Kept on the heap, so they start again from zero each time the file is opened
+     */
+    private final MapCounters counters = new MapCounters();
+
+    private MappedFlatMap(Path file, boolean readOnly, int maxKeyLength, int maxValueLength) {
+        this.file = file;
+        this.readOnly = readOnly;
+        this.maxKeyLength = maxKeyLength;
+        this.maxValueLength = maxValueLength;
+        this.slotSize = SLOT_DATA + maxKeyLength + maxValueLength;
+    }
+
+    /**
+     * Create (or truncate) a file holding an empty table
+     */
+    public static MappedFlatMap create(Path file, int maxKeyLength, int maxValueLength, int initialCapacity) throws IOException {
+        if( maxKeyLength < 1 || maxKeyLength > 0xFFFF || maxValueLength < 0 || maxValueLength > 0xFFFF )
+            throw new IllegalArgumentException("Key and value lengths must fit in an unsigned short");
+        if( initialCapacity > MAX_CAPACITY )
+            throw new IllegalArgumentException("Capacity can't be more than " + MAX_CAPACITY);
+
+        int capacity = Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1;
+
+        MappedFlatMap map = new MappedFlatMap(file, false, maxKeyLength, maxValueLength);
+        map.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            map.mapTable(capacity);
+        } catch (IOException | RuntimeException e) {
+            map.channel.close();
+            throw e;
+        }
+
+        map.header.putInt(HEADER_MAGIC, MAGIC);
+        map.header.putInt(HEADER_VERSION, VERSION);
+        map.header.putInt(HEADER_MAX_KEY_LENGTH, maxKeyLength);
+        map.header.putInt(HEADER_MAX_VALUE_LENGTH, maxValueLength);
+        map.header.putInt(HEADER_CAPACITY, capacity);
+        map.header.putInt(HEADER_SIZE_FIELD, 0);
+        return map;
+    }
+
+    /**
+     * Map an existing file for reading and writing
+     */
+    public static MappedFlatMap open(Path file) throws IOException {
+        return open(file, false);
+    }
+
+    /**
+     * Map an existing file read-only, any number of processes can do this at once
+     */
+    public static MappedFlatMap openReadOnly(Path file) throws IOException {
+        return open(file, true);
+    }
+
+    private static MappedFlatMap open(Path file, boolean readOnly) throws IOException {
+        FileChannel channel = readOnly
+                ? FileChannel.open(file, StandardOpenOption.READ)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            if( channel.size() < HEADER_SIZE )
+                throw new IOException("Not a MappedFlatMap file: " + file);
+
+            MappedByteBuffer header = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+            if( header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) != VERSION )
+                throw new IOException("Not a MappedFlatMap file: " + file);
+
+            int maxKeyLength = header.getInt(HEADER_MAX_KEY_LENGTH);
+            int maxValueLength = header.getInt(HEADER_MAX_VALUE_LENGTH);
+            int capacity = header.getInt(HEADER_CAPACITY);
+            int size = header.getInt(HEADER_SIZE_FIELD);
+
+            if( maxKeyLength < 1 || maxKeyLength > 0xFFFF || maxValueLength < 0 || maxValueLength > 0xFFFF )
+                throw new IOException("Corrupt slot layout in " + file);
+            if( capacity < 2 || capacity > MAX_CAPACITY || Integer.bitCount(capacity) != 1 || size < 0 || size >= capacity )
+                throw new IOException("Corrupt capacity or size in " + file);
+
+            // mapping the table read-write would silently grow a truncated file, so check first
+            MappedFlatMap map = new MappedFlatMap(file, readOnly, maxKeyLength, maxValueLength);
+            long expectedLength = HEADER_SIZE + (long) capacity * map.slotSize;
+            if( channel.size() != expectedLength )
+                throw new IOException("File is " + channel.size() + " bytes, table needs " + expectedLength + ": " + file);
+
+            map.channel = channel;
+            map.mapTable(capacity);
+            map.currentSize = map.header.getInt(HEADER_SIZE_FIELD);
+            return map;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Map the header and every segment of a table with the given capacity, growing the file if needed
+     */
+    private void mapTable(int capacity) throws IOException {
+        FileChannel.MapMode mode = this.readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slotsPerSegment = (int) Math.min(capacity, MAX_SEGMENT_BYTES / this.slotSize);
+        this.header = this.channel.map(mode, 0, HEADER_SIZE);
+
+        int segmentCount = ( capacity + this.slotsPerSegment - 1 ) / this.slotsPerSegment;
+        this.segments = new MappedByteBuffer[segmentCount];
+
+        for( int idx = 0; idx < segmentCount; idx++ ) {
+            long firstSlot = (long) idx * this.slotsPerSegment;
+            long slots = Math.min(this.slotsPerSegment, capacity - firstSlot);
+
+            this.segments[idx] = this.channel.map(mode, HEADER_SIZE + firstSlot * this.slotSize, slots * this.slotSize);
+        }
+    }
+
+    public int size() {
+        return currentSize;
+    }
+
+    public boolean isEmpty() {
+        return currentSize == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private MappedByteBuffer segmentFor(int slot) {
+        return this.segments[slot / this.slotsPerSegment];
+    }
+
+    private int offsetOf(int slot) {
+        return ( slot % this.slotsPerSegment ) * this.slotSize;
+    }
+
+    /**
+     * murmur3 fmix32 over Arrays.hashCode, so short similar keys still spread out
+     */
+    private static int hash(byte [] key) {
+        int hash = Arrays.hashCode(key);
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private boolean keyMatches(MappedByteBuffer segment, int offset, int hash, byte [] key) {
+        if( segment.getInt(offset + SLOT_HASH) != hash )
+            return false;
+
+        if( ( segment.getShort(offset + SLOT_KEY_LENGTH) & 0xFFFF ) != key.length )
+            return false;
+
+        int keyOffset = offset + SLOT_DATA;
+        for( int idx = 0; idx < key.length; idx++ )
+            if( segment.get(keyOffset + idx) != key[idx] )
+                return false;
+
+        return true;
+    }
+
+    /**
+     * Find the slot holding this key, or -1 if we hit an empty slot first
+     */
+    private int indexOf(byte [] key, int hash) {
+        int slot = hash & this.mask;
+
+        for( int idx = 0; idx < this.capacity; idx++ ) {
+            MappedByteBuffer segment = segmentFor(slot);
+            int offset = offsetOf(slot);
+
+            // if we hit an unused slot we did not find the item
+            if( segment.get(offset + SLOT_USED) == 0 )
+                return -1;
+
+            if( keyMatches(segment, offset, hash, key) )
+                return slot;
+
+            slot = ( slot + 1 ) & this.mask;
+        }
+
+        return -1;
+    }
+
+    private byte [] readValue(int slot) {
+        MappedByteBuffer segment = segmentFor(slot);
+        int offset = offsetOf(slot);
+
+        byte [] value = new byte[segment.getShort(offset + SLOT_VALUE_LENGTH) & 0xFFFF];
+        int valueOffset = offset + SLOT_DATA + this.maxKeyLength;
+
+        for( int idx = 0; idx < value.length; idx++ )
+            value[idx] = segment.get(valueOffset + idx);
+
+        return value;
+    }
+
+    public boolean containsKey(byte [] key) {
+        boolean found = indexOf(key, hash(key)) != -1;
+        this.counters.recordLookup(found);
+        return found;
+    }
+
+    /**
+     * @return a copy of the value, or null if the key isn't present
+     */
+    public byte [] get(byte [] key) {
+        int slot = indexOf(key, hash(key));
+        this.counters.recordLookup(slot != -1);
+        return slot == -1 ? null : readValue(slot);
+    }
+
+    private void checkWritable() {
+        if( this.readOnly )
+            throw new UnsupportedOperationException("Map was opened read-only: " + this.file);
+    }
+
+    private void writeSlot(int slot, int hash, byte [] key, byte [] value) {
+        MappedByteBuffer segment = segmentFor(slot);
+        int offset = offsetOf(slot);
+
+        segment.putInt(offset + SLOT_HASH, hash);
+        segment.putShort(offset + SLOT_KEY_LENGTH, (short) key.length);
+        writeValue(segment, offset, value);
+
+        int keyOffset = offset + SLOT_DATA;
+        for( int idx = 0; idx < key.length; idx++ )
+            segment.put(keyOffset + idx, key[idx]);
+
+        segment.put(offset + SLOT_USED, (byte) 1);
+    }
+
+    private void writeValue(MappedByteBuffer segment, int offset, byte [] value) {
+        segment.putShort(offset + SLOT_VALUE_LENGTH, (short) value.length);
+
+        int valueOffset = offset + SLOT_DATA + this.maxKeyLength;
+        for( int idx = 0; idx < value.length; idx++ )
+            segment.put(valueOffset + idx, value[idx]);
+    }
+
+    /**
+     * @return the previous value, or null if there was none
+     */
+    public byte [] put(byte [] key, byte [] value) throws IOException {
+        checkWritable();
+
+        if( key.length > this.maxKeyLength )
+            throw new IllegalArgumentException("Key is " + key.length + " bytes, max is " + this.maxKeyLength);
+        if( value.length > this.maxValueLength )
+            throw new IllegalArgumentException("Value is " + value.length + " bytes, max is " + this.maxValueLength);
+
+        int hash = hash(key);
+        int existing = indexOf(key, hash);
+
+        // the key itself is equal, replace the value in place
+        if( existing != -1 ) {
+            byte [] oldValue = readValue(existing);
+            writeValue(segmentFor(existing), offsetOf(existing), value);
+            return oldValue;
+        }
+
+        // running out of space, we need to resize!
+        if( this.currentSize + 1 > this.capacity * MAX_LOAD_FACTOR )
+            reHash();
+
+        int slot = hash & this.mask;
+        while( segmentFor(slot).get(offsetOf(slot) + SLOT_USED) != 0 )
+            slot = ( slot + 1 ) & this.mask;
+
+        writeSlot(slot, hash, key, value);
+        this.currentSize++;
+        this.header.putInt(HEADER_SIZE_FIELD, this.currentSize);
+        return null;
+    }
+
+    /**
+     * @return the removed value, or null if there was none
+     */
+    public byte [] remove(byte [] key) {
+        checkWritable();
+
+        int hole = indexOf(key, hash(key));
+
+        if( hole == -1 )
+            return null;
+
+        byte [] oldValue = readValue(hole);
+
+        // backward-shift: pull back any later entry in the run whose home is at or before the hole
+        int next = hole;
+        while( true ) {
+            next = ( next + 1 ) & this.mask;
+            MappedByteBuffer segment = segmentFor(next);
+            int offset = offsetOf(next);
+
+            if( segment.get(offset + SLOT_USED) == 0 )
+                break;
+
+            int home = segment.getInt(offset + SLOT_HASH) & this.mask;
+            if( ( ( next - home ) & this.mask ) >= ( ( next - hole ) & this.mask ) ) {
+                copySlot(next, hole);
+                hole = next;
+            }
+        }
+
+        segmentFor(hole).put(offsetOf(hole) + SLOT_USED, (byte) 0);
+        this.currentSize--;
+        this.header.putInt(HEADER_SIZE_FIELD, this.currentSize);
+        return oldValue;
+    }
+
+    private void copySlot(int from, int to) {
+        MappedByteBuffer source = segmentFor(from);
+        MappedByteBuffer target = segmentFor(to);
+        int sourceOffset = offsetOf(from);
+        int targetOffset = offsetOf(to);
+
+        for( int idx = 0; idx < this.slotSize; idx++ )
+            target.put(targetOffset + idx, source.get(sourceOffset + idx));
+    }
+
+    /**
+     * Write every entry into a fresh file with twice the capacity, then swap it in for ours.  If anything
+     * fails the fresh file is deleted and we carry on with the old table.
+     */
+    private void reHash() throws IOException {
+        if( this.capacity >= MAX_CAPACITY )
+            throw new IllegalStateException("Map is full at the maximum capacity of " + MAX_CAPACITY);
+
+        long started = this.counters.resizeStarted();
+        Path grown = this.file.resolveSibling(this.file.getFileName() + ".resize");
+        MappedFlatMap target;
+
+        try {
+            target = create(grown, this.maxKeyLength, this.maxValueLength, this.capacity * 2);
+        } catch (IOException | RuntimeException e) {
+            discard(grown, e);
+            throw e;
+        }
+
+        try {
+            for( int slot = 0; slot < this.capacity; slot++ ) {
+                MappedByteBuffer segment = segmentFor(slot);
+                int offset = offsetOf(slot);
+
+                if( segment.get(offset + SLOT_USED) == 0 )
+                    continue;
+
+                int hash = segment.getInt(offset + SLOT_HASH);
+                int targetSlot = hash & target.mask;
+                while( target.segmentFor(targetSlot).get(target.offsetOf(targetSlot) + SLOT_USED) != 0 )
+                    targetSlot = ( targetSlot + 1 ) & target.mask;
+
+                MappedByteBuffer targetSegment = target.segmentFor(targetSlot);
+                int targetOffset = target.offsetOf(targetSlot);
+                for( int idx = 0; idx < this.slotSize; idx++ )
+                    targetSegment.put(targetOffset + idx, segment.get(offset + idx));
+            }
+
+            target.currentSize = this.currentSize;
+            target.header.putInt(HEADER_SIZE_FIELD, this.currentSize);
+            target.force();
+            target.channel.close();
+        } catch (IOException | RuntimeException e) {
+            try {
+                target.channel.close();
+            } catch (IOException closing) {
+                e.addSuppressed(closing);
+            }
+
+            discard(grown, e);
+            throw e;
+        }
+
+        this.channel.close();
+
+        try {
+            Files.move(grown, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // the move didn't happen, so our file still holds the old table
+            discard(grown, e);
+            this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            mapTable(this.capacity);
+            throw e;
+        }
+
+        this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapTable(this.capacity * 2);
+        this.counters.resizeFinished(started);
+    }
+
+    /**
+     * Delete a half-built resize file, keeping the failure that got us here as the one thrown
+     */
+    private static void discard(Path grown, Exception failure) {
+        try {
+            Files.deleteIfExists(grown);
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Push every dirty page out to the file
+     */
+    public void force() {
+        if( this.readOnly )
+            return;
+
+        this.header.force();
+        for( MappedByteBuffer segment : this.segments )
+            segment.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        this.channel.close();
+    }
+
+    /**
+     * Probe lengths from the hash stored in each slot, so no key has to be read
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+
+        for( int slot = 0; slot < this.capacity; slot++ ) {
+            MappedByteBuffer segment = segmentFor(slot);
+            int offset = offsetOf(slot);
+
+            if( segment.get(offset + SLOT_USED) != 0 )
+                histogram.record(( slot - ( segment.getInt(offset + SLOT_HASH) & this.mask ) ) & this.mask);
+        }
+
+        return new MapStatistics(this.currentSize, this.capacity, histogram, this.counters);
+    }
+
+    @Override
+    public String toString() {
+        return "MappedFlatMap{" +
+                "file=" + file +
+                ", currentSize=" + currentSize +
+                ", capacity=" + capacity +
+                ", readOnly=" + readOnly +
+                '}';
+    }
+}
@@ -0,0 +1,718 @@
+package elliott.back.maps;
+
+import elliott.back.common.HashingStrategy;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/***
+ * This class is a lock-free take on the circular flat map, after Cliff Click's NonBlockingHashMap.
+ *
+ * Keys and values sit next to each other in one AtomicReferenceArray (key at 2i, value at 2i+1),
+ * and every change is a CAS on a single slot:
+ *
+ *  - a key slot goes null -> key exactly once and never changes again in that table
+ *  - a value slot moves between null (never set), a value, and TOMBSTONE (removed)
+ *
+ * Removed keys keep their slot as a tombstone, which a later put of the same key re-uses; the
+ * tombstones get dropped when the table is next copied.
+ *
+ * Resizing is cooperative.  A new table hangs off the old one, and threads that run into it
+ * copy slots across: the value gets wrapped in a Prime (so nobody can change it in the old
+ * table any more), written into the new table if nothing is there yet, and then replaced by
+ * TOMBPRIME to mark the slot dead.  Writers also each claim a chunk of the old table to copy,
+ * and whoever finishes the last slot promotes the new table to the top.  Readers that see a
+ * Prime, or run out of probes, just carry on into the next table.  No thread ever waits for
+ * another.
+ *
+ * Null keys and values are stored as private marker objects.
+ */
+public class NonBlockingFlatMap<K,V> implements ConcurrentMap<K,V>, InstrumentedMap {
+
+    /**
+     * A value that is being copied to the next table
+     */
+    private static final class Prime {
+        final Object value;
+
+        Prime(Object value) {
+            this.value = value;
+        }
+    }
+
+    private static final Object TOMBSTONE = new Object();
+    private static final Prime TOMBPRIME = new Prime(TOMBSTONE);
+
+    private static final Object NULL_KEY = new Object();
+    private static final Object NULL_VALUE = new Object();
+
+    /**
+     * Expected-value markers for putIfMatch, besides TOMBSTONE (only if absent), null (only if
+     * the slot was never written, used while copying) and a real value (only if equal)
+     */
+    private static final Object NO_MATCH_OLD = new Object();
+    private static final Object MATCH_ANY = new Object();
+
+    private static final int REPROBE_LIMIT = 10;
+    private static final int MIN_SIZE = 8;
+    private static final int COPY_CHUNK = 1024;
+
+    private static final class Table {
+        final AtomicReferenceArray<Object> kvs;
+        final int length;
+        final AtomicReference<Table> next = new AtomicReference<>();
+
+        /**
+         * Key slots claimed in this table, tombstones included
+         */
+        final AtomicInteger slots = new AtomicInteger();
+        final AtomicInteger copyIdx = new AtomicInteger();
+        final AtomicInteger copyDone = new AtomicInteger();
+
+        Table(int length) {
+            this.length = length;
+            this.kvs = new AtomicReferenceArray<>(length * 2);
+        }
+
+        Object key(int idx) {
+            return kvs.get(idx << 1);
+        }
+
+        Object val(int idx) {
+            return kvs.get(( idx << 1 ) + 1);
+        }
+
+        boolean casKey(int idx, Object expected, Object key) {
+            return kvs.compareAndSet(idx << 1, expected, key);
+        }
+
+        boolean casVal(int idx, Object expected, Object value) {
+            return kvs.compareAndSet(( idx << 1 ) + 1, expected, value);
+        }
+
+        /**
+         * How far a probe may go before we give up on this table
+         */
+        int reprobeLimit() {
+            return REPROBE_LIMIT + ( length >> 2 );
+        }
+    }
+
+    private final AtomicReference<Table> top;
+    private final LongAdder size = new LongAdder();
+
+    private final HashingStrategy<? super K> hashing;
+    private final int seed = HashingStrategy.newSeed();
+
+    private final MapCounters counters = MapCounters.concurrent();
+
+    /**
+     * Default construct = initial 32 entries
+     */
+    public NonBlockingFlatMap() {
+        this(32);
+    }
+
+    public NonBlockingFlatMap(int initialSize) {
+        this(initialSize, HashingStrategy.objects());
+    }
+
+    public NonBlockingFlatMap(int initialSize, HashingStrategy<? super K> hashing) {
+        int capacity = HashingStrategy.tableSizeFor(Math.max(MIN_SIZE, initialSize));
+        top = new AtomicReference<>(new Table(capacity));
+        this.hashing = hashing;
+    }
+
+    private static Object maskNull(Object o, Object marker) {
+        return o == null ? marker : o;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T unmaskNull(Object o, Object marker) {
+        return o == marker ? null : (T) o;
+    }
+
+    private static boolean isLive(Object value) {
+        return value != null && value != TOMBSTONE;
+    }
+
+    private int hash(Object maskedKey) {
+        return HashingStrategy.spread(this.hashing.computeHashCode(unmaskNull(maskedKey, NULL_KEY)), this.seed);
+    }
+
+    private boolean keyEquals(Object candidate, Object maskedKey) {
+        return candidate == maskedKey ||
+               ( candidate != TOMBSTONE && candidate != null &&
+                 this.hashing.equals(unmaskNull(candidate, NULL_KEY), unmaskNull(maskedKey, NULL_KEY)) );
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Math.max(size.sum(), 0), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Look the (masked) key up, following resizes into newer tables as needed
+     */
+    private Object getImpl(Object maskedKey) {
+        int hash = hash(maskedKey);
+        Table table = top.get();
+
+        while( true ) {
+            int mask = table.length - 1;
+            int idx = hash & mask;
+            int reprobes = 0;
+            Table newer = null;
+
+            while( true ) {
+                Object k = table.key(idx);
+
+                // a key slot that was never claimed ends the probe, a clear miss
+                if( k == null )
+                    return null;
+
+                if( keyEquals(k, maskedKey) ) {
+                    Object v = table.val(idx);
+
+                    if( !( v instanceof Prime ) )
+                        return isLive(v) ? v : null;
+
+                    // mid-copy, finish this slot and look in the next table
+                    newer = copySlotAndCheck(table, idx, false);
+                    break;
+                }
+
+                // closed by a copy, or probed as far as any put would have gone
+                if( ++reprobes >= table.reprobeLimit() || k == TOMBSTONE ) {
+                    newer = table.next.get();
+                    if( newer == null )
+                        return null;
+                    break;
+                }
+
+                idx = ( idx + 1 ) & mask;
+            }
+
+            table = newer;
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        Object value = getImpl(maskNull(key, NULL_KEY));
+        this.counters.recordLookup(value != null);
+        return unmaskNull(value, NULL_VALUE);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        boolean found = getImpl(maskNull(key, NULL_KEY)) != null;
+        this.counters.recordLookup(found);
+        return found;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for( V existing : values() )
+            if( Objects.equals(existing, value) )
+                return true;
+
+        return false;
+    }
+
+    /**
+     * Does the current slot value satisfy the expectation?
+     */
+    private static boolean matches(Object current, Object expected) {
+        if( expected == NO_MATCH_OLD )
+            return true;
+        if( expected == MATCH_ANY )
+            return isLive(current);
+        if( expected == TOMBSTONE )
+            return !isLive(current);
+        if( expected == null )
+            return current == null;
+
+        return isLive(current) && ( current == expected || expected.equals(current) );
+    }
+
+    /**
+     * The one write path: set the value for a key if the current value matches the expectation,
+     * and return whatever value was there before (null or TOMBSTONE meaning absent).  Removes put
+     * TOMBSTONE.  An expectation of null marks a copy, which doesn't count towards size.
+     */
+    private Object putIfMatch(Table table, Object maskedKey, Object putValue, Object expected) {
+        int hash = hash(maskedKey);
+
+        while( true ) {
+            int mask = table.length - 1;
+            int idx = hash & mask;
+            int reprobes = 0;
+            Object k;
+
+            // find the key slot, or claim one
+            while( true ) {
+                k = table.key(idx);
+
+                if( k == null ) {
+                    // removing a key that isn't there, don't waste a slot on it
+                    if( putValue == TOMBSTONE )
+                        return null;
+
+                    if( table.casKey(idx, null, maskedKey) ) {
+                        table.slots.incrementAndGet();
+                        k = maskedKey;
+                        break;
+                    }
+
+                    k = table.key(idx);
+                }
+
+                if( keyEquals(k, maskedKey) )
+                    break;
+
+                if( ++reprobes >= table.reprobeLimit() || k == TOMBSTONE ) {
+                    Table newer = resize(table);
+                    if( expected != null )
+                        helpCopy(top.get());
+                    table = newer;
+                    break;
+                }
+
+                idx = ( idx + 1 ) & mask;
+            }
+
+            // we moved on to a newer table, start over there
+            if( k == null || !keyEquals(k, maskedKey) )
+                continue;
+
+            Object v = table.val(idx);
+            Table newer = table.next.get();
+
+            // new keys past 3/4 full start a resize
+            if( newer == null && !isLive(v) && !( v instanceof Prime ) && table.slots.get() > table.length - ( table.length >> 2 ) )
+                newer = resize(table);
+
+            if( newer != null || v instanceof Prime ) {
+                table = copySlotAndCheck(table, idx, expected != null);
+                continue;
+            }
+
+            while( true ) {
+                if( !matches(v, expected) )
+                    return v;
+
+                if( table.casVal(idx, v, putValue) ) {
+                    if( expected != null ) {
+                        if( !isLive(v) && putValue != TOMBSTONE )
+                            size.increment();
+                        else if( isLive(v) && putValue == TOMBSTONE )
+                            size.decrement();
+                    }
+
+                    return v;
+                }
+
+                v = table.val(idx);
+
+                // a copy got to the slot first, so follow it
+                if( v instanceof Prime )
+                    break;
+            }
+
+            table = copySlotAndCheck(table, idx, expected != null);
+        }
+    }
+
+    /**
+     * Hang a new table off this one, unless someone already did
+     */
+    private Table resize(Table table) {
+        Table newer = table.next.get();
+        if( newer != null )
+            return newer;
+
+        // size the new table from live entries, so a table full of tombstones can stay the same size
+        long live = size.sum();
+        int newLength = table.length;
+        if( live >= ( table.length >> 2 ) )
+            newLength = table.length << 1;
+        if( live >= ( table.length >> 1 ) )
+            newLength = table.length << 2;
+
+        long started = this.counters.resizeStarted();
+        newer = new Table(newLength);
+
+        if( !table.next.compareAndSet(null, newer) )
+            return table.next.get();
+
+        this.counters.resizeFinished(started);
+        return newer;
+    }
+
+    /**
+     * Copy one slot to the next table, optionally help with the rest, and return the next table
+     */
+    private Table copySlotAndCheck(Table table, int idx, boolean shouldHelp) {
+        Table newer = table.next.get();
+
+        if( copySlot(table, idx, newer) )
+            copyCheckAndPromote(table, 1);
+
+        if( shouldHelp )
+            helpCopy(top.get());
+
+        return newer;
+    }
+
+    /**
+     * Move one slot from the table to the newer one
+     *
+     * @return true if this call finished the slot, so exactly one caller counts each slot
+     */
+    private boolean copySlot(Table table, int idx, Table newer) {
+        // close a never used key slot so nothing new can land in it
+        Object k;
+        while( ( k = table.key(idx) ) == null )
+            table.casKey(idx, null, TOMBSTONE);
+
+        // box the value so it can't change here any more
+        Object old = table.val(idx);
+        while( !( old instanceof Prime ) ) {
+            Object box = isLive(old) ? new Prime(old) : TOMBPRIME;
+
+            if( table.casVal(idx, old, box) ) {
+                // nothing to copy, so boxing it was the whole job
+                if( box == TOMBPRIME )
+                    return true;
+
+                old = box;
+                break;
+            }
+
+            old = table.val(idx);
+        }
+
+        if( old == TOMBPRIME )
+            return false;
+
+        // only copies into a slot no one has written yet
+        boolean copiedIntoNew = putIfMatch(newer, k, ( (Prime) old ).value, null) == null;
+
+        while( old != TOMBPRIME && !table.casVal(idx, old, TOMBPRIME) )
+            old = table.val(idx);
+
+        return copiedIntoNew;
+    }
+
+    /**
+     * Claim and copy one chunk of the table's slots, if a copy is going
+     */
+    private void helpCopy(Table table) {
+        Table newer = table.next.get();
+        if( newer == null )
+            return;
+
+        // every chunk is already claimed, just see if the copy can be promoted yet
+        if( table.copyIdx.get() >= table.length ) {
+            copyCheckAndPromote(table, 0);
+            return;
+        }
+
+        long started = System.nanoTime();
+        int start = table.copyIdx.getAndAdd(COPY_CHUNK);
+        int done = 0;
+
+        for( int idx = start; idx < Math.min(start + COPY_CHUNK, table.length); idx++ )
+            if( copySlot(table, idx, newer) )
+                done++;
+
+        copyCheckAndPromote(table, done);
+        this.counters.resizeHelped(System.nanoTime() - started);
+    }
+
+    /**
+     * Count finished slots, and once they're all done swap the newer table in at the top
+     */
+    private void copyCheckAndPromote(Table table, int done) {
+        int copied = done == 0 ? table.copyDone.get() : table.copyDone.addAndGet(done);
+
+        if( copied == table.length )
+            top.compareAndSet(table, table.next.get());
+    }
+
+    /**
+     * Finish every resize in progress, so the top table holds everything
+     */
+    private Table finishCopies() {
+        Table table = top.get();
+
+        while( table.next.get() != null ) {
+            Table newer = table.next.get();
+
+            for( int idx = 0; idx < table.length; idx++ )
+                if( copySlot(table, idx, newer) )
+                    copyCheckAndPromote(table, 1);
+
+            copyCheckAndPromote(table, 0);
+            table = top.get();
+        }
+
+        return table;
+    }
+
+    private V previousValue(Object previous) {
+        return isLive(previous) ? unmaskNull(previous, NULL_VALUE) : null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        Object previous = putIfMatch(top.get(), maskNull(key, NULL_KEY), maskNull(value, NULL_VALUE), NO_MATCH_OLD);
+        return previousValue(previous);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        Object previous = putIfMatch(top.get(), maskNull(key, NULL_KEY), maskNull(value, NULL_VALUE), TOMBSTONE);
+        return previousValue(previous);
+    }
+
+    @Override
+    public V remove(Object key) {
+        Object previous = putIfMatch(top.get(), maskNull(key, NULL_KEY), TOMBSTONE, NO_MATCH_OLD);
+        return previousValue(previous);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        Object expected = maskNull(value, NULL_VALUE);
+        Object previous = putIfMatch(top.get(), maskNull(key, NULL_KEY), TOMBSTONE, expected);
+        return matches(previous, expected);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Object expected = maskNull(oldValue, NULL_VALUE);
+        Object previous = putIfMatch(top.get(), maskNull(key, NULL_KEY), maskNull(newValue, NULL_VALUE), expected);
+        return matches(previous, expected);
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        Object previous = putIfMatch(top.get(), maskNull(key, NULL_KEY), maskNull(value, NULL_VALUE), MATCH_ANY);
+        return previousValue(previous);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for( Entry<? extends K, ? extends V> entry : map.entrySet() )
+            this.put(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Removes every key one at a time, so concurrent puts are either kept or removed, never half counted
+     */
+    @Override
+    public void clear() {
+        for( Iterator<K> keys = keySet().iterator(); keys.hasNext(); ) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    /**
+     * Weakly consistent walk over the top table, after finishing any copy that was in progress
+     */
+    private abstract class SlotIterator<T> implements Iterator<T> {
+        private final Table table = finishCopies();
+        private int idx = -1;
+        private Object nextKey;
+        private Object nextValue;
+        private Object lastKey;
+
+        SlotIterator() {
+            advance();
+        }
+
+        private void advance() {
+            nextKey = null;
+
+            while( ++idx < table.length ) {
+                Object k = table.key(idx);
+                if( k == null || k == TOMBSTONE )
+                    continue;
+
+                Object v = table.val(idx);
+
+                // a later resize moved it on, so ask the map for the current value
+                if( v == TOMBPRIME )
+                    v = getImpl(k);
+                else if( v instanceof Prime )
+                    v = ( (Prime) v ).value;
+
+                if( isLive(v) ) {
+                    nextKey = k;
+                    nextValue = v;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextKey != null;
+        }
+
+        @Override
+        public T next() {
+            if( nextKey == null )
+                throw new NoSuchElementException();
+
+            T result = at(unmaskNull(nextKey, NULL_KEY), unmaskNull(nextValue, NULL_VALUE));
+            lastKey = nextKey;
+            advance();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            if( lastKey == null )
+                throw new IllegalStateException();
+
+            NonBlockingFlatMap.this.remove(unmaskNull(lastKey, NULL_KEY));
+            lastKey = null;
+        }
+
+        abstract T at(K key, V value);
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new SlotIterator<K>() {
+                    @Override
+                    K at(K key, V value) {
+                        return key;
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return NonBlockingFlatMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @Override
+                    V at(K key, V value) {
+                        return value;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return NonBlockingFlatMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new SlotIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> at(K key, V value) {
+                        return new MapEntry(key, value);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return NonBlockingFlatMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * A snapshot of one slot whose setValue also puts the new value into the map, as ConcurrentHashMap's
+     * entries do
+     */
+    private final class MapEntry extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = 1L;
+
+        MapEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    /**
+     * Probe lengths in the top table only; anything already copied on into a newer table isn't counted until that
+     * table gets promoted.  Reads slots the same way get does, so it never holds anyone up.
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        Table table = top.get();
+        int mask = table.length - 1;
+
+        for( int idx = 0; idx < table.length; idx++ ) {
+            Object k = table.key(idx);
+            Object v = table.val(idx);
+
+            if( v instanceof Prime )
+                v = ( (Prime) v ).value;
+
+            if( k != null && k != TOMBSTONE && isLive(v) )
+                histogram.record(( idx - ( hash(k) & mask ) ) & mask);
+        }
+
+        return new MapStatistics(size(), table.length, histogram, this.counters);
+    }
+
+    @Override
+    public String toString() {
+        Table table = top.get();
+        return "NonBlockingFlatMap{" +
+                "currentSize=" + size() +
+                ", capacity=" + table.length +
+                ", resizing=" + ( table.next.get() != null ) +
+                '}';
+    }
+}
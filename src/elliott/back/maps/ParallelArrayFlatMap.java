@@ -0,0 +1,460 @@
+package elliott.back.maps;
+
+import elliott.back.common.BulkLoadable;
+import elliott.back.common.HashingStrategy;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
+
+import java.util.*;
+
+/***
+ * This class is the circular flat map laid out as parallel arrays instead of an array of Tuples,
+ * with no concurrency protections.
+ *
+ * Keys, values and cached (spread) hash codes live side by side in keys[], vals[] and hashes[], so
+ * lookups, replaces and removes never allocate, and the cached hash lets a probe skip most
+ * slots without calling equals.  Entry objects only get created while iterating entrySet(), and
+ * write their setValue straight through to vals[].
+ *
+ * A null key is stored as a private marker object so that a null in keys[] always means empty.
+ * Removes shift the rest of the probe run back instead of leaving a hole.
+ *
+ * Limited to around MAX_INT entries because arrays are int-indexed in Java.
+ */
+public class ParallelArrayFlatMap<K,V> implements Map<K,V>, BulkLoadable<K,V>, InstrumentedMap {
+
+    /**
+     * Linear probing falls apart as the table fills, so don't let it
+     */
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    /**
+     * Stands in for the null key in keys[]
+     */
+    private static final Object NULL_KEY = new Object();
+
+    private Object [] keys;
+    private Object [] vals;
+    private int [] hashes;
+    private int currentSize = 0;
+    private int modCount;
+
+    private final HashingStrategy<? super K> hashing;
+    private final int seed = HashingStrategy.newSeed();
+
+    private final MapCounters counters = new MapCounters();
+
+    /**
+     * Default construct = initial 32 entries
+     */
+    public ParallelArrayFlatMap() {
+        this(32);
+    }
+
+    public ParallelArrayFlatMap(int initialSize ) {
+        this(initialSize, HashingStrategy.objects());
+    }
+
+    public ParallelArrayFlatMap(int initialSize, HashingStrategy<? super K> hashing ) {
+        int capacity = HashingStrategy.tableSizeFor(initialSize);
+        keys = new Object [capacity];
+        vals = new Object [capacity];
+        hashes = new int [capacity];
+        this.hashing = hashing;
+    }
+
+    @Override
+    public int size() {
+        return currentSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return currentSize == 0;
+    }
+
+    private static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K unmaskNull(Object key) {
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int hashOf(Object key) {
+        return HashingStrategy.spread(this.hashing.computeHashCode((K) key), this.seed);
+    }
+
+    /**
+     * Lookup the start index in our array from a hash code
+     */
+    private int startIndexFromHash(int hash) {
+        return hash & ( this.keys.length - 1 );
+    }
+
+    /**
+     * Find the slot holding this key, or -1 if we hit an empty slot first
+     */
+    @SuppressWarnings("unchecked")
+    private int indexOf(Object key) {
+        Object masked = maskNull(key);
+        int hash = hashOf(key);
+        int pos = startIndexFromHash(hash);
+
+        for( int idx = 0; idx < this.keys.length; idx++ )
+        {
+            Object candidate = this.keys[pos];
+
+            // if we hit a null we did not find the item
+            if( candidate == null )
+                return -1;
+
+            // compare the cached hash first, equals only on a hash match
+            if( this.hashes[pos] == hash && ( candidate == masked || this.hashing.equals(unmaskNull(candidate), (K) key) ) )
+                return pos;
+
+            pos = ( pos + 1 ) & ( this.keys.length - 1 );
+        }
+
+        return -1;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int pos = indexOf(key);
+        this.counters.recordLookup(pos != -1);
+        return pos != -1;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for( int idx = 0; idx < this.keys.length; idx++ )
+            if( this.keys[idx] != null && Objects.equals(this.vals[idx], value) )
+                return true;
+
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int pos = indexOf(key);
+        this.counters.recordLookup(pos != -1);
+        return pos == -1 ? null : (V) this.vals[pos];
+    }
+
+    /**
+     * The rehash operation moves everything to new arrays of the given capacity, re-using the cached hashes
+     */
+    private void reHash(int capacity) {
+        this.modCount++;
+        long started = this.counters.resizeStarted();
+
+        Object [] oldKeys = this.keys;
+        Object [] oldVals = this.vals;
+        int [] oldHashes = this.hashes;
+
+        this.keys = new Object[capacity];
+        this.vals = new Object[capacity];
+        this.hashes = new int[capacity];
+
+        for( int idx = 0; idx < oldKeys.length; idx++ )
+            if( oldKeys[idx] != null )
+                insertAbsent(oldKeys[idx], oldVals[idx], oldHashes[idx]);
+
+        this.counters.resizeFinished(started);
+    }
+
+    /**
+     * Drop an entry whose key is known not to be in the table into the first free slot
+     */
+    private void insertAbsent(Object maskedKey, Object value, int hash) {
+        int pos = startIndexFromHash(hash);
+
+        while( this.keys[pos] != null )
+            pos = ( pos + 1 ) & ( this.keys.length - 1 );
+
+        this.keys[pos] = maskedKey;
+        this.vals[pos] = value;
+        this.hashes[pos] = hash;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        int existing = indexOf(key);
+
+        // the key itself is equal, replace the value in place
+        if( existing != -1 ) {
+            V oldValue = (V) this.vals[existing];
+            this.vals[existing] = value;
+            return oldValue;
+        }
+
+        // running out of space, we need to resize!
+        if( this.currentSize + 1 > this.keys.length * MAX_LOAD_FACTOR )
+            reHash(this.keys.length * 2);
+
+        insertAbsent(maskNull(key), value, hashOf(key));
+        this.currentSize++;
+        this.modCount++;
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int pos = indexOf(key);
+
+        if( pos == -1 )
+            return null;
+
+        V value = (V) this.vals[pos];
+        deleteSlot(pos);
+        return value;
+    }
+
+    /**
+     * Empty a slot, then walk the rest of its probe run and pull back any entry whose home is
+     * at or before the hole, so lookups never stop early on it
+     */
+    private void deleteSlot(int hole) {
+        int next = hole;
+
+        while( true ) {
+            next = ( next + 1 ) & ( this.keys.length - 1 );
+
+            if( this.keys[next] == null )
+                break;
+
+            int home = startIndexFromHash(this.hashes[next]);
+
+            // the entry can only move back if its home isn't cyclically inside (hole, next]
+            boolean homeAfterHole = hole <= next ? ( hole < home && home <= next ) : ( hole < home || home <= next );
+            if( homeAfterHole )
+                continue;
+
+            this.keys[hole] = this.keys[next];
+            this.vals[hole] = this.vals[next];
+            this.hashes[hole] = this.hashes[next];
+            hole = next;
+        }
+
+        this.keys[hole] = null;
+        this.vals[hole] = null;
+        this.hashes[hole] = 0;
+        this.currentSize--;
+        this.modCount++;
+    }
+
+    @Override
+    public void ensureCapacity(int expectedSize) {
+        int capacity = HashingStrategy.tableSizeFor((int) Math.ceil(expectedSize / MAX_LOAD_FACTOR));
+
+        if( capacity > this.keys.length )
+            reHash(capacity);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        bulkLoad(map.entrySet().iterator(), map.size());
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.keys, null);
+        Arrays.fill(this.vals, null);
+        Arrays.fill(this.hashes, 0);
+        this.currentSize = 0;
+        this.modCount++;
+    }
+
+    /**
+     * Walks the occupied slots once round the table, starting from an empty slot so that the
+     * backward shift after a remove can't carry an entry we've already seen into the slots ahead
+     */
+    private abstract class SlotIterator<T> implements Iterator<T> {
+        private final Object [] table = keys;
+        private final int start = firstEmptySlot();
+        private int expectedModCount = modCount;
+
+        /**
+         * Slots visited so far, counting round from start
+         */
+        private int visited = 0;
+        private int lastVisited = -1;
+
+        private int position(int offset) {
+            return ( start + offset ) & ( table.length - 1 );
+        }
+
+        @Override
+        public boolean hasNext() {
+            while( visited < table.length && table[position(visited)] == null )
+                visited++;
+
+            return visited < table.length;
+        }
+
+        @Override
+        public T next() {
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            if( !hasNext() )
+                throw new NoSuchElementException();
+
+            lastVisited = visited++;
+            return at(position(lastVisited));
+        }
+
+        @Override
+        public void remove() {
+            if( lastVisited == -1 )
+                throw new IllegalStateException();
+
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            int pos = position(lastVisited);
+            deleteSlot(pos);
+            expectedModCount = modCount;
+
+            // the shift may have pulled an entry we haven't seen yet into the slot
+            if( table[pos] != null )
+                visited = lastVisited;
+
+            lastVisited = -1;
+        }
+
+        abstract T at(int pos);
+    }
+
+    /**
+     * The load factor keeps at least one slot empty, but fall back to 0 all the same
+     */
+    private int firstEmptySlot() {
+        for( int idx = 0; idx < this.keys.length; idx++ )
+            if( this.keys[idx] == null )
+                return idx;
+
+        return 0;
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new SlotIterator<K>() {
+                    @Override
+                    K at(int pos) {
+                        return unmaskNull(keys[pos]);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return currentSize;
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    V at(int pos) {
+                        return (V) vals[pos];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return currentSize;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new SlotIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> at(int pos) {
+                        return new SlotEntry(pos);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return currentSize;
+            }
+        };
+    }
+
+    private final class SlotEntry extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = 1L;
+
+        private final Object [] table = vals;
+        private final int pos;
+
+        @SuppressWarnings("unchecked")
+        SlotEntry(int pos) {
+            super(unmaskNull(keys[pos]), (V) vals[pos]);
+            this.pos = pos;
+        }
+
+        @Override
+        public V setValue(V value) {
+            // only write through if the map hasn't resized or shifted the key away from us
+            if( this.table == vals && keys[this.pos] == maskNull(getKey()) )
+                this.table[this.pos] = value;
+
+            return super.setValue(value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelArrayFlatMap{" +
+                "currentSize=" + currentSize +
+                ", capacity=" + keys.length +
+                '}';
+    }
+
+    /**
+     * Probe lengths come straight from the cached hashes, no key gets rehashed
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        Object [] currentKeys = this.keys;
+        int [] currentHashes = this.hashes;
+        int mask = Math.min(currentKeys.length, currentHashes.length) - 1;
+
+        for( int idx = 0; idx <= mask; idx++ )
+            if( currentKeys[idx] != null )
+                histogram.record(( idx - ( currentHashes[idx] & mask ) ) & mask);
+
+        return new MapStatistics(this.currentSize, currentKeys.length, histogram, this.counters);
+    }
+}
@@ -0,0 +1,272 @@
+package elliott.back.maps;
+
+import elliott.back.common.AbstractMapCommonMethods;
+import elliott.back.common.HashingStrategy;
+import elliott.back.common.Tuple;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/***
+ * This class is the circular flat map with Robin Hood probing, and no concurrency protections.
+ *
+ * Every slot remembers how far its entry sits from its home slot.  On insert, an entry which has
+ * travelled further than the current occupant takes the slot, and the occupant continues probing
+ * instead ("take from the rich, give to the poor").  This keeps probe lengths short and even, and
+ * lets a lookup stop as soon as it reaches an entry closer to home than the probe is, because
+ * the key would have displaced that entry if it were present.
+ *
+ * Removes shift the following entries back one slot instead of leaving a hole, so there are no
+ * tombstones and the early-exit rule stays valid.
+ *
+ * Limited to around MAX_INT entries because arrays are int-indexed in Java.
+ */
+public class RobinHoodCircularFlatMap<K,V> extends AbstractMapCommonMethods<K,V> implements Map<K,V>, InstrumentedMap {
+
+    /**
+     * Robin Hood copes well with a full-ish table, but not a totally full one
+     */
+    private static final double MAX_LOAD_FACTOR = 0.9;
+
+    private Tuple<K,V> [] backing;
+    private int [] probeDistances;
+    private int currentSize = 0;
+
+    private final HashingStrategy<? super K> hashing;
+    private final int seed = HashingStrategy.newSeed();
+
+    private final MapCounters counters = new MapCounters();
+
+    /**
+     * Default construct = initial 32 entries
+     */
+    public RobinHoodCircularFlatMap() {
+        this(32);
+    }
+
+    public RobinHoodCircularFlatMap(int initialSize ) {
+        this(initialSize, HashingStrategy.objects());
+    }
+
+    public RobinHoodCircularFlatMap(int initialSize, HashingStrategy<? super K> hashing ) {
+        int capacity = HashingStrategy.tableSizeFor(initialSize);
+        backing = newTable(capacity);
+        probeDistances = new int [capacity];
+        this.hashing = hashing;
+    }
+
+    @Override
+    public int size() {
+        return currentSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return currentSize == 0;
+    }
+
+    @Override
+    public Tuple<K,V> [] getBackingArray(){
+        return backing;
+    }
+
+    /**
+     * Start iterating where a probe run starts, so a backward-shift remove never moves an entry
+     * from the first slot we visit round to the last
+     */
+    @Override
+    protected int iterationStart() {
+        for( int idx = 0; idx < this.backing.length; idx++ )
+            if( this.backing[idx] == null || this.probeDistances[idx] == 0 )
+                return idx;
+
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K,V> Tuple<K,V> [] newTable(int capacity) {
+        return (Tuple<K,V> []) new Tuple<?,?> [capacity];
+    }
+
+    /**
+     * Lookup the home index in our array from some object
+     */
+    @SuppressWarnings("unchecked")
+    private int startIndexFromObject(Object key )
+    {
+        return HashingStrategy.spread(this.hashing.computeHashCode((K) key), this.seed) & ( this.backing.length - 1 );
+    }
+
+    /**
+     * Find the slot holding this key, or -1.  Stops at an empty slot or at the first entry which
+     * is closer to its home than we are to ours.
+     */
+    @SuppressWarnings("unchecked")
+    private int indexOf(Object key )
+    {
+        int pos = startIndexFromObject(key);
+
+        for( int distance = 0; distance < this.backing.length; distance++ )
+        {
+            // if we hit a null we did not find the item
+            if( this.backing[pos] == null )
+                return -1;
+
+            // the key would have displaced this entry on insert, so it isn't here
+            if( this.probeDistances[pos] < distance )
+                return -1;
+
+            // if we hit a matching key, we found it
+            if( this.hashing.equals(this.backing[pos].getKey(), (K) key) )
+                return pos;
+
+            pos = ( pos + 1 ) & ( this.backing.length - 1 );
+        }
+
+        return -1;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int pos = indexOf(key);
+        this.counters.recordLookup(pos != -1);
+        return pos != -1;
+    }
+
+    @Override
+    public V get(Object key) {
+        int pos = indexOf(key);
+        this.counters.recordLookup(pos != -1);
+        return pos == -1 ? null : this.backing[pos].getValue();
+    }
+
+    /**
+     * The rehash operation moves everything to a new array of the given capacity
+     */
+    private void reHash(int capacity){
+        this.modCount++;
+        long started = this.counters.resizeStarted();
+
+        Tuple<K,V> [] oldBacking = this.backing;
+
+        this.backing = newTable(capacity);
+        this.probeDistances = new int[this.backing.length];
+
+        for(Tuple<K,V> oldEntry : oldBacking)
+            if(oldEntry != null)
+                insertAbsent(oldEntry);
+
+        this.counters.resizeFinished(started);
+    }
+
+    /**
+     * Robin Hood insert of an entry whose key is known not to be in the table
+     */
+    private void insertAbsent(Tuple<K,V> entry) {
+        int pos = startIndexFromObject(entry.getKey());
+        int distance = 0;
+
+        while( this.backing[pos] != null ) {
+            // the resident is closer to home than we are, so it gives up its slot
+            if( this.probeDistances[pos] < distance ) {
+                Tuple<K,V> displaced = this.backing[pos];
+                int displacedDistance = this.probeDistances[pos];
+
+                this.backing[pos] = entry;
+                this.probeDistances[pos] = distance;
+
+                entry = displaced;
+                distance = displacedDistance;
+            }
+
+            pos = ( pos + 1 ) & ( this.backing.length - 1 );
+            distance++;
+        }
+
+        this.backing[pos] = entry;
+        this.probeDistances[pos] = distance;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int existing = indexOf(key);
+
+        // the key itself is equal, replace
+        if( existing != -1 ) {
+            V oldValue = this.backing[existing].getValue();
+            this.backing[existing].setValue(value);
+            return oldValue;
+        }
+
+        // running out of space, we need to resize!
+        if( this.currentSize + 1 > this.backing.length * MAX_LOAD_FACTOR )
+            reHash(this.backing.length * 2);
+
+        insertAbsent(new Tuple<>(key, value));
+        this.currentSize++;
+        this.modCount++;
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int pos = indexOf(key);
+
+        if( pos == -1 )
+            return null;
+
+        V value = this.backing[pos].getValue();
+
+        // backward-shift: pull every displaced follower one slot closer to home
+        int next = ( pos + 1 ) & ( this.backing.length - 1 );
+        while( this.backing[next] != null && this.probeDistances[next] > 0 ) {
+            this.backing[pos] = this.backing[next];
+            this.probeDistances[pos] = this.probeDistances[next] - 1;
+
+            pos = next;
+            next = ( next + 1 ) & ( this.backing.length - 1 );
+        }
+
+        this.backing[pos] = null;
+        this.probeDistances[pos] = 0;
+        this.currentSize--;
+        this.modCount++;
+        return value;
+    }
+
+    @Override
+    public void ensureCapacity(int expectedSize) {
+        int capacity = HashingStrategy.tableSizeFor((int) Math.ceil(expectedSize / MAX_LOAD_FACTOR));
+
+        if( capacity > this.backing.length )
+            reHash(capacity);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.backing, null);
+        Arrays.fill(this.probeDistances, 0);
+        this.currentSize = 0;
+        this.modCount++;
+    }
+
+    /**
+     * Every slot already knows its probe distance, so this is just a walk over that array
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        Tuple<K,V> [] current = this.backing;
+        int [] distances = this.probeDistances;
+
+        for( int idx = 0; idx < Math.min(current.length, distances.length); idx++ )
+            if( current[idx] != null )
+                histogram.record(distances[idx]);
+
+        return new MapStatistics(this.currentSize, current.length, histogram, this.counters);
+    }
+}
@@ -1,25 +1,69 @@
 package elliott.back.maps;
 
 import elliott.back.common.AbstractMapCommonMethods;
+import elliott.back.common.HashingStrategy;
+import elliott.back.common.ResizePolicy;
 import elliott.back.common.Tuple;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
 
 import java.util.Arrays;
 import java.util.Map;
 
 /***
  * This class is a simple map, with no concurrency protections, that is based on
- * a flat array which is doubled every time it becomes full (on insert).
+ * a flat array which grows when it gets too full or too long to probe (on insert), see ResizePolicy.
  *
  * Both inserts and lookups use probing in the array to find the next free slot.
- * Probing wraps around the array size.
+ * Probing wraps around the array size, which is kept a power of two so it's a mask not a division.
+ * Removes shift the rest of the probe run back over the emptied slot, so there are no tombstones
+ * and lookups can still stop at the first null.
+ *
+ * In incremental resize mode the doubled array is allocated up front but entries move across a
+ * few slots at a time on each following operation, so no single put pays for the whole copy.
+ * Until that finishes, lookups check the new array and then the old one.  Migrated slots in
+ * the old array are marked MOVED rather than nulled, so probes there still get past them.
  *
  * Limited to around MAX_INT entries because arrays are int-indexed in Java.
  */
-public class SimpleCircularFlatMap<K,V> extends AbstractMapCommonMethods<K,V> implements Map<K,V> {
+public class SimpleCircularFlatMap<K,V> extends AbstractMapCommonMethods<K,V> implements Map<K,V>, InstrumentedMap {
+
+    /**
+     * How many old slots each operation migrates during an incremental resize
+     */
+    private static final int MIGRATE_SLOTS_PER_OP = 64;
+
+    /**
+     * Left in the old array in place of an entry that has already been migrated
+     */
+    private static final Tuple<?,?> MOVED = new Tuple<>(null, null);
+
+    @SuppressWarnings("unchecked")
+    private static <K,V> Tuple<K,V> moved() {
+        return (Tuple<K,V>) MOVED;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K,V> Tuple<K,V> [] newTable(int capacity) {
+        return (Tuple<K,V> []) new Tuple<?,?> [capacity];
+    }
 
     private Tuple<K,V> [] backing;
     private int currentSize = 0;
 
+    private final HashingStrategy<? super K> hashing;
+    private final int seed = HashingStrategy.newSeed();
+
+    private final ResizePolicy resizePolicy;
+
+    private final MapCounters counters = new MapCounters();
+
+    private final boolean incrementalResize;
+    private Tuple<K,V> [] oldBacking;
+    private int migrateIdx;
+
     /**
      * Default construct = initial 32 entries
      */
@@ -28,7 +72,26 @@ public class SimpleCircularFlatMap<K,V> extends AbstractMapCommonMethods<K,V> im
     }
 
     public SimpleCircularFlatMap(int initialSize ) {
-        backing = new Tuple [initialSize];
+        this(initialSize, false);
+    }
+
+    public SimpleCircularFlatMap(int initialSize, boolean incrementalResize ) {
+        this(initialSize, incrementalResize, HashingStrategy.objects());
+    }
+
+    public SimpleCircularFlatMap(int initialSize, boolean incrementalResize, HashingStrategy<? super K> hashing ) {
+        this(initialSize, incrementalResize, hashing, ResizePolicy.defaults());
+    }
+
+    public SimpleCircularFlatMap(ResizePolicy resizePolicy ) {
+        this(32, false, HashingStrategy.objects(), resizePolicy);
+    }
+
+    public SimpleCircularFlatMap(int initialSize, boolean incrementalResize, HashingStrategy<? super K> hashing, ResizePolicy resizePolicy ) {
+        backing = newTable(resizePolicy.initialCapacity(initialSize));
+        this.incrementalResize = incrementalResize;
+        this.hashing = hashing;
+        this.resizePolicy = resizePolicy;
     }
 
     @Override
@@ -43,100 +106,215 @@ public class SimpleCircularFlatMap<K,V> extends AbstractMapCommonMethods<K,V> im
 
     @Override
     public Tuple<K,V> [] getBackingArray(){
+        // callers walk the one array, so everything has to be in it
+        finishMigration();
         return backing;
     }
 
     /**
-     * Lookup the start index in our array from some object
+     * Start iterating at an empty slot, which no probe run crosses, so a remove's backward shift never
+     * moves an entry from the first slots we visit round to the last
      */
-    private int startIndexFromObject(Object key )
+    @Override
+    protected int iterationStart() {
+        for( int idx = 0; idx < this.backing.length; idx++ )
+            if( this.backing[idx] == null )
+                return idx;
+
+        return 0;
+    }
+
+    /**
+     * Lookup the start index in an array from some object
+     */
+    @SuppressWarnings("unchecked")
+    private int startIndexFromObject(Object key, int length )
     {
-        return key == null ? 0 : key.hashCode() % this.backing.length;
+        return HashingStrategy.spread(this.hashing.computeHashCode((K) key), this.seed) & ( length - 1 );
     }
 
-    @Override
-    public boolean containsKey(Object key) {
-        Tuple keyTuple = new Tuple(key, null);
+    @SuppressWarnings("unchecked")
+    private boolean keysEqual(Object a, Object b )
+    {
+        return this.hashing.equals((K) a, (K) b);
+    }
 
-        int startOffset = startIndexFromObject(key);
+    /**
+     * Probe one array for the key, stepping over MOVED markers like any other entry
+     */
+    private int indexOf(Tuple<K,V> [] table, Object key )
+    {
+        int startOffset = startIndexFromObject(key, table.length);
 
-        for( int idx = 0; idx < this.backing.length; idx++ )
+        for( int idx = 0; idx < table.length; idx++ )
         {
-            int pos = ( idx + startOffset ) % this.backing.length;
+            int pos = ( idx + startOffset ) & ( table.length - 1 );
 
             // if we hit a null we did not find the item
-            if( this.backing[pos] == null )
-                return false;
+            if( table[pos] == null )
+                return -1;
 
             // if we hit a matching key, we found it
-            if( this.backing[pos].equals(keyTuple))
-                return true;
+            if( table[pos] != MOVED && keysEqual(table[pos].getKey(), key) )
+                return pos;
         }
 
-        return false;
+        return -1;
     }
 
     @Override
-    public V get(Object key) {
-        Tuple keyTuple = new Tuple(key, null);
+    public boolean containsKey(Object key) {
+        migrateStep();
 
-        int startOffset = startIndexFromObject(key);
+        boolean found = indexOf(this.backing, key) != -1 ||
+                        ( this.oldBacking != null && indexOf(this.oldBacking, key) != -1 );
 
-        for( int idx = 0; idx < this.backing.length; idx++ )
-        {
-            int pos = ( idx + startOffset ) % this.backing.length;
+        this.counters.recordLookup(found);
+        return found;
+    }
 
-            // if we hit a null we did not find the item
-            if( this.backing[pos] == null )
-                return null;
+    @Override
+    public V get(Object key) {
+        migrateStep();
 
-            // if we hit a matching key, we found it
-            if( this.backing[pos].equals(keyTuple))
-                return this.backing[pos].getValue();
+        int pos = indexOf(this.backing, key);
+        if( pos != -1 ) {
+            this.counters.recordLookup(true);
+            return this.backing[pos].getValue();
         }
 
-        // ran out of space
+        if( this.oldBacking != null ) {
+            pos = indexOf(this.oldBacking, key);
+            if( pos != -1 ) {
+                this.counters.recordLookup(true);
+                return this.oldBacking[pos].getValue();
+            }
+        }
+
+        this.counters.recordLookup(false);
+
         return null;
     }
 
     /**
-     * The rehash operation will just double the array
-     * TODO: dupe
+     * The rehash operation moves everything to a new array of the given capacity
      */
-    private void reHash(){
+    private void reHash(int capacity){
+        this.modCount++;
+        long started = this.counters.resizeStarted();
+
         Tuple<K,V> [] oldBacking = this.backing;
 
-        this.backing = new Tuple[this.backing.length * 2 ];
-        this.currentSize = 0;
+        this.backing = newTable(capacity);
 
+        if( this.incrementalResize ) {
+            this.oldBacking = oldBacking;
+            this.migrateIdx = 0;
+            this.counters.resizeFinished(started);
+            return;
+        }
+
+        // keys are already distinct, so skip put and its resize checks
         for(Tuple<K,V> oldEntry : oldBacking)
             if(oldEntry != null)
-                put(oldEntry.getKey(), oldEntry.getValue());
+                place(oldEntry);
+
+        this.counters.resizeFinished(started);
+    }
+
+    /**
+     * Drop an entry which isn't in the new array yet into its first free slot
+     */
+    private void place(Tuple<K,V> entry) {
+        int startOffset = startIndexFromObject(entry.getKey(), this.backing.length);
+
+        for( int idx = 0; idx < this.backing.length; idx++ )
+        {
+            int pos = ( startOffset + idx ) & ( this.backing.length - 1 );
+
+            if( this.backing[pos] == null ) {
+                this.backing[pos] = entry;
+                return;
+            }
+        }
+
+        throw new IllegalStateException("Array should have a slot but doesn't");
+    }
+
+    /**
+     * Move the next few old slots across, dropping the old array once they're all done
+     */
+    private void migrateStep() {
+        if( this.oldBacking == null )
+            return;
+
+        int end = Math.min(this.migrateIdx + MIGRATE_SLOTS_PER_OP, this.oldBacking.length);
+
+        for( ; this.migrateIdx < end; this.migrateIdx++ ) {
+            Tuple<K,V> entry = this.oldBacking[this.migrateIdx];
+
+            if( entry != null && entry != MOVED ) {
+                place(entry);
+                this.oldBacking[this.migrateIdx] = moved();
+            }
+        }
+
+        if( this.migrateIdx == this.oldBacking.length )
+            this.oldBacking = null;
+    }
+
+    /**
+     * Move one key across ahead of schedule, so a put or remove only has to touch the new array
+     */
+    private void migrateKey(Object key) {
+        if( this.oldBacking == null )
+            return;
+
+        int pos = indexOf(this.oldBacking, key);
+
+        if( pos != -1 ) {
+            place(this.oldBacking[pos]);
+            this.oldBacking[pos] = moved();
+        }
+    }
+
+    private void finishMigration() {
+        while( this.oldBacking != null )
+            migrateStep();
     }
 
     @Override
     // TODO: the iteration order could be abstracted
     public V put(K key, V value) {
-        // ran out of space, we need to resize!
-        if(this.currentSize == this.backing.length)
-            reHash();
+        migrateStep();
+        migrateKey(key);
 
-        int startOffset = startIndexFromObject(key);
+        int startOffset = startIndexFromObject(key, this.backing.length);
 
         // there should be some space, use it
         for( int idx = 0; idx < this.backing.length; idx++ )
         {
-            int pos = ( startOffset + idx ) % this.backing.length;
+            int pos = ( startOffset + idx ) & ( this.backing.length - 1 );
 
             // if we hit a null there is nothing there
             if( this.backing[pos] == null ) {
-                this.backing[pos] = new Tuple(key, value);
+                // too full, or too far from home, grow rather than leave a long probe for every later lookup.
+                // Only inserts count towards the load, replacing a key never grows the table
+                if( this.resizePolicy.overLoaded(this.currentSize + 1, this.backing.length)
+                        || this.resizePolicy.overProbed(idx, this.currentSize, this.backing.length) ) {
+                    finishMigration();
+                    reHash(this.resizePolicy.grow(this.backing.length));
+                    return this.put(key, value);
+                }
+
+                this.backing[pos] = new Tuple<>(key, value);
                 this.currentSize++;
+                this.modCount++;
                 return null;
             } // the key itself is equal, replace
-            else if( ( this.backing[pos].getKey() == null && key == null ) || this.backing[pos].getKey().equals(key) ) {
+            else if( keysEqual(this.backing[pos].getKey(), key) ) {
                 V oldValue = this.backing[pos].getValue();
-                this.backing[pos] = new Tuple(key, value);
+                this.backing[pos].setValue(value);
                 return oldValue;
             }
         }
@@ -146,23 +324,25 @@ public class SimpleCircularFlatMap<K,V> extends AbstractMapCommonMethods<K,V> im
 
     @Override
     public V remove(Object key) {
-        Tuple keyTuple = new Tuple(key, null);
+        migrateStep();
+        migrateKey(key);
 
-        int startOffset = startIndexFromObject(key);
+        int startOffset = startIndexFromObject(key, this.backing.length);
 
         for( int idx = 0; idx < this.backing.length; idx++ )
         {
-            int pos = ( startOffset + idx ) % this.backing.length;
+            int pos = ( startOffset + idx ) & ( this.backing.length - 1 );
 
             // if we hit a null we did not find the item
             if( this.backing[pos] == null )
                 return null;
 
             // if we hit a matching key, we found it
-            if( this.backing[pos].equals(keyTuple)) {
+            if( keysEqual(this.backing[pos].getKey(), key) ) {
                 V value = this.backing[pos].getValue();
-                this.backing[pos] = null;
+                closeGap(pos);
                 this.currentSize--;
+                this.modCount++;
                 return value;
             }
         }
@@ -171,9 +351,75 @@ public class SimpleCircularFlatMap<K,V> extends AbstractMapCommonMethods<K,V> im
         return null;
     }
 
+    /**
+     * Empty a slot without breaking the probe run it sits in: every later entry in the run whose home
+     * isn't between the gap and itself moves back into it, leaving the gap further on, until the run
+     * ends.  Just nulling the slot would hide the entries after it from any lookup that has to probe past.
+     */
+    private void closeGap(int gap) {
+        int mask = this.backing.length - 1;
+        int pos = gap;
+
+        // a full table has no null to stop at, so go round once at most
+        for( int step = 1; step <= mask; step++ )
+        {
+            pos = ( pos + 1 ) & mask;
+
+            if( this.backing[pos] == null )
+                break;
+
+            int home = startIndexFromObject(this.backing[pos].getKey(), this.backing.length);
+
+            // distance probed from home, against the distance back to the gap
+            if( ( ( pos - home ) & mask ) >= ( ( pos - gap ) & mask ) ) {
+                this.backing[gap] = this.backing[pos];
+                gap = pos;
+            }
+        }
+
+        this.backing[gap] = null;
+    }
+
+    @Override
+    public void ensureCapacity(int expectedSize) {
+        int capacity = this.resizePolicy.withExpectedSize(expectedSize).initialCapacity(0);
+
+        if( capacity > this.backing.length ) {
+            finishMigration();
+            reHash(capacity);
+        }
+    }
+
     @Override
     public void clear() {
         Arrays.fill(this.backing, null);
+        this.oldBacking = null;
         this.currentSize = 0;
+        this.modCount++;
+    }
+
+    /**
+     * Walks the table(s) without touching them, so it doesn't move an incremental resize along
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        Tuple<K,V> [] current = this.backing;
+        Tuple<K,V> [] old = this.oldBacking;
+
+        recordProbeLengths(current, histogram);
+        if( old != null )
+            recordProbeLengths(old, histogram);
+
+        return new MapStatistics(this.currentSize, current.length, histogram, this.counters);
+    }
+
+    private void recordProbeLengths(Tuple<K,V> [] table, ProbeHistogram histogram) {
+        for( int idx = 0; idx < table.length; idx++ ) {
+            Tuple<K,V> entry = table[idx];
+
+            if( entry != null && entry != MOVED )
+                histogram.record(( idx - startIndexFromObject(entry.getKey(), table.length) ) & ( table.length - 1 ));
+        }
     }
-}
\ No newline at end of file
+}
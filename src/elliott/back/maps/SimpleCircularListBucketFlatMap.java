@@ -1,20 +1,67 @@
 package elliott.back.maps;
 
+import elliott.back.common.BulkLoadable;
+import elliott.back.common.HashingStrategy;
+import elliott.back.common.ParallelBulkMap;
 import elliott.back.common.Tuple;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
 
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /***
  * This class sticks buckets (linked lists) on the leaf of the previous circular array implementation, and resizes
  * when buckets start getting beefy.
+ *
+ * Resizing only looks at the average bucket, so a skewed key set can still pile most of the map into one bucket.
+ * A bucket which grows past TREEIFY_THRESHOLD is swapped for a TreeBucket, ordered by hash and then by key where
+ * the keys are Comparable, and goes back to a linked list when it drops below UNTREEIFY_THRESHOLD.
+ *
+ * In incremental resize mode the doubled bucket array is allocated up front, and old buckets move across a few at
+ * a time on each following operation.  Any operation on a key first moves that key's old bucket, so after that
+ * it only has to look at the new array.
  */
-public class SimpleCircularListBucketFlatMap<K,V> implements Map<K,V> {
+public class SimpleCircularListBucketFlatMap<K,V> implements Map<K,V>, BulkLoadable<K,V>, ParallelBulkMap<K,V>, InstrumentedMap {
 
-    private List<Tuple<K,V>>[] backing;
+    /**
+     * How many old buckets each operation migrates during an incremental resize
+     */
+    private static final int MIGRATE_BUCKETS_PER_OP = 8;
+
+    /**
+     * Buckets average up to 64 entries before a resize, so only treeify well past that, where the keys are skewed
+     */
+    static final int TREEIFY_THRESHOLD = 128;
+
+    /**
+     * A bit of a gap below TREEIFY_THRESHOLD, so a bucket hovering around it doesn't flip back and forth
+     */
+    static final int UNTREEIFY_THRESHOLD = 96;
+
+    private Collection<Tuple<K,V>>[] backing;
     private double avgBackingBucketSize;
     private int currentSize = 0;
     private double reSizeWhenAverageIs = 64;
 
+    /**
+     * Bumped on every structural change, so iterators over the views can fail fast
+     */
+    private int modCount;
+
+    private final boolean incrementalResize;
+    private Collection<Tuple<K,V>>[] oldBacking;
+    private int migrateIdx;
+
+    private final HashingStrategy<? super K> hashing;
+    private final int seed = HashingStrategy.newSeed();
+
+    private final MapCounters counters = new MapCounters();
+
     /**
      * Default construct = initial 32 entries
      */
@@ -23,7 +70,17 @@ public class SimpleCircularListBucketFlatMap<K,V> implements Map<K,V> {
     }
 
     public SimpleCircularListBucketFlatMap(int initialSize ) {
-        backing = new List [initialSize];
+        this(initialSize, false);
+    }
+
+    public SimpleCircularListBucketFlatMap(int initialSize, boolean incrementalResize ) {
+        this(initialSize, incrementalResize, HashingStrategy.objects());
+    }
+
+    public SimpleCircularListBucketFlatMap(int initialSize, boolean incrementalResize, HashingStrategy<? super K> hashing ) {
+        backing = new Collection [HashingStrategy.tableSizeFor(initialSize)];
+        this.incrementalResize = incrementalResize;
+        this.hashing = hashing;
     }
 
     private void incrementBucketAverage() {
@@ -49,23 +106,114 @@ public class SimpleCircularListBucketFlatMap<K,V> implements Map<K,V> {
      */
     private int bucketIndexFromObject(Object key )
     {
-        return key == null ? 0 : key.hashCode() % this.backing.length;
+        return bucketIndexFromObject(key, this.backing.length);
+    }
+
+    private int bucketIndexFromObject(Object key, int length )
+    {
+        return hash(key) & ( length - 1 );
+    }
+
+    private int hash(Object key) {
+        return HashingStrategy.spread(this.hashing.computeHashCode((K) key), this.seed);
+    }
+
+    private boolean keysEqual(Object a, Object b) {
+        return this.hashing.equals((K) a, (K) b);
+    }
+
+    /**
+     * Find the entry for a key in one bucket, either by walking the list or by searching the tree
+     */
+    private Tuple<K,V> findEntry(Collection<Tuple<K,V>> bucket, Object key) {
+        if( bucket == null )
+            return null;
+
+        if( bucket instanceof TreeBucket )
+            return ((TreeBucket<K,V>) bucket).find(key);
+
+        for(Tuple<K,V> existingEntry : bucket)
+            if( keysEqual(existingEntry.getKey(), key) )
+                return existingEntry;
+
+        return null;
+    }
+
+    /**
+     * Add an entry which isn't in the map yet, treeifying the bucket if it has got too big for a list
+     */
+    private void addEntry(int bucketIdx, Tuple<K,V> entry) {
+        Collection<Tuple<K,V>> bucket = this.backing[bucketIdx];
+
+        if( bucket == null ) {
+            bucket = new LinkedList<Tuple<K,V>>();
+            this.backing[bucketIdx] = bucket;
+        }
+
+        bucket.add(entry);
+
+        if( bucket.size() > TREEIFY_THRESHOLD && !( bucket instanceof TreeBucket ) )
+            this.backing[bucketIdx] = new TreeBucket<>(this, bucket);
+    }
+
+    /**
+     * Move one old bucket's entries into the new array
+     */
+    private void migrateBucket(int oldIdx) {
+        Collection<Tuple<K,V>> oldList = this.oldBacking[oldIdx];
+
+        if( oldList == null )
+            return;
+
+        for(Tuple<K,V> oldEntry : oldList)
+            addEntry(bucketIndexFromObject(oldEntry.getKey()), oldEntry);
+
+        this.oldBacking[oldIdx] = null;
+    }
+
+    /**
+     * Move the next few old buckets across, plus the one this key lives in, dropping the old array once
+     * they're all done
+     */
+    private void migrateStep(Object key) {
+        if( this.oldBacking == null )
+            return;
+
+        migrateBucket(bucketIndexFromObject(key, this.oldBacking.length));
+
+        int end = Math.min(this.migrateIdx + MIGRATE_BUCKETS_PER_OP, this.oldBacking.length);
+        for( ; this.migrateIdx < end; this.migrateIdx++ )
+            migrateBucket(this.migrateIdx);
+
+        if( this.migrateIdx == this.oldBacking.length )
+            this.oldBacking = null;
+    }
+
+    private void finishMigration() {
+        if( this.oldBacking == null )
+            return;
+
+        for( ; this.migrateIdx < this.oldBacking.length; this.migrateIdx++ )
+            migrateBucket(this.migrateIdx);
+
+        this.oldBacking = null;
     }
 
     @Override
     public boolean containsKey(Object key) {
-        Tuple keyTuple = new Tuple(key, null);
+        migrateStep(key);
 
-        int bucketIdx = bucketIndexFromObject(key);
-
-        List<Tuple<K,V>> bucket = this.backing[bucketIdx];
+        boolean found = findEntry(this.backing[bucketIndexFromObject(key)], key) != null;
 
-        return bucket != null && bucket.indexOf( keyTuple ) != -1;
+        this.counters.recordLookup(found);
+        return found;
     }
 
     @Override
     public boolean containsValue(Object value) {
-        for(List<Tuple<K,V>> list : this.backing)
+        finishMigration();
+
+        for(Collection<Tuple<K,V>> list : this.backing)
             if( list != null )
                 for(Tuple<K,V> entry : list)
                     if( entry != null ) // think I might not need this null check
@@ -79,70 +227,72 @@ public class SimpleCircularListBucketFlatMap<K,V> implements Map<K,V> {
 
     @Override
     public V get(Object key) {
-        Tuple keyTuple = new Tuple(key, null);
-
-        int bucketIdx = bucketIndexFromObject(key);
-
-        List<Tuple<K,V>> bucket = this.backing[bucketIdx];
+        migrateStep(key);
 
-        if( bucket != null )
-        {
-            int foundIdx = bucket.indexOf( keyTuple );
-            if( foundIdx != -1 )
-                return bucket.get(foundIdx).getValue();
-        }
+        Tuple<K,V> entry = findEntry(this.backing[bucketIndexFromObject(key)], key);
 
-        return null;
+        this.counters.recordLookup(entry != null);
+        return entry == null ? null : entry.getValue();
     }
 
     /**
-     * Rehashing will double the size of the backing array buckets
+     * Rehashing moves every bucket's entries to a new array of the given number of buckets
      */
-    private void reHash(){
-        List<Tuple<K,V>> [] oldBacking = this.backing;
+    private void reHash(int buckets){
+        this.modCount++;
+        long started = this.counters.resizeStarted();
+
+        Collection<Tuple<K,V>> [] oldBacking = this.backing;
+
+        this.backing = new Collection [buckets];
+
+        if( this.incrementalResize ) {
+            this.oldBacking = oldBacking;
+            this.migrateIdx = 0;
+            this.avgBackingBucketSize = this.currentSize / (double) this.backing.length;
+            this.counters.resizeFinished(started);
+            return;
+        }
 
-        this.backing = new List [this.backing.length * 2 ];
         this.currentSize = 0;
         this.avgBackingBucketSize = 0.0;
 
-        for(List<Tuple<K,V>> oldList : oldBacking)
+        for(Collection<Tuple<K,V>> oldList : oldBacking)
             if(oldList != null)
                 for(Tuple<K,V> oldEntry : oldList)
                     if(oldEntry != null)
                         put(oldEntry.getKey(), oldEntry.getValue());
+
+        this.counters.resizeFinished(started);
     }
 
     @Override
     // TODO: the iteration order could be abstracted
     public V put(K key, V value) {
         // ran out of space, we need to resize!
-        if(this.avgBackingBucketSize >= reSizeWhenAverageIs )
-            reHash();
+        if(this.avgBackingBucketSize >= reSizeWhenAverageIs ) {
+            finishMigration();
+            reHash(this.backing.length * 2);
+        }
+
+        migrateStep(key);
 
         int bucketIdx = bucketIndexFromObject(key);
-        List<Tuple<K,V>> bucket = this.backing[bucketIdx];
 
-        if( bucket == null ) {
-            bucket = new LinkedList<Tuple<K,V>>();
-            this.backing[bucketIdx] = bucket;
+        // replace in place, so the bucket itself doesn't change under any iterator
+        Tuple<K,V> existingEntry = findEntry(this.backing[bucketIdx], key);
+        if( existingEntry != null ) {
+            V oldValue = existingEntry.getValue();
+            existingEntry.setValue(value);
+            return oldValue;
         }
 
-        Tuple<K,V> newEntry = new Tuple(key, value);
-
-        for(Tuple<K,V> existingEntry : bucket)
-            if( ( existingEntry.getKey() == null && key == null ) ||
-                ( existingEntry.getKey() != null && existingEntry.getKey().equals(key) ) )
-            {
-                bucket.remove(existingEntry);
-                bucket.add(newEntry);
-                return existingEntry.getValue();
-            }
-
-        // we fell through the loop
-        bucket.add(newEntry);
+        // not there yet
+        addEntry(bucketIdx, new Tuple(key, value));
 
         // keep an accounting
         this.currentSize += 1;
+        this.modCount++;
         this.incrementBucketAverage();
 
         return null;
@@ -150,77 +300,597 @@ public class SimpleCircularListBucketFlatMap<K,V> implements Map<K,V> {
 
     @Override
     public V remove(Object key) {
+        migrateStep(key);
+
         int bucketOffset = bucketIndexFromObject(key);
 
         if( this.backing[bucketOffset] == null )
             return null;
 
-        List<Tuple<K,V>> bucket = this.backing[bucketOffset];
+        Collection<Tuple<K,V>> bucket = this.backing[bucketOffset];
 
         // search the bucket
-        for(Tuple<K,V> existingEntry : bucket )
-            if( ( existingEntry.getKey() == null && key == null ) ||
-                ( existingEntry.getKey() != null && existingEntry.getKey().equals(key) ) )
-            {
-                bucket.remove(existingEntry);
-                this.currentSize -= 1;
-                this.decrementBucketAverage();
-                return existingEntry.getValue();
-            }
+        Tuple<K,V> existingEntry = findEntry(bucket, key);
+        if( existingEntry == null )
+            return null;
 
-        // ran out of space
-        return null;
+        if( bucket instanceof TreeBucket ) {
+            ((TreeBucket<K,V>) bucket).removeKey(key);
+
+            if( bucket.size() < UNTREEIFY_THRESHOLD )
+                this.backing[bucketOffset] = new LinkedList<>(bucket);
+        }
+        else
+            bucket.remove(existingEntry);
+
+        this.currentSize -= 1;
+        this.modCount++;
+        this.decrementBucketAverage();
+        return existingEntry.getValue();
     }
 
+    /**
+     * The running bucket average runs away once there are more entries than buckets, so in practice a resize
+     * comes at about one entry per bucket rather than reSizeWhenAverageIs; size for that
+     */
     @Override
-    public void putAll(Map<? extends K, ? extends V> m) {
+    public void ensureCapacity(int expectedSize) {
+        int buckets = HashingStrategy.tableSizeFor(expectedSize);
 
+        if( buckets > this.backing.length ) {
+            finishMigration();
+            reHash(buckets);
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        bulkLoad(map.entrySet().iterator(), map.size());
     }
 
     @Override
     public void clear() {
         Arrays.fill(this.backing, null);
+        this.oldBacking = null;
         this.currentSize = 0;
         this.avgBackingBucketSize = 0;
+        this.modCount++;
+    }
+
+    /**
+     * Walks the buckets in place, no copying.  Iterator.remove goes through the bucket's own iterator.
+     */
+    private abstract class BucketIterator<T> implements Iterator<T> {
+        private final Collection<Tuple<K,V>> [] table;
+        private int expectedModCount;
+        private int bucketIdx = 0;
+        private Iterator<Tuple<K,V>> bucketIterator;
+        private Iterator<Tuple<K,V>> lastIterator;
+
+        BucketIterator() {
+            finishMigration();
+            this.table = backing;
+            this.expectedModCount = modCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while( ( bucketIterator == null || !bucketIterator.hasNext() ) && bucketIdx < table.length ) {
+                Collection<Tuple<K,V>> bucket = table[bucketIdx++];
+                bucketIterator = bucket == null ? null : bucket.iterator();
+            }
+
+            return bucketIterator != null && bucketIterator.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            if( !hasNext() )
+                throw new NoSuchElementException();
+
+            lastIterator = bucketIterator;
+            return at(bucketIterator.next());
+        }
+
+        @Override
+        public void remove() {
+            if( lastIterator == null )
+                throw new IllegalStateException();
+
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            lastIterator.remove();
+            lastIterator = null;
+
+            currentSize -= 1;
+            modCount++;
+            decrementBucketAverage();
+            expectedModCount = modCount;
+        }
+
+        abstract T at(Tuple<K,V> entry);
+    }
+
+    /**
+     * Splits the bucket array into halves by bucket range.  As with the array maps, only the unsplit spliterator
+     * knows its exact size.
+     */
+    private final class BucketSpliterator<T> implements Spliterator<T> {
+        private final Collection<Tuple<K,V>> [] table;
+        private final Function<Tuple<K,V>, T> at;
+        private int bucketIdx;
+        private final int fence;
+        private long estimate;
+        private boolean split;
+        private final int expectedModCount;
+        private Iterator<Tuple<K,V>> bucketIterator;
+
+        BucketSpliterator(Function<Tuple<K,V>, T> at) {
+            finishMigration();
+            this.table = backing;
+            this.at = at;
+            this.fence = table.length;
+            this.estimate = currentSize;
+            this.expectedModCount = modCount;
+        }
+
+        private BucketSpliterator(BucketSpliterator<T> parent, int fence) {
+            this.table = parent.table;
+            this.at = parent.at;
+            this.bucketIdx = parent.bucketIdx;
+            this.fence = fence;
+            this.estimate = parent.estimate;
+            this.split = true;
+            this.expectedModCount = parent.expectedModCount;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int mid = ( bucketIdx + fence ) >>> 1;
+
+            // a bucket part way through can't be handed over
+            if( mid <= bucketIdx || bucketIterator != null )
+                return null;
+
+            estimate >>>= 1;
+            split = true;
+
+            BucketSpliterator<T> prefix = new BucketSpliterator<>(this, mid);
+            bucketIdx = mid;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while( bucketIterator == null || !bucketIterator.hasNext() ) {
+                if( bucketIdx >= fence )
+                    return false;
+
+                Collection<Tuple<K,V>> bucket = table[bucketIdx++];
+                bucketIterator = bucket == null ? null : bucket.iterator();
+            }
+
+            action.accept(at.apply(bucketIterator.next()));
+
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if( bucketIterator != null )
+                bucketIterator.forEachRemaining(entry -> action.accept(at.apply(entry)));
+
+            bucketIterator = null;
+
+            for( ; bucketIdx < fence; bucketIdx++ )
+                if( table[bucketIdx] != null )
+                    for( Tuple<K,V> entry : table[bucketIdx] )
+                        action.accept(at.apply(entry));
+
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return ( split ? 0 : Spliterator.SIZED ) | Spliterator.DISTINCT;
+        }
     }
 
     @Override
     public Set<K> keySet() {
-        Set<K> keys = new HashSet<>();
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new BucketIterator<K>() {
+                    @Override
+                    K at(Tuple<K, V> entry) {
+                        return entry.getKey();
+                    }
+                };
+            }
 
-        for(List<Tuple<K,V>> list : this.backing)
-            if(list != null)
-                for(Tuple<K,V> entry : list)
-                    if( entry != null )
-                        keys.add(entry.getKey());
+            @Override
+            public Spliterator<K> spliterator() {
+                return new BucketSpliterator<>(Tuple::getKey);
+            }
 
-        return keys;
+            @Override
+            public int size() {
+                return currentSize;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public void clear() {
+                SimpleCircularListBucketFlatMap.this.clear();
+            }
+        };
     }
 
     @Override
     public Collection<V> values() {
-        Collection<V> values = new HashSet<>();
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new BucketIterator<V>() {
+                    @Override
+                    V at(Tuple<K, V> entry) {
+                        return entry.getValue();
+                    }
+                };
+            }
 
-        for(List<Tuple<K,V>> list : this.backing)
-            if(list != null)
-                for(Tuple<K,V> entry : list)
-                    if( entry != null )
-                        values.add(entry.getValue());
+            @Override
+            public Spliterator<V> spliterator() {
+                return new BucketSpliterator<>(Tuple::getValue);
+            }
+
+            @Override
+            public int size() {
+                return currentSize;
+            }
 
-        return values;
+            @Override
+            public boolean contains(Object o) {
+                return containsValue(o);
+            }
+
+            @Override
+            public void clear() {
+                SimpleCircularListBucketFlatMap.this.clear();
+            }
+        };
     }
 
     @Override
     public Set<Entry<K, V>> entrySet() {
-        Set<Entry<K,V>> entries = new HashSet<>();
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new BucketIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> at(Tuple<K, V> entry) {
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public Spliterator<Entry<K, V>> spliterator() {
+                return new BucketSpliterator<>(entry -> entry);
+            }
+
+            @Override
+            public int size() {
+                return currentSize;
+            }
 
-        for(List<Tuple<K,V>> list : this.backing)
+            @Override
+            public boolean contains(Object o) {
+                if( !( o instanceof Entry ) )
+                    return false;
+
+                Entry<?,?> entry = (Entry<?,?>) o;
+                return containsKey(entry.getKey()) && Objects.equals(get(entry.getKey()), entry.getValue());
+            }
+
+            @Override
+            public void clear() {
+                SimpleCircularListBucketFlatMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Straight walk over the buckets, no entry objects or view iterators
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        finishMigration();
+        int expectedModCount = this.modCount;
+
+        for(Collection<Tuple<K,V>> list : this.backing)
             if( list != null )
                 for(Tuple<K,V> entry : list)
-                    if( entry != null )
-                        entries.add(entry);
+                    action.accept(entry.getKey(), entry.getValue());
+
+        if( this.modCount != expectedModCount )
+            throw new ConcurrentModificationException();
+    }
 
-        return entries;
+    /**
+     * A bucket for keys that collide a lot.  Entries are grouped by full hash code, with the hash codes kept sorted in
+     * an int array alongside the groups, so finding the group is a binary search with no boxing.  A new hash code
+     * shifts the arrays up to make room, which is cheap at bucket sizes.  Inside a group, if every key is the same Comparable class the entries are kept sorted
+     * and binary searched, otherwise we fall back to a scan of just that group.  Keys only count as Comparable
+     * with the default hashing strategy, a custom one may well disagree with compareTo about which keys are equal.
+     */
+    private static final class TreeBucket<K,V> extends AbstractCollection<Tuple<K,V>> {
+        private final SimpleCircularListBucketFlatMap<K,V> owner;
+        private int [] hashes = new int[8];
+        private Group<K,V> [] groups = newGroups(8);
+        private int groupCount;
+        private int size;
+
+        TreeBucket(SimpleCircularListBucketFlatMap<K,V> owner, Collection<Tuple<K,V>> entries) {
+            this.owner = owner;
+
+            for(Tuple<K,V> entry : entries)
+                add(entry);
+        }
+
+        /**
+         * Entries sharing one hash code
+         */
+        private static final class Group<K,V> {
+            private final ArrayList<Tuple<K,V>> entries = new ArrayList<>(1);
+
+            /**
+             * The Comparable class all the keys share, or null once that stops being true
+             */
+            private Class<?> comparableClass;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <K,V> Group<K,V> [] newGroups(int length) {
+            return (Group<K,V> []) new Group<?,?>[length];
+        }
+
+        /**
+         * The group for a hash code, or null
+         */
+        private Group<K,V> groupFor(int hash) {
+            int idx = Arrays.binarySearch(hashes, 0, groupCount, hash);
+            return idx < 0 ? null : groups[idx];
+        }
+
+        /**
+         * The key's class if it can be compared with others of its class, null otherwise
+         */
+        private Class<?> comparableClassFor(Object key) {
+            return owner.hashing == HashingStrategy.OBJECTS && key instanceof Comparable ? key.getClass() : null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compareKeys(Object a, Object b) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+
+        /**
+         * Position of the key in the group, or -1
+         */
+        private int search(Group<?,?> group, Object key) {
+            if( group.comparableClass != null && group.comparableClass == comparableClassFor(key) ) {
+                int low = 0;
+                int high = group.entries.size() - 1;
+
+                while( low <= high ) {
+                    int mid = ( low + high ) >>> 1;
+                    int cmp = compareKeys(group.entries.get(mid).getKey(), key);
+
+                    if( cmp < 0 )
+                        low = mid + 1;
+                    else if( cmp > 0 )
+                        high = mid - 1;
+                    else if( owner.keysEqual(group.entries.get(mid).getKey(), key) )
+                        return mid;
+                    else
+                        break; // compareTo disagrees with equals, scan instead
+                }
+
+                if( low > high )
+                    return -1;
+            }
+
+            for( int idx = 0; idx < group.entries.size(); idx++ )
+                if( owner.keysEqual(group.entries.get(idx).getKey(), key) )
+                    return idx;
+
+            return -1;
+        }
+
+        /**
+         * Where a new key goes to keep a sorted group sorted
+         */
+        private static int insertionPoint(Group<?,?> group, Object key) {
+            int low = 0;
+            int high = group.entries.size();
+
+            while( low < high ) {
+                int mid = ( low + high ) >>> 1;
+
+                if( compareKeys(group.entries.get(mid).getKey(), key) < 0 )
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+
+            return low;
+        }
+
+        Tuple<K,V> find(Object key) {
+            Group<K,V> group = groupFor(owner.hash(key));
+
+            if( group == null )
+                return null;
+
+            int idx = search(group, key);
+            return idx == -1 ? null : group.entries.get(idx);
+        }
+
+        /**
+         * Callers make sure the key isn't already here
+         */
+        @Override
+        public boolean add(Tuple<K,V> entry) {
+            int hash = owner.hash(entry.getKey());
+            int groupIdx = Arrays.binarySearch(hashes, 0, groupCount, hash);
+            Group<K,V> group;
+
+            if( groupIdx >= 0 ) {
+                group = groups[groupIdx];
+            } else {
+                group = new Group<>();
+                insertGroup(-groupIdx - 1, hash, group);
+            }
+
+            if( group.entries.isEmpty() )
+                group.comparableClass = comparableClassFor(entry.getKey());
+            else if( group.comparableClass != comparableClassFor(entry.getKey()) )
+                group.comparableClass = null;
+
+            if( group.comparableClass == null )
+                group.entries.add(entry);
+            else
+                group.entries.add(insertionPoint(group, entry.getKey()), entry);
+
+            size++;
+            return true;
+        }
+
+        private void insertGroup(int groupIdx, int hash, Group<K,V> group) {
+            if( groupCount == hashes.length ) {
+                hashes = Arrays.copyOf(hashes, groupCount * 2);
+                groups = Arrays.copyOf(groups, groupCount * 2);
+            }
+
+            System.arraycopy(hashes, groupIdx, hashes, groupIdx + 1, groupCount - groupIdx);
+            System.arraycopy(groups, groupIdx, groups, groupIdx + 1, groupCount - groupIdx);
+            hashes[groupIdx] = hash;
+            groups[groupIdx] = group;
+            groupCount++;
+        }
+
+        Tuple<K,V> removeKey(Object key) {
+            int groupIdx = Arrays.binarySearch(hashes, 0, groupCount, owner.hash(key));
+
+            if( groupIdx < 0 )
+                return null;
+
+            Group<K,V> group = groups[groupIdx];
+            int idx = search(group, key);
+            if( idx == -1 )
+                return null;
+
+            Tuple<K,V> removed = group.entries.remove(idx);
+
+            if( group.entries.isEmpty() ) {
+                groupCount--;
+                System.arraycopy(hashes, groupIdx + 1, hashes, groupIdx, groupCount - groupIdx);
+                System.arraycopy(groups, groupIdx + 1, groups, groupIdx, groupCount - groupIdx);
+                groups[groupCount] = null;
+            }
+
+            size--;
+            return removed;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Tuple<K,V>> iterator() {
+            return new Iterator<Tuple<K,V>>() {
+                private int groupIdx = 0;
+                private Iterator<Tuple<K,V>> entries = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while( !entries.hasNext() && groupIdx < groupCount )
+                        entries = groups[groupIdx++].entries.iterator();
+
+                    return entries.hasNext();
+                }
+
+                @Override
+                public Tuple<K,V> next() {
+                    if( !hasNext() )
+                        throw new NoSuchElementException();
+
+                    return entries.next();
+                }
+
+                /**
+                 * Empty groups are left in place so the walk doesn't shift under us, a later add reuses them
+                 */
+                @Override
+                public void remove() {
+                    entries.remove();
+                    size--;
+                }
+            };
+        }
+    }
+
+    /**
+     * An entry's probe length is its position in its bucket.  A tree bucket is searched rather than walked, so
+     * all its entries count as the depth of a balanced tree that size.
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        Collection<Tuple<K,V>> [] current = this.backing;
+        Collection<Tuple<K,V>> [] old = this.oldBacking;
+
+        recordBucketLengths(current, histogram);
+        if( old != null )
+            recordBucketLengths(old, histogram);
+
+        return new MapStatistics(this.currentSize, current.length, histogram, this.counters);
+    }
+
+    private static <K,V> void recordBucketLengths(Collection<Tuple<K,V>> [] table, ProbeHistogram histogram) {
+        for(Collection<Tuple<K,V>> bucket : table) {
+            if( bucket == null )
+                continue;
+
+            int length = bucket.size();
+
+            if( bucket instanceof TreeBucket )
+                histogram.record(31 - Integer.numberOfLeadingZeros(length), length);
+            else
+                for( int position = 0; position < length; position++ )
+                    histogram.record(position);
+        }
     }
 
     @Override
@@ -1,24 +1,68 @@
 package elliott.back.maps;
 
 import elliott.back.common.AbstractMapCommonMethods;
+import elliott.back.common.HashingStrategy;
+import elliott.back.common.ResizePolicy;
 import elliott.back.common.Tuple;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
 
 import java.util.Arrays;
 import java.util.Map;
 
 /***
  * This class is a simple map, with no concurrency protections, that is based on
- * a flat array which is doubled every time it becomes full (on insert).
+ * a flat array which grows when it gets too full or too long to probe (on insert), see ResizePolicy.
  *
- * Both inserts and lookups use probing in the array to find the next free slot.
+ * Both inserts and lookups use probing in the array to find the next free slot.  The capacity is
+ * kept a power of two, so the start slot is a mask of the spread hash rather than a division.
+ * Probes don't wrap, so the array carries a few overflow slots past the capacity for keys that
+ * start near the end; only a probe that runs off those forces a resize outright.
+ * Removes shift the rest of the probe run back over the emptied slot, so there are no tombstones
+ * and lookups can still stop at the first null.
+ *
+ * In incremental resize mode the doubled array is allocated up front but entries move across a
+ * few slots at a time on each following operation, so no single put pays for the whole copy.
+ * Until that finishes, lookups check the new array and then the old one.  Migrated slots in
+ * the old array are marked MOVED rather than nulled, so probes there still get past them.
+ * An insert that runs off the end of the new array still has to finish the migration and
+ * double straight away, since there is nowhere else to put it.
  *
  * Limited to around MAX_INT entries because arrays are int-indexed in Java.
  */
-public class SimpleFlatMap <K,V> extends AbstractMapCommonMethods<K,V> implements Map<K,V> {
+public class SimpleFlatMap <K,V> extends AbstractMapCommonMethods<K,V> implements Map<K,V>, InstrumentedMap {
+
+    /**
+     * How many old slots each operation migrates during an incremental resize
+     */
+    private static final int MIGRATE_SLOTS_PER_OP = 64;
+
+    /**
+     * Left in the old array in place of an entry that has already been migrated
+     */
+    private static final Tuple<?,?> MOVED = new Tuple<>(null, null);
+
+    @SuppressWarnings("unchecked")
+    private static <K,V> Tuple<K,V> moved() {
+        return (Tuple<K,V>) MOVED;
+    }
 
     private Tuple<K,V> [] backing;
     private int currentSize = 0;
 
+    private final HashingStrategy<? super K> hashing;
+    private final int seed = HashingStrategy.newSeed();
+
+    private final ResizePolicy resizePolicy;
+
+    private final MapCounters counters = new MapCounters();
+
+    private final boolean incrementalResize;
+    private Tuple<K,V> [] oldBacking;
+    private int migrateIdx;
+
     /**
      * Default construct = initial 32 entries
      */
@@ -27,7 +71,26 @@ public class SimpleFlatMap <K,V> extends AbstractMapCommonMethods<K,V> implement
     }
 
     public SimpleFlatMap( int initialSize ) {
-        backing = new Tuple [initialSize];
+        this(initialSize, false);
+    }
+
+    public SimpleFlatMap( int initialSize, boolean incrementalResize ) {
+        this(initialSize, incrementalResize, HashingStrategy.objects());
+    }
+
+    public SimpleFlatMap( int initialSize, boolean incrementalResize, HashingStrategy<? super K> hashing ) {
+        this(initialSize, incrementalResize, hashing, ResizePolicy.defaults());
+    }
+
+    public SimpleFlatMap( ResizePolicy resizePolicy ) {
+        this(32, false, HashingStrategy.objects(), resizePolicy);
+    }
+
+    public SimpleFlatMap( int initialSize, boolean incrementalResize, HashingStrategy<? super K> hashing, ResizePolicy resizePolicy ) {
+        this.resizePolicy = resizePolicy;
+        backing = newTable(resizePolicy.initialCapacity(initialSize));
+        this.incrementalResize = incrementalResize;
+        this.hashing = hashing;
     }
 
     @Override
@@ -42,108 +105,244 @@ public class SimpleFlatMap <K,V> extends AbstractMapCommonMethods<K,V> implement
 
     @Override
     public Tuple<K,V> [] getBackingArray(){
+        // callers walk the one array, so everything has to be in it
+        finishMigration();
         return backing;
     }
 
     /**
-     * Lookup the start index in our array from some object
+     * An array with room for capacity start slots, plus overflow up to the probe limit (but no more
+     * than a quarter of the capacity, so turning the probe limit off doesn't double the memory)
+     */
+    @SuppressWarnings("unchecked")
+    private Tuple<K,V> [] newTable(int capacity) {
+        return (Tuple<K,V> []) new Tuple<?,?> [capacity + Math.min(this.resizePolicy.getMaxProbeLength(), capacity >> 2)];
+    }
+
+    /**
+     * The overflow slots are always fewer than the capacity, so it's the top bit of the length
+     */
+    private static int capacityOf(Tuple<?,?> [] table) {
+        return Integer.highestOneBit(table.length);
+    }
+
+    /**
+     * Lookup the start index in an array from some object
      */
-    private int startIndexFromObject(Object key )
+    @SuppressWarnings("unchecked")
+    private int startIndexFromObject(Object key, Tuple<K,V> [] table )
     {
-        return key == null ? 0 : key.hashCode() % this.backing.length;
+        return HashingStrategy.spread(this.hashing.computeHashCode((K) key), this.seed) & ( capacityOf(table) - 1 );
     }
 
-    @Override
-    public boolean containsKey(Object key) {
-        Tuple keyTuple = new Tuple(key, null);
+    @SuppressWarnings("unchecked")
+    private boolean keysEqual(Object a, Object b )
+    {
+        return this.hashing.equals((K) a, (K) b);
+    }
 
-        for( int idx = startIndexFromObject(key); idx < this.backing.length; idx++ )
+    /**
+     * Probe one array for the key, stepping over MOVED markers like any other entry
+     */
+    private int indexOf(Tuple<K,V> [] table, Object key )
+    {
+        for( int idx = startIndexFromObject(key, table); idx < table.length; idx++ )
         {
             // if we hit a null we did not find the item
-            if( this.backing[idx] == null )
-                return false;
+            if( table[idx] == null )
+                return -1;
 
             // if we hit a matching key, we found it
-            if( this.backing[idx].equals(keyTuple))
-                return true;
+            if( table[idx] != MOVED && keysEqual(table[idx].getKey(), key) )
+                return idx;
         }
 
-        return false;
+        return -1;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        migrateStep();
+
+        boolean found = indexOf(this.backing, key) != -1 ||
+                        ( this.oldBacking != null && indexOf(this.oldBacking, key) != -1 );
+
+        this.counters.recordLookup(found);
+        return found;
     }
 
     @Override
     public V get(Object key) {
-        Tuple keyTuple = new Tuple(key, null);
+        migrateStep();
 
-        for( int idx = startIndexFromObject(key); idx < this.backing.length; idx++ )
-        {
-            // if we hit a null we did not find the item
-            if( this.backing[idx] == null )
-                return null;
+        int idx = indexOf(this.backing, key);
+        if( idx != -1 ) {
+            this.counters.recordLookup(true);
+            return this.backing[idx].getValue();
+        }
 
-            // if we hit a matching key, we found it
-            if( this.backing[idx].equals(keyTuple))
-                return this.backing[idx].getValue();
+        if( this.oldBacking != null ) {
+            idx = indexOf(this.oldBacking, key);
+            if( idx != -1 ) {
+                this.counters.recordLookup(true);
+                return this.oldBacking[idx].getValue();
+            }
         }
 
+        this.counters.recordLookup(false);
+
         // ran out of space
         return null;
     }
 
     /**
-     * The rehash operation will just double the array
+     * The rehash operation moves everything to a new array of the given capacity
      */
-    private void reHash(){
+    private void reHash(int capacity){
+        this.modCount++;
+        long started = this.counters.resizeStarted();
+
         Tuple<K,V> [] oldBacking = this.backing;
 
-        this.backing = new Tuple[this.backing.length * 2 ];
-        this.currentSize = 0;
+        this.backing = newTable(capacity);
 
+        if( this.incrementalResize ) {
+            this.oldBacking = oldBacking;
+            this.migrateIdx = 0;
+            this.counters.resizeFinished(started);
+            return;
+        }
+
+        // keys are already distinct, so skip put and its resize checks
         for(Tuple<K,V> oldEntry : oldBacking)
             if(oldEntry != null)
-                put(oldEntry.getKey(), oldEntry.getValue());
+                place(oldEntry);
+
+        this.counters.resizeFinished(started);
+    }
+
+    /**
+     * Drop an entry which isn't in the new array yet into its first free slot.  Running off the
+     * end means growing the new array on the spot, same as put would.
+     */
+    private void place(Tuple<K,V> entry) {
+        for( int idx = startIndexFromObject(entry.getKey(), this.backing); idx < this.backing.length; idx++ )
+        {
+            if( this.backing[idx] == null ) {
+                this.backing[idx] = entry;
+                return;
+            }
+        }
+
+        long started = this.counters.resizeStarted();
+
+        Tuple<K,V> [] current = this.backing;
+        this.backing = newTable(this.resizePolicy.grow(capacityOf(current)));
+
+        for(Tuple<K,V> currentEntry : current)
+            if(currentEntry != null)
+                place(currentEntry);
+
+        place(entry);
+        this.counters.resizeFinished(started);
+    }
+
+    /**
+     * Move the next few old slots across, dropping the old array once they're all done
+     */
+    private void migrateStep() {
+        if( this.oldBacking == null )
+            return;
+
+        int end = Math.min(this.migrateIdx + MIGRATE_SLOTS_PER_OP, this.oldBacking.length);
+
+        for( ; this.migrateIdx < end; this.migrateIdx++ ) {
+            Tuple<K,V> entry = this.oldBacking[this.migrateIdx];
+
+            if( entry != null && entry != MOVED ) {
+                place(entry);
+                this.oldBacking[this.migrateIdx] = moved();
+            }
+        }
+
+        if( this.migrateIdx == this.oldBacking.length )
+            this.oldBacking = null;
+    }
+
+    /**
+     * Move one key across ahead of schedule, so a put or remove only has to touch the new array
+     */
+    private void migrateKey(Object key) {
+        if( this.oldBacking == null )
+            return;
+
+        int idx = indexOf(this.oldBacking, key);
+
+        if( idx != -1 ) {
+            place(this.oldBacking[idx]);
+            this.oldBacking[idx] = moved();
+        }
+    }
+
+    private void finishMigration() {
+        while( this.oldBacking != null )
+            migrateStep();
     }
 
     @Override
     public V put(K key, V value) {
+        migrateStep();
+        migrateKey(key);
+
+        int startIdx = startIndexFromObject(key, this.backing);
+
         // there should be some space, use it
-        for( int idx = startIndexFromObject(key); idx < this.backing.length; idx++ )
+        for( int idx = startIdx; idx < this.backing.length; idx++ )
         {
             // if we hit a null there is nothing there
             if( this.backing[idx] == null ) {
-                this.backing[idx] = new Tuple(key, value);
+                // too full, or too far from home, grow rather than leave a long probe for every later lookup.
+                // Only inserts count towards the load, replacing a key never grows the table
+                if( this.resizePolicy.overLoaded(this.currentSize + 1, capacityOf(this.backing))
+                        || this.resizePolicy.overProbed(idx - startIdx, this.currentSize, capacityOf(this.backing)) )
+                    break;
+
+                this.backing[idx] = new Tuple<>(key, value);
                 this.currentSize++;
+                this.modCount++;
                 return null;
             } // the key itself is equal, replace
-            else if( ( this.backing[idx].getKey() == null && key == null ) || this.backing[idx].getKey().equals(key) ) {
+            else if( keysEqual(this.backing[idx].getKey(), key) ) {
                 V oldValue = this.backing[idx].getValue();
-                this.backing[idx] = new Tuple(key, value);
+                this.backing[idx].setValue(value);
                 return oldValue;
             }
         }
 
-        // ran out of space, we need to resize!
-        // this resize technique means an adversary could simply pick keys that fall to the end our
-        // array, causing us to double it each time.  Maybe less-simple flat map can avoid that
-        reHash();
+        // too full, ran off the end or probed too far, we need to resize!  Running off the end still resizes
+        // whatever the load, but the overflow slots mean it takes a run as long as the probe limit
+        finishMigration();
+        reHash(this.resizePolicy.grow(capacityOf(this.backing)));
         return this.put(key, value);
     }
 
     @Override
     public V remove(Object key) {
-        Tuple keyTuple = new Tuple(key, null);
+        migrateStep();
+        migrateKey(key);
 
-        for( int idx = startIndexFromObject(key); idx < this.backing.length; idx++ )
+        for( int idx = startIndexFromObject(key, this.backing); idx < this.backing.length; idx++ )
         {
             // if we hit a null we did not find the item
             if( this.backing[idx] == null )
                 return null;
 
             // if we hit a matching key, we found it
-            if( this.backing[idx].equals(keyTuple)) {
+            if( keysEqual(this.backing[idx].getKey(), key) ) {
                 V value = this.backing[idx].getValue();
-                this.backing[idx] = null;
+                closeGap(idx);
                 this.currentSize--;
+                this.modCount++;
                 return value;
             }
         }
@@ -152,9 +351,63 @@ public class SimpleFlatMap <K,V> extends AbstractMapCommonMethods<K,V> implement
         return null;
     }
 
+    /**
+     * Empty a slot without breaking the probe run it sits in: every later entry in the run that could
+     * live in the gap moves back into it, leaving the gap further on, until the run ends.  Just nulling
+     * the slot would hide the entries after it from any lookup that has to probe past.
+     */
+    private void closeGap(int gap) {
+        for( int idx = gap + 1; idx < this.backing.length && this.backing[idx] != null; idx++ )
+        {
+            if( startIndexFromObject(this.backing[idx].getKey(), this.backing) <= gap ) {
+                this.backing[gap] = this.backing[idx];
+                gap = idx;
+            }
+        }
+
+        this.backing[gap] = null;
+    }
+
+    @Override
+    public void ensureCapacity(int expectedSize) {
+        int capacity = this.resizePolicy.withExpectedSize(expectedSize).initialCapacity(0);
+
+        if( capacity > capacityOf(this.backing) ) {
+            finishMigration();
+            reHash(capacity);
+        }
+    }
+
     @Override
     public void clear() {
         Arrays.fill(this.backing, null);
+        this.oldBacking = null;
         this.currentSize = 0;
+        this.modCount++;
+    }
+
+    /**
+     * Walks the table(s) without touching them, so it doesn't move an incremental resize along
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        Tuple<K,V> [] current = this.backing;
+        Tuple<K,V> [] old = this.oldBacking;
+
+        recordProbeLengths(current, histogram);
+        if( old != null )
+            recordProbeLengths(old, histogram);
+
+        return new MapStatistics(this.currentSize, current.length, histogram, this.counters);
+    }
+
+    private void recordProbeLengths(Tuple<K,V> [] table, ProbeHistogram histogram) {
+        for( int idx = 0; idx < table.length; idx++ ) {
+            Tuple<K,V> entry = table[idx];
+
+            if( entry != null && entry != MOVED )
+                histogram.record(idx - startIndexFromObject(entry.getKey(), table));
+        }
     }
-}
\ No newline at end of file
+}
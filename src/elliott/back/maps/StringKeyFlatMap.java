@@ -0,0 +1,605 @@
+package elliott.back.maps;
+
+import elliott.back.common.BulkLoadable;
+import elliott.back.common.HashingStrategy;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
+
+import java.util.*;
+
+/***
+ * This class is a circular flat map for String keys that doesn't keep the Strings, with no concurrency
+ * protections.
+ *
+ * Each key is copied into one shared byte[] arena as UTF-8, and the table only holds where it is: refs[] packs
+ * the key's arena offset and length into a long, beside the cached spread hash in hashes[] and the value in
+ * vals[].  That's 16 bytes a slot and no objects per entry besides the value, against a String, its byte[]
+ * and a Tuple for the other flat maps, and the GC has three arrays to look at instead of millions of objects.
+ * Lookups compare the cached hash, then the arena bytes against the chars of the key as they're encoded, so
+ * any CharSequence finds the entry without a String being made; see get(CharSequence).  Keys only become
+ * Strings again when keySet() or entrySet() hand them out.
+ *
+ * Removes shift the rest of the probe run back like ParallelArrayFlatMap, and leave the removed key's bytes in
+ * the arena.  Once those dead bytes are most of the arena a same size rehash copies the live keys to a fresh one.
+ *
+ * The null key is stored as a ref no real key can have.
+ *
+ * Limited to around MAX_INT entries because arrays are int-indexed in Java, and to 2GB of key bytes because
+ * so is the arena.
+ */
+public class StringKeyFlatMap<V> implements Map<String,V>, BulkLoadable<String,V>, InstrumentedMap {
+
+    /**
+     * Linear probing falls apart as the table fills, so don't let it
+     */
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    /**
+     * Don't bother compacting an arena with less dead space than this
+     */
+    private static final int MIN_GARBAGE_TO_COMPACT = 4096;
+
+    private static final long EMPTY = 0;
+
+    /**
+     * A ref's low half is the key's length + 1, which is never all ones for a real key
+     */
+    private static final long NULL_REF = 0xFFFFFFFFL;
+
+    private long [] refs;
+    private Object [] vals;
+    private int [] hashes;
+    private int currentSize = 0;
+
+    private byte [] arena;
+    private int arenaUsed = 0;
+
+    /**
+     * Bytes in the arena belonging to keys that have since been removed
+     */
+    private int garbage = 0;
+
+    /**
+     * Bumped on every structural change (new key, removed key, clear, resize) so iterators can fail fast
+     */
+    private int modCount;
+
+    private final int seed = HashingStrategy.newSeed();
+
+    private final MapCounters counters = new MapCounters();
+
+    /**
+     * Default construct = initial 32 entries
+     */
+    public StringKeyFlatMap() {
+        this(32);
+    }
+
+    public StringKeyFlatMap(int initialSize ) {
+        int capacity = HashingStrategy.tableSizeFor(initialSize);
+        this.refs = new long [capacity];
+        this.vals = new Object [capacity];
+        this.hashes = new int [capacity];
+        this.arena = new byte [Math.max(64, capacity * 8)];
+    }
+
+    private static long ref(int offset, int length) {
+        return (long) offset << 32 | ( length + 1 );
+    }
+
+    private static int offsetOf(long ref) {
+        return (int) ( ref >>> 32 );
+    }
+
+    private static int lengthOf(long ref) {
+        return (int) ref - 1;
+    }
+
+    @Override
+    public int size() {
+        return currentSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return currentSize == 0;
+    }
+
+    private int hashOf(CharSequence key) {
+        return HashingStrategy.spread(key == null ? 0 : Utf8.hash(key), this.seed);
+    }
+
+    /**
+     * Lookup the start index in our array from a hash code
+     */
+    private int startIndexFromHash(int hash) {
+        return hash & ( this.refs.length - 1 );
+    }
+
+    private boolean keyEquals(long ref, CharSequence key) {
+        if( key == null || ref == NULL_REF )
+            return key == null && ref == NULL_REF;
+
+        return Utf8.equals(this.arena, offsetOf(ref), lengthOf(ref), key);
+    }
+
+    /**
+     * Find the slot holding this key, or -1 if we hit an empty slot first
+     */
+    private int indexOf(CharSequence key, int hash) {
+        int pos = startIndexFromHash(hash);
+
+        for( int idx = 0; idx < this.refs.length; idx++ )
+        {
+            long ref = this.refs[pos];
+
+            // if we hit an empty slot we did not find the item
+            if( ref == EMPTY )
+                return -1;
+
+            // compare the cached hash first, the bytes only on a hash match
+            if( this.hashes[pos] == hash && keyEquals(ref, key) )
+                return pos;
+
+            pos = ( pos + 1 ) & ( this.refs.length - 1 );
+        }
+
+        return -1;
+    }
+
+    /**
+     * Only CharSequences (or null) can be keys here, anything else just isn't found
+     */
+    private int indexOf(Object key) {
+        if( key != null && !( key instanceof CharSequence ) )
+            return -1;
+
+        return indexOf((CharSequence) key, hashOf((CharSequence) key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int pos = indexOf(key);
+        this.counters.recordLookup(pos != -1);
+        return pos != -1;
+    }
+
+    /**
+     * Same as containsKey(Object), spelled out to say any CharSequence works, with no String made
+     */
+    public boolean containsKey(CharSequence key) {
+        return containsKey((Object) key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for( int idx = 0; idx < this.refs.length; idx++ )
+            if( this.refs[idx] != EMPTY && Objects.equals(this.vals[idx], value) )
+                return true;
+
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int pos = indexOf(key);
+        this.counters.recordLookup(pos != -1);
+        return pos == -1 ? null : (V) this.vals[pos];
+    }
+
+    /**
+     * Look up by the key's chars, so a StringBuilder, a CharBuffer over a read buffer or the like finds the
+     * entry for the String with the same chars, without a String being made.  Unlike a plain Map, where a
+     * StringBuilder never equals a String key.
+     */
+    public V get(CharSequence key) {
+        return get((Object) key);
+    }
+
+    /**
+     * Room for this many more key bytes on the end of the arena
+     */
+    private void ensureArena(int bytes) {
+        if( this.arena.length - this.arenaUsed >= bytes )
+            return;
+
+        long needed = (long) this.arenaUsed + bytes;
+        if( needed > Integer.MAX_VALUE - 8 )
+            throw new IllegalStateException("Key arena can't grow past " + ( Integer.MAX_VALUE - 8 ) + " bytes");
+
+        int length = (int) Math.min(Math.max(needed, this.arena.length * 2L), Integer.MAX_VALUE - 8);
+        this.arena = Arrays.copyOf(this.arena, length);
+    }
+
+    /**
+     * Copy a key onto the end of the arena and return its ref
+     */
+    private long append(CharSequence key) {
+        if( key == null )
+            return NULL_REF;
+
+        int length = Utf8.encodedLength(key);
+        ensureArena(length);
+        Utf8.encode(key, this.arena, this.arenaUsed);
+
+        long ref = ref(this.arenaUsed, length);
+        this.arenaUsed += length;
+        return ref;
+    }
+
+    /**
+     * The rehash operation moves everything to new arrays of the given capacity, re-using the cached hashes.
+     * Live keys are copied to a fresh arena on the way, which drops the garbage.
+     */
+    private void reHash(int capacity) {
+        this.modCount++;
+        long started = this.counters.resizeStarted();
+
+        long [] oldRefs = this.refs;
+        Object [] oldVals = this.vals;
+        int [] oldHashes = this.hashes;
+        byte [] oldArena = this.arena;
+
+        this.refs = new long[capacity];
+        this.vals = new Object[capacity];
+        this.hashes = new int[capacity];
+        this.arena = new byte[Math.max(64, this.arenaUsed - this.garbage + capacity)];
+        this.arenaUsed = 0;
+        this.garbage = 0;
+
+        for( int idx = 0; idx < oldRefs.length; idx++ ) {
+            long ref = oldRefs[idx];
+
+            if( ref == NULL_REF ) {
+                insertAbsent(ref, oldVals[idx], oldHashes[idx]);
+            } else if( ref != EMPTY ) {
+                int length = lengthOf(ref);
+                System.arraycopy(oldArena, offsetOf(ref), this.arena, this.arenaUsed, length);
+                insertAbsent(ref(this.arenaUsed, length), oldVals[idx], oldHashes[idx]);
+                this.arenaUsed += length;
+            }
+        }
+
+        this.counters.resizeFinished(started);
+    }
+
+    /**
+     * Drop an entry whose key is known not to be in the table into the first free slot
+     */
+    private void insertAbsent(long ref, Object value, int hash) {
+        int pos = startIndexFromHash(hash);
+
+        while( this.refs[pos] != EMPTY )
+            pos = ( pos + 1 ) & ( this.refs.length - 1 );
+
+        this.refs[pos] = ref;
+        this.vals[pos] = value;
+        this.hashes[pos] = hash;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(String key, V value) {
+        int hash = hashOf(key);
+        int existing = indexOf(key, hash);
+
+        // the key itself is equal, replace the value in place
+        if( existing != -1 ) {
+            V oldValue = (V) this.vals[existing];
+            this.vals[existing] = value;
+            return oldValue;
+        }
+
+        // running out of space, we need to resize!
+        if( this.currentSize + 1 > this.refs.length * MAX_LOAD_FACTOR )
+            reHash(this.refs.length * 2);
+
+        insertAbsent(append(key), value, hash);
+        this.currentSize++;
+        this.modCount++;
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int pos = indexOf(key);
+
+        if( pos == -1 )
+            return null;
+
+        V value = (V) this.vals[pos];
+        deleteSlot(pos);
+
+        if( this.garbage > MIN_GARBAGE_TO_COMPACT && this.garbage > this.arenaUsed / 2 )
+            reHash(this.refs.length);
+
+        return value;
+    }
+
+    /**
+     * Empty a slot, then walk the rest of its probe run and pull back any entry whose home is
+     * at or before the hole, so lookups never stop early on it.  The key's bytes stay in the arena as garbage.
+     */
+    private void deleteSlot(int hole) {
+        if( this.refs[hole] != NULL_REF )
+            this.garbage += lengthOf(this.refs[hole]);
+
+        int next = hole;
+
+        while( true ) {
+            next = ( next + 1 ) & ( this.refs.length - 1 );
+
+            if( this.refs[next] == EMPTY )
+                break;
+
+            int home = startIndexFromHash(this.hashes[next]);
+
+            // the entry can only move back if its home isn't cyclically inside (hole, next]
+            boolean homeAfterHole = hole <= next ? ( hole < home && home <= next ) : ( hole < home || home <= next );
+            if( homeAfterHole )
+                continue;
+
+            this.refs[hole] = this.refs[next];
+            this.vals[hole] = this.vals[next];
+            this.hashes[hole] = this.hashes[next];
+            hole = next;
+        }
+
+        this.refs[hole] = EMPTY;
+        this.vals[hole] = null;
+        this.hashes[hole] = 0;
+        this.currentSize--;
+        this.modCount++;
+    }
+
+    @Override
+    public void ensureCapacity(int expectedSize) {
+        int capacity = HashingStrategy.tableSizeFor((int) Math.ceil(expectedSize / MAX_LOAD_FACTOR));
+
+        if( capacity > this.refs.length )
+            reHash(capacity);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends V> map) {
+        bulkLoad(map.entrySet().iterator(), map.size());
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.refs, EMPTY);
+        Arrays.fill(this.vals, null);
+        Arrays.fill(this.hashes, 0);
+        this.currentSize = 0;
+        this.arenaUsed = 0;
+        this.garbage = 0;
+        this.modCount++;
+    }
+
+    /**
+     * Bytes of arena in use, dead keys included
+     */
+    public int getArenaBytes() {
+        return arenaUsed;
+    }
+
+    private String keyAt(int pos) {
+        long ref = this.refs[pos];
+        return ref == NULL_REF ? null : Utf8.decode(this.arena, offsetOf(ref), lengthOf(ref));
+    }
+
+    /**
+     * Walks the occupied slots starting just after an empty one, so no probe run wraps past the start.  Then
+     * the backward shift in Iterator.remove can only pull in entries not visited yet, and never compacts the
+     * arena, so every other entry stays put.
+     */
+    private abstract class SlotIterator<T> implements Iterator<T> {
+        private final long [] table = refs;
+        private final int start = firstEmptySlot();
+        private int expectedModCount = modCount;
+
+        /**
+         * Slots visited so far, counting round from start
+         */
+        private int visited = 0;
+        private int lastVisited = -1;
+
+        private int position(int offset) {
+            return ( start + offset ) & ( table.length - 1 );
+        }
+
+        @Override
+        public boolean hasNext() {
+            while( visited < table.length && table[position(visited)] == EMPTY )
+                visited++;
+
+            return visited < table.length;
+        }
+
+        @Override
+        public T next() {
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            if( !hasNext() )
+                throw new NoSuchElementException();
+
+            lastVisited = visited++;
+            return at(position(lastVisited));
+        }
+
+        @Override
+        public void remove() {
+            if( lastVisited == -1 )
+                throw new IllegalStateException();
+
+            if( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            int pos = position(lastVisited);
+            deleteSlot(pos);
+            expectedModCount = modCount;
+
+            // the shift may have pulled an entry we haven't seen yet into the slot
+            if( table[pos] != EMPTY )
+                visited = lastVisited;
+
+            lastVisited = -1;
+        }
+
+        abstract T at(int pos);
+    }
+
+    /**
+     * The load factor keeps at least one slot empty, but fall back to 0 all the same
+     */
+    private int firstEmptySlot() {
+        for( int idx = 0; idx < this.refs.length; idx++ )
+            if( this.refs[idx] == EMPTY )
+                return idx;
+
+        return 0;
+    }
+
+    /**
+     * Makes a new String for every key it hands out
+     */
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new SlotIterator<String>() {
+                    @Override
+                    String at(int pos) {
+                        return keyAt(pos);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return currentSize;
+            }
+
+            @Override
+            public void clear() {
+                StringKeyFlatMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    V at(int pos) {
+                        return (V) vals[pos];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return currentSize;
+            }
+
+            @Override
+            public void clear() {
+                StringKeyFlatMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Entries write setValue through to the slot they came from, while the key is still there
+     */
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new SlotIterator<Entry<String, V>>() {
+                    @Override
+                    Entry<String, V> at(int pos) {
+                        return new SlotEntry(pos);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return currentSize;
+            }
+
+            @Override
+            public void clear() {
+                StringKeyFlatMap.this.clear();
+            }
+        };
+    }
+
+    private final class SlotEntry extends AbstractMap.SimpleEntry<String,V> {
+        private static final long serialVersionUID = 1L;
+
+        private final Object [] table = vals;
+        private final long ref;
+        private final int pos;
+
+        @SuppressWarnings("unchecked")
+        SlotEntry(int pos) {
+            super(keyAt(pos), (V) vals[pos]);
+            this.ref = refs[pos];
+            this.pos = pos;
+        }
+
+        @Override
+        public V setValue(V value) {
+            // only write through if the map hasn't resized or shifted the key away from us
+            if( this.table == vals && refs[this.pos] == this.ref )
+                this.table[this.pos] = value;
+
+            return super.setValue(value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StringKeyFlatMap{" +
+                "currentSize=" + currentSize +
+                ", capacity=" + refs.length +
+                ", arenaUsed=" + arenaUsed +
+                ", garbage=" + garbage +
+                '}';
+    }
+
+    /**
+     * Probe lengths come straight from the cached hashes, no key gets rehashed
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        long [] currentRefs = this.refs;
+        int [] currentHashes = this.hashes;
+        int mask = Math.min(currentRefs.length, currentHashes.length) - 1;
+
+        for( int idx = 0; idx <= mask; idx++ )
+            if( currentRefs[idx] != EMPTY )
+                histogram.record(( idx - ( currentHashes[idx] & mask ) ) & mask);
+
+        return new MapStatistics(this.currentSize, currentRefs.length, histogram, this.counters);
+    }
+}
@@ -0,0 +1,312 @@
+package elliott.back.maps;
+
+import elliott.back.common.HashingStrategy;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/***
+ * This class is a SwissTable style map (after abseil's flat_hash_map), with no concurrency protections.
+ *
+ * Next to the keys[] and vals[] arrays is a byte[] of control bytes, one per slot: EMPTY, DELETED, or for
+ * a full slot the low 7 bits of the key's spread hash.  Probing works on groups of GROUP_WIDTH control
+ * bytes read as a single long, and finds every slot in the group whose byte matches the key's 7 bits
+ * with a few word-wide (SWAR) operations.  Only those slots get their keys compared, so a lookup mostly
+ * touches one word of control bytes and one key.
+ *
+ * Groups start at any slot, not just multiples of GROUP_WIDTH, so the first GROUP_WIDTH - 1 control
+ * bytes are mirrored past the end of the array and a group read near the end wraps round.  Successive
+ * groups are probed at triangular offsets, which visits every group once on a power-of-two table.
+ *
+ * A remove leaves DELETED behind unless no probe could have gone past the slot, in which case it goes
+ * back to EMPTY.  Tombstones count against the load limit, and a table that fills up mostly with them is
+ * rehashed at the same size instead of doubled.
+ *
+ * Probing reaches every group, so the stash AbstractSlotMap keeps for outright collisions is never used.
+ *
+ * Limited to around MAX_INT entries because arrays are int-indexed in Java.
+ */
+public class SwissTableFlatMap<K,V> extends AbstractSlotMap<K,V> {
+
+    /**
+     * Control bytes per probe step, one long's worth
+     */
+    static final int GROUP_WIDTH = 8;
+
+    /**
+     * Group probing copes with a fuller table than slot by slot linear probing
+     */
+    private static final double MAX_LOAD_FACTOR = 0.875;
+
+    private static final byte EMPTY = (byte) 0x80;
+    private static final byte DELETED = (byte) 0xFE;
+
+    private static final long LSBS = 0x0101010101010101L;
+    private static final long MSBS = 0x8080808080808080L;
+
+    /**
+     * Reads GROUP_WIDTH control bytes at any offset, slot i of the group in byte i
+     */
+    private static final VarHandle GROUP = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private byte [] ctrl;
+
+    /**
+     * How many more EMPTY slots can be filled before the load limit, tombstones having already used theirs up
+     */
+    private int growthLeft;
+
+    /**
+     * Default construct = initial 32 entries
+     */
+    public SwissTableFlatMap() {
+        this(32);
+    }
+
+    public SwissTableFlatMap(int initialSize ) {
+        this(initialSize, HashingStrategy.objects());
+    }
+
+    public SwissTableFlatMap(int initialSize, HashingStrategy<? super K> hashing ) {
+        super(hashing);
+        allocate(HashingStrategy.tableSizeFor(Math.max(initialSize, GROUP_WIDTH)));
+    }
+
+    private void allocate(int capacity) {
+        this.ctrl = new byte [capacity + GROUP_WIDTH - 1];
+        Arrays.fill(this.ctrl, EMPTY);
+        this.keys = new Object [capacity];
+        this.vals = new Object [capacity];
+        this.growthLeft = (int) ( capacity * MAX_LOAD_FACTOR );
+    }
+
+    /**
+     * The 7 bits kept in the control byte
+     */
+    private static byte h2(int hash) {
+        return (byte) ( hash & 0x7F );
+    }
+
+    /**
+     * The rest picks the first group
+     */
+    private static int h1(int hash) {
+        return hash >>> 7;
+    }
+
+    private static long group(byte [] ctrl, int pos) {
+        return (long) GROUP.get(ctrl, pos);
+    }
+
+    /**
+     * High bit set in each byte of the group equal to h2.  Can give a false positive in the byte after a real
+     * match, which is fine since the key gets compared anyway.
+     */
+    private static long match(long group, byte h2) {
+        long x = group ^ ( LSBS * ( h2 & 0xFF ) );
+        return ( x - LSBS ) & ~x & MSBS;
+    }
+
+    /**
+     * EMPTY is the only control byte with the high bit set and bit 1 clear
+     */
+    private static long matchEmpty(long group) {
+        return group & ~( group << 6 ) & MSBS;
+    }
+
+    /**
+     * EMPTY and DELETED are the only control bytes with the high bit set and bit 0 clear
+     */
+    private static long matchEmptyOrDeleted(long group) {
+        return group & ~( group << 7 ) & MSBS;
+    }
+
+    /**
+     * Slot within the group of the lowest match
+     */
+    private static int lowestSlot(long matches) {
+        return Long.numberOfTrailingZeros(matches) >>> 3;
+    }
+
+    private void setCtrl(int idx, byte value) {
+        this.ctrl[idx] = value;
+
+        // keep the mirror past the end in step
+        if( idx < GROUP_WIDTH - 1 )
+            this.ctrl[idx + this.keys.length] = value;
+    }
+
+    /**
+     * Find the slot holding this key, or -1 once a group with an EMPTY slot turns up without it
+     */
+    @Override
+    protected int indexOf(Object key, int hash) {
+        Object masked = maskNull(key);
+        byte h2 = h2(hash);
+        int mask = this.keys.length - 1;
+        int pos = h1(hash) & mask;
+
+        for( int step = GROUP_WIDTH; ; step += GROUP_WIDTH ) {
+            long group = group(this.ctrl, pos);
+
+            for( long matches = match(group, h2); matches != 0; matches &= matches - 1 ) {
+                int idx = ( pos + lowestSlot(matches) ) & mask;
+
+                if( keyMatches(this.keys[idx], masked, key) )
+                    return idx;
+            }
+
+            // a probe for this key would have stopped here
+            if( matchEmpty(group) != 0 || step > this.keys.length )
+                return -1;
+
+            pos = ( pos + step ) & mask;
+        }
+    }
+
+    /**
+     * First EMPTY or DELETED slot on the hash's probe sequence
+     */
+    private int firstNonFull(int hash) {
+        int mask = this.keys.length - 1;
+        int pos = h1(hash) & mask;
+
+        for( int step = GROUP_WIDTH; ; step += GROUP_WIDTH ) {
+            long free = matchEmptyOrDeleted(group(this.ctrl, pos));
+
+            if( free != 0 )
+                return ( pos + lowestSlot(free) ) & mask;
+
+            pos = ( pos + step ) & mask;
+        }
+    }
+
+    /**
+     * Move everything into fresh arrays of the given capacity, dropping any tombstones on the way
+     */
+    private void reHash(int capacity) {
+        this.modCount++;
+        long started = this.counters.resizeStarted();
+
+        byte [] oldCtrl = this.ctrl;
+        Object [] oldKeys = this.keys;
+        Object [] oldVals = this.vals;
+
+        allocate(capacity);
+
+        for( int idx = 0; idx < oldKeys.length; idx++ ) {
+            if( oldCtrl[idx] < 0 )
+                continue;
+
+            // the control byte already holds h2, but h1 needs the whole hash
+            int pos = firstNonFull(hashOf(unmaskNull(oldKeys[idx])));
+            setCtrl(pos, oldCtrl[idx]);
+            this.keys[pos] = oldKeys[idx];
+            this.vals[pos] = oldVals[idx];
+        }
+
+        this.growthLeft -= this.currentSize;
+        this.counters.resizeFinished(started);
+    }
+
+    @Override
+    protected void insertNew(K key, V value, int hash) {
+        int pos = firstNonFull(hash);
+
+        // filling an EMPTY slot with nothing left to grow into: double, or if it's mostly tombstones just
+        // clear them out at the same size
+        if( this.growthLeft == 0 && this.ctrl[pos] == EMPTY ) {
+            boolean mostlyTombstones = this.currentSize + 1 <= this.keys.length * MAX_LOAD_FACTOR / 2;
+            reHash(mostlyTombstones ? this.keys.length : this.keys.length * 2);
+            pos = firstNonFull(hash);
+        }
+
+        if( this.ctrl[pos] == EMPTY )
+            this.growthLeft--;
+
+        setCtrl(pos, h2(hash));
+        this.keys[pos] = maskNull(key);
+        this.vals[pos] = value;
+    }
+
+    /**
+     * A slot can go straight back to EMPTY if every group covering it has an EMPTY slot, since then no probe
+     * ever found it full and moved on.  Otherwise it has to be a tombstone.
+     */
+    @Override
+    protected void deleteSlot(int idx) {
+        int mask = this.keys.length - 1;
+        long emptyBefore = matchEmpty(group(this.ctrl, ( idx - GROUP_WIDTH ) & mask));
+        long emptyAfter = matchEmpty(group(this.ctrl, idx));
+
+        boolean wasNeverFull = emptyBefore != 0 && emptyAfter != 0 &&
+                lowestSlot(emptyAfter) + ( Long.numberOfLeadingZeros(emptyBefore) >>> 3 ) < GROUP_WIDTH;
+
+        if( wasNeverFull ) {
+            setCtrl(idx, EMPTY);
+            this.growthLeft++;
+        } else {
+            setCtrl(idx, DELETED);
+        }
+
+        this.keys[idx] = null;
+        this.vals[idx] = null;
+        this.currentSize--;
+        this.modCount++;
+    }
+
+    @Override
+    public void ensureCapacity(int expectedSize) {
+        int capacity = HashingStrategy.tableSizeFor((int) Math.ceil(expectedSize / MAX_LOAD_FACTOR));
+
+        if( capacity > this.keys.length )
+            reHash(capacity);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.ctrl, EMPTY);
+        this.growthLeft = (int) ( this.keys.length * MAX_LOAD_FACTOR );
+        super.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "SwissTableFlatMap{" +
+                "currentSize=" + currentSize +
+                ", capacity=" + keys.length +
+                '}';
+    }
+
+    /**
+     * Probe length here is how many groups a lookup reads past the first one, not slots
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        byte [] currentCtrl = this.ctrl;
+        Object [] currentKeys = this.keys;
+        int mask = currentKeys.length - 1;
+
+        for( int idx = 0; idx < currentKeys.length; idx++ ) {
+            if( currentCtrl[idx] < 0 )
+                continue;
+
+            int pos = h1(hashOf(unmaskNull(currentKeys[idx]))) & mask;
+            int groups = 0;
+
+            for( int step = GROUP_WIDTH; ( ( idx - pos ) & mask ) >= GROUP_WIDTH && groups <= mask; step += GROUP_WIDTH ) {
+                pos = ( pos + step ) & mask;
+                groups++;
+            }
+
+            histogram.record(groups);
+        }
+
+        return new MapStatistics(this.currentSize, currentKeys.length, histogram, this.counters);
+    }
+}
@@ -0,0 +1,150 @@
+package elliott.back.maps;
+
+/**
+ * UTF-8 straight from and to chars, for StringKeyFlatMap's key arena, without going through String.getBytes()
+ * or a CharsetEncoder.
+ *
+ * A valid surrogate pair becomes one 4 byte sequence as usual.  A surrogate on its own is encoded as if it were
+ * any other char, 3 bytes, where String.getBytes() would put a '?'.  That keeps the encoding one to one, so two
+ * keys are equal exactly when their bytes are.
+ */
+final class Utf8 {
+
+    private Utf8() {
+    }
+
+    /**
+     * The same as String.hashCode(), for any CharSequence
+     */
+    static int hash(CharSequence chars) {
+        if( chars instanceof String )
+            return chars.hashCode();
+
+        int hash = 0;
+        for( int idx = 0; idx < chars.length(); idx++ )
+            hash = 31 * hash + chars.charAt(idx);
+
+        return hash;
+    }
+
+    private static boolean isPair(CharSequence chars, int idx) {
+        return Character.isHighSurrogate(chars.charAt(idx)) && idx + 1 < chars.length()
+                && Character.isLowSurrogate(chars.charAt(idx + 1));
+    }
+
+    static int encodedLength(CharSequence chars) {
+        int length = 0;
+
+        for( int idx = 0; idx < chars.length(); idx++ ) {
+            char c = chars.charAt(idx);
+
+            if( c < 0x80 ) {
+                length += 1;
+            } else if( c < 0x800 ) {
+                length += 2;
+            } else if( isPair(chars, idx) ) {
+                length += 4;
+                idx++;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Write the chars into bytes from offset, which must have room for encodedLength(chars)
+     */
+    static void encode(CharSequence chars, byte [] bytes, int offset) {
+        int pos = offset;
+
+        for( int idx = 0; idx < chars.length(); idx++ ) {
+            char c = chars.charAt(idx);
+
+            if( c < 0x80 ) {
+                bytes[pos++] = (byte) c;
+            } else if( c < 0x800 ) {
+                bytes[pos++] = (byte) ( 0xC0 | c >> 6 );
+                bytes[pos++] = (byte) ( 0x80 | c & 0x3F );
+            } else if( isPair(chars, idx) ) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++idx));
+                bytes[pos++] = (byte) ( 0xF0 | codePoint >> 18 );
+                bytes[pos++] = (byte) ( 0x80 | codePoint >> 12 & 0x3F );
+                bytes[pos++] = (byte) ( 0x80 | codePoint >> 6 & 0x3F );
+                bytes[pos++] = (byte) ( 0x80 | codePoint & 0x3F );
+            } else {
+                bytes[pos++] = (byte) ( 0xE0 | c >> 12 );
+                bytes[pos++] = (byte) ( 0x80 | c >> 6 & 0x3F );
+                bytes[pos++] = (byte) ( 0x80 | c & 0x3F );
+            }
+        }
+    }
+
+    /**
+     * Do the length bytes from offset encode exactly these chars.  Encodes as it goes and stops at the first
+     * difference, ASCII costing one compare per char.
+     */
+    static boolean equals(byte [] bytes, int offset, int length, CharSequence chars) {
+        int pos = offset;
+        int end = offset + length;
+
+        for( int idx = 0; idx < chars.length(); idx++ ) {
+            char c = chars.charAt(idx);
+
+            if( c < 0x80 ) {
+                if( pos == end || bytes[pos++] != c )
+                    return false;
+            } else if( c < 0x800 ) {
+                if( end - pos < 2
+                        || bytes[pos++] != (byte) ( 0xC0 | c >> 6 )
+                        || bytes[pos++] != (byte) ( 0x80 | c & 0x3F ) )
+                    return false;
+            } else if( isPair(chars, idx) ) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++idx));
+                if( end - pos < 4
+                        || bytes[pos++] != (byte) ( 0xF0 | codePoint >> 18 )
+                        || bytes[pos++] != (byte) ( 0x80 | codePoint >> 12 & 0x3F )
+                        || bytes[pos++] != (byte) ( 0x80 | codePoint >> 6 & 0x3F )
+                        || bytes[pos++] != (byte) ( 0x80 | codePoint & 0x3F ) )
+                    return false;
+            } else {
+                if( end - pos < 3
+                        || bytes[pos++] != (byte) ( 0xE0 | c >> 12 )
+                        || bytes[pos++] != (byte) ( 0x80 | c >> 6 & 0x3F )
+                        || bytes[pos++] != (byte) ( 0x80 | c & 0x3F ) )
+                    return false;
+            }
+        }
+
+        return pos == end;
+    }
+
+    /**
+     * Back to a String, only ever given bytes encode() wrote
+     */
+    static String decode(byte [] bytes, int offset, int length) {
+        char [] chars = new char [length];
+        int count = 0;
+        int pos = offset;
+        int end = offset + length;
+
+        while( pos < end ) {
+            int b = bytes[pos++] & 0xFF;
+
+            if( b < 0x80 ) {
+                chars[count++] = (char) b;
+            } else if( b < 0xE0 ) {
+                chars[count++] = (char) ( ( b & 0x1F ) << 6 | bytes[pos++] & 0x3F );
+            } else if( b < 0xF0 ) {
+                chars[count++] = (char) ( ( b & 0x0F ) << 12 | ( bytes[pos++] & 0x3F ) << 6 | bytes[pos++] & 0x3F );
+            } else {
+                int codePoint = ( b & 0x07 ) << 18 | ( bytes[pos++] & 0x3F ) << 12 | ( bytes[pos++] & 0x3F ) << 6 | bytes[pos++] & 0x3F;
+                chars[count++] = Character.highSurrogate(codePoint);
+                chars[count++] = Character.lowSurrogate(codePoint);
+            }
+        }
+
+        return new String(chars, 0, count);
+    }
+}
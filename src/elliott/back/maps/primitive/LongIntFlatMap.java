@@ -0,0 +1,299 @@
+package elliott.back.maps.primitive;
+
+import elliott.back.common.HashingStrategy;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapCounters;
+import elliott.back.stats.MapStatistics;
+import elliott.back.stats.ProbeHistogram;
+
+import java.util.Arrays;
+
+/***
+ * GENERATED by codegen/GeneratePrimitiveMaps.java from codegen/PrimitiveFlatMap.java.template,
+ * edit the template and regenerate rather than changing this file.
+ *
+ * An open addressing map from long keys to int values, with no concurrency
+ * protections, that stores them in two flat long[]/int[] arrays so nothing is boxed.
+ *
+ * 0 marks an empty slot, so the 0 key itself is kept off to the side in its own
+ * fields.  Capacity is a power of two, keys are spread with a per-map seed before masking,
+ * the table doubles at 3/4 full, and removes shift the rest of the probe run back instead of leaving a hole.
+ *
+ * Lookups of a missing key return 0; use containsKey or getOrDefault to tell
+ * a missing key apart from a stored 0.
+ */
+public class LongIntFlatMap implements InstrumentedMap {
+
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    private long [] keys;
+    private int [] vals;
+    private int mask;
+    private int currentSize = 0;
+
+    private boolean hasSentinelKey = false;
+    private int sentinelKeyValue = 0;
+
+    private final int seed = HashingStrategy.newSeed();
+
+    private final MapCounters counters = new MapCounters();
+
+    /**
+     * Default construct = initial 32 entries
+     */
+    public LongIntFlatMap() {
+        this(32);
+    }
+
+    public LongIntFlatMap(int initialSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, initialSize - 1)) << 1;
+        keys = new long [capacity];
+        vals = new int [capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return currentSize;
+    }
+
+    public boolean isEmpty() {
+        return currentSize == 0;
+    }
+
+    private int hash(long key) {
+        return HashingStrategy.spread(Long.hashCode(key), this.seed);
+    }
+
+    private static long keyAt(long [] table, int pos) {
+        return table[pos];
+    }
+
+    private static int valueAt(int [] table, int pos) {
+        return table[pos];
+    }
+
+    private static boolean isSentinel(long key) {
+        return key == 0;
+    }
+
+    /**
+     * Find the slot holding this (non-sentinel) key, or -1 if we hit an empty slot first
+     */
+    private int indexOf(long key) {
+        int pos = hash(key) & this.mask;
+
+        while( true ) {
+            long candidate = keyAt(this.keys, pos);
+
+            // if we hit an empty slot we did not find the item
+            if( isSentinel(candidate) )
+                return -1;
+
+            if( candidate == key )
+                return pos;
+
+            pos = ( pos + 1 ) & this.mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        boolean found = isSentinel(key) ? this.hasSentinelKey : indexOf(key) != -1;
+
+        this.counters.recordLookup(found);
+        return found;
+    }
+
+    public boolean containsValue(int value) {
+        if( this.hasSentinelKey && this.sentinelKeyValue == value )
+            return true;
+
+        for( int idx = 0; idx < this.keys.length; idx++ )
+            if( !isSentinel(keyAt(this.keys, idx)) && this.vals[idx] == value )
+                return true;
+
+        return false;
+    }
+
+    public int get(long key) {
+        return getOrDefault(key, 0);
+    }
+
+    public int getOrDefault(long key, int defaultValue) {
+        if( isSentinel(key) ) {
+            this.counters.recordLookup(this.hasSentinelKey);
+            return this.hasSentinelKey ? this.sentinelKeyValue : defaultValue;
+        }
+
+        int pos = indexOf(key);
+        this.counters.recordLookup(pos != -1);
+        return pos == -1 ? defaultValue : valueAt(this.vals, pos);
+    }
+
+    /**
+     * @return the previous value, or 0 if there was none
+     */
+    public int put(long key, int value) {
+        if( isSentinel(key) ) {
+            int oldValue = this.sentinelKeyValue;
+            this.sentinelKeyValue = value;
+
+            if( this.hasSentinelKey )
+                return oldValue;
+
+            this.hasSentinelKey = true;
+            this.currentSize++;
+            return 0;
+        }
+
+        int pos = hash(key) & this.mask;
+
+        while( true ) {
+            long candidate = keyAt(this.keys, pos);
+
+            // if we hit an empty slot there is nothing there
+            if( isSentinel(candidate) )
+                break;
+
+            // the key itself is equal, replace
+            if( candidate == key ) {
+                int oldValue = valueAt(this.vals, pos);
+                this.vals[pos] = value;
+                return oldValue;
+            }
+
+            pos = ( pos + 1 ) & this.mask;
+        }
+
+        this.keys[pos] = key;
+        this.vals[pos] = value;
+        this.currentSize++;
+
+        // running out of space, we need to resize!
+        if( this.currentSize > this.keys.length * MAX_LOAD_FACTOR )
+            reHash();
+
+        return 0;
+    }
+
+    /**
+     * @return the removed value, or 0 if there was none
+     */
+    public int remove(long key) {
+        if( isSentinel(key) ) {
+            if( !this.hasSentinelKey )
+                return 0;
+
+            int oldValue = this.sentinelKeyValue;
+            this.hasSentinelKey = false;
+            this.sentinelKeyValue = 0;
+            this.currentSize--;
+            return oldValue;
+        }
+
+        int pos = indexOf(key);
+
+        if( pos == -1 )
+            return 0;
+
+        int oldValue = valueAt(this.vals, pos);
+        deleteSlot(pos);
+        this.currentSize--;
+        return oldValue;
+    }
+
+    /**
+     * Empty a slot, then pull back any later entry in the probe run whose home is at or
+     * before the hole
+     */
+    private void deleteSlot(int hole) {
+        int next = hole;
+
+        while( true ) {
+            next = ( next + 1 ) & this.mask;
+            long candidate = keyAt(this.keys, next);
+
+            if( isSentinel(candidate) )
+                break;
+
+            int home = hash(candidate) & this.mask;
+
+            // move it back only if the hole is no further from its home than it is now
+            if( ( ( next - home ) & this.mask ) >= ( ( next - hole ) & this.mask ) ) {
+                this.keys[hole] = candidate;
+                this.vals[hole] = this.vals[next];
+                hole = next;
+            }
+        }
+
+        this.keys[hole] = 0;
+        this.vals[hole] = 0;
+    }
+
+    /**
+     * The rehash operation will just double the arrays
+     */
+    private void reHash() {
+        long started = this.counters.resizeStarted();
+
+        long [] oldKeys = this.keys;
+        int [] oldVals = this.vals;
+
+        this.keys = new long [oldKeys.length * 2];
+        this.vals = new int [oldKeys.length * 2];
+        this.mask = this.keys.length - 1;
+
+        for( int idx = 0; idx < oldKeys.length; idx++ ) {
+            long key = keyAt(oldKeys, idx);
+
+            if( isSentinel(key) )
+                continue;
+
+            int pos = hash(key) & this.mask;
+            while( !isSentinel(keyAt(this.keys, pos)) )
+                pos = ( pos + 1 ) & this.mask;
+
+            this.keys[pos] = key;
+            this.vals[pos] = oldVals[idx];
+        }
+
+        this.counters.resizeFinished(started);
+    }
+
+    public void clear() {
+        Arrays.fill(this.keys, 0);
+        Arrays.fill(this.vals, 0);
+        this.hasSentinelKey = false;
+        this.sentinelKeyValue = 0;
+        this.currentSize = 0;
+    }
+
+    /**
+     * The 0 key lives outside the table, so it counts as found first time
+     */
+    @Override
+    public MapStatistics statistics() {
+        ProbeHistogram histogram = new ProbeHistogram();
+        long [] currentKeys = this.keys;
+        int currentMask = currentKeys.length - 1;
+
+        if( this.hasSentinelKey )
+            histogram.record(0);
+
+        for( int idx = 0; idx < currentKeys.length; idx++ ) {
+            long key = keyAt(currentKeys, idx);
+
+            if( !isSentinel(key) )
+                histogram.record(( idx - ( hash(key) & currentMask ) ) & currentMask);
+        }
+
+        return new MapStatistics(this.currentSize, currentKeys.length, histogram, this.counters);
+    }
+
+    @Override
+    public String toString() {
+        return "LongIntFlatMap{" +
+                "currentSize=" + currentSize +
+                ", capacity=" + keys.length +
+                '}';
+    }
+}
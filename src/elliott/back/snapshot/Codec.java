@@ -0,0 +1,101 @@
+package elliott.back.snapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * How MapSnapshot turns keys or values into bytes and back.  Never given null, the snapshot format flags
+ * null keys and values itself.
+ */
+public interface Codec<T> {
+
+    /**
+     * An upper bound on the bytes write() will take for this value, cheap rather than exact.  The writer starts
+     * a new block when the current one has less room than this.
+     */
+    int maxEncodedLength(T value);
+
+    void write(T value, ByteBuffer out);
+
+    T read(ByteBuffer in);
+
+    Codec<Integer> INTEGER = new Codec<Integer>() {
+        @Override
+        public int maxEncodedLength(Integer value) {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void write(Integer value, ByteBuffer out) {
+            out.putInt(value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer in) {
+            return in.getInt();
+        }
+    };
+
+    Codec<Long> LONG = new Codec<Long>() {
+        @Override
+        public int maxEncodedLength(Long value) {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(Long value, ByteBuffer out) {
+            out.putLong(value);
+        }
+
+        @Override
+        public Long read(ByteBuffer in) {
+            return in.getLong();
+        }
+    };
+
+    /**
+     * Length then the bytes
+     */
+    Codec<byte[]> BYTE_ARRAY = new Codec<byte[]>() {
+        @Override
+        public int maxEncodedLength(byte[] value) {
+            return Integer.BYTES + value.length;
+        }
+
+        @Override
+        public void write(byte[] value, ByteBuffer out) {
+            out.putInt(value.length).put(value);
+        }
+
+        @Override
+        public byte[] read(ByteBuffer in) {
+            byte [] value = new byte [in.getInt()];
+            in.get(value);
+            return value;
+        }
+    };
+
+    /**
+     * UTF-8 length then bytes.  A char never takes more than 3 bytes, a surrogate pair takes 4 for its 2 chars.
+     * A surrogate on its own comes back as '?', as with String.getBytes().
+     */
+    Codec<String> STRING = new Codec<String>() {
+        @Override
+        public int maxEncodedLength(String value) {
+            return Integer.BYTES + 3 * value.length();
+        }
+
+        @Override
+        public void write(String value, ByteBuffer out) {
+            byte [] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.putInt(bytes.length).put(bytes);
+        }
+
+        @Override
+        public String read(ByteBuffer in) {
+            byte [] bytes = new byte [in.getInt()];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+}
@@ -0,0 +1,244 @@
+package elliott.back.snapshot;
+
+import elliott.back.common.BulkLoadable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Saves any map to a compact binary file and loads it back into any BulkLoadable one, SimpleFlatMap,
+ * SimpleCircularFlatMap and SimpleCircularListBucketFlatMap included, with Codecs for the keys and values.
+ *
+ * The file is a header, then blocks of entries:
+ *
+ *   header: magic, version, entry count (long), CRC32C of the preceding 16 bytes
+ *   block:  payload length, entries in the block, CRC32C of the payload, then the payload
+ *   entry:  a flags byte saying whether the key and value are null, then whichever aren't, as their codecs wrote them
+ *
+ * Writes fill a 1MB direct buffer at a time and gather it out through a FileChannel with its block header, so
+ * there's one system call per megabyte and no copying through the heap.  The entry count isn't known for sure
+ * until the end, so the header is written last, over a placeholder.  It all goes to a sibling ".tmp" file that
+ * is forced to disk and then atomically moved over the target, so a crash mid-write leaves the old snapshot.
+ *
+ * Loads read the header first and presize the map for the count, so filling it never resizes, then check each
+ * block's CRC as it comes in and decode it straight into the map.  A file cut short either ends inside a block
+ * or holds fewer entries than the header says, and a flipped bit fails a CRC, so a bad file is found in the one
+ * pass that loads it: EOFException for short, StreamCorruptedException for anything else wrong.
+ */
+public final class MapSnapshot {
+
+    static final int MAGIC = 0x464D4150;
+    static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 20;
+    static final int BLOCK_HEADER_BYTES = 12;
+
+    /**
+     * Payload bytes a block is filled to, an entry bigger than this gets a block to itself
+     */
+    static final int BLOCK_SIZE = 1 << 20;
+
+    private static final byte NULL_KEY = 1;
+    private static final byte NULL_VALUE = 2;
+
+    private MapSnapshot() {
+    }
+
+    /**
+     * Write every entry of the map to the file, replacing it, and return how many were written.  The map
+     * mustn't change while this runs.
+     */
+    public static <K,V> long write(Map<K,V> map, Path path, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try {
+            long entries = writeFile(map, temp, keyCodec, valueCodec);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return entries;
+        }
+        catch( IOException | RuntimeException e ) {
+            try {
+                Files.deleteIfExists(temp);
+            }
+            catch( IOException deleting ) {
+                e.addSuppressed(deleting);
+            }
+
+            throw e;
+        }
+    }
+
+    private static <K,V> long writeFile(Map<K,V> map, Path path, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        try( FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING) ) {
+            channel.position(HEADER_BYTES);
+
+            ByteBuffer blockHeader = ByteBuffer.allocateDirect(BLOCK_HEADER_BYTES);
+            ByteBuffer payload = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            CRC32C crc = new CRC32C();
+            int blockEntries = 0;
+            long entries = 0;
+
+            for( Map.Entry<K,V> entry : map.entrySet() ) {
+                K key = entry.getKey();
+                V value = entry.getValue();
+                int needed = 1 + ( key == null ? 0 : keyCodec.maxEncodedLength(key) )
+                        + ( value == null ? 0 : valueCodec.maxEncodedLength(value) );
+
+                if( payload.remaining() < needed ) {
+                    if( blockEntries > 0 )
+                        writeBlock(channel, blockHeader, payload, blockEntries, crc);
+
+                    blockEntries = 0;
+
+                    if( payload.capacity() < needed )
+                        payload = ByteBuffer.allocateDirect(needed);
+                }
+
+                payload.put((byte) ( ( key == null ? NULL_KEY : 0 ) | ( value == null ? NULL_VALUE : 0 ) ));
+
+                if( key != null )
+                    keyCodec.write(key, payload);
+
+                if( value != null )
+                    valueCodec.write(value, payload);
+
+                blockEntries++;
+                entries++;
+            }
+
+            if( blockEntries > 0 )
+                writeBlock(channel, blockHeader, payload, blockEntries, crc);
+
+            ByteBuffer header = ByteBuffer.allocateDirect(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(entries);
+            header.flip();
+            crc.reset();
+            crc.update(header.duplicate());
+            header.limit(HEADER_BYTES).putInt(16, (int) crc.getValue());
+
+            for( long position = 0; header.hasRemaining(); )
+                position += channel.write(header, position);
+
+            channel.force(false);
+            return entries;
+        }
+    }
+
+    /**
+     * Write the payload out as one block and clear it for the next
+     */
+    private static void writeBlock(FileChannel channel, ByteBuffer blockHeader, ByteBuffer payload, int entries, CRC32C crc) throws IOException {
+        payload.flip();
+        crc.reset();
+        crc.update(payload.duplicate());
+
+        blockHeader.clear();
+        blockHeader.putInt(payload.limit()).putInt(entries).putInt((int) crc.getValue());
+        blockHeader.flip();
+
+        ByteBuffer [] block = { blockHeader, payload };
+        while( payload.hasRemaining() )
+            channel.write(block);
+
+        payload.clear();
+    }
+
+    /**
+     * Load a file written by write() into the map, presizing it first, and return the map
+     */
+    public static <K,V,M extends BulkLoadable<K,V>> M read(Path path, Codec<? extends K> keyCodec, Codec<? extends V> valueCodec, M into) throws IOException {
+        try( FileChannel channel = FileChannel.open(path, StandardOpenOption.READ) ) {
+            CRC32C crc = new CRC32C();
+
+            ByteBuffer header = ByteBuffer.allocateDirect(HEADER_BYTES);
+            readFully(channel, header, "header");
+            header.flip();
+
+            if( header.getInt(0) != MAGIC )
+                throw new StreamCorruptedException(path + " isn't a map snapshot");
+
+            if( header.getInt(4) != VERSION )
+                throw new StreamCorruptedException("Can't read snapshot version " + header.getInt(4));
+
+            crc.update(header.duplicate().limit(16));
+            if( header.getInt(16) != (int) crc.getValue() )
+                throw new StreamCorruptedException("Header checksum mismatch");
+
+            long entries = header.getLong(8);
+            into.ensureCapacity((int) Math.min(into.size() + entries, Integer.MAX_VALUE));
+
+            ByteBuffer blockHeader = ByteBuffer.allocateDirect(BLOCK_HEADER_BYTES);
+            ByteBuffer payload = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            long loaded = 0;
+
+            while( loaded < entries ) {
+                long blockStart = channel.position();
+
+                blockHeader.clear();
+                readFully(channel, blockHeader, "after " + loaded + " of " + entries + " entries");
+                blockHeader.flip();
+
+                int length = blockHeader.getInt();
+                int blockEntries = blockHeader.getInt();
+                int checksum = blockHeader.getInt();
+
+                if( length < 1 || blockEntries < 1 || blockEntries > entries - loaded )
+                    throw new StreamCorruptedException("Bad block header at byte " + blockStart);
+
+                if( length > channel.size() - channel.position() )
+                    throw new EOFException("Snapshot truncated in the block at byte " + blockStart);
+
+                if( payload.capacity() < length )
+                    payload = ByteBuffer.allocateDirect(length);
+
+                payload.clear().limit(length);
+                readFully(channel, payload, "in the block at byte " + blockStart);
+                payload.flip();
+
+                crc.reset();
+                crc.update(payload.duplicate());
+                if( checksum != (int) crc.getValue() )
+                    throw new StreamCorruptedException("Checksum mismatch in the block at byte " + blockStart);
+
+                try {
+                    for( int idx = 0; idx < blockEntries; idx++ ) {
+                        byte flags = payload.get();
+                        K key = ( flags & NULL_KEY ) != 0 ? null : keyCodec.read(payload);
+                        V value = ( flags & NULL_VALUE ) != 0 ? null : valueCodec.read(payload);
+                        into.put(key, value);
+                    }
+                }
+                catch( BufferUnderflowException | NegativeArraySizeException e ) {
+                    throw new StreamCorruptedException("The block at byte " + blockStart + " doesn't decode with these codecs");
+                }
+
+                if( payload.hasRemaining() )
+                    throw new StreamCorruptedException("The block at byte " + blockStart + " doesn't decode with these codecs");
+
+                loaded += blockEntries;
+            }
+
+            if( channel.position() != channel.size() )
+                throw new StreamCorruptedException("Bytes after the last of " + entries + " entries");
+
+            return into;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, String where) throws IOException {
+        while( buffer.hasRemaining() )
+            if( channel.read(buffer) < 0 )
+                throw new EOFException("Snapshot truncated " + where);
+    }
+}
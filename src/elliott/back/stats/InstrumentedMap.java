@@ -0,0 +1,9 @@
+package elliott.back.stats;
+
+/**
+ * A map that can report how its table is holding up, see MapStatistics
+ */
+public interface InstrumentedMap {
+
+    MapStatistics statistics();
+}
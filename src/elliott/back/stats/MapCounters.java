@@ -0,0 +1,122 @@
+package elliott.back.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The running counters behind MapStatistics: lookup hits and misses, resizes and time spent resizing.
+ *
+ * The plain version is just long fields, for maps that are single threaded anyway.  concurrent() gives a
+ * version on striped LongAdders, so threads bumping counters don't fight over one cache line.
+ */
+public class MapCounters {
+
+    private long hits;
+    private long misses;
+    private long resizes;
+    private long resizeNanos;
+
+    /**
+     * reHash() sometimes ends up calling itself, only the outermost call gets timed
+     */
+    private int resizeDepth;
+
+    public static MapCounters concurrent() {
+        return new Concurrent();
+    }
+
+    public void recordLookup(boolean hit) {
+        if( hit )
+            hits++;
+        else
+            misses++;
+    }
+
+    /**
+     * Call on the way into a resize and hand the result to resizeFinished().  On the concurrent counters a resize
+     * that loses a race can just skip resizeFinished(), and isn't counted.
+     */
+    public long resizeStarted() {
+        return resizeDepth++ == 0 ? System.nanoTime() : 0;
+    }
+
+    public void resizeFinished(long started) {
+        resizes++;
+
+        if( --resizeDepth == 0 )
+            resizeNanos += System.nanoTime() - started;
+    }
+
+    /**
+     * Time spent helping with a resize somebody else started, so it isn't counted as another resize
+     */
+    public void resizeHelped(long nanos) {
+        resizeNanos += nanos;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getResizes() {
+        return resizes;
+    }
+
+    public long getResizeNanos() {
+        return resizeNanos;
+    }
+
+    private static final class Concurrent extends MapCounters {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder resizes = new LongAdder();
+        private final LongAdder resizeNanos = new LongAdder();
+
+        @Override
+        public void recordLookup(boolean hit) {
+            ( hit ? hits : misses ).increment();
+        }
+
+        /**
+         * No nesting to worry about here, but several threads may each be timing their own share of a resize
+         */
+        @Override
+        public long resizeStarted() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void resizeFinished(long started) {
+            resizes.increment();
+            resizeNanos.add(System.nanoTime() - started);
+        }
+
+        @Override
+        public void resizeHelped(long nanos) {
+            resizeNanos.add(nanos);
+        }
+
+        @Override
+        public long getHits() {
+            return hits.sum();
+        }
+
+        @Override
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        @Override
+        public long getResizes() {
+            return resizes.sum();
+        }
+
+        @Override
+        public long getResizeNanos() {
+            return resizeNanos.sum();
+        }
+    }
+}
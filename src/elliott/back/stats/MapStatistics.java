@@ -0,0 +1,117 @@
+package elliott.back.stats;
+
+import java.util.Arrays;
+
+/**
+ * A point in time snapshot of how healthy a map's table is, and the counters it has kept since it was made.
+ *
+ * The histogram is worked out by walking the table when the snapshot is taken, so it costs nothing until someone
+ * asks.  A map that isn't thread safe can still be snapshotted from another thread (say by JMX), the numbers may
+ * just be a little inconsistent with each other.
+ */
+public final class MapStatistics {
+
+    /**
+     * Probe lengths this long or longer all count in the last histogram bucket
+     */
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    private final int size;
+    private final int capacity;
+    private final long [] probeLengthHistogram;
+    private final int maxProbeLength;
+    private final double meanProbeLength;
+    private final long resizes;
+    private final long resizeNanos;
+    private final long hits;
+    private final long misses;
+
+    /**
+     * @param capacity slots for a flat map, buckets for a bucket map
+     */
+    public MapStatistics(int size, int capacity, ProbeHistogram histogram, MapCounters counters) {
+        this.size = size;
+        this.capacity = capacity;
+        this.probeLengthHistogram = histogram.counts();
+        this.maxProbeLength = histogram.max();
+        this.meanProbeLength = histogram.mean();
+        this.resizes = counters.getResizes();
+        this.resizeNanos = counters.getResizeNanos();
+        this.hits = counters.getHits();
+        this.misses = counters.getMisses();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Entries per slot, or the average bucket length for bucket maps
+     */
+    public double getLoadFactor() {
+        return capacity == 0 ? 0 : size / (double) capacity;
+    }
+
+    /**
+     * Entry counts by probe length, see ProbeHistogram
+     */
+    public long [] getProbeLengthHistogram() {
+        return probeLengthHistogram.clone();
+    }
+
+    public int getMaxProbeLength() {
+        return maxProbeLength;
+    }
+
+    public double getMeanProbeLength() {
+        return meanProbeLength;
+    }
+
+    public long getResizes() {
+        return resizes;
+    }
+
+    public long getResizeNanos() {
+        return resizeNanos;
+    }
+
+    /**
+     * get/containsKey calls which found their key
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRate() {
+        return hits + misses == 0 ? 0 : hits / (double) ( hits + misses );
+    }
+
+    @Override
+    public String toString() {
+        // trailing empty buckets are just noise
+        int used = probeLengthHistogram.length;
+        while( used > 1 && probeLengthHistogram[used - 1] == 0 )
+            used--;
+
+        return "MapStatistics{" +
+                "size=" + size +
+                ", capacity=" + capacity +
+                ", loadFactor=" + getLoadFactor() +
+                ", maxProbeLength=" + maxProbeLength +
+                ", meanProbeLength=" + meanProbeLength +
+                ", probeLengthHistogram=" + Arrays.toString(Arrays.copyOf(probeLengthHistogram, used)) +
+                ", resizes=" + resizes +
+                ", resizeNanos=" + resizeNanos +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                '}';
+    }
+}
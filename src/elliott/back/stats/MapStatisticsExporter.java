@@ -0,0 +1,108 @@
+package elliott.back.stats;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes a map's statistics as an MXBean on the platform MBean server, under
+ * elliott.back:type=MapStatistics,name=<name>.
+ *
+ * A dashboard polls each attribute separately, and each snapshot walks the whole table, so the bean keeps the
+ * last snapshot for a second and answers from that.
+ */
+public final class MapStatisticsExporter {
+
+    private static final String DOMAIN = "elliott.back";
+    private static final long SNAPSHOT_TTL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private MapStatisticsExporter() {
+    }
+
+    public static ObjectName register(String name, InstrumentedMap map) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=MapStatistics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(map), objectName);
+        return objectName;
+    }
+
+    public static void unregister(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+
+    private static final class Bean implements MapStatisticsMXBean {
+        private final InstrumentedMap map;
+        private MapStatistics snapshot;
+        private long snapshotTakenAt;
+
+        Bean(InstrumentedMap map) {
+            this.map = map;
+        }
+
+        private synchronized MapStatistics snapshot() {
+            long now = System.nanoTime();
+
+            if( snapshot == null || now - snapshotTakenAt > SNAPSHOT_TTL_NANOS ) {
+                snapshot = map.statistics();
+                snapshotTakenAt = now;
+            }
+
+            return snapshot;
+        }
+
+        @Override
+        public int getSize() {
+            return snapshot().getSize();
+        }
+
+        @Override
+        public int getCapacity() {
+            return snapshot().getCapacity();
+        }
+
+        @Override
+        public double getLoadFactor() {
+            return snapshot().getLoadFactor();
+        }
+
+        @Override
+        public long [] getProbeLengthHistogram() {
+            return snapshot().getProbeLengthHistogram();
+        }
+
+        @Override
+        public int getMaxProbeLength() {
+            return snapshot().getMaxProbeLength();
+        }
+
+        @Override
+        public double getMeanProbeLength() {
+            return snapshot().getMeanProbeLength();
+        }
+
+        @Override
+        public long getResizes() {
+            return snapshot().getResizes();
+        }
+
+        @Override
+        public long getResizeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(snapshot().getResizeNanos());
+        }
+
+        @Override
+        public long getHits() {
+            return snapshot().getHits();
+        }
+
+        @Override
+        public long getMisses() {
+            return snapshot().getMisses();
+        }
+
+        @Override
+        public double getHitRate() {
+            return snapshot().getHitRate();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package elliott.back.stats;
+
+/**
+ * What MapStatisticsExporter publishes over JMX for one map.  Attributes mirror MapStatistics.
+ */
+public interface MapStatisticsMXBean {
+
+    int getSize();
+
+    int getCapacity();
+
+    double getLoadFactor();
+
+    long [] getProbeLengthHistogram();
+
+    int getMaxProbeLength();
+
+    double getMeanProbeLength();
+
+    long getResizes();
+
+    long getResizeMillis();
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRate();
+}
@@ -0,0 +1,45 @@
+package elliott.back.stats;
+
+/**
+ * Tallies probe lengths while a map walks its table for a statistics snapshot.
+ *
+ * For a flat map an entry's probe length is how far it sits from its home slot; for a bucket map it is the
+ * entry's position in its chain.  Either way it's the number of extra comparisons a lookup of that key pays.
+ * Everything from MapStatistics.HISTOGRAM_BUCKETS - 1 up shares the last bucket.
+ */
+public final class ProbeHistogram {
+
+    private final long [] counts = new long[MapStatistics.HISTOGRAM_BUCKETS];
+    private int max;
+    private long total;
+    private long entries;
+
+    public void record(int probeLength) {
+        counts[Math.min(probeLength, counts.length - 1)]++;
+        max = Math.max(max, probeLength);
+        total += probeLength;
+        entries++;
+    }
+
+    /**
+     * Record the same probe length for several entries at once
+     */
+    public void record(int probeLength, long count) {
+        counts[Math.min(probeLength, counts.length - 1)] += count;
+        max = Math.max(max, probeLength);
+        total += probeLength * count;
+        entries += count;
+    }
+
+    long [] counts() {
+        return counts.clone();
+    }
+
+    int max() {
+        return max;
+    }
+
+    double mean() {
+        return entries == 0 ? 0 : total / (double) entries;
+    }
+}
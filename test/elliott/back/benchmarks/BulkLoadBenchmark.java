@@ -0,0 +1,119 @@
+package elliott.back.benchmarks;
+
+import elliott.back.common.BulkLoadable;
+import elliott.back.maps.ParallelArrayFlatMap;
+import elliott.back.maps.RobinHoodCircularFlatMap;
+import elliott.back.maps.SimpleCircularFlatMap;
+import elliott.back.maps.SimpleCircularListBucketFlatMap;
+import elliott.back.maps.SimpleFlatMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a whole map from scratch: a put per key into a default sized map, which resizes all the way up,
+ * against putAll from a HashMap and bulkLoad from arrays, which both size the table once first.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class BulkLoadBenchmark {
+
+    public enum Implementation {
+        SIMPLE_FLAT {
+            @Override
+            BulkLoadable<String, String> create() {
+                return new SimpleFlatMap<>();
+            }
+        },
+        SIMPLE_CIRCULAR_FLAT {
+            @Override
+            BulkLoadable<String, String> create() {
+                return new SimpleCircularFlatMap<>();
+            }
+        },
+        SIMPLE_CIRCULAR_LIST_BUCKET {
+            @Override
+            BulkLoadable<String, String> create() {
+                return new SimpleCircularListBucketFlatMap<>();
+            }
+        },
+        ROBIN_HOOD_CIRCULAR_FLAT {
+            @Override
+            BulkLoadable<String, String> create() {
+                return new RobinHoodCircularFlatMap<>();
+            }
+        },
+        PARALLEL_ARRAY_FLAT {
+            @Override
+            BulkLoadable<String, String> create() {
+                return new ParallelArrayFlatMap<>();
+            }
+        };
+
+        abstract BulkLoadable<String, String> create();
+    }
+
+    @Param({"SIMPLE_FLAT", "SIMPLE_CIRCULAR_FLAT", "SIMPLE_CIRCULAR_LIST_BUCKET", "ROBIN_HOOD_CIRCULAR_FLAT", "PARALLEL_ARRAY_FLAT"})
+    public Implementation impl;
+
+    @Param({"1000000"})
+    public int size;
+
+    private String[] keys;
+    private String[] values;
+    private Map<String, String> source;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = new String[size];
+        values = new String[size];
+        source = new HashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            keys[i] = "" + i;
+            values[i] = "v: " + i;
+            source.put(keys[i], values[i]);
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> putEach() {
+        Map<String, String> map = impl.create();
+        for (int i = 0; i < size; i++)
+            map.put(keys[i], values[i]);
+        return map;
+    }
+
+    @Benchmark
+    public Map<String, String> putAll() {
+        Map<String, String> map = impl.create();
+        map.putAll(source);
+        return map;
+    }
+
+    @Benchmark
+    public Map<String, String> bulkLoad() {
+        BulkLoadable<String, String> map = impl.create();
+        map.bulkLoad(keys, values);
+        return map;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BulkLoadBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Xmx8g")
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,150 @@
+package elliott.back.benchmarks;
+
+import elliott.back.cache.Eviction;
+import elliott.back.cache.FlatCache;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Four threads doing 90% reads and 10% writes on Zipf-ish keys against a cache holding a tenth of them: the
+ * concurrent FlatCache under each eviction policy, against the synchronized access ordered LinkedHashMap we'd
+ * otherwise wrap.  Every LinkedHashMap read relinks under the one lock, FlatCache reads only buffer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+
+    private static final int MAXIMUM = 10000;
+
+    /**
+     * Number of precomputed keys each thread cycles through, must be a power of two
+     */
+    private static final int KEYS = 1 << 16;
+
+    public enum Implementation {
+        FLAT_CACHE_LRU {
+            @Override
+            Cache create() {
+                return wrap(new FlatCache<>(MAXIMUM, Eviction.LRU, true));
+            }
+        },
+        FLAT_CACHE_W_TINY_LFU {
+            @Override
+            Cache create() {
+                return wrap(new FlatCache<>(MAXIMUM, Eviction.W_TINY_LFU, true));
+            }
+        },
+        SYNCHRONIZED_LINKED_HASH_MAP {
+            @Override
+            Cache create() {
+                Map<Integer, Integer> map = Collections.synchronizedMap(new LinkedHashMap<Integer, Integer>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                        return size() > MAXIMUM;
+                    }
+                });
+
+                return new Cache() {
+                    @Override
+                    public Integer get(Integer key) {
+                        return map.get(key);
+                    }
+
+                    @Override
+                    public void put(Integer key, Integer value) {
+                        map.put(key, value);
+                    }
+                };
+            }
+        };
+
+        abstract Cache create();
+
+        static Cache wrap(FlatCache<Integer, Integer> cache) {
+            return new Cache() {
+                @Override
+                public Integer get(Integer key) {
+                    return cache.get(key);
+                }
+
+                @Override
+                public void put(Integer key, Integer value) {
+                    cache.put(key, value);
+                }
+            };
+        }
+    }
+
+    interface Cache {
+        Integer get(Integer key);
+
+        void put(Integer key, Integer value);
+    }
+
+    @Param({"FLAT_CACHE_LRU", "FLAT_CACHE_W_TINY_LFU", "SYNCHRONIZED_LINKED_HASH_MAP"})
+    public Implementation impl;
+
+    private Cache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cache = impl.create();
+        for (int i = 0; i < MAXIMUM; i++)
+            cache.put(i, i);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        private final Integer[] keys = new Integer[KEYS];
+        private int cursor;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams params) {
+            Random random = new Random(params.getThreadIndex());
+            for (int i = 0; i < KEYS; i++)
+                keys[i] = (int) Math.pow(MAXIMUM * 10, random.nextDouble());
+        }
+
+        Integer next() {
+            Integer key = keys[cursor];
+            cursor = (cursor + 1) & (KEYS - 1);
+            return key;
+        }
+    }
+
+    @Benchmark
+    public Integer getOrPut(ThreadKeys keys) {
+        boolean write = keys.cursor % 10 == 0;
+        Integer key = keys.next();
+
+        if (write) {
+            cache.put(key, key);
+            return key;
+        }
+
+        return cache.get(key);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CacheBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
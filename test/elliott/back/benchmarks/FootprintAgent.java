@@ -0,0 +1,113 @@
+package elliott.back.benchmarks;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Java agent that works out retained heap: getObjectSize() for every object reachable from a root, each counted
+ * once however many paths lead to it.  The sizes come from the JVM itself, so they take in headers, alignment
+ * padding and compressed oops, which is where most of a map's overhead hides.
+ *
+ * Start the JVM with -javaagent pointing at a jar whose manifest names this class as Premain-Class;
+ * FootprintHarness does that for itself.  The walk reads private fields of JDK classes like HashMap.Node, so
+ * the agent opens java.base up to it when it's installed.
+ *
+ * Static fields aren't followed, nor are Classes, ClassLoaders and Threads: they aren't the object's to own.
+ */
+public final class FootprintAgent {
+
+    private static volatile Instrumentation instrumentation;
+
+    private static final ClassValue<Field[]> REFERENCE_FIELDS = new ClassValue<Field[]>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+
+            for (Class<?> c = type; c != null; c = c.getSuperclass())
+                for (Field field : c.getDeclaredFields())
+                    if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+
+            return fields.toArray(new Field[0]);
+        }
+    };
+
+    private FootprintAgent() {
+    }
+
+    public static void premain(String args, Instrumentation inst) {
+        agentmain(args, inst);
+    }
+
+    public static void agentmain(String args, Instrumentation inst) {
+        Module javaBase = Object.class.getModule();
+        Set<Module> us = Set.of(FootprintAgent.class.getModule());
+        Map<String, Set<Module>> opens = new HashMap<>();
+
+        for (String pkg : javaBase.getPackages())
+            opens.put(pkg, us);
+
+        inst.redefineModule(javaBase, Set.of(), Map.of(), opens, Set.of(), Map.of());
+        instrumentation = inst;
+    }
+
+    public static boolean isInstalled() {
+        return instrumentation != null;
+    }
+
+    /**
+     * Bytes of everything reachable from root, leaving out any object the filter says is shared and not
+     * root's own, along with whatever only it leads to
+     */
+    public static long retainedSize(Object root, Predicate<Object> shared) {
+        Instrumentation inst = instrumentation;
+        if (inst == null)
+            throw new IllegalStateException("FootprintAgent isn't installed, start the JVM with -javaagent");
+
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.push(root);
+        long bytes = 0;
+
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+
+            if (!visited.add(object))
+                continue;
+
+            bytes += inst.getObjectSize(object);
+            Class<?> type = object.getClass();
+
+            if (type.isArray()) {
+                if (!type.getComponentType().isPrimitive())
+                    for (int idx = 0, length = Array.getLength(object); idx < length; idx++)
+                        push(pending, ((Object[]) object)[idx], shared);
+
+                continue;
+            }
+
+            try {
+                for (Field field : REFERENCE_FIELDS.get(type))
+                    push(pending, field.get(object), shared);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Can't read the fields of " + type.getName(), e);
+            }
+        }
+
+        return bytes;
+    }
+
+    private static void push(ArrayDeque<Object> pending, Object object, Predicate<Object> shared) {
+        if (object == null || object instanceof Class || object instanceof ClassLoader || object instanceof Thread
+                || shared.test(object))
+            return;
+
+        pending.push(object);
+    }
+}
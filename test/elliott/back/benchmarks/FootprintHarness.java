@@ -0,0 +1,120 @@
+package elliott.back.benchmarks;
+
+import elliott.back.maps.FrozenMap;
+import elliott.back.stats.InstrumentedMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Fills each map to each size and prints its retained heap as CSV, to put numbers on what the Tuple wrappers,
+ * bucket list nodes and doubling slack really cost:
+ *
+ *   implementation,entries,retained_bytes,bytes_per_entry,load_factor
+ *
+ * Keys are distinct Integers, used as their own values, and left out of the walk, so the numbers are the map's
+ * own structure.  load_factor is from the map's statistics where it has them, and shows how much of the
+ * figure is empty table.
+ *
+ *   FootprintHarness [sizes] [implementations]
+ *
+ * both comma separated, defaulting to 1K up to 10M and every MapImplementation plus FROZEN.  Sizes come from
+ * FootprintAgent; run without it, the harness starts itself again in a new JVM with it installed, passing along
+ * the JVM options, so 10M entries wants something like -Xmx4g.
+ */
+public class FootprintHarness {
+
+    private static final int [] DEFAULT_SIZES = {1000, 10000, 100000, 1000000, 10000000};
+
+    /**
+     * FrozenMap has no empty constructor, so it isn't a MapImplementation, but it's the floor to compare against
+     */
+    private static final String FROZEN = "FROZEN";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (!FootprintAgent.isInstalled())
+            System.exit(relaunchWithAgent(args));
+
+        int[] sizes = args.length > 0 ? Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray() : DEFAULT_SIZES;
+
+        List<String> implementations = new ArrayList<>();
+        if (args.length > 1) {
+            implementations.addAll(Arrays.asList(args[1].split(",")));
+        } else {
+            for (MapImplementation impl : MapImplementation.values())
+                implementations.add(impl.name());
+            implementations.add(FROZEN);
+        }
+
+        System.out.println("implementation,entries,retained_bytes,bytes_per_entry,load_factor");
+
+        for (String implementation : implementations) {
+            for (int size : sizes) {
+                Map<Integer, Integer> map = fill(implementation, size);
+                long bytes = FootprintAgent.retainedSize(map, object -> object instanceof Integer);
+
+                String loadFactor = map instanceof InstrumentedMap
+                        ? String.format("%.3f", ((InstrumentedMap) map).statistics().getLoadFactor())
+                        : "";
+
+                System.out.printf("%s,%d,%d,%.1f,%s%n", implementation, size, bytes, bytes / (double) size, loadFactor);
+            }
+        }
+    }
+
+    private static Map<Integer, Integer> fill(String implementation, int size) {
+        if (FROZEN.equals(implementation)) {
+            Map<Integer, Integer> source = new HashMap<>();
+            for (int i = 0; i < size; i++)
+                source.put(i, i);
+
+            return FrozenMap.copyOf(source);
+        }
+
+        Map<Integer, Integer> map = MapImplementation.valueOf(implementation).create(size);
+        for (int i = 0; i < size; i++) {
+            Integer key = i;
+            map.put(key, key);
+        }
+
+        return map;
+    }
+
+    /**
+     * Run this class again in a child JVM with the agent, from a throwaway jar holding nothing but a manifest
+     * naming it.  FootprintAgent itself loads from the classpath we already have.
+     */
+    private static int relaunchWithAgent(String[] args) throws IOException, InterruptedException {
+        Path jar = Files.createTempFile("footprint-agent", ".jar");
+        jar.toFile().deleteOnExit();
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Premain-Class"), FootprintAgent.class.getName());
+
+        // just the manifest
+        new JarOutputStream(Files.newOutputStream(jar), manifest).close();
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-javaagent:" + jar);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(FootprintHarness.class.getName());
+        command.addAll(Arrays.asList(args));
+
+        return new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+}
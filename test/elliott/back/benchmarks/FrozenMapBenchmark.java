@@ -0,0 +1,105 @@
+package elliott.back.benchmarks;
+
+import elliott.back.maps.FrozenMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * get() on a read-only table, half hits and half misses, and the heap per entry each map takes for it: FrozenMap
+ * against the mutable maps filled the usual way, and against Map.copyOf, the JDK's own immutable map.  Setup
+ * prints the heap numbers, keys and values not included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrozenMapBenchmark {
+
+    /**
+     * Number of shuffled lookup keys to cycle through, must be a power of two
+     */
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"FROZEN", "JDK_IMMUTABLE", "SIMPLE_CIRCULAR_FLAT", "PARALLEL_ARRAY_FLAT", "SWISS_TABLE_FLAT", "JAVA_HASH_MAP"})
+    public String impl;
+
+    @Param({"1000", "1000000"})
+    public int size;
+
+    private Map<String, String> map;
+    private String[] lookups;
+    private int cursor;
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private Map<String, String> create(Map<String, String> source) {
+        switch (impl) {
+            case "FROZEN":
+                return FrozenMap.copyOf(source);
+            case "JDK_IMMUTABLE":
+                return Map.copyOf(source);
+            default:
+                Map<String, String> map = MapImplementation.valueOf(impl).create(source.size());
+                map.putAll(source);
+                return map;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // keys made up front, and used as their own values, so the heap growth below is just the map
+        String[] keys = new String[size];
+        Map<String, String> source = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            keys[i] = "" + i;
+            source.put(keys[i], keys[i]);
+        }
+
+        long before = usedHeap();
+        long started = System.nanoTime();
+        map = create(source);
+        long built = System.nanoTime() - started;
+        long after = usedHeap();
+
+        System.out.printf("%n%s: %.1f bytes per entry, built in %.1fms%n",
+                impl, (after - before) / (double) size, built / 1e6);
+
+        // hits and misses, interleaved at random
+        Random random = new Random(42);
+        lookups = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++)
+            lookups[i] = random.nextBoolean() ? keys[random.nextInt(size)] : "missing " + random.nextInt(size);
+    }
+
+    @Benchmark
+    public String get() {
+        String key = lookups[cursor];
+        cursor = (cursor + 1) & (LOOKUPS - 1);
+        return map.get(key);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FrozenMapBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Xmx4g")
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,132 @@
+package elliott.back.benchmarks;
+
+import elliott.back.common.HashingStrategy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups in a bare linear-probing table, where the only thing that changes is how a hash becomes a slot.
+ *
+ * MODULO is what the maps used to do: a division for the start slot and another for every probe step.  MASK
+ * drops the division but keeps the raw hashCode, so sequential keys like ""+i cluster in the low bits.  SPREAD
+ * is what the maps do now, a seeded fmix32 and then a mask.  Same table size and load factor for all three, so
+ * the difference is division cost plus probe length.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashIndexBenchmark {
+
+    public enum Indexing {
+        MODULO {
+            @Override
+            int start(int hashCode, int seed, int length) {
+                return Math.floorMod(hashCode, length);
+            }
+
+            @Override
+            int next(int pos, int length) {
+                return ( pos + 1 ) % length;
+            }
+        },
+        MASK {
+            @Override
+            int start(int hashCode, int seed, int length) {
+                return hashCode & ( length - 1 );
+            }
+
+            @Override
+            int next(int pos, int length) {
+                return ( pos + 1 ) & ( length - 1 );
+            }
+        },
+        SPREAD {
+            @Override
+            int start(int hashCode, int seed, int length) {
+                return HashingStrategy.spread(hashCode, seed) & ( length - 1 );
+            }
+
+            @Override
+            int next(int pos, int length) {
+                return ( pos + 1 ) & ( length - 1 );
+            }
+        };
+
+        abstract int start(int hashCode, int seed, int length);
+
+        abstract int next(int pos, int length);
+    }
+
+    @Param({"MODULO", "MASK", "SPREAD"})
+    public Indexing indexing;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private final int seed = HashingStrategy.newSeed();
+
+    private Object[] table;
+    private String[] lookups;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // half full, the same load for every indexing
+        table = new Object[HashingStrategy.tableSizeFor(size * 2)];
+
+        List<String> keys = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String key = "" + i;
+            keys.add(key);
+
+            int pos = indexing.start(key.hashCode(), seed, table.length);
+            while (table[pos] != null)
+                pos = indexing.next(pos, table.length);
+
+            table[pos] = key;
+        }
+
+        // look the keys up in a different order to the one they went in
+        Collections.shuffle(keys);
+        lookups = keys.toArray(new String[0]);
+    }
+
+    private int find(Object key) {
+        int pos = indexing.start(key.hashCode(), seed, table.length);
+
+        while (table[pos] != null) {
+            if (table[pos].equals(key))
+                return pos;
+
+            pos = indexing.next(pos, table.length);
+        }
+
+        return -1;
+    }
+
+    @Benchmark
+    public int lookup() {
+        String key = lookups[cursor];
+        cursor = (cursor + 1) % lookups.length;
+        return find(key);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(HashIndexBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,115 @@
+package elliott.back.benchmarks;
+
+import elliott.back.common.HashingStrategy;
+import elliott.back.common.ResizePolicy;
+import elliott.back.maps.HopscotchFlatMap;
+import elliott.back.maps.SimpleCircularFlatMap;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapStatistics;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * get() latency and memory per entry as a 2^20 slot table fills up, to see what hopscotch's bounded
+ * neighborhood buys over plain linear probing at high load.
+ *
+ * The maps that take a max load factor are set to the load being tested, so they really run that full.  The
+ * others are presized for the same number of entries at their own load factor, which setup prints alongside
+ * the heap the table took, so the latency can be read against how full each one actually is.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HighLoadBenchmark {
+
+    private static final int SLOTS = 1 << 20;
+
+    /**
+     * Number of shuffled lookup keys to cycle through, must be a power of two
+     */
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"SIMPLE_CIRCULAR_FLAT", "HOPSCOTCH_FLAT", "ROBIN_HOOD_CIRCULAR_FLAT", "SWISS_TABLE_FLAT", "CUCKOO_FLAT"})
+    public MapImplementation impl;
+
+    @Param({"0.5", "0.8", "0.9", "0.95"})
+    public double load;
+
+    private Map<String, String> map;
+    private String[] lookups;
+    private int cursor;
+
+    private Map<String, String> create(int size) {
+        switch (impl) {
+            case SIMPLE_CIRCULAR_FLAT:
+                // no probe limit, so only the load factor decides when it grows
+                return new SimpleCircularFlatMap<>(SLOTS, false, HashingStrategy.objects(),
+                        ResizePolicy.defaults().withMaxLoadFactor(load).withMaxProbeLength(Integer.MAX_VALUE));
+            case HOPSCOTCH_FLAT:
+                return new HopscotchFlatMap<>(SLOTS, load);
+            default:
+                return impl.create(size);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int size = (int) (SLOTS * load);
+
+        // keys made up front, and used as their own values, so the heap growth below is just the map
+        String[] keys = new String[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = "" + i;
+
+        long before = usedHeap();
+        map = create(size);
+        for (String key : keys)
+            map.put(key, key);
+        long after = usedHeap();
+
+        MapStatistics statistics = ((InstrumentedMap) map).statistics();
+        System.out.printf("%n%s at %.2f: capacity %d, actual load %.3f, %.1f bytes per entry, max probe %d%n",
+                impl, load, statistics.getCapacity(), statistics.getLoadFactor(),
+                (after - before) / (double) size, statistics.getMaxProbeLength());
+
+        // hits and misses, interleaved at random
+        Random random = new Random(42);
+        lookups = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++)
+            lookups[i] = random.nextBoolean() ? keys[random.nextInt(size)] : "missing " + random.nextInt(size);
+    }
+
+    @Benchmark
+    public String get() {
+        String key = lookups[cursor];
+        cursor = (cursor + 1) & (LOOKUPS - 1);
+        return map.get(key);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(HighLoadBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Xmx8g")
+                .build();
+
+        new Runner(options).run();
+    }
+}
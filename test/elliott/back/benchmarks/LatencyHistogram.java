@@ -0,0 +1,81 @@
+package elliott.back.benchmarks;
+
+/**
+ * HdrHistogram style latency recording: fixed log-linear buckets, so record() is a couple of shifts and an
+ * increment with nothing allocated, and any value up to Long.MAX_VALUE lands in a bucket within 1/64 (about
+ * 1.6%) of it.  Values under 128 are exact.
+ *
+ * Not thread safe, each recording thread keeps its own and they're add()ed together afterwards.
+ */
+final class LatencyHistogram {
+
+    /**
+     * Each power of two from 128 up is split into 2^SUB_BITS buckets
+     */
+    private static final int SUB_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int EXACT = SUB_BUCKETS * 2;
+
+    private final long[] counts = new long[EXACT + (63 - SUB_BITS - 1) * SUB_BUCKETS];
+    private long total;
+    private long max;
+
+    private static int indexOf(long value) {
+        if (value < EXACT)
+            return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * The highest value that lands in the bucket, so percentiles are never reported low
+     */
+    private static long highestValueAt(int index) {
+        if (index < EXACT)
+            return index;
+
+        int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        long sub = SUB_BUCKETS + (index - EXACT) % SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        counts[indexOf(Math.max(0, value))]++;
+        total++;
+        max = Math.max(max, value);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int idx = 0; idx < counts.length; idx++)
+            counts[idx] += other.counts[idx];
+
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long getTotalCount() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * The value at or below which this percentage of the recorded values fall, e.g. 99.9
+     */
+    public long getValueAtPercentile(double percentile) {
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+
+        for (int idx = 0; idx < counts.length; idx++) {
+            seen += counts[idx];
+
+            if (seen >= target)
+                return Math.min(highestValueAt(idx), max);
+        }
+
+        return max;
+    }
+}
@@ -0,0 +1,74 @@
+package elliott.back.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * get() latency percentiles on a full-ish table, for the maps that differ in how bad their worst probe can get.
+ *
+ * SampleTime mode records individual get times, so the p99.99 column shows the long probe runs the average
+ * hides.  Each map is filled to just under its resize point, where probe runs are at their longest.  Half the
+ * lookups miss, which for linear probing means walking a whole run.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LookupLatencyBenchmark {
+
+    /**
+     * Number of shuffled lookup keys to cycle through, must be a power of two
+     */
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"SIMPLE_CIRCULAR_FLAT", "ROBIN_HOOD_CIRCULAR_FLAT", "SWISS_TABLE_FLAT", "CUCKOO_FLAT", "JAVA_HASH_MAP"})
+    public MapImplementation impl;
+
+    /**
+     * Just under 0.75, 0.875 and 0.9 of 2^20 slots, where the various maps would resize
+     */
+    @Param({"786000", "917000", "943000"})
+    public int size;
+
+    private Map<String, String> map;
+    private String[] lookups;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = impl.create(size);
+        for (int i = 0; i < size; i++)
+            map.put("" + i, "v: " + i);
+
+        // hits and misses, interleaved at random
+        Random random = new Random(42);
+        lookups = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++)
+            lookups[i] = random.nextBoolean() ? "" + random.nextInt(size) : "missing " + random.nextInt(size);
+    }
+
+    @Benchmark
+    public String get() {
+        String key = lookups[cursor];
+        cursor = (cursor + 1) & (LOOKUPS - 1);
+        return map.get(key);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(LookupLatencyBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Xmx8g")
+                .build();
+
+        new Runner(options).run();
+    }
+}
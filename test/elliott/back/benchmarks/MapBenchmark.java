@@ -0,0 +1,164 @@
+package elliott.back.benchmarks;
+
+import elliott.back.workload.KeyPattern;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * JMH comparison of every map in elliott.back.maps against the JDK and Eclipse maps.
+ *
+ * Keys and the order they're looked up in come from the KeyPattern: by default UNIFORM over the
+ * same ""+i strings BasicStringMapTester uses, or -p pattern=ZIPFIAN,SEQUENTIAL,HOTSPOT,ADVERSARIAL
+ * for skewed, scanning and colliding traffic.  ADVERSARIAL keys all share one hash code, so keep
+ * its sizes to the thousands.  Misses use keys that can never be present, and the mixed workloads
+ * hit half the time.  Lookups walk a pre-drawn index array so the random number generator stays
+ * out of the measurement.
+ *
+ * Run main() to sweep every implementation and size with the GC profiler attached, or pass
+ * the usual JMH options (e.g. -p impl=SIMPLE_FLAT -p size=1000) to narrow it down.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MapBenchmark {
+
+    /**
+     * Number of shuffled indexes to cycle through, must be a power of two
+     */
+    private static final int ORDER_LENGTH = 1 << 16;
+
+    @Param({"SIMPLE_FLAT", "SIMPLE_CIRCULAR_FLAT", "ROBIN_HOOD_CIRCULAR_FLAT",
+            "PARALLEL_ARRAY_FLAT", "SWISS_TABLE_FLAT", "CUCKOO_FLAT", "HOPSCOTCH_FLAT",
+            "SIMPLE_CIRCULAR_LIST_BUCKET", "CONCURRENT_LIST_BUCKET",
+            "NON_BLOCKING_FLAT", "JAVA_HASH_MAP", "JAVA_CONCURRENT_HASH_MAP", "ECLIPSE_CONCURRENT_HASH_MAP"})
+    public MapImplementation impl;
+
+    @Param({"32", "1000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"UNIFORM"})
+    public KeyPattern pattern;
+
+    private Map<String, String> map;
+    private String[] hitKeys;
+    private String[] missKeys;
+    private int[] order;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = impl.create(size);
+        hitKeys = pattern.keys(size);
+        missKeys = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            missKeys[i] = "miss:" + hitKeys[i];
+            map.put(hitKeys[i], "v: " + i);
+        }
+
+        order = pattern.sample(size, ORDER_LENGTH, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.clear();
+        map = null;
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & (ORDER_LENGTH - 1);
+        return order[cursor];
+    }
+
+    @Benchmark
+    public String getHit() {
+        return map.get(hitKeys[next()]);
+    }
+
+    @Benchmark
+    public String getMiss() {
+        return map.get(missKeys[next()]);
+    }
+
+    @Benchmark
+    public String getMixed() {
+        int idx = next();
+        return map.get((idx & 1) == 0 ? hitKeys[idx] : missKeys[idx]);
+    }
+
+    @Benchmark
+    public boolean containsKeyHit() {
+        return map.containsKey(hitKeys[next()]);
+    }
+
+    @Benchmark
+    public boolean containsKeyMiss() {
+        return map.containsKey(missKeys[next()]);
+    }
+
+    /**
+     * Replaces an existing value, so the map size stays fixed across invocations
+     */
+    @Benchmark
+    public String putReplace() {
+        int idx = next();
+        return map.put(hitKeys[idx], hitKeys[idx]);
+    }
+
+    /**
+     * Removes a present key and puts it straight back, again keeping the size fixed
+     */
+    @Benchmark
+    public String removeAndPut() {
+        int idx = next();
+        String old = map.remove(hitKeys[idx]);
+        map.put(hitKeys[idx], old);
+        return old;
+    }
+
+    /**
+     * Remove of a key which is not there
+     */
+    @Benchmark
+    public String removeMiss() {
+        return map.remove(missKeys[next()]);
+    }
+
+    /**
+     * A full table scan; divide the score by size for a per-entry figure
+     */
+    @Benchmark
+    public void iterateEntries(Blackhole blackhole) {
+        for (Map.Entry<String, String> entry : map.entrySet())
+            blackhole.consume(entry.getValue());
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        // the simple name alone would also pick up FrozenMapBenchmark and PrimitiveMapBenchmark
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("-Xmx8g");
+
+        if (commandLine.getIncludes().isEmpty())
+            options.include(Pattern.quote(MapBenchmark.class.getName() + "."));
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,114 @@
+package elliott.back.benchmarks;
+
+import elliott.back.common.BulkLoadable;
+import elliott.back.maps.ConcurrentListBucketMap;
+import elliott.back.maps.CuckooFlatMap;
+import elliott.back.maps.HopscotchFlatMap;
+import elliott.back.maps.NonBlockingFlatMap;
+import elliott.back.maps.ParallelArrayFlatMap;
+import elliott.back.maps.RobinHoodCircularFlatMap;
+import elliott.back.maps.SimpleCircularFlatMap;
+import elliott.back.maps.SimpleCircularListBucketFlatMap;
+import elliott.back.maps.SimpleFlatMap;
+import elliott.back.maps.SwissTableFlatMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every map we want to compare, by name, so benchmarks can take it as a @Param
+ */
+public enum MapImplementation {
+    SIMPLE_FLAT {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            return presized(new SimpleFlatMap<>(), expectedSize);
+        }
+    },
+    SIMPLE_CIRCULAR_FLAT {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            return presized(new SimpleCircularFlatMap<>(), expectedSize);
+        }
+    },
+    ROBIN_HOOD_CIRCULAR_FLAT {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            return presized(new RobinHoodCircularFlatMap<>(), expectedSize);
+        }
+    },
+    PARALLEL_ARRAY_FLAT {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            return presized(new ParallelArrayFlatMap<>(), expectedSize);
+        }
+    },
+    SWISS_TABLE_FLAT {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            return presized(new SwissTableFlatMap<>(), expectedSize);
+        }
+    },
+    CUCKOO_FLAT {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            return presized(new CuckooFlatMap<>(), expectedSize);
+        }
+    },
+    HOPSCOTCH_FLAT {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            return presized(new HopscotchFlatMap<>(), expectedSize);
+        }
+    },
+    SIMPLE_CIRCULAR_LIST_BUCKET {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            return presized(new SimpleCircularListBucketFlatMap<>(), expectedSize);
+        }
+    },
+    CONCURRENT_LIST_BUCKET {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            // grows once its buckets average 4 entries
+            return new ConcurrentListBucketMap<>(expectedSize / 4);
+        }
+    },
+    NON_BLOCKING_FLAT {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            // grows once 3/4 full
+            return new NonBlockingFlatMap<>((int) Math.ceil(expectedSize / 0.75));
+        }
+    },
+    JAVA_HASH_MAP {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            return new HashMap<>((int) Math.ceil(expectedSize / 0.75));
+        }
+    },
+    JAVA_CONCURRENT_HASH_MAP {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            return new ConcurrentHashMap<>(expectedSize);
+        }
+    },
+    ECLIPSE_CONCURRENT_HASH_MAP {
+        @Override
+        public <K, V> Map<K, V> create(int expectedSize) {
+            return new org.eclipse.collections.impl.map.mutable.ConcurrentHashMap<>((int) Math.ceil(expectedSize / 0.75));
+        }
+    };
+
+    /**
+     * Build an empty map sized so the expected number of entries fits without a resize, through ensureCapacity()
+     * or the sizing constructor each map has
+     */
+    public abstract <K, V> Map<K, V> create(int expectedSize);
+
+    private static <K, V> Map<K, V> presized(BulkLoadable<K, V> map, int expectedSize) {
+        map.ensureCapacity(expectedSize);
+        return map;
+    }
+}
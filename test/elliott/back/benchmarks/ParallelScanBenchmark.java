@@ -0,0 +1,89 @@
+package elliott.back.benchmarks;
+
+import elliott.back.common.ParallelBulkMap;
+import elliott.back.maps.RobinHoodCircularFlatMap;
+import elliott.back.maps.SimpleCircularFlatMap;
+import elliott.back.maps.SimpleCircularListBucketFlatMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full table sweep with reduce(), single threaded (threshold Long.MAX_VALUE) against split over the common
+ * ForkJoinPool, and the same sum through a parallel stream over the entry set.  The split runs should drop
+ * towards single / core count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelScanBenchmark {
+
+    public enum Implementation {
+        SIMPLE_CIRCULAR_FLAT {
+            @Override
+            ParallelBulkMap<Integer, Integer> create() {
+                return new SimpleCircularFlatMap<>();
+            }
+        },
+        ROBIN_HOOD_CIRCULAR_FLAT {
+            @Override
+            ParallelBulkMap<Integer, Integer> create() {
+                return new RobinHoodCircularFlatMap<>();
+            }
+        },
+        SIMPLE_CIRCULAR_LIST_BUCKET {
+            @Override
+            ParallelBulkMap<Integer, Integer> create() {
+                return new SimpleCircularListBucketFlatMap<>();
+            }
+        };
+
+        abstract ParallelBulkMap<Integer, Integer> create();
+    }
+
+    @Param({"SIMPLE_CIRCULAR_FLAT", "ROBIN_HOOD_CIRCULAR_FLAT", "SIMPLE_CIRCULAR_LIST_BUCKET"})
+    public Implementation impl;
+
+    @Param({"1000000"})
+    public int size;
+
+    private ParallelBulkMap<Integer, Integer> map;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = impl.create();
+        for (int i = 0; i < size; i++)
+            map.put(i, i);
+    }
+
+    @Benchmark
+    public Long reduceSingleThreaded() {
+        return map.reduce(Long.MAX_VALUE, (key, value) -> (long) value, Long::sum);
+    }
+
+    @Benchmark
+    public Long reduceParallel() {
+        return map.reduce(10000, (key, value) -> (long) value, Long::sum);
+    }
+
+    @Benchmark
+    public long parallelStream() {
+        return map.entrySet().parallelStream().mapToLong(entry -> entry.getValue()).sum();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ParallelScanBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Xmx8g")
+                .build();
+
+        new Runner(options).run();
+    }
+}
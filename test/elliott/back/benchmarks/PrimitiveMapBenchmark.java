@@ -0,0 +1,127 @@
+package elliott.back.benchmarks;
+
+import elliott.back.maps.primitive.IntIntFlatMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntIntHashMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * int -> int lookups and replaces on IntIntFlatMap, Eclipse's IntIntHashMap, and a boxed
+ * HashMap<Integer,Integer> for reference.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrimitiveMapBenchmark {
+
+    private static final int ORDER_LENGTH = 1 << 16;
+
+    /**
+     * Just enough of a map to drive the benchmarks through one call site
+     */
+    private interface IntIntOps {
+        int get(int key);
+
+        void put(int key, int value);
+    }
+
+    public enum Implementation {
+        INT_INT_FLAT {
+            @Override
+            IntIntOps create() {
+                IntIntFlatMap map = new IntIntFlatMap();
+                return new IntIntOps() {
+                    public int get(int key) { return map.get(key); }
+                    public void put(int key, int value) { map.put(key, value); }
+                };
+            }
+        },
+        ECLIPSE_INT_INT {
+            @Override
+            IntIntOps create() {
+                IntIntHashMap map = new IntIntHashMap();
+                return new IntIntOps() {
+                    public int get(int key) { return map.get(key); }
+                    public void put(int key, int value) { map.put(key, value); }
+                };
+            }
+        },
+        JAVA_HASH_MAP_BOXED {
+            @Override
+            IntIntOps create() {
+                Map<Integer, Integer> map = new HashMap<>();
+                return new IntIntOps() {
+                    public int get(int key) { return map.getOrDefault(key, 0); }
+                    public void put(int key, int value) { map.put(key, value); }
+                };
+            }
+        };
+
+        abstract IntIntOps create();
+    }
+
+    @Param({"INT_INT_FLAT", "ECLIPSE_INT_INT", "JAVA_HASH_MAP_BOXED"})
+    public Implementation impl;
+
+    @Param({"32", "1000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private IntIntOps map;
+    private int[] order;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = impl.create();
+        for (int i = 0; i < size; i++)
+            map.put(i, i);
+
+        Random random = new Random(42);
+        order = new int[ORDER_LENGTH];
+        for (int i = 0; i < ORDER_LENGTH; i++)
+            order[i] = random.nextInt(size);
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & (ORDER_LENGTH - 1);
+        return order[cursor];
+    }
+
+    @Benchmark
+    public int getHit() {
+        return map.get(next());
+    }
+
+    @Benchmark
+    public int getMiss() {
+        return map.get(-1 - next());
+    }
+
+    @Benchmark
+    public void putReplace() {
+        int key = next();
+        map.put(key, key);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PrimitiveMapBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("-Xmx8g")
+                .build();
+
+        new Runner(options).run();
+    }
+}
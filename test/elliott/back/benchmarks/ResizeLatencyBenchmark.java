@@ -0,0 +1,93 @@
+package elliott.back.benchmarks;
+
+import elliott.back.maps.SimpleCircularFlatMap;
+import elliott.back.maps.SimpleCircularListBucketFlatMap;
+import elliott.back.maps.SimpleFlatMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Put latency percentiles while a map grows from empty, with and without incremental resizing.
+ *
+ * SampleTime mode records individual put times, so the p99.9 and p100 columns show the
+ * reHash() spikes that the average hides.  Each iteration starts from a fresh map and inserts
+ * new keys until it runs out, after which the puts become replaces.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResizeLatencyBenchmark {
+
+    private static final int KEY_COUNT = 1 << 19;
+
+    public enum Implementation {
+        SIMPLE_FLAT {
+            @Override
+            Map<String, String> create(boolean incremental) {
+                return new SimpleFlatMap<>(32, incremental);
+            }
+        },
+        SIMPLE_CIRCULAR_FLAT {
+            @Override
+            Map<String, String> create(boolean incremental) {
+                return new SimpleCircularFlatMap<>(32, incremental);
+            }
+        },
+        SIMPLE_CIRCULAR_LIST_BUCKET {
+            @Override
+            Map<String, String> create(boolean incremental) {
+                return new SimpleCircularListBucketFlatMap<>(32, incremental);
+            }
+        };
+
+        abstract Map<String, String> create(boolean incremental);
+    }
+
+    @Param({"SIMPLE_FLAT", "SIMPLE_CIRCULAR_FLAT", "SIMPLE_CIRCULAR_LIST_BUCKET"})
+    public Implementation impl;
+
+    @Param({"false", "true"})
+    public boolean incremental;
+
+    private String[] keys;
+    private Map<String, String> map;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUpKeys() {
+        keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++)
+            keys[i] = "" + i;
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpMap() {
+        map = impl.create(incremental);
+        cursor = 0;
+    }
+
+    @Benchmark
+    public String put() {
+        String key = keys[cursor];
+        cursor = (cursor + 1) & (KEY_COUNT - 1);
+        return map.put(key, key);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ResizeLatencyBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Xmx8g")
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,132 @@
+package elliott.back.benchmarks;
+
+import elliott.back.common.BulkLoadable;
+import elliott.back.maps.SimpleCircularFlatMap;
+import elliott.back.maps.SimpleCircularListBucketFlatMap;
+import elliott.back.maps.SimpleFlatMap;
+import elliott.back.snapshot.Codec;
+import elliott.back.snapshot.MapSnapshot;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and restoring Integer to Long maps through MapSnapshot, against ObjectOutputStream of a HashMap,
+ * which is what we'd do otherwise since the flat maps aren't Serializable.  Setup prints the file sizes.
+ *
+ * Run with -p size=10000000 for the 10M entry restore; the load is meant to run at disk speed, with nothing
+ * allocated per entry but the boxed key and value.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+    public enum Implementation {
+        SIMPLE_FLAT {
+            @Override
+            BulkLoadable<Integer, Long> create() {
+                return new SimpleFlatMap<>();
+            }
+        },
+        SIMPLE_CIRCULAR_FLAT {
+            @Override
+            BulkLoadable<Integer, Long> create() {
+                return new SimpleCircularFlatMap<>();
+            }
+        },
+        SIMPLE_CIRCULAR_LIST_BUCKET_FLAT {
+            @Override
+            BulkLoadable<Integer, Long> create() {
+                return new SimpleCircularListBucketFlatMap<>();
+            }
+        };
+
+        abstract BulkLoadable<Integer, Long> create();
+    }
+
+    @Param({"SIMPLE_FLAT", "SIMPLE_CIRCULAR_FLAT", "SIMPLE_CIRCULAR_LIST_BUCKET_FLAT"})
+    public Implementation impl;
+
+    @Param({"1000000"})
+    public int size;
+
+    private BulkLoadable<Integer, Long> map;
+    private HashMap<Integer, Long> hashMap;
+    private Path snapshot;
+    private Path serialized;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        map = impl.create();
+        hashMap = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(i, (long) i * i);
+            hashMap.put(i, (long) i * i);
+        }
+
+        snapshot = Files.createTempFile("snapshot", ".map");
+        serialized = Files.createTempFile("serialized", ".map");
+        save();
+        serialize();
+
+        System.out.printf("%nsnapshot %d bytes, serialized HashMap %d bytes%n", Files.size(snapshot), Files.size(serialized));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(snapshot);
+        Files.deleteIfExists(serialized);
+    }
+
+    @Benchmark
+    public long save() throws IOException {
+        return MapSnapshot.write(map, snapshot, Codec.INTEGER, Codec.LONG);
+    }
+
+    @Benchmark
+    public Map<Integer, Long> load() throws IOException {
+        return MapSnapshot.read(snapshot, Codec.INTEGER, Codec.LONG, impl.create());
+    }
+
+    @Benchmark
+    public void serialize() throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(serialized)))) {
+            out.writeObject(hashMap);
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Map<Integer, Long> deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(serialized)))) {
+            return (Map<Integer, Long>) in.readObject();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SnapshotBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Xmx8g")
+                .addProfiler("gc")
+                .build();
+
+        new Runner(options).run();
+    }
+}
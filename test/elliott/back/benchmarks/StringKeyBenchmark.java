@@ -0,0 +1,138 @@
+package elliott.back.benchmarks;
+
+import elliott.back.maps.ParallelArrayFlatMap;
+import elliott.back.maps.SimpleFlatMap;
+import elliott.back.maps.StringKeyFlatMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short String keys of the kind BasicStringMapTester uses, a million of them: heap per entry with the keys
+ * counted, since StringKeyFlatMap doesn't keep them and the others do, and get() from a String and from a
+ * reused StringBuilder.  Setup prints the heap numbers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringKeyBenchmark {
+
+    /**
+     * Number of shuffled lookup keys to cycle through, must be a power of two
+     */
+    private static final int LOOKUPS = 1 << 16;
+
+    public enum Implementation {
+        STRING_KEY_FLAT {
+            @Override
+            Map<String, Integer> create() {
+                return new StringKeyFlatMap<>();
+            }
+        },
+        PARALLEL_ARRAY_FLAT {
+            @Override
+            Map<String, Integer> create() {
+                return new ParallelArrayFlatMap<>();
+            }
+        },
+        SIMPLE_FLAT {
+            @Override
+            Map<String, Integer> create() {
+                return new SimpleFlatMap<>();
+            }
+        },
+        JAVA_HASH_MAP {
+            @Override
+            Map<String, Integer> create() {
+                return new HashMap<>();
+            }
+        };
+
+        abstract Map<String, Integer> create();
+    }
+
+    @Param({"STRING_KEY_FLAT", "PARALLEL_ARRAY_FLAT", "SIMPLE_FLAT", "JAVA_HASH_MAP"})
+    public Implementation impl;
+
+    @Param({"1000000"})
+    public int size;
+
+    private Map<String, Integer> map;
+    private String[] lookups;
+    private int[] lookupNumbers;
+    private final StringBuilder builder = new StringBuilder();
+    private int cursor;
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // values are shared small Integers, so the heap growth is the table plus whatever keys it keeps
+        Integer value = 1;
+
+        long before = usedHeap();
+        map = impl.create();
+        for (int i = 0; i < size; i++)
+            map.put("" + i, value);
+        long after = usedHeap();
+
+        System.out.printf("%n%s: %.1f bytes per entry, keys included%n", impl, (after - before) / (double) size);
+
+        Random random = new Random(42);
+        lookups = new String[LOOKUPS];
+        lookupNumbers = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookupNumbers[i] = random.nextInt(size);
+            lookups[i] = "" + lookupNumbers[i];
+        }
+    }
+
+    @Benchmark
+    public Integer get() {
+        String key = lookups[cursor];
+        cursor = (cursor + 1) & (LOOKUPS - 1);
+        return map.get(key);
+    }
+
+    /**
+     * The key as it might arrive from a parser, without a String for it.  Only StringKeyFlatMap can look it up
+     * as is, the others pay for toString().
+     */
+    @Benchmark
+    public Integer getFromStringBuilder() {
+        builder.setLength(0);
+        builder.append(lookupNumbers[cursor]);
+        cursor = (cursor + 1) & (LOOKUPS - 1);
+
+        if (map instanceof StringKeyFlatMap)
+            return ((StringKeyFlatMap<Integer>) map).get(builder);
+
+        return map.get(builder.toString());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(StringKeyBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Xmx4g")
+                .addProfiler("gc")
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,391 @@
+package elliott.back.benchmarks;
+
+import elliott.back.workload.KeyDistribution;
+import elliott.back.workload.KeyPattern;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * SimpleDateFormatConcurrencyTest's sweep done for maps: for each map and each read/put/remove mix, run 1, 2,
+ * 4 ... threads on a fixed pool against one shared map for a few seconds, then check the map still holds exactly
+ * what was written.  Prints CSV:
+ *
+ *   implementation,mix,pattern,threads,ops_per_sec,min_thread_share,jain_fairness,p50_ns,p99_ns,p999_ns,p9999_ns,max_ns,bad_reads,consistent
+ *
+ * min_thread_share is the slowest thread's ops over the mean, jain_fairness is Jain's index over per-thread ops
+ * (1 means every thread got the same).  Latencies are per operation, recorded into a LatencyHistogram per thread.
+ * Each thread goes straight on to its next op, so they're service times, and a stall shows up as one slow op
+ * rather than all the ones that would have queued behind it.
+ *
+ * Keys and which of them each op goes to come from a KeyPattern, each thread drawing from its own distribution.
+ * Reads go to whatever key is drawn.  Writes are partitioned, key % threads picks the one thread that puts and
+ * removes it, so a thread writes to its own key in the same stride as the one drawn and every thread knows exactly
+ * what its keys should end up as, so the final check can be exact.  The keys still interleave all over the table,
+ * and the skewed patterns keep the hot ones hot, so threads fight over the same buckets and cache lines as they
+ * would with random writers.  Each key has two values it can hold, both made up front so nothing is boxed while
+ * timing; a read that sees anything else, another key's value say, is a bad read.
+ *
+ *   ThreadScalingHarness [implementations] [mixes] [max threads] [seconds per run] [key pattern]
+ *
+ * Implementations are MapImplementation names and default to the concurrent ones, mixes are read/put/remove
+ * percentages like 95/4/1 or READ_MOSTLY, BALANCED, WRITE_ONLY, max threads defaults to 1024, and the pattern is
+ * a KeyPattern, UNIFORM by default.  ADVERSARIAL runs on ADVERSARIAL_KEYS keys rather than KEYS, since every one
+ * of them shares a hash code.  Only the thread safe maps are worth running, a plain map will fail its check, or
+ * may never finish.  run() takes any Map supplier.
+ */
+public class ThreadScalingHarness {
+
+    /**
+     * Number of distinct keys, half of them present to start with
+     */
+    private static final int KEYS = 1 << 16;
+
+    /**
+     * Keys for the ADVERSARIAL pattern, enough for one each at the most threads
+     */
+    private static final int ADVERSARIAL_KEYS = 1 << 10;
+
+    private static final Integer [] FIRST_VALUES = new Integer[KEYS];
+    private static final Integer [] SECOND_VALUES = new Integer[KEYS];
+
+    static {
+        for (int key = 0; key < KEYS; key++) {
+            FIRST_VALUES[key] = KEYS + key;
+            SECOND_VALUES[key] = 2 * KEYS + key;
+        }
+    }
+
+    private static final List<String> CONCURRENT_MAPS = List.of("CONCURRENT_LIST_BUCKET", "NON_BLOCKING_FLAT",
+            "JAVA_CONCURRENT_HASH_MAP", "ECLIPSE_CONCURRENT_HASH_MAP");
+
+    /**
+     * Percentages of reads, puts and removes, adding up to 100
+     */
+    public static final class Mix {
+        public static final Mix READ_MOSTLY = new Mix("READ_MOSTLY", 95, 4, 1);
+        public static final Mix BALANCED = new Mix("BALANCED", 50, 25, 25);
+        public static final Mix WRITE_ONLY = new Mix("WRITE_ONLY", 0, 50, 50);
+
+        final String name;
+        final int reads;
+        final int puts;
+        final int removes;
+
+        public Mix(String name, int reads, int puts, int removes) {
+            if (reads < 0 || puts < 0 || removes < 0 || reads + puts + removes != 100)
+                throw new IllegalArgumentException("Mix percentages must be non-negative and add up to 100: "
+                        + reads + "/" + puts + "/" + removes);
+
+            this.name = name;
+            this.reads = reads;
+            this.puts = puts;
+            this.removes = removes;
+        }
+
+        /**
+         * READ_MOSTLY, BALANCED, WRITE_ONLY or reads/puts/removes like 90/5/5
+         */
+        public static Mix parse(String mix) {
+            switch (mix) {
+                case "READ_MOSTLY":
+                    return READ_MOSTLY;
+                case "BALANCED":
+                    return BALANCED;
+                case "WRITE_ONLY":
+                    return WRITE_ONLY;
+                default:
+                    int[] parts = Arrays.stream(mix.split("/")).mapToInt(Integer::parseInt).toArray();
+                    if (parts.length != 3)
+                        throw new IllegalArgumentException("Expected reads/puts/removes, got " + mix);
+
+                    return new Mix(mix, parts[0], parts[1], parts[2]);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public static final class Result {
+        public final String implementation;
+        public final Mix mix;
+        public final KeyPattern pattern;
+        public final int threads;
+        public final double opsPerSecond;
+        public final double minThreadShare;
+        public final double jainFairness;
+        public final long p50;
+        public final long p99;
+        public final long p999;
+        public final long p9999;
+        public final long max;
+        public final long badReads;
+        public final String consistency;
+
+        Result(String implementation, Mix mix, KeyPattern pattern, int threads, long[] threadOps, long nanos,
+               LatencyHistogram latencies, long badReads, String consistency) {
+            this.implementation = implementation;
+            this.mix = mix;
+            this.pattern = pattern;
+            this.threads = threads;
+
+            long total = 0;
+            long min = Long.MAX_VALUE;
+            double squares = 0;
+            for (long ops : threadOps) {
+                total += ops;
+                min = Math.min(min, ops);
+                squares += (double) ops * ops;
+            }
+
+            this.opsPerSecond = total * 1e9 / nanos;
+            this.minThreadShare = total == 0 ? 0 : min / (total / (double) threads);
+            this.jainFairness = squares == 0 ? 0 : (double) total * total / (threads * squares);
+            this.p50 = latencies.getValueAtPercentile(50);
+            this.p99 = latencies.getValueAtPercentile(99);
+            this.p999 = latencies.getValueAtPercentile(99.9);
+            this.p9999 = latencies.getValueAtPercentile(99.99);
+            this.max = latencies.getMax();
+            this.badReads = badReads;
+            this.consistency = consistency;
+        }
+
+        public boolean isConsistent() {
+            return badReads == 0 && consistency.isEmpty();
+        }
+
+        String toCsv() {
+            return String.format("%s,%s,%s,%d,%.0f,%.3f,%.3f,%d,%d,%d,%d,%d,%d,%s",
+                    implementation, mix, pattern, threads, opsPerSecond, minThreadShare, jainFairness,
+                    p50, p99, p999, p9999, max, badReads, isConsistent() ? "yes" : consistency.replace(',', ';'));
+        }
+    }
+
+    /**
+     * One thread's share of a run: its own random stream and key distribution, its own histogram, and what it
+     * expects its keys to hold
+     */
+    private static final class Worker {
+        private final int index;
+        private final int threads;
+        private final Mix mix;
+        private final String[] keys;
+        private final KeyDistribution distribution;
+        private final SplittableRandom random;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        /**
+         * For each key this thread owns: 0 absent, 1 FIRST_VALUES, 2 SECOND_VALUES
+         */
+        private final byte[] expected;
+
+        private long ops;
+        private long badReads;
+
+        Worker(int index, int threads, Mix mix, String[] keys, KeyPattern pattern, long seed) {
+            this.index = index;
+            this.threads = threads;
+            this.mix = mix;
+            this.keys = keys;
+            this.distribution = pattern.distribution(keys.length);
+            this.random = new SplittableRandom(seed);
+            this.expected = new byte[(keys.length - index + threads - 1) / threads];
+
+            // the even keys start out present
+            for (int slot = 0; slot < expected.length; slot++)
+                if ((index + slot * threads) % 2 == 0)
+                    expected[slot] = 1;
+        }
+
+        void run(Map<String, Integer> map, CountDownLatch ready, CountDownLatch go, AtomicLong deadlineHolder)
+                throws InterruptedException {
+            ready.countDown();
+            go.await();
+            long deadline = deadlineHolder.get();
+
+            while (true) {
+                // checking the clock every op would swamp the faster maps, every 64 is plenty
+                if ((ops & 63) == 0 && System.nanoTime() >= deadline)
+                    break;
+
+                int roll = random.nextInt(100);
+                int drawn = distribution.next(random);
+                long started = System.nanoTime();
+
+                if (roll < mix.reads) {
+                    Integer value = map.get(keys[drawn]);
+                    latencies.record(System.nanoTime() - started);
+
+                    if (value != null && value != FIRST_VALUES[drawn] && value != SECOND_VALUES[drawn])
+                        badReads++;
+                } else {
+                    // our own key in the drawn key's stride, or the stride before if ours runs past the end
+                    int key = drawn - drawn % threads + index;
+                    if (key >= keys.length)
+                        key -= threads;
+
+                    int slot = key / threads;
+
+                    if (roll < mix.reads + mix.puts) {
+                        byte next = expected[slot] == 1 ? (byte) 2 : (byte) 1;
+                        map.put(keys[key], next == 1 ? FIRST_VALUES[key] : SECOND_VALUES[key]);
+                        latencies.record(System.nanoTime() - started);
+                        expected[slot] = next;
+                    } else {
+                        map.remove(keys[key]);
+                        latencies.record(System.nanoTime() - started);
+                        expected[slot] = 0;
+                    }
+                }
+
+                ops++;
+            }
+        }
+
+        /**
+         * Describe the first of this thread's keys that doesn't hold what it should, or return "" if they all do
+         */
+        String check(Map<String, Integer> map) {
+            for (int slot = 0; slot < expected.length; slot++) {
+                int key = index + slot * threads;
+                Integer want = expected[slot] == 0 ? null : expected[slot] == 1 ? FIRST_VALUES[key] : SECOND_VALUES[key];
+                Integer got = map.get(keys[key]);
+
+                if (got != want && (got == null || !got.equals(want)))
+                    return "key " + key + " holds " + got + " not " + want;
+            }
+
+            return "";
+        }
+
+        int present() {
+            int present = 0;
+            for (byte state : expected)
+                if (state != 0)
+                    present++;
+
+            return present;
+        }
+    }
+
+    /**
+     * Run one mix on a fresh map from the supplier with this many threads for this long, then check it
+     */
+    public static Result run(String implementation, Supplier<? extends Map<String, Integer>> supplier, Mix mix,
+                             KeyPattern pattern, int threads, long nanos) throws InterruptedException {
+        String[] keys = pattern.keys(keyCount(pattern));
+        if (threads > keys.length)
+            throw new IllegalArgumentException("Can't share " + keys.length + " keys between " + threads + " threads");
+
+        Map<String, Integer> map = supplier.get();
+        for (int key = 0; key < keys.length; key += 2)
+            map.put(keys[key], FIRST_VALUES[key]);
+
+        Worker[] workers = new Worker[threads];
+        SplittableRandom seeds = new SplittableRandom(42);
+        for (int idx = 0; idx < threads; idx++)
+            workers[idx] = new Worker(idx, threads, mix, keys, pattern, seeds.nextLong());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicLong deadline = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (Worker worker : workers)
+            futures.add(executor.submit(() -> {
+                worker.run(map, ready, go, deadline);
+                return null;
+            }));
+
+        // the clock only starts once every thread is up and waiting
+        ready.await();
+        long began = System.nanoTime();
+        deadline.set(began + nanos);
+        go.countDown();
+
+        // a map that isn't thread safe may well throw, that's a failed check rather than the end of the sweep
+        String consistency = "";
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (consistency.isEmpty())
+                    consistency = "threw " + e.getCause();
+            }
+        }
+
+        long elapsed = System.nanoTime() - began;
+        executor.shutdown();
+
+        long[] threadOps = new long[threads];
+        LatencyHistogram latencies = new LatencyHistogram();
+        long badReads = 0;
+        int present = 0;
+
+        for (int idx = 0; idx < threads; idx++) {
+            threadOps[idx] = workers[idx].ops;
+            latencies.add(workers[idx].latencies);
+            badReads += workers[idx].badReads;
+            present += workers[idx].present();
+
+            if (consistency.isEmpty())
+                consistency = workers[idx].check(map);
+        }
+
+        if (consistency.isEmpty() && map.size() != present)
+            consistency = "size " + map.size() + " not " + present;
+
+        if (consistency.isEmpty()) {
+            int iterated = 0;
+            for (Iterator<Map.Entry<String, Integer>> entries = map.entrySet().iterator(); entries.hasNext(); entries.next())
+                iterated++;
+
+            if (iterated != present)
+                consistency = "iterated " + iterated + " entries not " + present;
+        }
+
+        return new Result(implementation, mix, pattern, threads, threadOps, elapsed, latencies, badReads, consistency);
+    }
+
+    private static int keyCount(KeyPattern pattern) {
+        return pattern == KeyPattern.ADVERSARIAL ? ADVERSARIAL_KEYS : KEYS;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        List<String> implementations = args.length > 0 ? Arrays.asList(args[0].split(",")) : CONCURRENT_MAPS;
+
+        List<Mix> mixes = new ArrayList<>();
+        for (String mix : (args.length > 1 ? args[1] : "READ_MOSTLY,BALANCED,WRITE_ONLY").split(","))
+            mixes.add(Mix.parse(mix));
+
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        long nanos = (long) ((args.length > 3 ? Double.parseDouble(args[3]) : 2) * 1e9);
+        KeyPattern pattern = args.length > 4 ? KeyPattern.valueOf(args[4]) : KeyPattern.UNIFORM;
+
+        System.out.println("implementation,mix,pattern,threads,ops_per_sec,min_thread_share,jain_fairness,"
+                + "p50_ns,p99_ns,p999_ns,p9999_ns,max_ns,bad_reads,consistent");
+
+        for (String implementation : implementations) {
+            MapImplementation impl = MapImplementation.valueOf(implementation);
+
+            for (Mix mix : mixes)
+                for (int threads = 1; threads <= maxThreads; threads *= 2)
+                    System.out.println(run(implementation, () -> impl.create(keyCount(pattern)), mix, pattern, threads, nanos).toCsv());
+        }
+    }
+}
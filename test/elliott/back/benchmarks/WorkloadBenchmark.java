@@ -0,0 +1,96 @@
+package elliott.back.benchmarks;
+
+import elliott.back.workload.KeyPattern;
+import elliott.back.workload.Trace;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Replays a Trace of gets, puts and removes against each map, one operation per invocation, going round the
+ * trace again when it runs out.  MapBenchmark times each operation on its own; this times them interleaved the
+ * way a real caller would, removes leaving gaps for the next lookups to probe past and puts filling them again.
+ *
+ * By default the trace is TRACE_LENGTH operations generated over size keys in the pattern, half gets, 30% puts
+ * and 20% removes.  -p trace=/path/to/file replays one recorded with Trace.write() instead, and then the pattern
+ * and size are ignored.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WorkloadBenchmark {
+
+    private static final int TRACE_LENGTH = 1 << 20;
+
+    @Param({"SIMPLE_FLAT", "SIMPLE_CIRCULAR_FLAT", "ROBIN_HOOD_CIRCULAR_FLAT",
+            "SIMPLE_CIRCULAR_LIST_BUCKET", "JAVA_HASH_MAP"})
+    public MapImplementation impl;
+
+    @Param({"UNIFORM", "ZIPFIAN", "SEQUENTIAL", "HOTSPOT"})
+    public KeyPattern pattern;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    /**
+     * A trace file to replay, or empty to generate one
+     */
+    @Param({""})
+    public String trace;
+
+    private Map<String, String> map;
+    private Trace replay;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        replay = trace.isEmpty()
+                ? Trace.generate(pattern.keys(size), pattern.distribution(size), 50, 30, 20, TRACE_LENGTH, 42)
+                : Trace.read(Paths.get(trace));
+
+        // start from every key present, the removes and puts then settle it wherever the trace takes it
+        String[] keys = replay.keys();
+        map = impl.create(keys.length);
+        for (String key : keys)
+            map.put(key, key);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.clear();
+        map = null;
+    }
+
+    @Benchmark
+    public String replay() {
+        String result = replay.apply(cursor, map);
+        cursor = cursor + 1 == replay.length() ? 0 : cursor + 1;
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .jvmArgsAppend("-Xmx4g");
+
+        if (commandLine.getIncludes().isEmpty())
+            options.include(Pattern.quote(WorkloadBenchmark.class.getName() + "."));
+
+        new Runner(options.build()).run();
+    }
+}
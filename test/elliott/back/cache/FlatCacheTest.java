@@ -0,0 +1,260 @@
+package elliott.back.cache;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlatCacheTest {
+
+    @Test
+    @DisplayName("LRU evicts the least recently used")
+    public void testLruOrder() {
+        FlatCache<String, String> cache = new FlatCache<>(3, Eviction.LRU);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+
+        // a is now more recent than b
+        assertEquals("1", cache.get("a"));
+        cache.put("d", "4");
+
+        assertFalse(cache.containsKey("b"));
+        assertTrue(cache.containsKey("a"));
+        assertTrue(cache.containsKey("c"));
+        assertTrue(cache.containsKey("d"));
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.statistics().getEvictions());
+    }
+
+    @Test
+    @DisplayName("LRU matches an access ordered LinkedHashMap through random gets, puts and removes")
+    public void testLruAgainstLinkedHashMap() {
+        int maximum = 100;
+        FlatCache<Integer, Integer> cache = new FlatCache<>(maximum, Eviction.LRU);
+        Map<Integer, Integer> expected = new LinkedHashMap<Integer, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                return size() > maximum;
+            }
+        };
+
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            Integer key = random.nextInt(300);
+
+            switch (random.nextInt(4)) {
+                case 0:
+                    assertEquals(expected.remove(key), cache.remove(key));
+                    break;
+                case 1:
+                    assertEquals(expected.put(key, i), cache.put(key, i));
+                    break;
+                default:
+                    assertEquals(expected.get(key), cache.get(key));
+            }
+        }
+
+        assertEquals(expected.size(), cache.size());
+        for (Integer key : new ArrayList<>(expected.keySet()))
+            assertTrue(cache.containsKey(key), "" + key);
+    }
+
+    /**
+     * Zipf-ish hot keys, with every so often a scan through a run of keys nobody asks for twice
+     */
+    private static double hitRate(Eviction eviction) {
+        FlatCache<Integer, Integer> cache = new FlatCache<>(1000, eviction);
+        Random random = new Random(42);
+        int scanKey = 1_000_000;
+
+        for (int i = 0; i < 500000; i++) {
+            Integer key = i % 10000 < 2000 ? scanKey++ : (int) Math.pow(100000, random.nextDouble());
+            cache.computeIfAbsent(key, k -> k);
+        }
+
+        return cache.statistics().getHitRate();
+    }
+
+    @Test
+    @DisplayName("W-TinyLFU keeps hot keys through scans that flush LRU")
+    public void testTinyLfuScanResistance() {
+        double lru = hitRate(Eviction.LRU);
+        double tinyLfu = hitRate(Eviction.W_TINY_LFU);
+
+        assertTrue(tinyLfu > lru + 0.05, "LRU " + lru + " W-TinyLFU " + tinyLfu);
+    }
+
+    @Test
+    @DisplayName("W-TinyLFU stays within the maximum and keeps the table consistent")
+    public void testTinyLfuChurn() {
+        FlatCache<Integer, Integer> cache = new FlatCache<>(500);
+        Random random = new Random(7);
+
+        for (int i = 0; i < 200000; i++) {
+            Integer key = random.nextInt(2000);
+
+            if (random.nextInt(5) == 0)
+                cache.remove(key);
+            else
+                cache.put(key, key * 2);
+
+            assertTrue(cache.size() <= 500);
+        }
+
+        int found = 0;
+        for (int key = 0; key < 2000; key++) {
+            Integer value = cache.get(key);
+            if (value != null) {
+                assertEquals(key * 2, value.intValue());
+                found++;
+            }
+        }
+
+        assertEquals(cache.size(), found);
+    }
+
+    @Test
+    @DisplayName("weights count against the maximum, and an entry heavier than all of it isn't kept")
+    public void testWeights() {
+        for (Eviction eviction : Eviction.values()) {
+            FlatCache<String, String> cache = new FlatCache<>(100, (key, value) -> value.length(), eviction, false);
+
+            for (int i = 0; i < 1000; i++) {
+                cache.put("" + i, "x".repeat(i % 20));
+                assertTrue(cache.statistics().getWeightedSize() <= 100, eviction + " " + cache.statistics());
+            }
+
+            cache.put("small", "x");
+            assertEquals("x", cache.put("small", "x".repeat(101)));
+            assertFalse(cache.containsKey("small"));
+            assertNull(cache.put("big", "x".repeat(101)));
+            assertFalse(cache.containsKey("big"));
+        }
+    }
+
+    @Test
+    @DisplayName("hits, misses and evictions are counted")
+    public void testStatistics() {
+        FlatCache<Integer, Integer> cache = new FlatCache<>(10, Eviction.LRU);
+
+        for (int i = 0; i < 20; i++)
+            cache.put(i, i);
+
+        for (int i = 0; i < 20; i++)
+            cache.get(i);
+
+        CacheStatistics statistics = cache.statistics();
+        assertEquals(10, statistics.getHits());
+        assertEquals(10, statistics.getMisses());
+        assertEquals(0.5, statistics.getHitRate());
+        assertEquals(10, statistics.getEvictions());
+        assertEquals(10, statistics.getEvictedWeight());
+        assertEquals(10, statistics.getSize());
+    }
+
+    @Test
+    @DisplayName("putIfAbsent and computeIfAbsent leave existing values alone")
+    public void testIfAbsent() {
+        FlatCache<String, String> cache = new FlatCache<>(10);
+
+        assertNull(cache.putIfAbsent("a", "1"));
+        assertEquals("1", cache.putIfAbsent("a", "2"));
+        assertEquals("1", cache.computeIfAbsent("a", key -> "3"));
+        assertEquals("4", cache.computeIfAbsent("b", key -> "4"));
+        assertNull(cache.computeIfAbsent("c", key -> null));
+        assertFalse(cache.containsKey("c"));
+
+        assertThrows(NullPointerException.class, () -> cache.put(null, "x"));
+        assertThrows(NullPointerException.class, () -> cache.put("x", null));
+    }
+
+    @Test
+    @DisplayName("clear empties the cache, and buffered reads of cleared entries are dropped")
+    public void testClear() {
+        FlatCache<Integer, Integer> cache = new FlatCache<>(100, Eviction.W_TINY_LFU, true);
+
+        for (int i = 0; i < 100; i++)
+            cache.put(i, i);
+        for (int i = 0; i < 10; i++)
+            cache.get(i);
+
+        cache.clear();
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+
+        for (int i = 0; i < 200; i++)
+            cache.put(i, i);
+
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    @DisplayName("concurrent readers and writers see only values that were put, and the bound holds")
+    public void testConcurrent() throws InterruptedException {
+        for (Eviction eviction : Eviction.values()) {
+            FlatCache<Integer, Integer> cache = new FlatCache<>(1000, eviction, true);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> threads = new ArrayList<>();
+
+            for (int t = 0; t < 4; t++) {
+                int seed = t;
+                threads.add(new Thread(() -> {
+                    Random random = new Random(seed);
+                    try {
+                        for (int i = 0; i < 200000; i++) {
+                            Integer key = random.nextInt(5000);
+
+                            if (random.nextInt(10) == 0) {
+                                cache.put(key, -key);
+                            }
+                            else {
+                                Integer value = cache.get(key);
+                                if (value != null && value != -key)
+                                    throw new AssertionError(key + " -> " + value);
+                            }
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }));
+            }
+
+            for (Thread thread : threads)
+                thread.start();
+            for (Thread thread : threads)
+                thread.join();
+
+            assertNull(failure.get());
+            cache.cleanUp();
+
+            CacheStatistics statistics = cache.statistics();
+            assertTrue(statistics.getSize() <= 1000, statistics.toString());
+            assertEquals(4 * 200000 - countPuts(4, 200000), statistics.getHits() + statistics.getMisses());
+        }
+    }
+
+    /**
+     * How many of the operations above were puts, replaying the same random numbers
+     */
+    private static long countPuts(int threads, int operations) {
+        long puts = 0;
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            for (int i = 0; i < operations; i++) {
+                random.nextInt(5000);
+                if (random.nextInt(10) == 0)
+                    puts++;
+            }
+        }
+        return puts;
+    }
+}
@@ -0,0 +1,53 @@
+package elliott.back.cache;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrequencySketchTest {
+
+    @Test
+    @DisplayName("counts up to 15 and no further")
+    public void testSaturates() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        assertEquals(0, sketch.frequency(12345));
+
+        for (int i = 0; i < 10; i++)
+            sketch.increment(12345);
+        assertEquals(10, sketch.frequency(12345));
+
+        for (int i = 0; i < 100; i++)
+            sketch.increment(12345);
+        assertEquals(15, sketch.frequency(12345));
+    }
+
+    @Test
+    @DisplayName("never undercounts, even with plenty of other hashes about")
+    public void testNeverUndercounts() {
+        FrequencySketch sketch = new FrequencySketch(1 << 16);
+
+        for (int hash = 0; hash < 5000; hash++)
+            for (int i = 0; i < hash % 8; i++)
+                sketch.increment(hash * 0x9E3779B9);
+
+        for (int hash = 0; hash < 5000; hash++)
+            assertTrue(sketch.frequency(hash * 0x9E3779B9) >= hash % 8, "" + hash);
+    }
+
+    @Test
+    @DisplayName("halves every counter once enough increments have gone in")
+    public void testAging() {
+        FrequencySketch sketch = new FrequencySketch(16);
+
+        for (int i = 0; i < 15; i++)
+            sketch.increment(42);
+        assertEquals(15, sketch.frequency(42));
+
+        // a table of 16 longs resets after 160 increments
+        for (int hash = 1; sketch.frequency(42) == 15; hash++)
+            sketch.increment(hash * 0x9E3779B9);
+
+        assertEquals(7, sketch.frequency(42));
+    }
+}
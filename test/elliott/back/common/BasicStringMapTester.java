@@ -1,13 +1,21 @@
 package elliott.back.common;
 
+import elliott.back.workload.KeyPattern;
+import elliott.back.workload.Trace;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public abstract  class BasicStringMapTester {
     private Map<String,String> mapToSanityCheck;
@@ -16,6 +24,20 @@ public abstract  class BasicStringMapTester {
         this.mapToSanityCheck = map;
     }
 
+    /**
+     * Maps that refuse a null key, like ConcurrentHashMap, turn this off to leave it out of testAgainstHashMap
+     */
+    protected boolean supportsNullKeys() {
+        return true;
+    }
+
+    /**
+     * Maps whose entries don't write setValue through to the map turn this off to skip testViewsWriteThrough
+     */
+    protected boolean viewsWriteThrough() {
+        return true;
+    }
+
     @Test
     @DisplayName("test null keys -- there can only be 1")
     public void testNullKeys(){
@@ -101,6 +123,39 @@ public abstract  class BasicStringMapTester {
         assertEquals(0, mapToSanityCheck.size());
     }
 
+    @Test
+    @DisplayName("remove from the middle of a probe run")
+    public void testRemoveMidRun() {
+        // all four share a hash code, so a probing map has to lay them out one after another
+        String[] run = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        for (String key : run)
+            mapToSanityCheck.put(key, "v: " + key);
+
+        assertEquals("v: AaBB", mapToSanityCheck.remove("AaBB"));
+        assertNull(mapToSanityCheck.get("AaBB"));
+        assertEquals("v: AaAa", mapToSanityCheck.get("AaAa"));
+        assertEquals("v: BBAa", mapToSanityCheck.get("BBAa"));
+        assertEquals("v: BBBB", mapToSanityCheck.get("BBBB"));
+
+        assertEquals("v: AaAa", mapToSanityCheck.remove("AaAa"));
+        assertEquals("v: BBBB", mapToSanityCheck.get("BBBB"));
+        assertEquals(2, mapToSanityCheck.size());
+        mapToSanityCheck.clear();
+
+        // runs of mixed home slots, with every third key taken out of them
+        for (int i = 0; i < 1000; i++)
+            mapToSanityCheck.put("" + i, "v: " + i);
+
+        for (int i = 0; i < 1000; i += 3)
+            assertEquals("v: " + i, mapToSanityCheck.remove("" + i));
+
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i % 3 == 0 ? null : "v: " + i, mapToSanityCheck.get("" + i), "" + i);
+
+        assertEquals(666, mapToSanityCheck.size());
+        mapToSanityCheck.clear();
+    }
+
     @Test
     @DisplayName("a million entries")
     public void testAMillionElements(){
@@ -117,6 +172,80 @@ public abstract  class BasicStringMapTester {
         assertEquals(0, mapToSanityCheck.size());
     }
 
+    @Test
+    @DisplayName("gets, puts and removes in every key pattern, against a HashMap")
+    public void testKeyPatterns() {
+        for (KeyPattern pattern : KeyPattern.values()) {
+            Trace trace = Trace.generate(pattern.keys(500), pattern.distribution(500), 50, 30, 20, 20000, 42);
+            Map<String, String> expected = new HashMap<>();
+
+            for (int i = 0; i < trace.length(); i++)
+                assertEquals(trace.apply(i, expected), trace.apply(i, mapToSanityCheck), pattern + " op " + i);
+
+            assertEquals(expected.size(), mapToSanityCheck.size(), pattern.name());
+            for (String key : trace.keys())
+                assertEquals(expected.get(key), mapToSanityCheck.get(key), pattern + " " + key);
+
+            mapToSanityCheck.clear();
+        }
+    }
+
+    @Test
+    @DisplayName("random puts and removes match HashMap, with null keys where the map takes them")
+    public void testAgainstHashMap() {
+        Random random = new Random(42);
+        Map<String,String> expected = new HashMap<>();
+
+        for(int i = 0; i < 200000; i++) {
+            // not just ASCII, for maps that keep their keys encoded
+            String key = random.nextInt(100) == 0 && supportsNullKeys() ? null : "k\u00e9y " + random.nextInt(5000);
+
+            if(random.nextInt(3) == 0)
+                assertEquals(expected.remove(key), mapToSanityCheck.remove(key));
+            else
+                assertEquals(expected.put(key, "v: " + i), mapToSanityCheck.put(key, "v: " + i));
+
+            assertEquals(expected.get(key), mapToSanityCheck.get(key));
+        }
+
+        assertEquals(expected.size(), mapToSanityCheck.size());
+        assertEquals(expected, new HashMap<>(mapToSanityCheck));
+        assertEquals(expected.keySet(), new HashSet<>(mapToSanityCheck.keySet()));
+
+        mapToSanityCheck.clear();
+    }
+
+    @Test
+    @DisplayName("views write through - iterator remove, setValue, replaceAll and removeIf")
+    public void testViewsWriteThrough() {
+        assumeTrue(viewsWriteThrough());
+
+        for(int i = 0; i < 1000; i++)
+            mapToSanityCheck.put(""+i, "v: " + i);
+
+        for(Iterator<Map.Entry<String, String>> entries = mapToSanityCheck.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<String, String> entry = entries.next();
+
+            if(Integer.parseInt(entry.getKey()) % 2 == 0)
+                entries.remove();
+            else
+                assertEquals("v: " + entry.getKey(), entry.setValue("set: " + entry.getKey()));
+        }
+
+        assertEquals(500, mapToSanityCheck.size());
+        for(int i = 0; i < 1000; i++)
+            assertEquals(i % 2 == 0 ? null : "set: " + i, mapToSanityCheck.get(""+i));
+
+        mapToSanityCheck.replaceAll((key, value) -> "all: " + key);
+        mapToSanityCheck.keySet().removeIf(key -> Integer.parseInt(key) % 3 == 0);
+
+        assertEquals(333, mapToSanityCheck.size());
+        for(int i = 0; i < 1000; i++)
+            assertEquals(i % 2 == 0 || i % 3 == 0 ? null : "all: " + i, mapToSanityCheck.get(""+i));
+
+        mapToSanityCheck.clear();
+    }
+
     @Test
     @DisplayName("map protocols - keySet")
     public void testMapContractKeySet() {
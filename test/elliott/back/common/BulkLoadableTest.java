@@ -0,0 +1,115 @@
+package elliott.back.common;
+
+import elliott.back.maps.*;
+import elliott.back.stats.InstrumentedMap;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkLoadableTest {
+
+    private static List<Supplier<BulkLoadable<String, String>>> maps() {
+        return List.of(
+                () -> new SimpleFlatMap<>(),
+                () -> new SimpleFlatMap<>(32, true),
+                () -> new SimpleCircularFlatMap<>(),
+                () -> new SimpleCircularFlatMap<>(32, true),
+                () -> new SimpleCircularListBucketFlatMap<>(),
+                () -> new SimpleCircularListBucketFlatMap<>(32, true),
+                () -> new RobinHoodCircularFlatMap<>(),
+                () -> new ParallelArrayFlatMap<>(),
+                () -> new SwissTableFlatMap<>(),
+                () -> new CuckooFlatMap<>(),
+                () -> new HopscotchFlatMap<>(),
+                () -> new StringKeyFlatMap<>());
+    }
+
+    private static long resizes(Map<?, ?> map) {
+        return ((InstrumentedMap) map).statistics().getResizes();
+    }
+
+    @Test
+    @DisplayName("bulkLoad from arrays sizes once and keeps the last value for a repeated key")
+    public void testBulkLoadArrays() {
+        String [] keys = new String[100000];
+        String [] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "" + ( i % 50000 );
+            values[i] = "v: " + i;
+        }
+
+        for (Supplier<BulkLoadable<String, String>> supplier : maps()) {
+            BulkLoadable<String, String> map = supplier.get();
+            String name = map.getClass().getSimpleName();
+
+            map.bulkLoad(keys, values);
+
+            assertEquals(50000, map.size(), name);
+            assertEquals(1, resizes(map), name);
+            for (int i = 0; i < 50000; i++)
+                assertEquals("v: " + ( i + 50000 ), map.get("" + i), name);
+        }
+    }
+
+    @Test
+    @DisplayName("bulkLoad rejects mismatched arrays")
+    public void testBulkLoadMismatch() {
+        for (Supplier<BulkLoadable<String, String>> supplier : maps())
+            assertThrows(IllegalArgumentException.class, () -> supplier.get().bulkLoad(new String[2], new String[1]));
+    }
+
+    @Test
+    @DisplayName("putAll copies everything with a single resize")
+    public void testPutAll() {
+        Map<String, String> source = new HashMap<>();
+        for (int i = 0; i < 100000; i++)
+            source.put("" + i, "v: " + i);
+
+        for (Supplier<BulkLoadable<String, String>> supplier : maps()) {
+            BulkLoadable<String, String> map = supplier.get();
+            String name = map.getClass().getSimpleName();
+
+            map.put("0", "replaced");
+            map.putAll(source);
+
+            assertEquals(source, map, name);
+            assertEquals(1, resizes(map), name);
+        }
+    }
+
+    @Test
+    @DisplayName("ensureCapacity grows ahead of time and never shrinks")
+    public void testEnsureCapacity() {
+        for (Supplier<BulkLoadable<String, String>> supplier : maps()) {
+            BulkLoadable<String, String> map = supplier.get();
+            String name = map.getClass().getSimpleName();
+
+            for (int i = 0; i < 1000; i++)
+                map.put("" + i, "v: " + i);
+
+            long before = resizes(map);
+            map.ensureCapacity(100000);
+            map.ensureCapacity(10);
+            assertEquals(before + 1, resizes(map), name);
+
+            map.bulkLoad(source(1000, 100000).entrySet().iterator(), 0);
+            assertEquals(before + 1, resizes(map), name);
+            assertEquals(100000, map.size(), name);
+            assertEquals("v: 5", map.get("5"), name);
+            assertEquals("v: 99999", map.get("99999"), name);
+        }
+    }
+
+    private static Map<String, String> source(int from, int to) {
+        Map<String, String> source = new HashMap<>();
+        for (int i = from; i < to; i++)
+            source.put("" + i, "v: " + i);
+        return source;
+    }
+}
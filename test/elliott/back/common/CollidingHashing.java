@@ -0,0 +1,26 @@
+package elliott.back.common;
+
+/**
+ * Hashing strategies for tests that need keys to collide
+ */
+public final class CollidingHashing {
+
+    /**
+     * Every key gets hash code 0, so they all share one start slot, bucket pair or neighborhood, and a perfect
+     * hash can only place one of them.  With the hash seed pinned to 0 that start slot is slot 0.
+     */
+    public static final HashingStrategy<Object> ONE_HASH = new HashingStrategy<Object>() {
+        @Override
+        public int computeHashCode(Object key) {
+            return 0;
+        }
+
+        @Override
+        public boolean equals(Object a, Object b) {
+            return HashingStrategy.OBJECTS.equals(a, b);
+        }
+    };
+
+    private CollidingHashing() {
+    }
+}
@@ -0,0 +1,72 @@
+package elliott.back.common;
+
+import elliott.back.maps.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashingStrategyTest {
+
+    private static byte [] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("power of two table sizes")
+    public void testTableSizeFor() {
+        assertEquals(1, HashingStrategy.tableSizeFor(0));
+        assertEquals(1, HashingStrategy.tableSizeFor(1));
+        assertEquals(32, HashingStrategy.tableSizeFor(32));
+        assertEquals(64, HashingStrategy.tableSizeFor(33));
+        assertEquals(1 << 30, HashingStrategy.tableSizeFor(Integer.MAX_VALUE));
+    }
+
+    @Test
+    @DisplayName("byte[] keys compared by content in every map")
+    public void testByteArrayKeys() {
+        List<Map<byte[], String>> maps = List.of(
+                new SimpleFlatMap<>(32, false, HashingStrategy.BYTE_ARRAYS),
+                new SimpleCircularFlatMap<>(32, false, HashingStrategy.BYTE_ARRAYS),
+                new SimpleCircularListBucketFlatMap<>(32, false, HashingStrategy.BYTE_ARRAYS),
+                new RobinHoodCircularFlatMap<>(32, HashingStrategy.BYTE_ARRAYS),
+                new ParallelArrayFlatMap<>(32, HashingStrategy.BYTE_ARRAYS),
+                new SwissTableFlatMap<>(32, HashingStrategy.BYTE_ARRAYS),
+                new CuckooFlatMap<>(32, HashingStrategy.BYTE_ARRAYS),
+                new HopscotchFlatMap<>(32, HashingStrategy.BYTE_ARRAYS),
+                new ConcurrentListBucketMap<>(32, 16, 4.0, HashingStrategy.BYTE_ARRAYS),
+                new NonBlockingFlatMap<>(32, HashingStrategy.BYTE_ARRAYS));
+
+        for (Map<byte[], String> map : maps) {
+            for (int i = 0; i < 1000; i++)
+                map.put(bytes("" + i), "v: " + i);
+
+            assertEquals(1000, map.size());
+
+            // fresh arrays, so identity can't be what matches
+            for (int i = 0; i < 1000; i++)
+                assertEquals("v: " + i, map.get(bytes("" + i)), map.getClass().getSimpleName());
+
+            assertEquals("v: 7", map.put(bytes("7"), "seven"));
+            assertEquals("seven", map.remove(bytes("7")));
+            assertFalse(map.containsKey(bytes("7")));
+            assertEquals(999, map.size());
+        }
+    }
+
+    @Test
+    @DisplayName("negative hash codes")
+    public void testNegativeHashCodes() {
+        Map<Integer, Integer> map = new SimpleCircularFlatMap<>();
+
+        for (int i = 0; i < 1000; i++)
+            map.put(Integer.MIN_VALUE + i, i);
+
+        for (int i = 0; i < 1000; i++)
+            assertEquals(Integer.valueOf(i), map.get(Integer.MIN_VALUE + i));
+    }
+}
@@ -0,0 +1,151 @@
+package elliott.back.common;
+
+import elliott.back.maps.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelBulkMapTest {
+
+    private static final int SIZE = 100000;
+
+    private static List<Supplier<ParallelBulkMap<Integer, Integer>>> maps() {
+        return List.of(
+                () -> new SimpleFlatMap<>(),
+                () -> new SimpleCircularFlatMap<>(),
+                () -> new SimpleCircularFlatMap<>(32, true),
+                () -> new RobinHoodCircularFlatMap<>(),
+                () -> new SimpleCircularListBucketFlatMap<>(),
+                () -> new SimpleCircularListBucketFlatMap<>(32, true));
+    }
+
+    private static ParallelBulkMap<Integer, Integer> filled(Supplier<ParallelBulkMap<Integer, Integer>> supplier) {
+        ParallelBulkMap<Integer, Integer> map = supplier.get();
+        for (int i = 0; i < SIZE; i++)
+            map.put(i, i * 2);
+        return map;
+    }
+
+    @Test
+    @DisplayName("forEach, reduce and search agree whether split or not")
+    public void testBulkOperations() {
+        long expectedSum = 0;
+        for (int i = 0; i < SIZE; i++)
+            expectedSum += i * 2;
+
+        for (Supplier<ParallelBulkMap<Integer, Integer>> supplier : maps()) {
+            ParallelBulkMap<Integer, Integer> map = filled(supplier);
+            String name = map.getClass().getSimpleName();
+
+            for (long threshold : new long[] { 1, 1000, Long.MAX_VALUE }) {
+                LongAdder count = new LongAdder();
+                LongAdder sum = new LongAdder();
+                map.forEach(threshold, (key, value) -> {
+                    count.increment();
+                    sum.add(value);
+                });
+
+                assertEquals(SIZE, count.sum(), name);
+                assertEquals(expectedSum, sum.sum(), name);
+
+                assertEquals(expectedSum, (long) map.reduce(threshold, (key, value) -> (long) value, Long::sum), name);
+                assertNull(map.reduce(threshold, (key, value) -> null, (a, b) -> a), name);
+
+                assertEquals(Integer.valueOf(77777), map.search(threshold, (key, value) -> value == 77777 * 2 ? key : null), name);
+                assertNull(map.search(threshold, (key, value) -> value < 0 ? key : null), name);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("spliterators cover every entry exactly once however they're split")
+    public void testSpliterators() {
+        for (Supplier<ParallelBulkMap<Integer, Integer>> supplier : maps()) {
+            ParallelBulkMap<Integer, Integer> map = filled(supplier);
+            String name = map.getClass().getSimpleName();
+
+            Spliterator<Integer> keys = map.keySet().spliterator();
+            assertTrue(keys.hasCharacteristics(Spliterator.SIZED), name);
+            assertEquals(SIZE, keys.getExactSizeIfKnown(), name);
+
+            // split right down, then walk the pieces
+            Deque<Spliterator<Integer>> pending = new ArrayDeque<>(List.of(keys));
+            List<Spliterator<Integer>> pieces = new ArrayList<>();
+            while (!pending.isEmpty()) {
+                Spliterator<Integer> piece = pending.pop();
+                Spliterator<Integer> prefix = piece.trySplit();
+
+                if (prefix == null) {
+                    pieces.add(piece);
+                } else {
+                    // only the whole map's size is known exactly
+                    assertFalse(prefix.hasCharacteristics(Spliterator.SIZED), name);
+                    assertFalse(piece.hasCharacteristics(Spliterator.SIZED), name);
+
+                    pending.push(piece);
+                    pending.push(prefix);
+                }
+            }
+
+            assertTrue(pieces.size() > 1, name);
+
+            BitSet seen = new BitSet();
+            for (Spliterator<Integer> piece : pieces) {
+                // one step by hand, then the rest in bulk
+                piece.tryAdvance(key -> {
+                    assertFalse(seen.get(key));
+                    seen.set(key);
+                });
+                piece.forEachRemaining(key -> {
+                    assertFalse(seen.get(key));
+                    seen.set(key);
+                });
+            }
+
+            assertEquals(SIZE, seen.cardinality(), name);
+        }
+    }
+
+    @Test
+    @DisplayName("parallel streams over the views")
+    public void testParallelStreams() {
+        for (Supplier<ParallelBulkMap<Integer, Integer>> supplier : maps()) {
+            ParallelBulkMap<Integer, Integer> map = filled(supplier);
+            String name = map.getClass().getSimpleName();
+
+            assertEquals(SIZE, map.entrySet().parallelStream().count(), name);
+            assertEquals(SIZE, map.keySet().parallelStream().collect(Collectors.toSet()).size(), name);
+            assertEquals(2L * SIZE * (SIZE - 1) / 2, map.values().parallelStream().mapToLong(Integer::longValue).sum(), name);
+            assertTrue(map.entrySet().parallelStream().allMatch(entry -> entry.getValue() == entry.getKey() * 2), name);
+
+            // these size their output from the spliterator, so trip over a piece that claims an exact size it hasn't got
+            assertEquals(SIZE, map.keySet().parallelStream().toArray().length, name);
+            assertEquals(SIZE, map.values().parallelStream().collect(Collectors.toList()).size(), name);
+            assertEquals(SIZE, map.entrySet().parallelStream().toArray().length, name);
+
+            List<Integer> sorted = map.keySet().parallelStream().sorted().collect(Collectors.toList());
+            for (int i = 0; i < SIZE; i++)
+                assertEquals(i, sorted.get(i), name);
+        }
+    }
+
+    @Test
+    @DisplayName("spliterators fail fast")
+    public void testSpliteratorFailsFast() {
+        for (Supplier<ParallelBulkMap<Integer, Integer>> supplier : maps()) {
+            ParallelBulkMap<Integer, Integer> map = filled(supplier);
+            Spliterator<Integer> keys = map.keySet().spliterator();
+            int [] added = { 0 };
+
+            // like HashMap's, the check comes at the end, so the action mustn't trip over what it sees before then
+            assertThrows(ConcurrentModificationException.class,
+                    () -> keys.forEachRemaining(key -> map.put(-1 - added[0]++, 0)), map.getClass().getSimpleName());
+        }
+    }
+}
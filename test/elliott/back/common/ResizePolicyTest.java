@@ -0,0 +1,174 @@
+package elliott.back.common;
+
+import elliott.back.maps.SimpleCircularFlatMap;
+import elliott.back.maps.SimpleFlatMap;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapStatistics;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static elliott.back.common.CollidingHashing.ONE_HASH;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResizePolicyTest {
+
+    private static List<Function<ResizePolicy, Map<String, String>>> maps() {
+        return List.of(
+                policy -> new SimpleFlatMap<>(policy),
+                policy -> new SimpleCircularFlatMap<>(policy));
+    }
+
+    /**
+     * Build maps with a pinned hash seed, so where the keys land is the same every run
+     */
+    private static <T> T withSeed(int seed, Supplier<T> maker) {
+        System.setProperty("elliott.back.hashSeed", "" + seed);
+        try {
+            return maker.get();
+        } finally {
+            System.clearProperty("elliott.back.hashSeed");
+        }
+    }
+
+    private static MapStatistics statistics(Map<?, ?> map) {
+        return ((InstrumentedMap) map).statistics();
+    }
+
+    @Test
+    @DisplayName("capacity, load and growth arithmetic")
+    public void testPolicyArithmetic() {
+        ResizePolicy policy = ResizePolicy.defaults();
+
+        assertEquals(32, policy.initialCapacity(32));
+        assertEquals(2048, policy.withExpectedSize(1000).initialCapacity(32));
+        assertEquals(4096, policy.withExpectedSize(1000).withMaxLoadFactor(0.25).initialCapacity(32));
+
+        assertFalse(policy.overLoaded(24, 32));
+        assertTrue(policy.overLoaded(25, 32));
+
+        assertEquals(64, policy.grow(32));
+        assertEquals(64, policy.withGrowthFactor(1.5).grow(32));
+        assertEquals(128, policy.withGrowthFactor(4).grow(32));
+
+        // long probes only count once the table is reasonably full
+        assertFalse(policy.overProbed(100, 1, 1024));
+        assertTrue(policy.overProbed(100, 384, 1024));
+        assertFalse(policy.overProbed(64, 384, 1024));
+    }
+
+    @Test
+    @DisplayName("nonsense settings are rejected")
+    public void testValidation() {
+        ResizePolicy policy = ResizePolicy.defaults();
+
+        assertThrows(IllegalArgumentException.class, () -> policy.withMaxLoadFactor(0));
+        assertThrows(IllegalArgumentException.class, () -> policy.withMaxLoadFactor(1.5));
+        assertThrows(IllegalArgumentException.class, () -> policy.withGrowthFactor(1));
+        assertThrows(IllegalArgumentException.class, () -> policy.withMaxProbeLength(0));
+        assertThrows(IllegalArgumentException.class, () -> policy.withExpectedSize(-1));
+    }
+
+    @Test
+    @DisplayName("maps keep under the max load factor")
+    public void testMaxLoadFactor() {
+        for (double loadFactor : new double[] { 0.25, 0.5, 0.9 }) {
+            for (Function<ResizePolicy, Map<String, String>> factory : maps()) {
+                Map<String, String> map = factory.apply(ResizePolicy.defaults().withMaxLoadFactor(loadFactor));
+
+                for (int i = 0; i < 10000; i++)
+                    map.put("" + i, "v: " + i);
+
+                for (int i = 0; i < 10000; i++)
+                    assertEquals("v: " + i, map.get("" + i));
+
+                // capacity reported includes SimpleFlatMap's overflow slots, which only makes the load lower
+                assertTrue(statistics(map).getLoadFactor() <= loadFactor, map.getClass().getSimpleName() + " " + loadFactor);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("presized maps don't resize")
+    public void testExpectedSize() {
+        for (Function<ResizePolicy, Map<String, String>> factory : maps()) {
+            Map<String, String> map = factory.apply(ResizePolicy.defaults().withExpectedSize(10000));
+
+            for (int i = 0; i < 10000; i++)
+                map.put("" + i, "v: " + i);
+
+            assertEquals(0, statistics(map).getResizes(), map.getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    @DisplayName("growth factor rounds up to a power of two")
+    public void testGrowthFactor() {
+        for (Function<ResizePolicy, Map<String, String>> factory : maps()) {
+            Map<String, String> doubling = factory.apply(ResizePolicy.defaults());
+            Map<String, String> quadrupling = factory.apply(ResizePolicy.defaults().withGrowthFactor(4));
+
+            for (int i = 0; i < 10000; i++) {
+                doubling.put("" + i, "v: " + i);
+                quadrupling.put("" + i, "v: " + i);
+            }
+
+            assertTrue(statistics(quadrupling).getResizes() < statistics(doubling).getResizes(), doubling.getClass().getSimpleName());
+            assertEquals(10000, quadrupling.size());
+        }
+    }
+
+    @Test
+    @DisplayName("replacing a key at the load limit doesn't grow the table")
+    public void testReplaceAtLoadLimit() {
+        List<Map<String, String>> maps = withSeed(1, () -> List.of(
+                new SimpleFlatMap<>(32, false),
+                new SimpleFlatMap<>(32, true),
+                new SimpleCircularFlatMap<>(32, false),
+                new SimpleCircularFlatMap<>(32, true)));
+
+        for (Map<String, String> map : maps) {
+            // 24 of 32 slots is as full as the default load factor allows
+            for (int i = 0; i < 24; i++)
+                map.put("" + i, "v: " + i);
+
+            String name = map.getClass().getSimpleName();
+            assertEquals(0, statistics(map).getResizes(), name);
+
+            assertEquals("v: 0", map.put("0", "replaced"));
+            assertEquals(0, statistics(map).getResizes(), name);
+            assertEquals(24, map.size(), name);
+
+            map.put("24", "v: 24");
+            assertEquals(1, statistics(map).getResizes(), name);
+        }
+    }
+
+    @Test
+    @DisplayName("long probes grow the table early, but only once it's half way full")
+    public void testMaxProbeLength() {
+        ResizePolicy policy = ResizePolicy.defaults().withMaxProbeLength(8);
+
+        // a zero seed spreads the zero hash to slot 0, so SimpleFlatMap's chain never runs off the end early
+        List<Map<Integer, Integer>> maps = withSeed(0, () -> List.of(
+                new SimpleFlatMap<>(32, false, ONE_HASH, policy),
+                new SimpleCircularFlatMap<>(32, false, ONE_HASH, policy)));
+
+        for (Map<Integer, Integer> map : maps) {
+            for (int i = 0; i < 1000; i++)
+                map.put(i, i);
+
+            for (int i = 0; i < 1000; i++)
+                assertEquals(Integer.valueOf(i), map.get(i));
+
+            // a single chain: the load factor limit alone would allow 0.75, the probe trigger stops at half that
+            MapStatistics statistics = statistics(map);
+            assertTrue(statistics.getLoadFactor() <= 0.375, map.getClass().getSimpleName() + " " + statistics);
+            assertTrue(statistics.getLoadFactor() > 0.1, map.getClass().getSimpleName() + " " + statistics);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package elliott.back.maps;
+
+import elliott.back.common.BasicStringMapTester;
+
+public class ConcurrentListBucketMapBasicTest extends BasicStringMapTester {
+
+    public ConcurrentListBucketMapBasicTest() {
+        super( new ConcurrentListBucketMap<>() );
+    }
+}
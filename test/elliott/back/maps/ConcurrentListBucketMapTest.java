@@ -0,0 +1,108 @@
+package elliott.back.maps;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentListBucketMapTest {
+
+    @Test
+    @DisplayName("conditional updates and compute* match HashMap, with null values")
+    public void testAgainstHashMap() {
+        ConcurrentListBucketMap<Integer, Integer> map = new ConcurrentListBucketMap<>(4, 2, 2.0);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200000; i++) {
+            Integer key = random.nextInt(500);
+            Integer value = random.nextInt(10) == 0 ? null : random.nextInt(4);
+            Integer other = random.nextInt(4);
+
+            switch (random.nextInt(9)) {
+                case 0:
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                    break;
+                case 1:
+                    assertEquals(expected.putIfAbsent(key, value), map.putIfAbsent(key, value));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key, value), map.remove(key, value));
+                    break;
+                case 3:
+                    assertEquals(expected.replace(key, value), map.replace(key, value));
+                    break;
+                case 4:
+                    assertEquals(expected.replace(key, value, other), map.replace(key, value, other));
+                    break;
+                case 5:
+                    assertEquals(expected.computeIfAbsent(key, k -> value), map.computeIfAbsent(key, k -> value));
+                    break;
+                case 6:
+                    assertEquals(expected.computeIfPresent(key, (k, v) -> value), map.computeIfPresent(key, (k, v) -> value));
+                    break;
+                case 7:
+                    assertEquals(expected.compute(key, (k, v) -> value), map.compute(key, (k, v) -> value));
+                    break;
+                default:
+                    if (value != null)
+                        assertEquals(expected.merge(key, value, (a, b) -> a + b > 5 ? null : a + b),
+                                map.merge(key, value, (a, b) -> a + b > 5 ? null : a + b));
+            }
+
+            assertEquals(expected.getOrDefault(key, -1), map.getOrDefault(key, -1));
+        }
+
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, new HashMap<>(map));
+    }
+
+    @Test
+    @DisplayName("merge and replace count correctly from many threads at once")
+    public void testConcurrentCounting() throws InterruptedException {
+        ConcurrentListBucketMap<Integer, Integer> map = new ConcurrentListBucketMap<>(4, 4, 2.0);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 100000; i++) {
+                        Integer key = i % 1000;
+
+                        // count each key through merge, and its negative twin through a replace loop
+                        map.merge(key, 1, Integer::sum);
+
+                        map.putIfAbsent(-1 - key, 0);
+                        Integer old;
+                        do {
+                            old = map.get(-1 - key);
+                        } while (!map.replace(-1 - key, old, old + 1));
+                    }
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertNull(failure.get());
+        assertEquals(2000, map.size());
+        for (int key = 0; key < 1000; key++) {
+            assertEquals(400, map.get(key));
+            assertEquals(400, map.get(-1 - key));
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package elliott.back.maps;
+
+import elliott.back.common.BasicStringMapTester;
+
+public class CuckooFlatMapBasicTest extends BasicStringMapTester {
+
+    public CuckooFlatMapBasicTest() {
+        super( new CuckooFlatMap<>() );
+    }
+}
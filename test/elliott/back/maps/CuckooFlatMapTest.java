@@ -0,0 +1,61 @@
+package elliott.back.maps;
+
+import elliott.back.stats.MapStatistics;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+
+import static elliott.back.common.CollidingHashing.ONE_HASH;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CuckooFlatMapTest {
+
+    @Test
+    @DisplayName("every entry sits in one of its two buckets")
+    public void testTwoBucketsOnly() {
+        CuckooFlatMap<String, String> map = new CuckooFlatMap<>();
+        for (int i = 0; i < 1000000; i++)
+            map.put("" + i, "v: " + i);
+
+        MapStatistics statistics = map.statistics();
+        assertEquals(1000000, statistics.getSize());
+        assertTrue(statistics.getMaxProbeLength() <= 1, statistics.toString());
+        assertTrue(statistics.getLoadFactor() > 0.4, statistics.toString());
+    }
+
+    @Test
+    @DisplayName("keys with identical hashes overflow into the stash instead of growing forever")
+    public void testStash() {
+        CuckooFlatMap<Integer, Integer> map = new CuckooFlatMap<>(32, ONE_HASH);
+        for (int i = 0; i < 20; i++)
+            map.put(i, i);
+
+        assertEquals(20, map.size());
+        for (int i = 0; i < 20; i++)
+            assertEquals(Integer.valueOf(i), map.get(i));
+
+        // two buckets of 4, the rest stashed, and at most the one resize once half full
+        MapStatistics statistics = map.statistics();
+        assertEquals(12, statistics.getProbeLengthHistogram()[2]);
+        assertTrue(statistics.getCapacity() <= 64, statistics.toString());
+
+        assertEquals(Integer.valueOf(3), map.remove(3));
+        assertEquals(Integer.valueOf(15), map.remove(15));
+        assertEquals(Integer.valueOf(16), map.put(16, -16));
+        assertEquals(18, map.size());
+
+        int seen = 0;
+        for (Iterator<Integer> keys = map.keySet().iterator(); keys.hasNext(); ) {
+            Integer key = keys.next();
+            seen++;
+            if (key % 2 == 0)
+                keys.remove();
+        }
+
+        assertEquals(18, seen);
+        assertEquals(8, map.size());
+        for (int i = 0; i < 20; i++)
+            assertEquals(i % 2 == 1 && i != 3 && i != 15, map.containsKey(i), "" + i);
+    }
+}
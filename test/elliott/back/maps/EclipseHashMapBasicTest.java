@@ -8,4 +8,17 @@ public class EclipseHashMapBasicTest extends BasicStringMapTester {
     public EclipseHashMapBasicTest() {
         super( new ConcurrentHashMap<>() );
     }
-}
\ No newline at end of file
+
+    /**
+     * Eclipse's ConcurrentHashMap entries throw from setValue
+     */
+    @Override
+    protected boolean viewsWriteThrough() {
+        return false;
+    }
+
+    @Override
+    protected boolean supportsNullKeys() {
+        return false;
+    }
+}
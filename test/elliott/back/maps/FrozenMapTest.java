@@ -0,0 +1,178 @@
+package elliott.back.maps;
+
+import elliott.back.common.HashingStrategy;
+import elliott.back.stats.MapStatistics;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static elliott.back.common.CollidingHashing.ONE_HASH;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrozenMapTest {
+
+    private static Map<String, String> source(int size) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < size; i++)
+            map.put("" + i, "v: " + i);
+
+        return map;
+    }
+
+    @Test
+    @DisplayName("copies of every size find every key and nothing else")
+    public void testCopyOf() {
+        for (int size : new int[]{0, 1, 2, 3, 10, 1000, 100000}) {
+            Map<String, String> expected = source(size);
+            FrozenMap<String, String> frozen = FrozenMap.copyOf(expected);
+
+            assertEquals(size, frozen.size());
+            assertEquals(size == 0, frozen.isEmpty());
+
+            for (int i = 0; i < size; i++)
+                assertEquals("v: " + i, frozen.get("" + i));
+
+            for (int i = 0; i < 1000; i++) {
+                assertNull(frozen.get("missing " + i));
+                assertFalse(frozen.containsKey("missing " + i));
+            }
+
+            assertEquals(expected, frozen);
+            assertEquals(frozen, expected);
+            assertEquals(expected.hashCode(), frozen.hashCode());
+            assertEquals(expected.keySet(), new HashSet<>(frozen.keySet()));
+            assertEquals(new HashSet<>(expected.values()), new HashSet<>(frozen.values()));
+            assertEquals(expected.entrySet(), new HashSet<>(frozen.entrySet()));
+        }
+    }
+
+    @Test
+    @DisplayName("null keys and values")
+    public void testNulls() {
+        Map<String, String> expected = source(100);
+        expected.put(null, "null key");
+        expected.put("null value", null);
+
+        FrozenMap<String, String> frozen = FrozenMap.copyOf(expected);
+        assertEquals("null key", frozen.get(null));
+        assertTrue(frozen.containsKey("null value"));
+        assertNull(frozen.get("null value"));
+        assertEquals("default", frozen.getOrDefault("missing", "default"));
+        assertNull(frozen.getOrDefault("null value", "default"));
+        assertTrue(frozen.containsValue(null));
+        assertEquals(expected, frozen);
+
+        assertNull(FrozenMap.copyOf(source(100)).get(null));
+    }
+
+    @Test
+    @DisplayName("keys sharing a hash code go in the stash and are still found")
+    public void testStash() {
+        // Aa, BB and C# all hash to 2112, and any two of them together hash the same as any other two
+        List<String> colliding = List.of("Aa", "BB", "C#", "AaAa", "AaBB", "BBAa", "BBBB", "C#C#");
+        Map<String, String> expected = source(1000);
+        for (String key : colliding)
+            expected.put(key, "colliding " + key);
+
+        FrozenMap<String, String> frozen = FrozenMap.copyOf(expected);
+        assertEquals(expected, frozen);
+        assertNull(frozen.get("AaC#"));
+        assertNull(frozen.get("C#Aa"));
+
+        // one of each hash code is placed, the other six wait one look longer
+        MapStatistics statistics = frozen.statistics();
+        assertEquals(1002, statistics.getProbeLengthHistogram()[0]);
+        assertEquals(6, statistics.getProbeLengthHistogram()[1]);
+        assertEquals(1, statistics.getMaxProbeLength());
+    }
+
+    @Test
+    @DisplayName("every key on one hash code still works, from the stash")
+    public void testAllKeysOneHash() {
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++)
+            expected.put(i, -i);
+
+        FrozenMap<Integer, Integer> frozen = FrozenMap.copyOf(expected, ONE_HASH);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(Integer.valueOf(-i), frozen.get(i));
+
+        assertNull(frozen.get(1000));
+        assertEquals(999, frozen.statistics().getProbeLengthHistogram()[1]);
+    }
+
+    @Test
+    @DisplayName("keys distinct in the source but equal under the strategy are rejected")
+    public void testDuplicatesUnderStrategy() {
+        Map<byte[], String> bytes = new HashMap<>();
+        bytes.put(new byte[]{1, 2}, "a");
+        bytes.put(new byte[]{3}, "b");
+
+        FrozenMap<byte[], String> frozen = FrozenMap.copyOf(bytes, HashingStrategy.BYTE_ARRAYS);
+        assertEquals("a", frozen.get(new byte[]{1, 2}));
+        assertEquals("b", frozen.get(new byte[]{3}));
+
+        bytes.put(new byte[]{1, 2}, "c");
+        assertThrows(IllegalArgumentException.class, () -> FrozenMap.copyOf(bytes, HashingStrategy.BYTE_ARRAYS));
+    }
+
+    @Test
+    @DisplayName("a full table, found first time, never resized")
+    public void testStatistics() {
+        FrozenMap<String, String> frozen = FrozenMap.copyOf(source(10000));
+
+        for (int i = 0; i < 100; i++)
+            frozen.get("" + i);
+
+        for (int i = 0; i < 50; i++)
+            frozen.containsKey("missing " + i);
+
+        MapStatistics statistics = frozen.statistics();
+        assertEquals(10000, statistics.getSize());
+        assertEquals(10000, statistics.getCapacity());
+        assertEquals(1.0, statistics.getLoadFactor());
+        assertEquals(10000, statistics.getProbeLengthHistogram()[0]);
+        assertEquals(0, statistics.getMaxProbeLength());
+        assertEquals(0, statistics.getResizes());
+        assertEquals(100, statistics.getHits());
+        assertEquals(50, statistics.getMisses());
+    }
+
+    @Test
+    @DisplayName("every mutator throws, copying a frozen map is free")
+    public void testImmutable() {
+        FrozenMap<String, String> frozen = FrozenMap.copyOf(source(10));
+
+        List<Executable> mutators = List.of(
+                () -> frozen.put("1", "x"),
+                () -> frozen.put("new", "x"),
+                () -> frozen.remove("1"),
+                () -> frozen.remove("1", "v: 1"),
+                () -> frozen.putAll(Map.of("a", "b")),
+                () -> frozen.clear(),
+                () -> frozen.putIfAbsent("new", "x"),
+                () -> frozen.replace("1", "x"),
+                () -> frozen.replace("1", "v: 1", "x"),
+                () -> frozen.replaceAll((k, v) -> v),
+                () -> frozen.computeIfAbsent("1", k -> "x"),
+                () -> frozen.computeIfPresent("1", (k, v) -> "x"),
+                () -> frozen.compute("1", (k, v) -> "x"),
+                () -> frozen.merge("1", "x", (a, b) -> a),
+                () -> frozen.keySet().remove("1"),
+                () -> frozen.values().clear(),
+                () -> frozen.entrySet().iterator().remove(),
+                () -> frozen.entrySet().iterator().next().setValue("x"));
+
+        for (Executable mutator : mutators)
+            assertThrows(UnsupportedOperationException.class, mutator);
+
+        assertEquals(source(10), frozen);
+        assertSame(frozen, FrozenMap.copyOf(frozen));
+        assertNotSame(frozen, FrozenMap.copyOf(frozen, ONE_HASH));
+    }
+}
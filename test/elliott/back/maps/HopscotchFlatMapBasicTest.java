@@ -0,0 +1,10 @@
+package elliott.back.maps;
+
+import elliott.back.common.BasicStringMapTester;
+
+public class HopscotchFlatMapBasicTest extends BasicStringMapTester {
+
+    public HopscotchFlatMapBasicTest() {
+        super( new HopscotchFlatMap<>() );
+    }
+}
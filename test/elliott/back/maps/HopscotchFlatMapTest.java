@@ -0,0 +1,76 @@
+package elliott.back.maps;
+
+import elliott.back.stats.MapStatistics;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+
+import static elliott.back.common.CollidingHashing.ONE_HASH;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HopscotchFlatMapTest {
+
+    @Test
+    @DisplayName("fills to 0.9 load without growing, every entry in its neighborhood")
+    public void testNeighborhoodOnly() {
+        HopscotchFlatMap<String, String> map = new HopscotchFlatMap<>(1 << 20);
+        int entries = (int) ( ( 1 << 20 ) * HopscotchFlatMap.DEFAULT_MAX_LOAD_FACTOR );
+
+        for (int i = 0; i < entries; i++)
+            map.put("" + i, "v: " + i);
+
+        for (int i = 0; i < entries; i++)
+            assertEquals("v: " + i, map.get("" + i));
+
+        MapStatistics statistics = map.statistics();
+        assertEquals(entries, statistics.getSize());
+        assertEquals(0, statistics.getResizes(), statistics.toString());
+        assertTrue(statistics.getMaxProbeLength() < HopscotchFlatMap.NEIGHBORHOOD, statistics.toString());
+    }
+
+    @Test
+    @DisplayName("load factors outside (0, 1) are rejected")
+    public void testLoadFactorValidation() {
+        assertThrows(IllegalArgumentException.class, () -> new HopscotchFlatMap<>(32, 0));
+        assertThrows(IllegalArgumentException.class, () -> new HopscotchFlatMap<>(32, 1));
+        assertThrows(IllegalArgumentException.class, () -> new HopscotchFlatMap<>(32, Double.NaN));
+    }
+
+    @Test
+    @DisplayName("keys with identical hashes overflow into the stash instead of growing forever")
+    public void testStash() {
+        HopscotchFlatMap<Integer, Integer> map = new HopscotchFlatMap<>(128, ONE_HASH);
+        for (int i = 0; i < 80; i++)
+            map.put(i, i);
+
+        assertEquals(80, map.size());
+        for (int i = 0; i < 80; i++)
+            assertEquals(Integer.valueOf(i), map.get(i));
+
+        // one entry at each offset in the neighborhood, the rest stashed
+        MapStatistics statistics = map.statistics();
+        assertEquals(HopscotchFlatMap.NEIGHBORHOOD, statistics.getMaxProbeLength());
+        for (int offset = 0; offset < 30; offset++)
+            assertEquals(1, statistics.getProbeLengthHistogram()[offset], "" + offset);
+        assertTrue(statistics.getCapacity() <= 256, statistics.toString());
+
+        assertEquals(Integer.valueOf(3), map.remove(3));
+        assertEquals(Integer.valueOf(75), map.remove(75));
+        assertEquals(Integer.valueOf(76), map.put(76, -76));
+        assertEquals(78, map.size());
+
+        int seen = 0;
+        for (Iterator<Integer> keys = map.keySet().iterator(); keys.hasNext(); ) {
+            Integer key = keys.next();
+            seen++;
+            if (key % 2 == 0)
+                keys.remove();
+        }
+
+        assertEquals(78, seen);
+        assertEquals(38, map.size());
+        for (int i = 0; i < 80; i++)
+            assertEquals(i % 2 == 1 && i != 3 && i != 75, map.containsKey(i), "" + i);
+    }
+}
@@ -9,4 +9,9 @@ public class JavaConcurrentHashMapBasicTest extends BasicStringMapTester {
     public JavaConcurrentHashMapBasicTest() {
         super( new ConcurrentHashMap<>() );
     }
-}
\ No newline at end of file
+
+    @Override
+    protected boolean supportsNullKeys() {
+        return false;
+    }
+}
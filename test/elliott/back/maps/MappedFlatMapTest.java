@@ -0,0 +1,152 @@
+package elliott.back.maps;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedFlatMapTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static byte [] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("put, replace, remove")
+    public void testBasicOperations() throws IOException {
+        try (MappedFlatMap map = MappedFlatMap.create(tempDir.resolve("basic.map"), 16, 16, 32)) {
+            assertNull(map.put(bytes("abc"), bytes("abc")));
+            assertArrayEquals(bytes("abc"), map.put(bytes("abc"), bytes("def")));
+            assertArrayEquals(bytes("def"), map.get(bytes("abc")));
+            assertEquals(1, map.size());
+
+            assertNull(map.get(bytes("missing")));
+            assertFalse(map.containsKey(bytes("missing")));
+
+            assertArrayEquals(bytes("def"), map.remove(bytes("abc")));
+            assertEquals(0, map.size());
+            assertNull(map.get(bytes("abc")));
+        }
+    }
+
+    @Test
+    @DisplayName("grows past initial capacity and survives a reopen")
+    public void testGrowAndReopen() throws IOException {
+        Path file = tempDir.resolve("grow.map");
+
+        try (MappedFlatMap map = MappedFlatMap.create(file, 16, 16, 32)) {
+            for (int i = 0; i < 100000; i++)
+                map.put(bytes("" + i), bytes("v: " + i));
+
+            for (int i = 0; i < 100000; i += 2)
+                map.remove(bytes("" + i));
+
+            assertEquals(50000, map.size());
+        }
+
+        try (MappedFlatMap map = MappedFlatMap.open(file)) {
+            assertEquals(50000, map.size());
+
+            for (int i = 0; i < 100000; i++)
+                if (i % 2 == 0)
+                    assertNull(map.get(bytes("" + i)));
+                else
+                    assertArrayEquals(bytes("v: " + i), map.get(bytes("" + i)));
+        }
+    }
+
+    @Test
+    @DisplayName("read-only maps can be read but not written")
+    public void testReadOnly() throws IOException {
+        Path file = tempDir.resolve("readonly.map");
+
+        try (MappedFlatMap map = MappedFlatMap.create(file, 16, 16, 32)) {
+            map.put(bytes("abc"), bytes("def"));
+        }
+
+        try (MappedFlatMap first = MappedFlatMap.openReadOnly(file);
+             MappedFlatMap second = MappedFlatMap.openReadOnly(file)) {
+            assertArrayEquals(bytes("def"), first.get(bytes("abc")));
+            assertArrayEquals(bytes("def"), second.get(bytes("abc")));
+            assertThrows(UnsupportedOperationException.class, () -> first.put(bytes("abc"), bytes("ghi")));
+        }
+    }
+
+    @Test
+    @DisplayName("oversized keys are rejected")
+    public void testOversizedKey() throws IOException {
+        try (MappedFlatMap map = MappedFlatMap.create(tempDir.resolve("oversized.map"), 4, 4, 32)) {
+            assertThrows(IllegalArgumentException.class, () -> map.put(bytes("too long"), bytes("v")));
+        }
+    }
+
+    @Test
+    @DisplayName("files that don't match their header are rejected, not grown")
+    public void testCorruptFiles() throws IOException {
+        Path file = tempDir.resolve("corrupt.map");
+
+        try (MappedFlatMap map = MappedFlatMap.create(file, 16, 16, 32)) {
+            map.put(bytes("abc"), bytes("def"));
+        }
+
+        byte[] original = Files.readAllBytes(file);
+
+        Files.write(file, Arrays.copyOf(original, original.length - 1));
+        assertThrows(IOException.class, () -> MappedFlatMap.open(file));
+        assertEquals(original.length - 1, Files.size(file));
+
+        Files.write(file, Arrays.copyOf(original, 10));
+        assertThrows(IOException.class, () -> MappedFlatMap.open(file));
+
+        // a capacity of 48 at the header's capacity offset
+        Files.write(file, original);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 48), 16);
+        }
+        assertThrows(IOException.class, () -> MappedFlatMap.open(file));
+        assertThrows(IOException.class, () -> MappedFlatMap.openReadOnly(file));
+    }
+
+    @Test
+    @DisplayName("a failed resize leaves the map usable and no temp file behind")
+    public void testFailedResize() throws IOException {
+        Path file = tempDir.resolve("resize.map");
+        Path grown = tempDir.resolve("resize.map.resize");
+
+        try (MappedFlatMap map = MappedFlatMap.create(file, 16, 16, 4)) {
+            map.put(bytes("a"), bytes("1"));
+            map.put(bytes("b"), bytes("2"));
+            map.put(bytes("c"), bytes("3"));
+
+            // a directory where the resize wants its file
+            Files.createDirectories(grown.resolve("blocked"));
+            assertThrows(IOException.class, () -> map.put(bytes("d"), bytes("4")));
+            assertEquals(3, map.size());
+            assertArrayEquals(bytes("3"), map.get(bytes("c")));
+
+            Files.delete(grown.resolve("blocked"));
+            Files.delete(grown);
+            assertNull(map.put(bytes("d"), bytes("4")));
+            assertEquals(8, map.capacity());
+            assertFalse(Files.exists(grown));
+        }
+
+        try (MappedFlatMap map = MappedFlatMap.open(file)) {
+            assertEquals(4, map.size());
+            assertArrayEquals(bytes("4"), map.get(bytes("d")));
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package elliott.back.maps;
+
+import elliott.back.common.BasicStringMapTester;
+
+public class NonBlockingFlatMapBasicTest extends BasicStringMapTester {
+
+    public NonBlockingFlatMapBasicTest() {
+        super( new NonBlockingFlatMap<>() );
+    }
+}
@@ -0,0 +1,84 @@
+package elliott.back.maps;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NonBlockingFlatMapTest {
+
+    private static final int THREADS = 4;
+    private static final int KEYS_PER_THREAD = 5000;
+
+    @Test
+    @DisplayName("put, remove and putIfAbsent from many threads across resizes leave exactly what each thread wrote")
+    public void testConcurrentWritesAcrossResizes() throws InterruptedException {
+        // starts tiny, so the table gets copied many times while the threads are writing
+        NonBlockingFlatMap<Integer, Integer> map = new NonBlockingFlatMap<>(2);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Map<Integer, Integer>> expected = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            int owner = t;
+            Map<Integer, Integer> mine = new HashMap<>();
+            expected.add(mine);
+
+            threads.add(new Thread(() -> {
+                try {
+                    Random random = new Random(42 + owner);
+                    go.await();
+
+                    for (int i = 0; i < 20 * KEYS_PER_THREAD; i++) {
+                        // this thread's keys are the ones equal to its index mod THREADS, so nobody else touches them
+                        Integer key = random.nextInt(KEYS_PER_THREAD) * THREADS + owner;
+                        Integer value = random.nextInt(1000);
+
+                        switch (random.nextInt(4)) {
+                            case 0:
+                                assertEquals(mine.remove(key), map.remove(key));
+                                break;
+                            case 1:
+                                assertEquals(mine.putIfAbsent(key, value), map.putIfAbsent(key, value));
+                                break;
+                            default:
+                                assertEquals(mine.put(key, value), map.put(key, value));
+                        }
+
+                        assertEquals(mine.get(key), map.get(key));
+                    }
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+
+        for (Thread thread : threads)
+            thread.start();
+        go.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertNull(failure.get());
+        assertTrue(map.statistics().getResizes() > 5, "expected the table to resize while being written");
+
+        Map<Integer, Integer> all = new HashMap<>();
+        for (Map<Integer, Integer> mine : expected)
+            all.putAll(mine);
+
+        assertEquals(all.size(), map.size());
+        assertEquals(all, new HashMap<>(map));
+        for (Map.Entry<Integer, Integer> entry : all.entrySet())
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+    }
+}
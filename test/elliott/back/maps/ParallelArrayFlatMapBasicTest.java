@@ -0,0 +1,10 @@
+package elliott.back.maps;
+
+import elliott.back.common.BasicStringMapTester;
+
+public class ParallelArrayFlatMapBasicTest extends BasicStringMapTester {
+
+    public ParallelArrayFlatMapBasicTest() {
+        super( new ParallelArrayFlatMap<>() );
+    }
+}
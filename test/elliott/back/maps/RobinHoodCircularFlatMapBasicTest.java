@@ -0,0 +1,10 @@
+package elliott.back.maps;
+
+import elliott.back.common.BasicStringMapTester;
+
+public class RobinHoodCircularFlatMapBasicTest extends BasicStringMapTester {
+
+    public RobinHoodCircularFlatMapBasicTest() {
+        super( new RobinHoodCircularFlatMap<>() );
+    }
+}
@@ -0,0 +1,10 @@
+package elliott.back.maps;
+
+import elliott.back.common.BasicStringMapTester;
+
+public class SimpleCircularFlatMapIncrementalResizeBasicTest extends BasicStringMapTester {
+
+    public SimpleCircularFlatMapIncrementalResizeBasicTest() {
+        super( new SimpleCircularFlatMap<>(32, true) );
+    }
+}
@@ -0,0 +1,10 @@
+package elliott.back.maps;
+
+import elliott.back.common.BasicStringMapTester;
+
+public class SimpleCircularFlatMapListBucketIncrementalResizeBasicTest extends BasicStringMapTester {
+
+    public SimpleCircularFlatMapListBucketIncrementalResizeBasicTest() {
+        super( new SimpleCircularListBucketFlatMap<>(32, true) );
+    }
+}
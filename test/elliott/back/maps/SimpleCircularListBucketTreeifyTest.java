@@ -0,0 +1,144 @@
+package elliott.back.maps;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static elliott.back.maps.SimpleCircularListBucketFlatMap.TREEIFY_THRESHOLD;
+import static elliott.back.maps.SimpleCircularListBucketFlatMap.UNTREEIFY_THRESHOLD;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimpleCircularListBucketTreeifyTest {
+
+    /**
+     * "Aa" and "BB" have the same hash code, so every string made of n of them collides with the other 2^n - 1
+     */
+    private static List<String> collidingStrings(int blocks) {
+        List<String> keys = new ArrayList<>();
+        keys.add("");
+
+        for (int i = 0; i < blocks; i++) {
+            List<String> longer = new ArrayList<>();
+            for (String key : keys) {
+                longer.add(key + "Aa");
+                longer.add(key + "BB");
+            }
+            keys = longer;
+        }
+
+        return keys;
+    }
+
+    /**
+     * Not Comparable, and every instance lands in the same bucket
+     */
+    private static final class CollidingKey {
+        private final int id;
+
+        CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 7;
+        }
+    }
+
+    /**
+     * Every key here shares one bucket, so statistics() shows which kind it is: a list's last entry is size - 1
+     * probes in, a tree records all of its entries at its depth, log2 of the size
+     */
+    private static void assertBucketKind(SimpleCircularListBucketFlatMap<?, ?> map, boolean tree) {
+        int size = map.size();
+        int expected = tree ? 31 - Integer.numberOfLeadingZeros(size) : size - 1;
+
+        assertEquals(expected, map.statistics().getMaxProbeLength(),
+                (tree ? "expected a tree" : "expected a list") + " at " + size + " entries");
+    }
+
+    @Test
+    @DisplayName("Comparable keys sharing one hash code")
+    public void testCollidingStrings() {
+        SimpleCircularListBucketFlatMap<String, String> map = new SimpleCircularListBucketFlatMap<>();
+        List<String> keys = collidingStrings(10);
+
+        for (String key : keys) {
+            assertNull(map.put(key, "v: " + key));
+
+            // a list up to the threshold, a tree one past it
+            if (map.size() == TREEIFY_THRESHOLD)
+                assertBucketKind(map, false);
+            else if (map.size() == TREEIFY_THRESHOLD + 1)
+                assertBucketKind(map, true);
+        }
+
+        assertBucketKind(map, true);
+
+        assertEquals(keys.size(), map.size());
+
+        for (String key : keys)
+            assertEquals("v: " + key, map.get(key));
+
+        assertNull(map.get("AaAaAaAaAaAaAaAaAaBb"));
+
+        // drop back below the threshold and check what's left
+        for (int i = 0; i < keys.size() - 10; i++) {
+            assertEquals("v: " + keys.get(i), map.remove(keys.get(i)));
+
+            // still a tree at the lower threshold, a list again one below it
+            if (map.size() == UNTREEIFY_THRESHOLD)
+                assertBucketKind(map, true);
+            else if (map.size() == UNTREEIFY_THRESHOLD - 1)
+                assertBucketKind(map, false);
+        }
+
+        assertEquals(10, map.size());
+        assertBucketKind(map, false);
+
+        for (int i = 0; i < keys.size(); i++)
+            assertEquals(i < keys.size() - 10 ? null : "v: " + keys.get(i), map.get(keys.get(i)));
+    }
+
+    @Test
+    @DisplayName("non-Comparable keys sharing one hash code")
+    public void testCollidingKeys() {
+        SimpleCircularListBucketFlatMap<CollidingKey, Integer> map = new SimpleCircularListBucketFlatMap<>();
+
+        for (int i = 0; i < 1000; i++) {
+            map.put(new CollidingKey(i), i);
+
+            if (map.size() == TREEIFY_THRESHOLD)
+                assertBucketKind(map, false);
+            else if (map.size() == TREEIFY_THRESHOLD + 1)
+                assertBucketKind(map, true);
+        }
+
+        assertEquals(1000, map.size());
+        assertBucketKind(map, true);
+        assertEquals(Integer.valueOf(500), map.put(new CollidingKey(500), -500));
+
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i == 500 ? -500 : i, map.get(new CollidingKey(i)));
+
+        // Iterator.remove works through a treeified bucket too
+        Iterator<CollidingKey> iterator = map.keySet().iterator();
+        while (iterator.hasNext())
+            if (iterator.next().id % 2 == 0)
+                iterator.remove();
+
+        assertEquals(500, map.size());
+        assertBucketKind(map, true);
+
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i % 2 == 0 ? null : (Integer) i, map.get(new CollidingKey(i)));
+    }
+}
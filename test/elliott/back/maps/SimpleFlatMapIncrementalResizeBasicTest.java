@@ -0,0 +1,10 @@
+package elliott.back.maps;
+
+import elliott.back.common.BasicStringMapTester;
+
+public class SimpleFlatMapIncrementalResizeBasicTest extends BasicStringMapTester {
+
+    public SimpleFlatMapIncrementalResizeBasicTest() {
+        super( new SimpleFlatMap<>(32, true) );
+    }
+}
@@ -0,0 +1,10 @@
+package elliott.back.maps;
+
+import elliott.back.common.BasicStringMapTester;
+
+public class StringKeyFlatMapBasicTest extends BasicStringMapTester {
+
+    public StringKeyFlatMapBasicTest() {
+        super( new StringKeyFlatMap<>() );
+    }
+}
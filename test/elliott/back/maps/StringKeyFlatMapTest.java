@@ -0,0 +1,87 @@
+package elliott.back.maps;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StringKeyFlatMapTest {
+
+    /**
+     * One, two, three and four byte chars, a lone surrogate, and the '?' String.getBytes() would turn it into
+     */
+    private static final List<String> AWKWARD_KEYS = List.of(
+            "", "plain", "caf\u00e9", "\u65e5\u672c\u8a9e", "smile \ud83d\ude00", "\ud800", "?", "\ud800x", "\udc00\ud800");
+
+    @Test
+    @DisplayName("keys of every UTF-8 length round trip through the arena, and stay distinct")
+    public void testUnicodeKeys() {
+        StringKeyFlatMap<Integer> map = new StringKeyFlatMap<>();
+        for (int i = 0; i < AWKWARD_KEYS.size(); i++)
+            map.put(AWKWARD_KEYS.get(i), i);
+
+        assertEquals(AWKWARD_KEYS.size(), map.size());
+        for (int i = 0; i < AWKWARD_KEYS.size(); i++)
+            assertEquals(Integer.valueOf(i), map.get(AWKWARD_KEYS.get(i)), AWKWARD_KEYS.get(i));
+
+        assertEquals(new HashSet<>(AWKWARD_KEYS), new HashSet<>(map.keySet()));
+        assertNull(map.get("\ud801"));
+        assertNull(map.get("caf"));
+        assertNull(map.get("caf\u00e9!"));
+    }
+
+    @Test
+    @DisplayName("any CharSequence with the same chars finds the entry")
+    public void testCharSequenceLookups() {
+        StringKeyFlatMap<Integer> map = new StringKeyFlatMap<>();
+        for (int i = 0; i < AWKWARD_KEYS.size(); i++)
+            map.put(AWKWARD_KEYS.get(i), i);
+
+        for (int i = 0; i < AWKWARD_KEYS.size(); i++) {
+            String key = AWKWARD_KEYS.get(i);
+            assertEquals(Integer.valueOf(i), map.get(new StringBuilder(key)), key);
+            assertEquals(Integer.valueOf(i), map.get(CharBuffer.wrap("[" + key + "]").subSequence(1, key.length() + 1)), key);
+            assertTrue(map.containsKey(new StringBuilder(key)));
+        }
+
+        assertNull(map.get((Object) 42));
+        assertFalse(map.containsKey((Object) 42));
+    }
+
+    @Test
+    @DisplayName("keys take their UTF-8 length in the arena and nothing else")
+    public void testArenaBytes() {
+        StringKeyFlatMap<String> map = new StringKeyFlatMap<>();
+        map.put("abc", "1");
+        map.put("\u00e9", "2");
+        map.put("\ud83d\ude00", "3");
+        map.put(null, "4");
+        map.put("abc", "5");
+
+        assertEquals(3 + 2 + 4, map.getArenaBytes());
+    }
+
+    @Test
+    @DisplayName("removed keys' bytes are reclaimed once they're most of the arena")
+    public void testCompaction() {
+        StringKeyFlatMap<Integer> map = new StringKeyFlatMap<>();
+        for (int i = 0; i < 100000; i++)
+            map.put("key number " + i, i);
+
+        int full = map.getArenaBytes();
+
+        for (int i = 0; i < 100000; i++)
+            if (i % 100 != 0)
+                assertEquals(Integer.valueOf(i), map.remove("key number " + i));
+
+        assertEquals(1000, map.size());
+        assertTrue(map.getArenaBytes() < full / 2, map.toString());
+
+        for (int i = 0; i < 100000; i++)
+            assertEquals(i % 100 == 0 ? Integer.valueOf(i) : null, map.get("key number " + i));
+    }
+}
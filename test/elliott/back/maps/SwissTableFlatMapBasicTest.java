@@ -0,0 +1,10 @@
+package elliott.back.maps;
+
+import elliott.back.common.BasicStringMapTester;
+
+public class SwissTableFlatMapBasicTest extends BasicStringMapTester {
+
+    public SwissTableFlatMapBasicTest() {
+        super( new SwissTableFlatMap<>() );
+    }
+}
@@ -0,0 +1,55 @@
+package elliott.back.maps;
+
+import elliott.back.stats.MapStatistics;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SwissTableFlatMapTest {
+
+    @Test
+    @DisplayName("churn through tombstones without growing")
+    public void testChurn() {
+        SwissTableFlatMap<Integer, Integer> map = new SwissTableFlatMap<>(256);
+
+        // a sliding window of 100 live keys, so every slot gets used and removed over and over
+        for (int i = 0; i < 1000000; i++) {
+            map.put(i, i);
+            if (i >= 100)
+                assertEquals(Integer.valueOf(i - 100), map.remove(i - 100));
+        }
+
+        assertEquals(100, map.size());
+        for (int i = 1000000 - 100; i < 1000000; i++)
+            assertEquals(Integer.valueOf(i), map.get(i));
+
+        MapStatistics statistics = map.statistics();
+        assertEquals(256, statistics.getCapacity());
+        assertEquals(100, statistics.getSize());
+    }
+
+    @Test
+    @DisplayName("iterator remove and entry setValue")
+    public void testIteratorRemoveAndSetValue() {
+        SwissTableFlatMap<Integer, Integer> map = new SwissTableFlatMap<>();
+        for (int i = 0; i < 1000; i++)
+            map.put(i, i);
+
+        for (Iterator<Map.Entry<Integer, Integer>> entries = map.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<Integer, Integer> entry = entries.next();
+
+            if (entry.getKey() % 2 == 0)
+                entries.remove();
+            else
+                entry.setValue(-entry.getKey());
+        }
+
+        assertEquals(500, map.size());
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(-i), map.get(i));
+    }
+}
@@ -0,0 +1,104 @@
+package elliott.back.maps.primitive;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The primitive maps all come from one template, so these check one of each key kind
+ */
+public class PrimitiveFlatMapTest {
+
+    @Test
+    @DisplayName("int -> int, including the 0 key which doubles as the empty marker")
+    public void testIntIntZeroKey() {
+        IntIntFlatMap map = new IntIntFlatMap();
+
+        assertEquals(0, map.get(0));
+        assertFalse(map.containsKey(0));
+
+        assertEquals(0, map.put(0, 7));
+        assertEquals(7, map.put(0, 8));
+        assertEquals(8, map.get(0));
+        assertTrue(map.containsKey(0));
+        assertTrue(map.containsValue(8));
+        assertEquals(1, map.size());
+
+        assertEquals(8, map.remove(0));
+        assertEquals(-1, map.getOrDefault(0, -1));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    @DisplayName("int -> int, a million entries")
+    public void testIntIntAMillionElements() {
+        IntIntFlatMap map = new IntIntFlatMap();
+
+        for (int i = 0; i < 1000000; i++)
+            map.put(i, i * 2);
+
+        assertEquals(1000000, map.size());
+
+        for (int i = 0; i < 1000000; i++)
+            assertEquals(i * 2, map.get(i));
+
+        for (int i = 0; i < 1000000; i += 2)
+            assertEquals(i * 2, map.remove(i));
+
+        assertEquals(500000, map.size());
+
+        for (int i = 0; i < 1000000; i++)
+            assertEquals(i % 2 == 0 ? -1 : i * 2, map.getOrDefault(i, -1));
+
+        map.clear();
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    @DisplayName("long -> object, random puts and removes against a HashMap")
+    public void testLongObjectAgainstHashMap() {
+        LongObjectFlatMap<String> map = new LongObjectFlatMap<>();
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(17);
+
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(2000) - 1000L;
+
+            if (random.nextBoolean())
+                assertEquals(expected.put(key, "v: " + i), map.put(key, "v: " + i));
+            else
+                assertEquals(expected.remove(key), map.remove(key));
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (long key = -1000; key < 1000; key++)
+            assertEquals(expected.get(key), map.get(key));
+    }
+
+    @Test
+    @DisplayName("object -> int, including the null key")
+    public void testObjectIntNullKey() {
+        ObjectIntFlatMap<String> map = new ObjectIntFlatMap<>();
+
+        map.put(null, 1);
+        map.put("abc", 2);
+        assertEquals(1, map.get(null));
+        assertEquals(2, map.get("abc"));
+        assertEquals(2, map.size());
+
+        assertEquals(1, map.remove(null));
+        assertFalse(map.containsKey(null));
+        assertEquals(1, map.size());
+
+        assertNull(new LongObjectFlatMap<String>().get(0L));
+    }
+}
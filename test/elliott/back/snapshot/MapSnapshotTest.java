@@ -0,0 +1,224 @@
+package elliott.back.snapshot;
+
+import elliott.back.common.BulkLoadable;
+import elliott.back.maps.SimpleCircularFlatMap;
+import elliott.back.maps.SimpleCircularListBucketFlatMap;
+import elliott.back.maps.SimpleFlatMap;
+import elliott.back.stats.InstrumentedMap;
+import elliott.back.stats.MapStatistics;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MapSnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final List<Supplier<BulkLoadable<String, String>>> MAPS = List.of(
+            SimpleFlatMap::new, SimpleCircularFlatMap::new, SimpleCircularListBucketFlatMap::new);
+
+    /**
+     * Enough entries that the payload spans a few 1MB blocks
+     */
+    private static Map<String, String> bigMap() {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < 100000; i++)
+            map.put("key " + i, "value " + i + " caf\u00e9");
+
+        return map;
+    }
+
+    private Path save(Map<String, String> map) throws IOException {
+        Path path = tempDir.resolve("map.snapshot");
+        assertEquals(map.size(), MapSnapshot.write(map, path, Codec.STRING, Codec.STRING));
+        return path;
+    }
+
+    @Test
+    @DisplayName("every map round trips into every other, across several blocks")
+    public void testRoundTrip() throws IOException {
+        Map<String, String> expected = bigMap();
+
+        for (Supplier<BulkLoadable<String, String>> from : MAPS) {
+            BulkLoadable<String, String> source = from.get();
+            source.putAll(expected);
+            Path path = save(source);
+            assertTrue(Files.size(path) > 2 * MapSnapshot.BLOCK_SIZE);
+
+            for (Supplier<BulkLoadable<String, String>> to : MAPS)
+                assertEquals(expected, MapSnapshot.read(path, Codec.STRING, Codec.STRING, to.get()));
+        }
+    }
+
+    @Test
+    @DisplayName("loading presizes from the header, so the map never resizes")
+    public void testLoadDoesNotResize() throws IOException {
+        Map<String, String> expected = bigMap();
+        Path path = save(expected);
+
+        for (Supplier<BulkLoadable<String, String>> to : MAPS) {
+            // the one rehash ensureCapacity does, and nothing more while filling
+            BulkLoadable<String, String> presized = to.get();
+            presized.ensureCapacity(expected.size());
+            MapStatistics wanted = ((InstrumentedMap) presized).statistics();
+
+            BulkLoadable<String, String> map = MapSnapshot.read(path, Codec.STRING, Codec.STRING, to.get());
+            MapStatistics actual = ((InstrumentedMap) map).statistics();
+
+            String name = map.getClass().getSimpleName();
+            assertEquals(wanted.getResizes(), actual.getResizes(), name);
+            assertEquals(wanted.getCapacity(), actual.getCapacity(), name);
+        }
+    }
+
+    @Test
+    @DisplayName("null keys and values, empty maps, and values bigger than a block")
+    public void testEdgeCases() throws IOException {
+        Map<String, String> expected = new HashMap<>();
+        expected.put(null, "null key");
+        expected.put("null value", null);
+        expected.put("", "");
+        expected.put("big", "x".repeat(MapSnapshot.BLOCK_SIZE));
+        expected.put("after big", "small");
+
+        for (Supplier<BulkLoadable<String, String>> to : MAPS) {
+            assertEquals(expected, MapSnapshot.read(save(expected), Codec.STRING, Codec.STRING, to.get()));
+            assertEquals(Map.of(), MapSnapshot.read(save(new HashMap<>()), Codec.STRING, Codec.STRING, to.get()));
+        }
+    }
+
+    @Test
+    @DisplayName("other codecs, and loading into a map that already has entries")
+    public void testCodecs() throws IOException {
+        Map<Integer, Long> numbers = new HashMap<>();
+        for (int i = -500; i < 500; i++)
+            numbers.put(i, (long) i << 40);
+
+        Path path = tempDir.resolve("numbers.snapshot");
+        MapSnapshot.write(numbers, path, Codec.INTEGER, Codec.LONG);
+
+        SimpleFlatMap<Integer, Long> loaded = new SimpleFlatMap<>();
+        loaded.put(1000, 1L);
+        MapSnapshot.read(path, Codec.INTEGER, Codec.LONG, loaded);
+
+        numbers.put(1000, 1L);
+        assertEquals(numbers, loaded);
+
+        Map<byte[], byte[]> bytes = new HashMap<>();
+        bytes.put(new byte[]{1, 2, 3}, new byte[0]);
+        MapSnapshot.write(bytes, path, Codec.BYTE_ARRAY, Codec.BYTE_ARRAY);
+        Map.Entry<byte[], byte[]> entry = MapSnapshot.read(path, Codec.BYTE_ARRAY, Codec.BYTE_ARRAY,
+                new SimpleFlatMap<byte[], byte[]>()).entrySet().iterator().next();
+        assertArrayEquals(new byte[]{1, 2, 3}, entry.getKey());
+        assertArrayEquals(new byte[0], entry.getValue());
+    }
+
+    @Test
+    @DisplayName("a file cut short anywhere is an EOFException, even exactly between blocks")
+    public void testTruncation() throws IOException {
+        Path path = save(bigMap());
+        long size = Files.size(path);
+
+        // the first block starts right after the header, and its header says how long it is
+        long secondBlock = MapSnapshot.HEADER_BYTES + MapSnapshot.BLOCK_HEADER_BYTES + readInt(path, MapSnapshot.HEADER_BYTES);
+
+        for (long length : new long[]{size - 1, secondBlock + 100, secondBlock, secondBlock - 1, MapSnapshot.HEADER_BYTES + 5, 3}) {
+            Path truncated = tempDir.resolve("truncated.snapshot");
+            Files.copy(path, truncated, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(truncated, StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            }
+
+            assertThrows(EOFException.class,
+                    () -> MapSnapshot.read(truncated, Codec.STRING, Codec.STRING, new SimpleFlatMap<>()), "" + length);
+        }
+    }
+
+    @Test
+    @DisplayName("a flipped bit anywhere is a StreamCorruptedException")
+    public void testCorruption() throws IOException {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < 100; i++)
+            map.put("key " + i, "value " + i);
+
+        Path path = save(map);
+        byte[] original = Files.readAllBytes(path);
+
+        for (int offset = 0; offset < original.length; offset += 7) {
+            byte[] corrupt = original.clone();
+            corrupt[offset] ^= 0x10;
+            Files.write(path, corrupt);
+
+            int at = offset;
+            IOException e = assertThrows(IOException.class,
+                    () -> MapSnapshot.read(path, Codec.STRING, Codec.STRING, new SimpleFlatMap<>()), "" + at);
+
+            // a bigger payload length than the file holds reads as truncation, anything else as corruption
+            if (!(e instanceof EOFException))
+                assertTrue(e instanceof StreamCorruptedException, e.toString());
+        }
+
+        Files.write(path, original);
+        Files.write(path, new byte[]{1}, StandardOpenOption.APPEND);
+        assertThrows(StreamCorruptedException.class,
+                () -> MapSnapshot.read(path, Codec.STRING, Codec.STRING, new SimpleFlatMap<>()));
+    }
+
+    @Test
+    @DisplayName("a write that fails leaves the old snapshot, and a negative length is corruption")
+    public void testFailedWrite() throws IOException {
+        Map<Integer, Integer> numbers = new HashMap<>();
+        numbers.put(-5, 1);
+
+        Path path = tempDir.resolve("numbers.snapshot");
+        MapSnapshot.write(numbers, path, Codec.INTEGER, Codec.INTEGER);
+        byte[] original = Files.readAllBytes(path);
+
+        Codec<Integer> failing = new Codec<Integer>() {
+            @Override
+            public int maxEncodedLength(Integer value) {
+                return Integer.BYTES;
+            }
+
+            @Override
+            public void write(Integer value, ByteBuffer out) {
+                throw new IllegalStateException("can't encode " + value);
+            }
+
+            @Override
+            public Integer read(ByteBuffer in) {
+                return in.getInt();
+            }
+        };
+
+        assertThrows(IllegalStateException.class, () -> MapSnapshot.write(numbers, path, failing, Codec.INTEGER));
+        assertArrayEquals(original, Files.readAllBytes(path));
+        assertFalse(Files.exists(tempDir.resolve("numbers.snapshot.tmp")));
+
+        // -5 read as a byte array's length
+        assertThrows(StreamCorruptedException.class,
+                () -> MapSnapshot.read(path, Codec.BYTE_ARRAY, Codec.INTEGER, new SimpleFlatMap<>()));
+    }
+
+    private static int readInt(Path path, int offset) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,99 @@
+package elliott.back.stats;
+
+import elliott.back.maps.*;
+import elliott.back.maps.primitive.IntIntFlatMap;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MapStatisticsTest {
+
+    @Test
+    @DisplayName("every map counts lookups and resizes, and histograms every entry")
+    public void testMapsReportStatistics() {
+        List<Map<String, String>> maps = List.of(
+                new SimpleFlatMap<>(),
+                new SimpleCircularFlatMap<>(),
+                new SimpleCircularListBucketFlatMap<>(),
+                new RobinHoodCircularFlatMap<>(),
+                new ParallelArrayFlatMap<>(),
+                new SwissTableFlatMap<>(),
+                new CuckooFlatMap<>(),
+                new HopscotchFlatMap<>(),
+                new StringKeyFlatMap<>(),
+                new ConcurrentListBucketMap<>(),
+                new NonBlockingFlatMap<>());
+
+        for (Map<String, String> map : maps) {
+            String name = map.getClass().getSimpleName();
+
+            for (int i = 0; i < 10000; i++)
+                map.put("" + i, "v: " + i);
+
+            for (int i = 0; i < 100; i++)
+                map.get("" + i);
+
+            for (int i = 0; i < 50; i++)
+                map.containsKey("missing " + i);
+
+            MapStatistics statistics = ((InstrumentedMap) map).statistics();
+
+            assertEquals(10000, statistics.getSize(), name);
+            assertEquals(10000, LongStream.of(statistics.getProbeLengthHistogram()).sum(), name);
+            assertEquals(100, statistics.getHits(), name);
+            assertEquals(50, statistics.getMisses(), name);
+            assertTrue(statistics.getResizes() > 0, name);
+            assertTrue(statistics.getLoadFactor() > 0, name);
+            assertTrue(statistics.getMaxProbeLength() >= statistics.getMeanProbeLength(), name);
+        }
+    }
+
+    @Test
+    @DisplayName("primitive maps report too")
+    public void testPrimitiveMapStatistics() {
+        IntIntFlatMap map = new IntIntFlatMap();
+
+        for (int i = 0; i < 1000; i++)
+            map.put(i, i);
+
+        map.get(1);
+        map.get(-1);
+
+        MapStatistics statistics = map.statistics();
+        assertEquals(1000, statistics.getSize());
+        assertEquals(1000, LongStream.of(statistics.getProbeLengthHistogram()).sum());
+        assertEquals(1, statistics.getHits());
+        assertEquals(1, statistics.getMisses());
+        assertEquals(0.75, statistics.getLoadFactor(), 0.5);
+    }
+
+    @Test
+    @DisplayName("exported over JMX")
+    public void testJmxExport() throws JMException {
+        RobinHoodCircularFlatMap<String, String> map = new RobinHoodCircularFlatMap<>();
+        for (int i = 0; i < 1000; i++)
+            map.put("" + i, "v: " + i);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = MapStatisticsExporter.register("test map", map);
+
+        try {
+            assertEquals(1000, server.getAttribute(name, "Size"));
+            assertEquals(map.statistics().getCapacity(), server.getAttribute(name, "Capacity"));
+            assertEquals(MapStatistics.HISTOGRAM_BUCKETS, ((long[]) server.getAttribute(name, "ProbeLengthHistogram")).length);
+        } finally {
+            MapStatisticsExporter.unregister(name);
+        }
+
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,72 @@
+package elliott.back.workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Which key an operation goes to, as an index into a key array of the given size.  The random source is passed
+ * in so each thread can bring its own and a run can be repeated from a seed.
+ *
+ * Distributions keep no shared state except sequential(), which counts; give every thread its own of those.
+ */
+public interface KeyDistribution {
+
+    /**
+     * The next key index, in [0, size)
+     */
+    int next(SplittableRandom random);
+
+    /**
+     * Every key equally likely
+     */
+    static KeyDistribution uniform(int size) {
+        checkSize(size);
+        return random -> random.nextInt(size);
+    }
+
+    /**
+     * Key of rank r picked in proportion to 1 / (r + 1)^skew, with the ranks scattered over the key indexes so the
+     * hot keys aren't all next to each other.  Skew is between 0 and 1 exclusive, 0.99 is YCSB's default.
+     */
+    static KeyDistribution zipfian(int size, double skew) {
+        checkSize(size);
+        return new Zipfian(size, skew);
+    }
+
+    /**
+     * 0, 1, 2 ... size - 1 and round again, ignoring the random source
+     */
+    static KeyDistribution sequential(int size) {
+        checkSize(size);
+        return new KeyDistribution() {
+            private int next;
+
+            @Override
+            public int next(SplittableRandom random) {
+                int key = next;
+                next = next + 1 == size ? 0 : next + 1;
+                return key;
+            }
+        };
+    }
+
+    /**
+     * The first hotKeys fraction of the keys take hotOps of the operations, uniformly within the hot and the cold
+     * keys.  YCSB's default is 0.2 of the keys taking 0.8 of the operations.
+     */
+    static KeyDistribution hotspot(int size, double hotKeys, double hotOps) {
+        checkSize(size);
+
+        if (!(hotKeys > 0 && hotKeys <= 1) || !(hotOps >= 0 && hotOps <= 1))
+            throw new IllegalArgumentException("Hot fractions must be in (0, 1] and [0, 1]: " + hotKeys + ", " + hotOps);
+
+        int hot = Math.max(1, (int) (size * hotKeys));
+        int cold = size - hot;
+
+        return random -> cold == 0 || random.nextDouble() < hotOps ? random.nextInt(hot) : hot + random.nextInt(cold);
+    }
+
+    private static void checkSize(int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("Need at least one key, got " + size);
+    }
+}
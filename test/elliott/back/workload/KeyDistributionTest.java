@@ -0,0 +1,143 @@
+package elliott.back.workload;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyDistributionTest {
+
+    private static final int SIZE = 1000;
+    private static final int DRAWS = 1000000;
+
+    private static int[] counts(KeyDistribution distribution, int size) {
+        SplittableRandom random = new SplittableRandom(42);
+        int[] counts = new int[size];
+
+        for (int i = 0; i < DRAWS; i++)
+            counts[distribution.next(random)]++;
+
+        return counts;
+    }
+
+    @Test
+    @DisplayName("uniform hits every key about as often")
+    public void testUniform() {
+        int[] counts = counts(KeyDistribution.uniform(SIZE), SIZE);
+        int expected = DRAWS / SIZE;
+
+        for (int count : counts)
+            assertTrue(Math.abs(count - expected) < expected / 5, "" + count);
+    }
+
+    @Test
+    @DisplayName("zipfian's most popular rank is the most drawn and a few keys take most draws")
+    public void testZipfian() {
+        Zipfian zipfian = (Zipfian) KeyDistribution.zipfian(SIZE, 0.99);
+        int[] counts = counts(zipfian, SIZE);
+
+        int first = zipfian.indexOf(0);
+        for (int idx = 0; idx < SIZE; idx++)
+            assertTrue(counts[idx] <= counts[first]);
+
+        // rank r should come up in proportion to 1 / (r + 1)^0.99, so rank 0 about twice as often as rank 1
+        double ratio = counts[first] / (double) counts[zipfian.indexOf(1)];
+        assertTrue(ratio > 1.8 && ratio < 2.2, "" + ratio);
+
+        int[] sorted = counts.clone();
+        Arrays.sort(sorted);
+        long top = 0;
+        for (int i = SIZE - SIZE / 10; i < SIZE; i++)
+            top += sorted[i];
+
+        assertTrue(top > DRAWS / 2, "top 10% took " + top);
+
+        // scattered over the indexes, but still one rank to one index
+        assertNotEquals(1, zipfian.indexOf(1));
+
+        HashSet<Integer> indexes = new HashSet<>();
+        for (int rank = 0; rank < SIZE; rank++)
+            indexes.add(zipfian.indexOf(rank));
+
+        assertEquals(SIZE, indexes.size());
+    }
+
+    @Test
+    @DisplayName("sequential walks the keys in order and wraps")
+    public void testSequential() {
+        KeyDistribution sequential = KeyDistribution.sequential(3);
+        SplittableRandom random = new SplittableRandom(1);
+
+        int[] drawn = new int[7];
+        for (int i = 0; i < drawn.length; i++)
+            drawn[i] = sequential.next(random);
+
+        assertArrayEquals(new int[]{0, 1, 2, 0, 1, 2, 0}, drawn);
+    }
+
+    @Test
+    @DisplayName("hotspot sends its share to the hot keys and the rest to the cold ones")
+    public void testHotspot() {
+        int[] counts = counts(KeyDistribution.hotspot(SIZE, 0.2, 0.8), SIZE);
+
+        long hot = 0;
+        for (int idx = 0; idx < SIZE / 5; idx++)
+            hot += counts[idx];
+
+        double share = hot / (double) DRAWS;
+        assertTrue(Math.abs(share - 0.8) < 0.01, "" + share);
+
+        for (int count : counts)
+            assertTrue(count > 0);
+
+        int[] allHot = counts(KeyDistribution.hotspot(10, 1.0, 0.5), 10);
+        assertEquals(10, Arrays.stream(allHot).filter(count -> count > 0).count());
+    }
+
+    @Test
+    @DisplayName("bad sizes, skews and fractions are rejected")
+    public void testArguments() {
+        assertThrows(IllegalArgumentException.class, () -> KeyDistribution.uniform(0));
+        assertThrows(IllegalArgumentException.class, () -> KeyDistribution.sequential(-1));
+        assertThrows(IllegalArgumentException.class, () -> KeyDistribution.zipfian(10, 0));
+        assertThrows(IllegalArgumentException.class, () -> KeyDistribution.zipfian(10, 1));
+        assertThrows(IllegalArgumentException.class, () -> KeyDistribution.hotspot(10, 0, 0.5));
+        assertThrows(IllegalArgumentException.class, () -> KeyDistribution.hotspot(10, 0.5, 1.5));
+    }
+
+    @Test
+    @DisplayName("every pattern stays in range and repeats from a seed")
+    public void testPatterns() {
+        for (KeyPattern pattern : KeyPattern.values()) {
+            String[] keys = pattern.keys(100);
+            assertEquals(100, new HashSet<>(Arrays.asList(keys)).size(), pattern.name());
+
+            int[] sample = pattern.sample(100, 10000, 7);
+            for (int idx : sample)
+                assertTrue(idx >= 0 && idx < 100, pattern.name());
+
+            assertArrayEquals(sample, pattern.sample(100, 10000, 7), pattern.name());
+        }
+
+        for (int size : new int[]{1, 2, 3})
+            for (KeyPattern pattern : KeyPattern.values())
+                for (int idx : pattern.sample(size, 1000, 0))
+                    assertTrue(idx >= 0 && idx < size, pattern.name() + " " + size);
+    }
+
+    @Test
+    @DisplayName("colliding keys are distinct and share one hash code")
+    public void testColliding() {
+        for (int size : new int[]{1, 2, 5, 1024, 1025}) {
+            String[] keys = Keys.colliding(size);
+            assertEquals(size, new HashSet<>(Arrays.asList(keys)).size());
+
+            for (String key : keys)
+                assertEquals(keys[0].hashCode(), key.hashCode(), key);
+        }
+    }
+}
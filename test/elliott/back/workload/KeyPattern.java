@@ -0,0 +1,85 @@
+package elliott.back.workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * The access patterns benchmarks take as a @Param: a key set and a distribution over it.  UNIFORM over ""+i keys
+ * is what the benchmarks always did; the others are what production traffic looks like a lot more often.
+ */
+public enum KeyPattern {
+
+    UNIFORM {
+        @Override
+        public KeyDistribution distribution(int size) {
+            return KeyDistribution.uniform(size);
+        }
+    },
+
+    /**
+     * A few keys take most of the traffic, YCSB's 0.99 skew
+     */
+    ZIPFIAN {
+        @Override
+        public KeyDistribution distribution(int size) {
+            return KeyDistribution.zipfian(size, 0.99);
+        }
+    },
+
+    /**
+     * Keys in order, like a scan or a batch job walking ids
+     */
+    SEQUENTIAL {
+        @Override
+        public KeyDistribution distribution(int size) {
+            return KeyDistribution.sequential(size);
+        }
+    },
+
+    /**
+     * A fifth of the keys take four fifths of the traffic
+     */
+    HOTSPOT {
+        @Override
+        public KeyDistribution distribution(int size) {
+            return KeyDistribution.hotspot(size, 0.2, 0.8);
+        }
+    },
+
+    /**
+     * Uniform over keys that all share one hash code, see Keys.colliding()
+     */
+    ADVERSARIAL {
+        @Override
+        public String[] keys(int size) {
+            return Keys.colliding(size);
+        }
+
+        @Override
+        public KeyDistribution distribution(int size) {
+            return KeyDistribution.uniform(size);
+        }
+    };
+
+    public String[] keys(int size) {
+        return Keys.strings(size);
+    }
+
+    /**
+     * A fresh distribution over key indexes, one per thread
+     */
+    public abstract KeyDistribution distribution(int size);
+
+    /**
+     * count indexes into a key set of the given size, drawn from a fresh distribution
+     */
+    public int[] sample(int size, int count, long seed) {
+        KeyDistribution distribution = distribution(size);
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] indexes = new int[count];
+
+        for (int i = 0; i < count; i++)
+            indexes[i] = distribution.next(random);
+
+        return indexes;
+    }
+}
@@ -0,0 +1,44 @@
+package elliott.back.workload;
+
+/**
+ * Key sets for the distributions to pick from
+ */
+public final class Keys {
+
+    private Keys() {
+    }
+
+    /**
+     * ""+i, the keys BasicStringMapTester uses
+     */
+    public static String[] strings(int size) {
+        String[] keys = new String[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = "" + i;
+
+        return keys;
+    }
+
+    /**
+     * Distinct Strings that all have the same hashCode(), the way a hash flooding attack would send them.
+     *
+     * "Aa" and "BB" hash the same, so does any string made of the two in blocks, so key i is its own bits
+     * spelled out with them.  No seed or spreading helps against these, only a map that copes with a whole
+     * bucket of equal hashes, so keep the sizes small for the maps that just probe further.
+     */
+    public static String[] colliding(int size) {
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(1, size - 1)));
+        String[] keys = new String[size];
+        StringBuilder key = new StringBuilder(2 * bits);
+
+        for (int i = 0; i < size; i++) {
+            key.setLength(0);
+            for (int bit = bits - 1; bit >= 0; bit--)
+                key.append((i >>> bit & 1) == 0 ? "Aa" : "BB");
+
+            keys[i] = key.toString();
+        }
+
+        return keys;
+    }
+}
@@ -0,0 +1,245 @@
+package elliott.back.workload;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * A recorded run of gets, puts and removes to replay against any map, so every implementation sees exactly the
+ * same operations in the same order.  Traces come from a Builder, from generate() over a KeyDistribution, or
+ * from a file written by write().
+ *
+ * The file keeps each distinct key once and each operation as a single int, the op in the top two bits and the
+ * key's index in the rest:
+ *
+ *   header: magic, version, key count, op count
+ *   keys:   UTF-8 byte length, then the bytes, for each key
+ *   ops:    op << 30 | key index, for each op
+ *
+ * so a million operations over a hundred thousand keys is about 5MB however long the keys are.  A file cut short
+ * fails with EOFException, anything else wrong with it with StreamCorruptedException.
+ *
+ * Puts store the key as its own value, which keeps the trace to keys alone.
+ */
+public final class Trace {
+
+    public enum Op {
+        GET, PUT, REMOVE
+    }
+
+    static final int MAGIC = 0x54524345;
+    static final int VERSION = 1;
+
+    private static final Op[] OPS = Op.values();
+    private static final int OP_SHIFT = 30;
+    private static final int INDEX_MASK = (1 << OP_SHIFT) - 1;
+
+    private final String[] keys;
+    private final int[] ops;
+
+    private Trace(String[] keys, int[] ops) {
+        this.keys = keys;
+        this.ops = ops;
+    }
+
+    /**
+     * length operations on keys drawn from the distribution, mixed in proportion to the three weights, e.g.
+     * 95, 4, 1 for a read mostly load
+     */
+    public static Trace generate(String[] keys, KeyDistribution distribution, int gets, int puts, int removes, int length, long seed) {
+        if (gets < 0 || puts < 0 || removes < 0 || gets + puts + removes == 0)
+            throw new IllegalArgumentException("Op weights must be non-negative and not all 0: " + gets + ", " + puts + ", " + removes);
+        if (keys.length > INDEX_MASK + 1)
+            throw new IllegalArgumentException("Too many keys for a trace: " + keys.length);
+
+        SplittableRandom random = new SplittableRandom(seed);
+        int total = gets + puts + removes;
+        int[] ops = new int[length];
+
+        for (int i = 0; i < length; i++) {
+            int roll = random.nextInt(total);
+            Op op = roll < gets ? Op.GET : roll < gets + puts ? Op.PUT : Op.REMOVE;
+            ops[i] = pack(op, distribution.next(random));
+        }
+
+        return new Trace(keys.clone(), ops);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static int pack(Op op, int keyIndex) {
+        return op.ordinal() << OP_SHIFT | keyIndex;
+    }
+
+    public int length() {
+        return ops.length;
+    }
+
+    /**
+     * The distinct keys the trace uses
+     */
+    public String[] keys() {
+        return keys.clone();
+    }
+
+    public Op op(int i) {
+        return OPS[ops[i] >>> OP_SHIFT];
+    }
+
+    public String key(int i) {
+        return keys[ops[i] & INDEX_MASK];
+    }
+
+    /**
+     * Run the i'th operation against the map and return what it returned
+     */
+    public String apply(int i, Map<String, String> map) {
+        String key = keys[ops[i] & INDEX_MASK];
+
+        switch (ops[i] >>> OP_SHIFT) {
+            case 0:
+                return map.get(key);
+            case 1:
+                return map.put(key, key);
+            default:
+                return map.remove(key);
+        }
+    }
+
+    /**
+     * Run the whole trace against the map, returning how many gets found their key
+     */
+    public long replay(Map<String, String> map) {
+        long hits = 0;
+
+        for (int i = 0; i < ops.length; i++)
+            if (apply(i, map) != null && ops[i] >>> OP_SHIFT == 0)
+                hits++;
+
+        return hits;
+    }
+
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.length);
+            out.writeInt(ops.length);
+
+            for (String key : keys) {
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            for (int op : ops)
+                out.writeInt(op);
+        }
+    }
+
+    public static Trace read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC)
+                throw new StreamCorruptedException(path + " isn't a trace");
+
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new StreamCorruptedException("Can't read trace version " + version);
+
+            int keyCount = in.readInt();
+            int opCount = in.readInt();
+            if (keyCount < 0 || keyCount > INDEX_MASK + 1 || opCount < 0)
+                throw new StreamCorruptedException("Bad trace header: " + keyCount + " keys, " + opCount + " ops");
+
+            String[] keys = new String[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                int length = in.readInt();
+                if (length < 0)
+                    throw new StreamCorruptedException("Bad length for key " + i + ": " + length);
+
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                keys[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            int[] ops = new int[opCount];
+            for (int i = 0; i < opCount; i++) {
+                int op = in.readInt();
+                if (op >>> OP_SHIFT >= OPS.length || (op & INDEX_MASK) >= keyCount)
+                    throw new StreamCorruptedException("Bad op " + i + ": " + Integer.toHexString(op));
+
+                ops[i] = op;
+            }
+
+            if (in.read() != -1)
+                throw new StreamCorruptedException("Bytes after the last of " + opCount + " ops");
+
+            return new Trace(keys, ops);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Trace{" + keys.length + " keys, " + ops.length + " ops}";
+    }
+
+    /**
+     * Records operations one at a time, numbering each distinct key the first time it's seen
+     */
+    public static final class Builder {
+
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> keys = new ArrayList<>();
+        private int[] ops = new int[16];
+        private int length;
+
+        private Builder() {
+        }
+
+        public Builder add(Op op, String key) {
+            if (op == null || key == null)
+                throw new IllegalArgumentException("Traces can't hold null ops or keys");
+
+            Integer index = indexes.get(key);
+            if (index == null) {
+                if (keys.size() > INDEX_MASK)
+                    throw new IllegalStateException("Too many keys for a trace");
+
+                index = keys.size();
+                indexes.put(key, index);
+                keys.add(key);
+            }
+
+            if (length == ops.length)
+                ops = Arrays.copyOf(ops, length * 2);
+
+            ops[length++] = pack(op, index);
+            return this;
+        }
+
+        public Builder get(String key) {
+            return add(Op.GET, key);
+        }
+
+        public Builder put(String key) {
+            return add(Op.PUT, key);
+        }
+
+        public Builder remove(String key) {
+            return add(Op.REMOVE, key);
+        }
+
+        public Trace build() {
+            return new Trace(keys.toArray(new String[0]), Arrays.copyOf(ops, length));
+        }
+    }
+}
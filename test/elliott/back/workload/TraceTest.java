@@ -0,0 +1,139 @@
+package elliott.back.workload;
+
+import elliott.back.maps.SimpleCircularFlatMap;
+import elliott.back.maps.SimpleCircularListBucketFlatMap;
+import elliott.back.maps.SimpleFlatMap;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final List<Supplier<Map<String, String>>> MAPS = List.of(
+            SimpleFlatMap::new, SimpleCircularFlatMap::new, SimpleCircularListBucketFlatMap::new);
+
+    private static Trace zipfian() {
+        return Trace.generate(KeyPattern.ZIPFIAN.keys(1000), KeyPattern.ZIPFIAN.distribution(1000), 50, 30, 20, 100000, 42);
+    }
+
+    @Test
+    @DisplayName("a builder keeps the ops in order and each key once")
+    public void testBuilder() {
+        Trace trace = Trace.builder().put("a").get("a").put("caf\u00e9").remove("a").get("a").build();
+
+        assertEquals(5, trace.length());
+        assertArrayEquals(new String[]{"a", "caf\u00e9"}, trace.keys());
+        assertEquals(Trace.Op.PUT, trace.op(2));
+        assertEquals("caf\u00e9", trace.key(2));
+        assertEquals(Trace.Op.REMOVE, trace.op(3));
+
+        Map<String, String> map = new HashMap<>();
+        assertEquals(1, trace.replay(map));
+        assertEquals(Map.of("caf\u00e9", "caf\u00e9"), map);
+
+        assertThrows(IllegalArgumentException.class, () -> Trace.builder().get(null));
+    }
+
+    @Test
+    @DisplayName("generated traces follow the weights and repeat from a seed")
+    public void testGenerate() {
+        Trace trace = zipfian();
+        int[] ops = new int[3];
+        for (int i = 0; i < trace.length(); i++)
+            ops[trace.op(i).ordinal()]++;
+
+        assertEquals(50000, ops[0], 1000);
+        assertEquals(30000, ops[1], 1000);
+        assertEquals(20000, ops[2], 1000);
+
+        Trace again = zipfian();
+        for (int i = 0; i < trace.length(); i++) {
+            assertEquals(trace.op(i), again.op(i));
+            assertEquals(trace.key(i), again.key(i));
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> Trace.generate(new String[]{"a"}, KeyDistribution.uniform(1), 0, 0, 0, 10, 1));
+    }
+
+    @Test
+    @DisplayName("replaying against every map ends where a HashMap does")
+    public void testReplay() {
+        Trace trace = zipfian();
+        Map<String, String> expected = new HashMap<>();
+        long hits = trace.replay(expected);
+
+        for (Supplier<Map<String, String>> supplier : MAPS) {
+            Map<String, String> map = supplier.get();
+            assertEquals(hits, trace.replay(map));
+            assertEquals(expected, map);
+        }
+    }
+
+    @Test
+    @DisplayName("a written trace reads back the same")
+    public void testRoundTrip() throws IOException {
+        Trace trace = zipfian();
+        Path path = tempDir.resolve("trace.bin");
+        trace.write(path);
+
+        // a header, the key table, then four bytes an op
+        long keyBytes = Arrays.stream(trace.keys()).mapToLong(key -> 4 + key.length()).sum();
+        assertEquals(16 + keyBytes + 4L * trace.length(), Files.size(path));
+
+        Trace read = Trace.read(path);
+        assertEquals(trace.length(), read.length());
+        assertArrayEquals(trace.keys(), read.keys());
+        for (int i = 0; i < trace.length(); i++) {
+            assertEquals(trace.op(i), read.op(i));
+            assertEquals(trace.key(i), read.key(i));
+        }
+
+        Trace empty = Trace.builder().build();
+        empty.write(path);
+        assertEquals(0, Trace.read(path).length());
+    }
+
+    @Test
+    @DisplayName("short files are EOFException, bad ones StreamCorruptedException")
+    public void testBadFiles() throws IOException {
+        Path path = tempDir.resolve("trace.bin");
+        Trace.builder().put("a").get("b").remove("a").build().write(path);
+        byte[] original = Files.readAllBytes(path);
+
+        for (int length = 0; length < original.length; length++) {
+            Files.write(path, Arrays.copyOf(original, length));
+            assertThrows(EOFException.class, () -> Trace.read(path), "" + length);
+        }
+
+        byte[] badMagic = original.clone();
+        badMagic[0] ^= 1;
+        Files.write(path, badMagic);
+        assertThrows(StreamCorruptedException.class, () -> Trace.read(path));
+
+        // the last op pointing past the two keys
+        byte[] badIndex = original.clone();
+        badIndex[original.length - 1] = 7;
+        Files.write(path, badIndex);
+        assertThrows(StreamCorruptedException.class, () -> Trace.read(path));
+
+        Files.write(path, Arrays.copyOf(original, original.length + 1));
+        assertThrows(StreamCorruptedException.class, () -> Trace.read(path));
+    }
+}
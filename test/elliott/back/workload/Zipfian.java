@@ -0,0 +1,77 @@
+package elliott.back.workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Gray et al.'s "Quickly Generating Billion-Record Synthetic Databases" Zipfian generator, as YCSB uses it: one
+ * pass over the keys up front to sum the zeta constant, then every draw is a pow() and no search.
+ *
+ * A rank is turned into a key index by multiplying with a prime bigger than any int, mod size.  The prime can't
+ * share a factor with size so that's a permutation, and it spreads the popular ranks all over the keys.
+ */
+final class Zipfian implements KeyDistribution {
+
+    private static final long SCATTER = 2654435761L;
+
+    private final int size;
+    private final double skew;
+    private final double zetan;
+    private final double alpha;
+    private final double eta;
+    private final double secondThreshold;
+    private final long scatter;
+
+    Zipfian(int size, double skew) {
+        if (!(skew > 0 && skew < 1))
+            throw new IllegalArgumentException("Zipfian skew must be between 0 and 1 exclusive: " + skew);
+
+        this.size = size;
+        this.skew = skew;
+        this.zetan = zeta(size, skew);
+        this.alpha = 1 / (1 - skew);
+        this.eta = (1 - Math.pow(2.0 / size, 1 - skew)) / (1 - zeta(2, skew) / this.zetan);
+        this.secondThreshold = 1 + Math.pow(0.5, skew);
+        this.scatter = SCATTER % size;
+    }
+
+    private static double zeta(int size, double skew) {
+        double sum = 0;
+        for (int rank = 1; rank <= size; rank++)
+            sum += 1 / Math.pow(rank, skew);
+
+        return sum;
+    }
+
+    /**
+     * The rank before scattering, 0 most popular
+     */
+    int nextRank(SplittableRandom random) {
+        double u = random.nextDouble();
+        double uz = u * this.zetan;
+
+        if (uz < 1)
+            return 0;
+
+        if (uz < this.secondThreshold)
+            return Math.min(1, this.size - 1);
+
+        return Math.min(this.size - 1, (int) (this.size * Math.pow(this.eta * u - this.eta + 1, this.alpha)));
+    }
+
+    /**
+     * Where a rank ends up among the key indexes
+     */
+    int indexOf(int rank) {
+        return (int) (rank * this.scatter % this.size);
+    }
+
+    @Override
+    public int next(SplittableRandom random) {
+        return indexOf(nextRank(random));
+    }
+
+    @Override
+    public String toString() {
+        return "Zipfian{size=" + size + ", skew=" + skew + '}';
+    }
+}